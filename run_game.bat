@@ -11,7 +11,7 @@ REM -------------------------
 REM Compile all source files
 REM -------------------------
 echo Compiling all source files...
-javac --module-path %JAVAFX_LIB% --add-modules javafx.controls,javafx.fxml,javafx.graphics -d out src\core\*.java src\ui\*.java
+javac --module-path %JAVAFX_LIB% --add-modules javafx.controls,javafx.fxml,javafx.graphics -d out src\core\*.java src\ui\*.java src\tools\*.java
 
 if errorlevel 1 (
     echo Compilation failed.
@@ -0,0 +1,473 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BatchAnalyzer analyzes many positions at once, for offline studies and for the server's game
+ * analysis requests. Positions are searched on a fixed pool of threads with the computer player's
+ * engine (see SearchEngine.create), and the engines of every thread share one transposition table,
+ * so positions that lead into each other, such as the plies of one game, reuse each other's results.
+ *
+ * Results are handed to a listener on the caller's thread in the order the positions were given.
+ * Only a few positions per thread are in flight at once, so an input of any length is analyzed in
+ * constant memory, and a slow listener holds the searches back instead of letting results pile up.
+ *
+ * On boards that fit in 64 bits every column is scored (see Connect4Search.scoreMoves); on wider
+ * boards only the best move is searched.
+ */
+public class BatchAnalyzer implements Closeable {
+    private static final int WINDOW_PER_THREAD = 4;
+
+    /**
+     * Receives the results of an analysis, in the order of the positions.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread running analyze with the result of the next position.
+         *
+         * @param result The result.
+         * @throws IOException If the result cannot be passed on; the analysis then stops.
+         */
+        void onResult(Result result) throws IOException;
+    }
+
+    private final ExecutorService pool;
+    private final TranspositionTable table;
+    private final int maxDepth;
+    private final long millisPerPosition;
+    private final int window;
+    private final ThreadLocal<Map<Connect4Variant, SearchEngine>> engines = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Creates an analyzer and starts its threads.
+     *
+     * @param threads           The number of threads searching positions.
+     * @param table             The transposition table shared by all threads, such as the computer
+     *                          player's.
+     * @param maxDepth          The deepest search, in plies.
+     * @param millisPerPosition How long one position is searched at most, or 0 for no limit.
+     */
+    public BatchAnalyzer(int threads, TranspositionTable table, int maxDepth, long millisPerPosition) {
+        int count = Math.max(1, threads);
+        AtomicInteger next = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(count, task -> {
+            Thread thread = new Thread(task, "analysis-" + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.table = table;
+        this.maxDepth = Math.max(1, maxDepth);
+        this.millisPerPosition = millisPerPosition;
+        this.window = count * WINDOW_PER_THREAD;
+    }
+
+    /**
+     * Creates an analyzer configured from the connect4.analysis.* system properties.
+     *
+     * @param table The transposition table shared by all threads.
+     * @return The analyzer.
+     */
+    public static BatchAnalyzer fromSystemProperties(TranspositionTable table) {
+        return new BatchAnalyzer(
+                Integer.getInteger("connect4.analysis.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                table, Integer.getInteger("connect4.analysis.depth", 12), Long.getLong("connect4.analysis.millis", 200));
+    }
+
+    /**
+     * Analyzes positions and hands each result to the listener as soon as it and every result
+     * before it are ready. Several threads may analyze at once; they share the pool.
+     *
+     * @param positions The positions; read lazily, a few ahead of the results.
+     * @param listener  Receives the results in order.
+     * @return How many positions were analyzed and how fast.
+     * @throws IOException          If the listener fails; positions still being searched are dropped.
+     * @throws InterruptedException If interrupted while waiting for a result.
+     */
+    public Summary analyze(Iterator<PositionSnapshot> positions, Listener listener)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ArrayDeque<Future<Result>> inFlight = new ArrayDeque<>();
+        long index = 0;
+        long delivered = 0;
+        long nodes = 0;
+        try {
+            while (true) {
+                while (inFlight.size() < window && positions.hasNext()) {
+                    PositionSnapshot position = positions.next();
+                    long current = index++;
+                    inFlight.add(pool.submit(() -> search(current, position)));
+                }
+                Future<Result> next = inFlight.poll();
+                if (next == null) {
+                    break;
+                }
+                Result result;
+                try {
+                    result = next.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException("Analysis failed", e.getCause());
+                }
+                nodes += result.nodes;
+                delivered++;
+                listener.onResult(result);
+            }
+        } finally {
+            // Searches already running end within their time limit
+            for (Future<Result> future : inFlight) {
+                future.cancel(false);
+            }
+        }
+        return new Summary(delivered, nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * Searches one position on a pool thread.
+     */
+    private Result search(long index, PositionSnapshot position) {
+        char winner = winner(position);
+        if (winner != ' ') {
+            return new Result(index, position, winner, -1, null, 0, 0);
+        }
+        Connect4Variant variant = position.getVariant();
+        // A time of 0 leaves the search limited by depth alone
+        long budget = millisPerPosition > 0 ? millisPerPosition : TimeUnit.HOURS.toMillis(1);
+        long deadline = System.nanoTime() + budget * 1_000_000L;
+        SearchEngine engine = engines.get().computeIfAbsent(variant, v -> SearchEngine.create(v, table));
+        if (!(engine instanceof Connect4Search)) {
+            int best = engine.bestMove(position.toBoard(), position.getToMove(), maxDepth, deadline);
+            return new Result(index, position, ' ', best, null, engine.getDepthReached(), engine.getNodes());
+        }
+
+        Connect4Search search = (Connect4Search) engine;
+        Connect4Search.Position root = position.toPosition();
+        int cells = variant.getRows() * variant.getColumns();
+        int[] scores = new int[variant.getColumns()];
+        int[] iteration = new int[scores.length];
+        int best = -1;
+        int depth = 0;
+        long nodes = 0;
+        for (int d = 1; d <= Math.min(maxDepth, cells - position.getMoveCount()); d++) {
+            boolean complete = search.scoreMoves(root, d, deadline, iteration);
+            nodes += search.getNodes();
+            if (!complete) {
+                break; // Keep the deepest complete iteration
+            }
+            System.arraycopy(iteration, 0, scores, 0, scores.length);
+            depth = d;
+            best = -1;
+            for (int col = 0; col < scores.length; col++) {
+                if (scores[col] != Integer.MIN_VALUE && (best < 0 || scores[col] > scores[best])) {
+                    best = col;
+                }
+            }
+            if (Math.abs(scores[best]) > SearchEngine.WIN_SCORE - cells) {
+                break; // The best move is a proven win or every move loses
+            }
+        }
+        return new Result(index, position, ' ', best, depth > 0 ? scores : null, depth, nodes);
+    }
+
+    /**
+     * Finds out whether a position ends the game.
+     *
+     * @return The player who completed a line, 'D' for a full board without one, or ' ' if the game
+     * goes on.
+     */
+    private static char winner(PositionSnapshot position) {
+        if (position.getMoveCount() == 0) {
+            return ' ';
+        }
+        Connect4Variant variant = position.getVariant();
+        char last = position.getToMove() == 'X' ? 'O' : 'X'; // Only the player who just moved can have won
+        if (variant.fitsInLong()) {
+            long stones = last == 'X' ? position.getXStones() : position.getXStones() ^ position.getOccupied();
+            if (BitboardGeometry.of(variant).alignment(stones)) {
+                return last;
+            }
+        } else {
+            char[][] board = position.toBoard();
+            for (int row = 0; row < board.length; row++) {
+                for (int col = 0; col < board[row].length; col++) {
+                    if (board[row][col] == last
+                            && Connect4Logic.completesLine(board, row, col, variant.getConnectLength())) {
+                        return last;
+                    }
+                }
+            }
+        }
+        return position.isFull() ? 'D' : ' ';
+    }
+
+    /**
+     * Replays a game given as a move string and returns its final position.
+     *
+     * @param variant The board variant.
+     * @param moves   The columns played (1-based), as digits such as "4453", or separated by commas
+     *                such as "10,4,11" on boards with more than nine columns.
+     * @return The position after the last move.
+     * @throws IllegalArgumentException If a move is not a playable column or comes after the game ended.
+     */
+    public static PositionSnapshot parseMoves(Connect4Variant variant, String moves) {
+        return replay(variant, moves, null);
+    }
+
+    /**
+     * Replays a game given as a move string and returns every position of it, for analyzing the
+     * whole game.
+     *
+     * @param variant The board variant.
+     * @param moves   The columns played, as for parseMoves.
+     * @return The positions from the empty board to the position after the last move.
+     * @throws IllegalArgumentException If a move is not a playable column or comes after the game ended.
+     */
+    public static List<PositionSnapshot> gamePositions(Connect4Variant variant, String moves) {
+        List<PositionSnapshot> positions = new ArrayList<>();
+        replay(variant, moves, positions);
+        return positions;
+    }
+
+    private static PositionSnapshot replay(Connect4Variant variant, String moves, List<PositionSnapshot> positions) {
+        Connect4Logic game = new Connect4Logic(variant);
+        String text = moves.trim();
+        String[] tokens = text.isEmpty() ? new String[0] : text.contains(",") ? text.split("\\s*,\\s*")
+                : text.replaceAll("\\s", "").split("");
+        boolean finished = false;
+        if (positions != null) {
+            positions.add(game.getSnapshot());
+        }
+        for (int ply = 1; ply <= tokens.length; ply++) {
+            int column;
+            try {
+                column = Integer.parseInt(tokens[ply - 1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid move " + ply + ": " + tokens[ply - 1]);
+            }
+            if (finished || !game.makeMove(column)) {
+                throw new IllegalArgumentException("Illegal move " + ply + ": " + column);
+            }
+            if (positions != null) {
+                positions.add(game.getSnapshot());
+            }
+            if (game.checkLastMoveWin() || game.isBoardFull()) {
+                finished = true;
+            } else {
+                game.switchPlayer();
+            }
+        }
+        return game.getSnapshot();
+    }
+
+    /**
+     * Describes a score for the player to move: "W3" for a win with the player's third move from
+     * now, "L2" for a loss on the opponent's second move, otherwise the heuristic score.
+     *
+     * @param score  The score.
+     * @param pieces The number of pieces on the board.
+     * @return The label.
+     */
+    public static String label(int score, int pieces) {
+        int cells = Math.abs(score) > SearchEngine.WIN_SCORE / 2 ? SearchEngine.WIN_SCORE - Math.abs(score) : -1;
+        if (cells < 0) {
+            return score > 0 ? "+" + score : String.valueOf(score);
+        }
+        int plies = cells - pieces; // Plies from now until the winning move
+        return (score > 0 ? "W" : "L") + (plies + 1) / 2;
+    }
+
+    /**
+     * Stops the threads. Analyses still running fail.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * The analysis of one position.
+     */
+    public static final class Result {
+        private final long index;
+        private final PositionSnapshot position;
+        private final char winner;
+        private final int bestColumn;
+        private final int[] scores;
+        private final int depth;
+        private final long nodes;
+
+        private Result(long index, PositionSnapshot position, char winner, int bestColumn, int[] scores, int depth,
+                       long nodes) {
+            this.index = index;
+            this.position = position;
+            this.winner = winner;
+            this.bestColumn = bestColumn;
+            this.scores = scores;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+
+        /**
+         * Returns the position's place in the input.
+         *
+         * @return The index, counting from 0.
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the position analyzed.
+         *
+         * @return The position.
+         */
+        public PositionSnapshot getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns how the game ended in this position.
+         *
+         * @return 'X' or 'O' for the winner, 'D' for a draw, or ' ' if the game goes on.
+         */
+        public char getWinner() {
+            return winner;
+        }
+
+        /**
+         * Returns the best move found.
+         *
+         * @return The column (1-based), or 0 if the game is over.
+         */
+        public int getBestColumn() {
+            return bestColumn + 1;
+        }
+
+        /**
+         * Returns the score of each column from the point of view of the player to move; see
+         * Connect4Search.scoreMoves.
+         *
+         * @return The scores (0-based columns, Integer.MIN_VALUE for columns that cannot be played),
+         * or null if the game is over or the board does not fit in 64 bits.
+         */
+        public int[] getScores() {
+            return scores == null ? null : scores.clone();
+        }
+
+        /**
+         * Returns the depth of the deepest completed search.
+         *
+         * @return The depth in plies.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns the number of nodes searched.
+         *
+         * @return The node count.
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * Formats the result as one line, for example "ply=4 best=4 depth=12 scores=-3,L2,+5,W4,+5,L2,-3"
+         * with a label per column (see label) and - for full columns, or "ply=21 result=X" once the
+         * game is over.
+         */
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder("ply=").append(position.getMoveCount());
+            if (winner != ' ') {
+                return line.append(" result=").append(winner == 'D' ? "draw" : String.valueOf(winner)).toString();
+            }
+            line.append(" best=").append(getBestColumn()).append(" depth=").append(depth);
+            if (scores != null) {
+                line.append(" scores=");
+                for (int col = 0; col < scores.length; col++) {
+                    if (col > 0) {
+                        line.append(',');
+                    }
+                    line.append(scores[col] == Integer.MIN_VALUE ? "-" : label(scores[col], position.getMoveCount()));
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * How much an analysis did and how fast.
+     */
+    public static final class Summary {
+        private final long positions;
+        private final long nodes;
+        private final long nanos;
+
+        private Summary(long positions, long nodes, long nanos) {
+            this.positions = positions;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the number of positions analyzed.
+         *
+         * @return The position count.
+         */
+        public long getPositions() {
+            return positions;
+        }
+
+        /**
+         * Returns the number of nodes searched over all positions.
+         *
+         * @return The node count.
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * Returns how long the analysis took.
+         *
+         * @return The time in seconds.
+         */
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        /**
+         * Returns the throughput of the analysis.
+         *
+         * @return Positions analyzed per second.
+         */
+        public double getPositionsPerSecond() {
+            return nanos == 0 ? 0 : positions / getSeconds();
+        }
+
+        /**
+         * Formats the summary, for example "42 positions in 1.25 s, 33.6 positions/s, 1.9M nodes/s".
+         */
+        @Override
+        public String toString() {
+            return String.format("%d positions in %.2f s, %.1f positions/s, %.1fM nodes/s", positions, getSeconds(),
+                    getPositionsPerSecond(), nanos == 0 ? 0 : nodes / getSeconds() / 1e6);
+        }
+    }
+}
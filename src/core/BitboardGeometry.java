@@ -0,0 +1,174 @@
+package core;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BitboardGeometry holds the masks and win windows for a variant whose board fits in a single long.
+ * Column c occupies bits c * (rows + 1) to c * (rows + 1) + rows - 1, bottom row first; the extra
+ * bit per column keeps shifted lines from wrapping into the next column.
+ */
+public final class BitboardGeometry {
+    private static final ConcurrentHashMap<Connect4Variant, BitboardGeometry> CACHE = new ConcurrentHashMap<>();
+
+    final Connect4Variant variant;
+    final int width;
+    final int height;
+    final int h1;
+    final int connect;
+    final long bottom;
+    final long boardMask;
+    final long centerColumn;
+    final long[] windows;
+    final int[] columnOrder;
+    // Shifts of the directions in which a line fits on the board, for connect lengths other than 4
+    private final int[] lineShifts;
+
+    private BitboardGeometry(Connect4Variant variant) {
+        if (!variant.fitsInLong()) {
+            throw new IllegalArgumentException("Board does not fit in 64 bits: " + variant);
+        }
+        this.variant = variant;
+        this.width = variant.getColumns();
+        this.height = variant.getRows();
+        this.h1 = height + 1;
+        this.connect = variant.getConnectLength();
+
+        long bottomRow = 0;
+        for (int col = 0; col < width; col++) {
+            bottomRow |= 1L << (col * h1);
+        }
+        this.bottom = bottomRow;
+        this.boardMask = bottomRow * ((1L << height) - 1);
+        this.centerColumn = columnMask(width / 2);
+        this.windows = createWindows();
+        this.columnOrder = createColumnOrder(width);
+        this.lineShifts = createLineShifts();
+    }
+
+    /**
+     * Returns the geometry for a variant.
+     *
+     * @param variant A variant that fits in 64 bits.
+     * @return The shared geometry instance.
+     * @throws IllegalArgumentException If the board does not fit in a long.
+     */
+    public static BitboardGeometry of(Connect4Variant variant) {
+        return CACHE.computeIfAbsent(variant, BitboardGeometry::new);
+    }
+
+    /**
+     * Returns the variant this geometry describes.
+     *
+     * @return The variant.
+     */
+    public Connect4Variant getVariant() {
+        return variant;
+    }
+
+    long topMask(int column) {
+        return (1L << (height - 1)) << (column * h1);
+    }
+
+    long bottomMask(int column) {
+        return 1L << (column * h1);
+    }
+
+    long columnMask(int column) {
+        return ((1L << height) - 1) << (column * h1);
+    }
+
+    /**
+     * Checks whether a set of stones contains a winning line.
+     */
+    boolean alignment(long pos) {
+        if (connect == 4) {
+            // Horizontal, diagonal, anti-diagonal and vertical, two shifts each
+            long m = pos & (pos >>> h1);
+            if ((m & (m >>> (2 * h1))) != 0) {
+                return true;
+            }
+            m = pos & (pos >>> (h1 + 1));
+            if ((m & (m >>> (2 * (h1 + 1)))) != 0) {
+                return true;
+            }
+            m = pos & (pos >>> (h1 - 1));
+            if ((m & (m >>> (2 * (h1 - 1)))) != 0) {
+                return true;
+            }
+            m = pos & (pos >>> 1);
+            return (m & (m >>> 2)) != 0;
+        }
+        for (int shift : lineShifts) {
+            if (line(pos, shift)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean line(long pos, int shift) {
+        long m = pos;
+        for (int i = 1; i < connect && m != 0; i++) {
+            m &= pos >>> (i * shift);
+        }
+        return m != 0;
+    }
+
+    /**
+     * Returns the shifts of the directions in which a line of the connect length fits on the board.
+     * In the others no line exists, and shifting by (connect - 1) * shift bits could wrap around the
+     * long and match stones that are not in line.
+     */
+    private int[] createLineShifts() {
+        int[] shifts = new int[4];
+        int count = 0;
+        boolean across = width >= connect;
+        boolean up = height >= connect;
+        int[] candidates = {h1, h1 + 1, h1 - 1, 1};
+        boolean[] fits = {across, across && up, across && up, up};
+        for (int i = 0; i < candidates.length; i++) {
+            if (fits[i] && (long) (connect - 1) * candidates[i] < 64) {
+                shifts[count++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(shifts, count);
+    }
+
+    private long[] createWindows() {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        long[] result = new long[width * height * directions.length];
+        int count = 0;
+        for (int col = 0; col < width; col++) {
+            for (int row = 0; row < height; row++) {
+                for (int[] dir : directions) {
+                    long window = 0;
+                    for (int i = 0; i < connect; i++) {
+                        int c = col + i * dir[0];
+                        int r = row + i * dir[1];
+                        if (c < 0 || c >= width || r < 0 || r >= height) {
+                            window = 0;
+                            break;
+                        }
+                        window |= 1L << (c * h1 + r);
+                    }
+                    if (window != 0) {
+                        result[count++] = window;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Orders columns from the center outwards, since central moves are usually the strongest.
+     */
+    static int[] createColumnOrder(int width) {
+        int[] order = new int[width];
+        for (int i = 0; i < width; i++) {
+            order[i] = width / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,336 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connect4AIService computes computer moves on a fixed pool of worker threads so that expensive
+ * searches do not compete with the session threads.
+ *
+ * Requests are queued per difficulty and the cheapest difficulty is served first, so easy moves do
+ * not wait behind hard searches. A request that has waited longer than its difficulty's time budget
+ * is served before cheaper ones, so a steady stream of easy moves cannot hold a hard one back for
+ * ever. When the backlog grows, workers reduce the search depth and time budget instead of letting
+ * the queue (and the players' wait) grow without bound, and once the queue is full new requests are
+ * answered at once with a random move, which costs the caller's thread nothing.
+ *
+ * With a trained n-tuple network, medium moves of the network's variant are chosen by the network
+ * (see NTupleSearch) instead of a search, which costs a fraction of the CPU.
+ */
+public class Connect4AIService {
+    private static final int SHALLOW_DEPTH = 2;
+
+    private final List<Queue<MoveRequest>> queues = new ArrayList<>();
+    private final Semaphore pending = new Semaphore(0);
+    private final AtomicInteger queued = new AtomicInteger();
+    private final TranspositionTable table;
+    private final NTupleNetwork network;
+    private final Thread[] workers;
+    private final int maxQueued;
+    private volatile boolean running = true;
+    // Held while a request is queued and while the service stops, so no request is queued after the
+    // queues were drained
+    private final Object admission = new Object();
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong degraded = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    /**
+     * Creates the service and starts its worker threads.
+     *
+     * @param threads   The number of worker threads.
+     * @param maxQueued The maximum number of requests waiting for a worker.
+     * @param table     The transposition table shared by all workers.
+     */
+    public Connect4AIService(int threads, int maxQueued, TranspositionTable table) {
+        this(threads, maxQueued, table, null);
+    }
+
+    /**
+     * Creates the service with a network for the medium difficulty and starts its worker threads.
+     *
+     * @param threads   The number of worker threads.
+     * @param maxQueued The maximum number of requests waiting for a worker.
+     * @param table     The transposition table shared by all workers.
+     * @param network   The n-tuple network for medium moves, or null to search at every difficulty.
+     */
+    public Connect4AIService(int threads, int maxQueued, TranspositionTable table, NTupleNetwork network) {
+        this.table = table;
+        this.network = network;
+        this.maxQueued = maxQueued;
+        for (int i = 0; i < Difficulty.values().length; i++) {
+            queues.add(new ConcurrentLinkedQueue<>());
+        }
+        workers = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::work, "ai-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * A move request waiting for a worker.
+     */
+    private static final class MoveRequest {
+        final Connect4Variant variant;
+        final PositionSnapshot position; // Immutable, so queued requests need no copy of the board
+        final char toMove;
+        final Difficulty difficulty;
+        final long submittedAt;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        MoveRequest(Connect4Logic game, Difficulty difficulty) {
+            this.variant = game.getVariant();
+            this.position = game.getSnapshot();
+            this.toMove = game.getCurrentPlayer();
+            this.difficulty = difficulty;
+            this.submittedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Submits a request for the computer's move in the current position of a game. The request holds
+     * the game's position snapshot, so the game may be used again as soon as this method returns.
+     *
+     * @param game       The game to move in; the computer plays the current player.
+     * @param difficulty The difficulty level to play at.
+     * @return A future completed with the chosen column (1-based).
+     */
+    public CompletableFuture<Integer> requestMove(Connect4Logic game, Difficulty difficulty) {
+        MoveRequest request = new MoveRequest(game, difficulty);
+        synchronized (admission) {
+            if (running && queued.incrementAndGet() <= maxQueued) {
+                queues.get(difficulty.ordinal()).add(request);
+                pending.release();
+                return request.result;
+            }
+            if (running) {
+                queued.decrementAndGet();
+            }
+        }
+        // Overloaded or stopped: answer right away rather than search on the caller's thread
+        shed.incrementAndGet();
+        answerRandomly(request);
+        return request.result;
+    }
+
+    /**
+     * Returns the number of requests waiting for a worker.
+     *
+     * @return The total queue depth.
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of requests of one difficulty waiting for a worker.
+     *
+     * @param difficulty The difficulty level.
+     * @return The queue depth for that level.
+     */
+    public int getQueueDepth(Difficulty difficulty) {
+        return queues.get(difficulty.ordinal()).size();
+    }
+
+    /**
+     * Returns the average time requests waited in the queue before a worker picked them up.
+     *
+     * @return The average wait in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / (count * 1_000_000.0);
+    }
+
+    /**
+     * Returns the longest time a request waited in the queue.
+     *
+     * @return The maximum wait in milliseconds.
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Returns the number of requests served by the workers.
+     *
+     * @return The completed request count.
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of requests searched with a reduced depth because of load.
+     *
+     * @return The degraded request count.
+     */
+    public long getDegradedCount() {
+        return degraded.get();
+    }
+
+    /**
+     * Returns the number of requests answered with a random move because the queue was full.
+     *
+     * @return The shed request count.
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Stops the workers. Requests still queued, and requests made afterwards, are answered with a
+     * random move.
+     */
+    public void shutdown() {
+        synchronized (admission) {
+            running = false;
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        MoveRequest request;
+        while ((request = poll()) != null) {
+            answerRandomly(request);
+        }
+    }
+
+    /**
+     * Completes a request with a random playable column, or with the failure if there is none.
+     */
+    private static void answerRandomly(MoveRequest request) {
+        try {
+            int columns = request.variant.getColumns();
+            int start = ThreadLocalRandom.current().nextInt(columns);
+            for (int i = 0; i < columns; i++) {
+                int column = (start + i) % columns;
+                if (request.position.isPlayable(column)) {
+                    request.result.complete(column + 1);
+                    return;
+                }
+            }
+            throw new IllegalStateException("No playable column");
+        } catch (RuntimeException e) {
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Worker loop: waits for a request, picks the most urgent one and searches it.
+     */
+    private void work() {
+        Map<Connect4Variant, SearchEngine> engines = new HashMap<>(); // One engine per variant, owned by this worker
+        NTupleSearch networkSearch = network != null ? new NTupleSearch(network) : null;
+        while (running) {
+            try {
+                if (!pending.tryAcquire(1, TimeUnit.SECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            MoveRequest request = poll();
+            if (request == null) {
+                continue;
+            }
+
+            long waited = System.nanoTime() - request.submittedAt;
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+            int depth = request.difficulty.getDepth();
+            long budget = request.difficulty.getTimeBudgetMillis();
+            int backlog = queued.get() / workers.length;
+            if (depth > SHALLOW_DEPTH && (backlog > 0 || waited > budget * 1_000_000L)) {
+                // Shrink the search as the backlog grows so latency stays bounded
+                degraded.incrementAndGet();
+                depth = Math.max(SHALLOW_DEPTH, depth >> Math.min(backlog + 1, 3));
+                budget = budget >> Math.min(backlog + 1, 3);
+            }
+
+            try {
+                SearchEngine search = usesNetwork(request) ? networkSearch
+                        : engines.computeIfAbsent(request.variant, v -> SearchEngine.create(v, table));
+                request.result.complete(chooseMove(search, request, depth, budget));
+            } catch (RuntimeException e) {
+                request.result.completeExceptionally(e);
+            }
+            completed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks whether a request is answered by the network rather than a search.
+     */
+    private boolean usesNetwork(MoveRequest request) {
+        return network != null && request.difficulty == Difficulty.MEDIUM && request.variant.equals(network.getVariant());
+    }
+
+    /**
+     * Takes the next request: the longest waiting one if it has waited longer than its difficulty's
+     * time budget, otherwise the first one of the cheapest difficulty.
+     */
+    private MoveRequest poll() {
+        long now = System.nanoTime();
+        Queue<MoveRequest> overdue = null;
+        long longestWait = 0;
+        for (Queue<MoveRequest> queue : queues) {
+            MoveRequest head = queue.peek();
+            if (head == null) {
+                continue;
+            }
+            long waited = now - head.submittedAt;
+            if (waited > head.difficulty.getTimeBudgetMillis() * 1_000_000L && waited > longestWait) {
+                overdue = queue;
+                longestWait = waited;
+            }
+        }
+        if (overdue != null) {
+            MoveRequest request = overdue.poll();
+            if (request != null) {
+                queued.decrementAndGet();
+                return request;
+            }
+        }
+        for (Queue<MoveRequest> queue : queues) {
+            MoveRequest request = queue.poll();
+            if (request != null) {
+                queued.decrementAndGet();
+                return request;
+            }
+        }
+        return null;
+    }
+
+    private static int chooseMove(SearchEngine search, MoveRequest request, int depth, long budgetMillis) {
+        // Boards that fit in a long go to the search as bitboards, without a char[][] in between
+        Connect4Search narrow = search instanceof Connect4Search ? (Connect4Search) search : null;
+        if (request.difficulty.getDepth() == 0) {
+            return (narrow != null ? narrow.randomMove(request.position.toPosition())
+                    : search.randomMove(request.position.toBoard())) + 1;
+        }
+        GameEvents.Search event = new GameEvents.Search();
+        event.begin();
+        long start = System.nanoTime();
+        long deadline = start + budgetMillis * 1_000_000L;
+        int column = (narrow != null ? narrow.bestMove(request.position.toPosition(), depth, deadline)
+                : search.bestMove(request.position.toBoard(), request.toMove, depth, deadline)) + 1;
+        GameEvents.commit(event, request.difficulty, depth, search, start - request.submittedAt);
+        return column;
+    }
+}
@@ -7,6 +7,9 @@ import java.util.Random;
  */
 public class Connect4ComputerPlayer {
     private Connect4Logic game;
+    private final Difficulty difficulty;
+    private final NTupleNetwork network;
+    private SearchEngine search;
 
     /**
      * Constructor initializes the computer player with the game logic.
@@ -14,23 +17,77 @@ public class Connect4ComputerPlayer {
      * @param game The Connect4Logic instance representing the game.
      */
     public Connect4ComputerPlayer(Connect4Logic game) {
+        this(game, Difficulty.EASY);
+    }
+
+    /**
+     * Constructor initializes the computer player with the game logic and a difficulty level.
+     *
+     * @param game       The Connect4Logic instance representing the game.
+     * @param difficulty The difficulty level of the computer player.
+     */
+    public Connect4ComputerPlayer(Connect4Logic game, Difficulty difficulty) {
+        this(game, difficulty, null);
+    }
+
+    /**
+     * Constructor initializes the computer player with the game logic, a difficulty level and a
+     * trained n-tuple network, which the medium level plays with instead of searching.
+     *
+     * @param game       The Connect4Logic instance representing the game.
+     * @param difficulty The difficulty level of the computer player.
+     * @param network    The network, or null to search at every level. It is only used for games of its variant.
+     */
+    public Connect4ComputerPlayer(Connect4Logic game, Difficulty difficulty, NTupleNetwork network) {
         this.game = game;
+        this.difficulty = difficulty;
+        this.network = network;
     }
 
     /**
      * Generates a move for the computer player.
      *
-     * @return The column number (1-7) where the computer will place its piece.
+     * @return The column number (1-based) where the computer will place its piece.
      */
     public int generateMove() {
+        if (difficulty.getDepth() > 0) {
+            return generateMove(difficulty.getDepth(), difficulty.getTimeBudgetMillis());
+        }
         Random random = new Random();
         int column;
         do {
-            column = random.nextInt(7) + 1; // Randomly select a column (1-7)
+            column = random.nextInt(game.getColumns()) + 1; // Randomly select a column
         } while (!isValidMove(column)); // Ensure the move is valid
         return column;
     }
 
+    /**
+     * Generates a move by searching the current position. At the medium level with a network, the
+     * network chooses the move and the depth and time are not needed.
+     *
+     * @param depth            The maximum search depth in plies.
+     * @param timeBudgetMillis The time the search may take in milliseconds.
+     * @return The column number (1-based) where the computer will place its piece.
+     */
+    public int generateMove(int depth, long timeBudgetMillis) {
+        if (search == null) {
+            search = difficulty == Difficulty.MEDIUM && network != null && network.getVariant().equals(game.getVariant())
+                    ? new NTupleSearch(network)
+                    : SearchEngine.create(game.getVariant(), new TranspositionTable(1 << 16));
+        }
+        long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        return search.bestMove(game.getBoard(), game.getCurrentPlayer(), depth, deadline) + 1;
+    }
+
+    /**
+     * Returns the difficulty level of the computer player.
+     *
+     * @return The difficulty level.
+     */
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
     /**
      * Checks if a move is valid (i.e., the column is not full).
      *
@@ -39,7 +96,7 @@ public class Connect4ComputerPlayer {
      */
     private boolean isValidMove(int column) {
         // Check if the column is valid without modifying the board
-        if (column < 1 || column > 7) {
+        if (column < 1 || column > game.getColumns()) {
             return false; // Invalid column
         }
 
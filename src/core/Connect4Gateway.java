@@ -0,0 +1,503 @@
+package core;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * core.Connect4Gateway accepts client connections in place of a Connect4Server and routes every game
+ * to one of several backend Connect4Server processes. Clients see the same prompt and messages as
+ * when connected to a server directly.
+ *
+ * Games are placed with a consistent hash ring, so every gateway configured with the same backends
+ * makes the same choice. A game against the computer is hashed by a fresh game id. A player looking
+ * for a multiplayer game is first held for a moment in case another player looking for the same
+ * variant and clock reaches this gateway; the two are sent to the backend of a fresh game id with
+ * that id as a match option in their handshakes, so the backend pairs them with each other and busy
+ * multiplayer traffic spreads over the backends. A player nobody joins in that time is hashed by the
+ * variant and clock instead, so they meet players who want the same game on the same backend
+ * whichever gateway they connected to.
+ *
+ * Backends are pinged once a second; a backend that is down or draining receives no new games.
+ * Games are carried to each backend over a few multiplexed connections.
+ */
+public class Connect4Gateway {
+    // Created first: the other services log while they start
+    private static final ServerLog log = ServerLog.fromSystemProperties();
+    private static final int PORT = Integer.getInteger("connect4.gateway.port", 8000);
+    private static final long HEALTH_MILLIS = Long.getLong("connect4.gateway.healthMillis", 1000);
+    private static final int GAMES_PER_CONNECTION = Integer.getInteger("connect4.gateway.gamesPerConnection", 200);
+    private static final long DRAIN_MILLIS = Long.getLong("connect4.gateway.drainSeconds", 30) * 1000;
+    private static final long PAIR_MILLIS = Long.getLong("connect4.gateway.pairMillis", 200);
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+    private static final ConnectionMonitor monitor = ConnectionMonitor.fromSystemProperties(log);
+    private static final AtomicInteger activeGames = new AtomicInteger();
+    private static final AtomicLong nextGame = new AtomicLong();
+    // Distinguishes the game ids of gateways running at the same time
+    private static final String GATEWAY_ID = PORT + "-" + Long.toHexString(System.nanoTime());
+    // The placement of the multiplayer player held for a partner, by variant and clock
+    private static final Map<String, CompletableFuture<String>> heldPlayers = new HashMap<>();
+
+    private static List<Backend> backends;
+    private static ConsistentHashRing<Backend> ring;
+    private static volatile ServerSocket serverSocket;
+    private static volatile boolean draining;
+
+    /**
+     * Entry point for the gateway.
+     *
+     * @param args The backends as host:port, unless given by the connect4.gateway.backends property
+     *             as a comma-separated list.
+     */
+    public static void main(String[] args) {
+        String list = System.getProperty("connect4.gateway.backends", String.join(",", args));
+        backends = new ArrayList<>();
+        for (String address : list.split(",")) {
+            if (!address.trim().isEmpty()) {
+                backends.add(Backend.parse(address.trim(), backends.size() + 1));
+            }
+        }
+        if (backends.isEmpty()) {
+            log.log(ServerLog.Level.ERROR, "gateway.no.backends", "usage",
+                    "java core.Connect4Gateway host:port[,host:port...]");
+            log.close();
+            return;
+        }
+        ring = new ConsistentHashRing<>(backends, 100, Backend::toString);
+
+        log.log(ServerLog.Level.INFO, "gateway.start", "port", PORT, "backends", backends);
+        monitor.start();
+        Thread health = new Thread(Connect4Gateway::checkHealth, "backend-health");
+        health.setDaemon(true);
+        health.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Connect4Gateway::drain, "gateway-drain"));
+
+        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+            Connect4Gateway.serverSocket = serverSocket;
+            while (true) {
+                Socket player = serverSocket.accept();
+                try {
+                    monitor.configure(player);
+                } catch (IOException e) {
+                    player.close();
+                    continue;
+                }
+                pool.execute(() -> handshake(player));
+            }
+        } catch (IOException e) {
+            if (!draining) {
+                log.error("gateway.failed", e);
+            }
+        } finally {
+            if (!draining) {
+                pool.shutdown();
+                monitor.shutdown();
+                log.close();
+            }
+        }
+    }
+
+    /**
+     * Shuts the gateway down gracefully: stops accepting connections and routing games, then waits
+     * up to the drain timeout for the games in progress to finish. Runs as a shutdown hook.
+     */
+    private static void drain() {
+        draining = true;
+        log.log(ServerLog.Level.INFO, "gateway.drain", "games", activeGames.get());
+        try {
+            ServerSocket socket = serverSocket;
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+        long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        while (activeGames.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        pool.shutdown();
+        monitor.shutdown();
+        log.log(ServerLog.Level.INFO, "gateway.stop");
+        log.close();
+    }
+
+    /**
+     * Asks a new client which mode they want, exactly as the server would, then routes the game.
+     *
+     * @param player The client's socket.
+     */
+    private static void handshake(Socket player) {
+        PlayerConnection connection;
+        try {
+            connection = new PlayerConnection(player, monitor);
+        } catch (SocketTimeoutException e) {
+            monitor.recordClose(ConnectionMonitor.CloseReason.HANDSHAKE_TIMEOUT);
+            return;
+        } catch (IOException e) {
+            monitor.recordClose(ConnectionMonitor.CloseReason.DISCONNECTED);
+            return;
+        }
+
+        Object reply;
+        try {
+            connection.send("Would you like to play against another player (2) or the computer (1)? Enter 1 or 2:");
+            reply = connection.receive(monitor.getHandshakeTimeoutMillis(),
+                    ConnectionMonitor.CloseReason.HANDSHAKE_TIMEOUT);
+        } catch (IOException | ClassNotFoundException e) {
+            connection.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            return;
+        }
+
+        if (reply instanceof String && HandshakeRequest.MUX.equals(HandshakeRequest.parse(reply).get("mode"))) {
+            try {
+                connection.send("Multiplexing enabled");
+            } catch (IOException e) {
+                connection.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+                return;
+            }
+            new MultiplexedConnection(connection, monitor, pool, Connect4Gateway::route,
+                    GAMES_PER_CONNECTION, 64 * GAMES_PER_CONNECTION).run();
+        } else {
+            route(connection, reply);
+        }
+    }
+
+    /**
+     * Sends a client's game to a backend and relays messages both ways until the game ends.
+     *
+     * @param client The client's channel.
+     * @param reply  The client's handshake.
+     */
+    private static void route(PlayerChannel client, Object reply) {
+        try {
+            HandshakeRequest request;
+            String key;
+            Object handshake = reply;
+            try {
+                request = HandshakeRequest.parse(reply);
+                String mode = request.get("mode");
+                if (HandshakeRequest.PING.equals(mode)) {
+                    client.send("pong " + (draining ? "draining" : "ok") + " games=" + activeGames.get());
+                    client.close(ConnectionMonitor.CloseReason.COMPLETED);
+                    return;
+                } else if (HandshakeRequest.LIST.equals(mode)) {
+                    client.send(listGames());
+                    client.close(ConnectionMonitor.CloseReason.COMPLETED);
+                    return;
+                } else if (HandshakeRequest.WATCH.equals(mode)) {
+                    watch(client, request.get("game"));
+                    return;
+                } else if (draining || HandshakeRequest.MUX.equals(mode)) {
+                    client.send(draining ? "Server is shutting down. Please reconnect." : "Unsupported request: " + mode);
+                    client.close(ConnectionMonitor.CloseReason.COMPLETED);
+                    return;
+                } else if (HandshakeRequest.LEADERBOARD.equals(mode)) {
+                    // Ratings are kept by each backend; a player's rank is asked where their games are rated
+                    key = request.get("name") != null ? "player " + request.get("name") : "leaderboard";
+                } else if (HandshakeRequest.ANALYZE.equals(mode)) {
+                    // Any backend can analyze a game
+                    key = "game " + GATEWAY_ID + "-" + nextGame.incrementAndGet();
+                } else if (request.getMode() == HandshakeRequest.MULTIPLAYER) {
+                    String clock = request.get("clock");
+                    key = pair("match " + request.getVariant() + " "
+                            + (clock == null ? "default" : TimeControl.parse(clock).toString()));
+                    if (key.startsWith("game ")) {
+                        // Paired here: the backend pairs the two by the game id rather than with whoever waits there
+                        handshake = (reply instanceof Integer ? "mode=" + reply : reply) + " match="
+                                + key.substring("game ".length());
+                    }
+                } else if (request.getPlayerName() != null) {
+                    // A named player's games against the computer are always rated on the same backend
+                    key = "player " + request.getPlayerName();
+                } else {
+                    key = "game " + GATEWAY_ID + "-" + nextGame.incrementAndGet();
+                }
+            } catch (IllegalArgumentException e) {
+                client.send("Unsupported request: " + e.getMessage());
+                client.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+                return;
+            }
+
+            List<Backend> tried = new ArrayList<>();
+            while (true) {
+                Backend backend = ring.select(key, b -> b.isAvailable() && !tried.contains(b));
+                if (backend == null) {
+                    client.send("No game server is available. Please try again later.");
+                    client.close(ConnectionMonitor.CloseReason.COMPLETED);
+                    return;
+                }
+                try {
+                    relay(client, backend.open(handshake));
+                    return;
+                } catch (IOException e) {
+                    backend.setState(Backend.State.DOWN);
+                    tried.add(backend);
+                }
+            }
+        } catch (IOException e) {
+            client.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+        }
+    }
+
+    /**
+     * Chooses the placement key of a multiplayer player. The first player looking for a kind of game
+     * is held for up to the pairing time and released as soon as a second one arrives; both then get
+     * the key of a fresh game id. Otherwise the held player gets the match key, which every gateway
+     * hashes to the same backend, and a player arriving at the same moment follows them there. With
+     * a pairing time of 0, players are never held.
+     *
+     * @param match The match key: the variant and clock.
+     * @return The key to place the player's game by: "game " and the game id, or the match key.
+     */
+    private static String pair(String match) {
+        if (PAIR_MILLIS <= 0) {
+            return match;
+        }
+        CompletableFuture<String> held;
+        CompletableFuture<String> placement = new CompletableFuture<>();
+        synchronized (heldPlayers) {
+            held = heldPlayers.remove(match);
+            if (held == null) {
+                heldPlayers.put(match, placement);
+            }
+        }
+        if (held != null) {
+            // Whichever key is set first, the held player's or this one, both players use it
+            held.complete("game " + GATEWAY_ID + "-" + nextGame.incrementAndGet());
+            return held.join();
+        }
+        try {
+            return placement.get(PAIR_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Nobody joined: wait for a partner where players from every gateway meet
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (heldPlayers) {
+            heldPlayers.remove(match, placement);
+        }
+        placement.complete(match);
+        return placement.join();
+    }
+
+    /**
+     * Connects a spectator to a game. Gateway game ids are the backend number and the backend's own
+     * game id, such as 2.17.
+     */
+    private static void watch(PlayerChannel client, String game) throws IOException {
+        int dot = game == null ? -1 : game.indexOf('.');
+        Backend backend = null;
+        try {
+            int index = dot < 0 ? -1 : Integer.parseInt(game.substring(0, dot));
+            backend = index >= 1 && index <= backends.size() ? backends.get(index - 1) : null;
+        } catch (NumberFormatException e) {
+            // Reported as an unknown game below
+        }
+        if (backend == null || backend.getState() == Backend.State.DOWN) {
+            client.send("Unknown game: " + game);
+            client.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+            return;
+        }
+        relay(client, backend.open("mode=watch game=" + game.substring(dot + 1)));
+    }
+
+    /**
+     * Collects the game lists of every backend, prefixing each game id with the backend number.
+     */
+    private static String listGames() {
+        StringBuilder games = new StringBuilder();
+        int count = 0;
+        for (Backend backend : backends) {
+            if (backend.getState() == Backend.State.DOWN) {
+                continue;
+            }
+            try {
+                MultiplexedClient.Game list = backend.open("mode=list");
+                String[] lines = String.valueOf(list.receive(2000)).split("\n");
+                list.close();
+                for (int i = 1; i < lines.length; i++) {
+                    games.append('\n').append(backend.index).append('.').append(lines[i]);
+                    count++;
+                }
+            } catch (IOException e) {
+                // Listed as far as the backends answered
+            }
+        }
+        return "Games: " + count + games;
+    }
+
+    /**
+     * Copies messages between a client and its game on a backend until either side closes.
+     */
+    private static void relay(PlayerChannel client, MultiplexedClient.Game game) {
+        activeGames.incrementAndGet();
+        CountDownLatch backendDone = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                while (true) {
+                    client.send(game.receive(0));
+                }
+            } catch (EOFException e) {
+                // The backend ended the game; everything it sent has been passed on
+                client.close(ConnectionMonitor.CloseReason.COMPLETED);
+            } catch (IOException e) {
+                client.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            } finally {
+                backendDone.countDown();
+            }
+        });
+        try {
+            while (true) {
+                game.send(client.receive(0));
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // The client left, or the backend side closed it
+            client.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            try {
+                game.close();
+            } catch (IOException ignored) {
+                // The backend connection is gone as well
+            }
+        }
+        try {
+            backendDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        activeGames.decrementAndGet();
+    }
+
+    /**
+     * Pings every backend once per health interval and updates its state.
+     */
+    private static void checkHealth() {
+        while (true) {
+            for (Backend backend : backends) {
+                Backend.State state = backend.ping();
+                if (state != backend.getState()) {
+                    log.log(ServerLog.Level.INFO, "backend.state", "backend", backend, "state", state);
+                    backend.setState(state);
+                }
+            }
+            try {
+                Thread.sleep(HEALTH_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A backend server and the multiplexed connections carrying games to it.
+     */
+    static final class Backend {
+        enum State { UP, DRAINING, DOWN }
+
+        private final String host;
+        private final int port;
+        private final int index;
+        private final List<MultiplexedClient> connections = new ArrayList<>();
+        private volatile State state = State.UP;
+
+        Backend(String host, int port, int index) {
+            this.host = host;
+            this.port = port;
+            this.index = index;
+        }
+
+        /**
+         * Parses a backend address.
+         *
+         * @param address The address as host:port, or just a port on this machine.
+         * @param index   The backend number, starting at 1.
+         * @return The backend.
+         */
+        static Backend parse(String address, int index) {
+            int colon = address.lastIndexOf(':');
+            String host = colon < 0 ? "localhost" : address.substring(0, colon);
+            return new Backend(host, Integer.parseInt(address.substring(colon + 1)), index);
+        }
+
+        State getState() {
+            return state;
+        }
+
+        void setState(State state) {
+            this.state = state;
+        }
+
+        boolean isAvailable() {
+            return state == State.UP;
+        }
+
+        /**
+         * Opens a game on one of the connections to this backend, connecting again when they are
+         * all full or closed.
+         *
+         * @param handshake The client's handshake.
+         * @return The game.
+         * @throws IOException If the backend cannot be reached.
+         */
+        MultiplexedClient.Game open(Object handshake) throws IOException {
+            MultiplexedClient connection = null;
+            synchronized (connections) {
+                connections.removeIf(MultiplexedClient::isClosed);
+                for (MultiplexedClient candidate : connections) {
+                    if (candidate.getGameCount() < GAMES_PER_CONNECTION) {
+                        connection = candidate;
+                        break;
+                    }
+                }
+                if (connection == null) {
+                    Socket socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.connect(new InetSocketAddress(host, port), 2000);
+                    connection = new MultiplexedClient(socket);
+                    connections.add(connection);
+                }
+            }
+            return connection.open(handshake);
+        }
+
+        /**
+         * Checks the backend with a ping handshake on a new connection.
+         *
+         * @return The backend's state.
+         */
+        State ping() {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 1000);
+                socket.setSoTimeout(2000);
+                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                out.flush();
+                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                in.readObject(); // Mode prompt
+                out.writeObject("mode=" + HandshakeRequest.PING);
+                out.flush();
+                String reply = String.valueOf(in.readObject());
+                if (reply.startsWith("pong ok")) {
+                    return State.UP;
+                }
+                return reply.startsWith("pong") ? State.DRAINING : State.DOWN;
+            } catch (IOException | ClassNotFoundException e) {
+                return State.DOWN;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -1,21 +1,49 @@
 package core;
 
+import java.util.Arrays;
+
 /**
  * Connect4Logic class handles the game logic for Connect 4.
  * It manages the game board, player moves, and checks for a win or draw.
+ *
+ * An instance is used by one thread at a time. Once the game is shared with other threads, they read
+ * it through getSnapshot(), never through the board itself; see publishSnapshots().
  */
 public class Connect4Logic {
-    private static final int ROWS = 6;
-    private static final int COLUMNS = 7;
+    private final Connect4Variant variant;
+    private final int rows;
+    private final int columns;
+    private final int connectLength;
     private char[][] board;
     private char currentPlayer;
-    private int lastPlacedRow;
+    private int lastPlacedRow = -1; // -1 until a piece is placed
+    private int lastPlacedColumn = -1;
+    private int moveCount;
+    private final int[] moves; // Columns played so far, 1-based
+    // Replaced after every change to the board once snapshots are published, for readers on other
+    // threads; null until then. Other threads read only this field.
+    private volatile PositionSnapshot snapshot;
+    private boolean publishing; // Only read by the thread playing the game
 
     /**
-     * Constructor initializes the game board and sets the starting player.
+     * Constructor initializes the standard 7x6 game board and sets the starting player.
      */
     public Connect4Logic() {
-        board = new char[ROWS][COLUMNS];
+        this(Connect4Variant.STANDARD);
+    }
+
+    /**
+     * Constructor initializes the game board for a variant and sets the starting player.
+     *
+     * @param variant The board dimensions and connect length.
+     */
+    public Connect4Logic(Connect4Variant variant) {
+        this.variant = variant;
+        this.rows = variant.getRows();
+        this.columns = variant.getColumns();
+        this.connectLength = variant.getConnectLength();
+        board = new char[rows][columns];
+        moves = new int[rows * columns];
         currentPlayer = 'X'; // Player X starts first
         initializeBoard();
     }
@@ -24,13 +52,27 @@ public class Connect4Logic {
      * Initializes the game board with empty spaces.
      */
     private void initializeBoard() {
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLUMNS; j++) {
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
                 board[i][j] = ' ';
             }
         }
     }
 
+    /**
+     * Clears the board and gives the first move back to X, so the instance can be reused for a new game.
+     */
+    public void reset() {
+        initializeBoard();
+        currentPlayer = 'X';
+        lastPlacedRow = -1;
+        lastPlacedColumn = -1;
+        moveCount = 0;
+        if (publishing) {
+            snapshot = PositionSnapshot.empty(variant);
+        }
+    }
+
     /**
      * Switches the current player between X and O.
      */
@@ -45,25 +87,67 @@ public class Connect4Logic {
     /**
      * Attempts to place a player's piece in the specified column.
      *
-     * @param column The column where the piece is to be placed (1-7).
+     * @param column The column where the piece is to be placed (1 to the number of columns).
      * @return True if the move is valid and successful, false otherwise.
      */
     public boolean makeMove(int column) {
-        if (column < 1 || column > COLUMNS) {
+        if (column < 1 || column > columns) {
             return false; // Invalid column
         }
 
         int colIndex = column - 1;
-        for (int i = ROWS - 1; i >= 0; i--) {
+        for (int i = rows - 1; i >= 0; i--) {
             if (board[i][colIndex] == ' ') {
                 board[i][colIndex] = currentPlayer;
                 lastPlacedRow = i; // Track the row where the piece was placed
+                lastPlacedColumn = colIndex;
+                moves[moveCount++] = column;
+                if (publishing) {
+                    snapshot = snapshot.play(i, colIndex, currentPlayer);
+                }
                 return true;
             }
         }
         return false; // Column is full
     }
 
+    /**
+     * Takes back the last move, so that a search can walk the game tree on one board. The current
+     * player is not changed, just as makeMove does not change it.
+     *
+     * @return True if a move was taken back, false if the board is empty.
+     */
+    public boolean undoMove() {
+        if (moveCount == 0) {
+            return false;
+        }
+        int colIndex = moves[--moveCount] - 1;
+        int row = topRow(colIndex);
+        board[row][colIndex] = ' ';
+        if (publishing) {
+            snapshot = snapshot.undo(row, colIndex);
+        }
+        if (moveCount > 0) {
+            lastPlacedColumn = moves[moveCount - 1] - 1;
+            lastPlacedRow = topRow(lastPlacedColumn);
+        } else {
+            lastPlacedRow = -1;
+            lastPlacedColumn = -1;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the row of the top piece in a column that holds at least one piece.
+     */
+    private int topRow(int colIndex) {
+        int row = 0;
+        while (board[row][colIndex] == ' ') {
+            row++;
+        }
+        return row;
+    }
+
     /**
      * Checks if the current player has won the game.
      *
@@ -71,8 +155,8 @@ public class Connect4Logic {
      */
     public boolean checkWin() {
         // Check horizontal, vertical, and diagonal lines for a win
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLUMNS; j++) {
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
                 if (board[i][j] == currentPlayer) {
                     if (checkDirection(i, j, 1, 0) || // Horizontal
                             checkDirection(i, j, 0, 1) || // Vertical
@@ -86,6 +170,58 @@ public class Connect4Logic {
         return false;
     }
 
+    /**
+     * Checks if the last piece placed completed a winning line. Only the lines through that piece are
+     * examined, so this is much cheaper than checkWin() when the board is checked after every move.
+     *
+     * @return True if the last move won the game, false otherwise (or if no move was made yet).
+     */
+    public boolean checkLastMoveWin() {
+        return moveCount > 0 && completesLine(board, lastPlacedRow, lastPlacedColumn, connectLength);
+    }
+
+    /**
+     * Checks if the piece at a cell is part of an unbroken line of at least the connect length. Used
+     * for the last placed piece here, and by engines that play on a board of their own.
+     *
+     * @param board         The board (row 0 is the top row).
+     * @param row           The cell's row.
+     * @param col           The cell's column.
+     * @param connectLength The length of a winning line.
+     * @return True if a line through the cell is long enough to win.
+     */
+    static boolean completesLine(char[][] board, int row, int col, int connectLength) {
+        return countLine(board, row, col, 0, 1) >= connectLength || // Horizontal
+                countLine(board, row, col, 1, 0) >= connectLength || // Vertical
+                countLine(board, row, col, 1, 1) >= connectLength || // Diagonal (top-left to bottom-right)
+                countLine(board, row, col, 1, -1) >= connectLength; // Diagonal (top-right to bottom-left)
+    }
+
+    /**
+     * Counts the pieces in an unbroken line through a cell.
+     *
+     * @param board  The board.
+     * @param row    The cell's row.
+     * @param col    The cell's column.
+     * @param rowDir The row direction.
+     * @param colDir The column direction.
+     * @return The length of the line, including the cell's piece.
+     */
+    private static int countLine(char[][] board, int row, int col, int rowDir, int colDir) {
+        char piece = board[row][col];
+        int count = 1;
+        for (int sign = -1; sign <= 1; sign += 2) {
+            int r = row + sign * rowDir;
+            int c = col + sign * colDir;
+            while (r >= 0 && r < board.length && c >= 0 && c < board[r].length && board[r][c] == piece) {
+                count++;
+                r += sign * rowDir;
+                c += sign * colDir;
+            }
+        }
+        return count;
+    }
+
     /**
      * Checks for a win in a specific direction.
      *
@@ -93,21 +229,21 @@ public class Connect4Logic {
      * @param col    The starting column.
      * @param rowDir The row direction (1, 0, or -1).
      * @param colDir The column direction (1, 0, or -1).
-     * @return True if four consecutive pieces are found in the specified direction.
+     * @return True if enough consecutive pieces to win are found in the specified direction.
      */
     private boolean checkDirection(int row, int col, int rowDir, int colDir) {
         int count = 0;
-        for (int i = 0; i < 4; i++) {
+        for (int i = 0; i < connectLength; i++) {
             int newRow = row + i * rowDir;
             int newCol = col + i * colDir;
-            if (newRow >= 0 && newRow < ROWS && newCol >= 0 && newCol < COLUMNS &&
+            if (newRow >= 0 && newRow < rows && newCol >= 0 && newCol < columns &&
                     board[newRow][newCol] == currentPlayer) {
                 count++;
             } else {
                 break;
             }
         }
-        return count == 4;
+        return count == connectLength;
     }
 
     /**
@@ -116,14 +252,7 @@ public class Connect4Logic {
      * @return True if the board is full, false otherwise.
      */
     public boolean isBoardFull() {
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLUMNS; j++) {
-                if (board[i][j] == ' ') {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return moveCount == rows * columns;
     }
 
     /**
@@ -136,7 +265,35 @@ public class Connect4Logic {
     }
 
     /**
-     * Returns the current state of the game board.
+     * Returns the variant (board size and connect length) of the game.
+     *
+     * @return The game variant.
+     */
+    public Connect4Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Returns the number of rows on the board.
+     *
+     * @return The row count.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns on the board.
+     *
+     * @return The column count.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the current state of the game board. The array is the live board, so only the thread
+     * playing the game may read it; other threads use getSnapshot().
      *
      * @return The game board as a 2D char array.
      */
@@ -144,10 +301,36 @@ public class Connect4Logic {
         return board;
     }
 
+    /**
+     * Publishes a new snapshot after every change to the board from now on, so that other threads can
+     * call getSnapshot(). Games that are never read by another thread, such as the boards searches and
+     * replays walk, do not publish and pay nothing for snapshots.
+     */
+    public void publishSnapshots() {
+        if (!publishing) {
+            snapshot = PositionSnapshot.of(variant, board, moveCount);
+            publishing = true;
+        }
+    }
+
+    /**
+     * Returns the position after the latest move. The snapshot never changes. Once publishSnapshots()
+     * has been called, this may be called from any thread while the game is being played, and returns
+     * the snapshot published after the latest move: it reads nothing but the volatile snapshot, so a
+     * thread that sees the game sees a complete position. Until then only the thread playing the game
+     * may call it, and each call builds the snapshot from the board.
+     *
+     * @return The current position.
+     */
+    public PositionSnapshot getSnapshot() {
+        PositionSnapshot published = snapshot;
+        return published != null ? published : PositionSnapshot.of(variant, board, moveCount);
+    }
+
     /**
      * Executes a player's turn by placing a piece in the specified column.
      *
-     * @param column The column where the piece is to be placed (1-7).
+     * @param column The column where the piece is to be placed (1 to the number of columns).
      * @return True if the move was valid and successful, false otherwise.
      */
     public boolean playTurn(int column) {
@@ -166,6 +349,24 @@ public class Connect4Logic {
         }
     }
 
+    /**
+     * Returns the number of pieces placed on the board.
+     *
+     * @return The move count.
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Returns the columns played so far, in order.
+     *
+     * @return The columns (1-based), one per piece on the board.
+     */
+    public int[] getMoves() {
+        return Arrays.copyOf(moves, moveCount);
+    }
+
     /**
      * Returns the row where the last piece was placed.
      *
@@ -175,4 +376,13 @@ public class Connect4Logic {
         return lastPlacedRow;
     }
 
+    /**
+     * Returns the column (0-based) where the last piece was placed.
+     *
+     * @return The column where the last piece was placed, or -1 if no piece was placed.
+     */
+    public int getLastPlacedColumn() {
+        return lastPlacedColumn;
+    }
+
 }
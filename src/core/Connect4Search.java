@@ -0,0 +1,479 @@
+package core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Connect4Search finds moves for the computer player with an alpha-beta negamax search over
+ * bitboards. It is the fast path for every variant whose board fits in a single long (see
+ * BitboardGeometry), including the standard 7x6 board.
+ *
+ * A search instance is not thread-safe and is meant to be owned by one thread, but many instances
+ * can share one TranspositionTable. The one exception is cancel(), which any thread may call to stop
+ * a running search within about a thousand nodes.
+ */
+public class Connect4Search implements SearchEngine {
+    private final BitboardGeometry g;
+    private final int cells;
+    private final long keySalt;
+    private final TranspositionTable table;
+    private final int centerWeight;
+    private final int[] windowWeights;
+    private final Random random = new Random();
+
+    private long deadline;
+    private boolean aborted;
+    private volatile boolean cancelled;
+    private long nodes;
+    private long tableHits;
+    private int depthReached;
+
+    /**
+     * Creates a search for the standard board that shares the given transposition table.
+     *
+     * @param table The table used to cache results, may be shared with other searches.
+     */
+    public Connect4Search(TranspositionTable table) {
+        this(Connect4Variant.STANDARD, table);
+    }
+
+    /**
+     * Creates a search for a variant that shares the given transposition table.
+     *
+     * @param variant A variant whose board fits in a long.
+     * @param table   The table used to cache results, may be shared with other searches.
+     */
+    public Connect4Search(Connect4Variant variant, TranspositionTable table) {
+        this(variant, table, EvaluationWeights.DEFAULT);
+    }
+
+    /**
+     * Creates a search for a variant that scores positions with the given weights. Searches with
+     * different weights must not share a table, since stored scores depend on the weights.
+     *
+     * @param variant A variant whose board fits in a long.
+     * @param table   The table used to cache results.
+     * @param weights The evaluation weights.
+     */
+    public Connect4Search(Connect4Variant variant, TranspositionTable table, EvaluationWeights weights) {
+        this.g = BitboardGeometry.of(variant);
+        this.cells = variant.getRows() * variant.getColumns();
+        this.keySalt = variantSalt(variant);
+        this.table = table;
+        this.centerWeight = weights.getCenter();
+        this.windowWeights = weights.windowWeights(variant.getConnectLength());
+    }
+
+    /**
+     * Returns a value mixed into table keys so that positions of different variants sharing one
+     * table never match. The standard variant uses no salt.
+     *
+     * @param variant The variant.
+     * @return The salt.
+     */
+    static long variantSalt(Connect4Variant variant) {
+        if (variant.equals(Connect4Variant.STANDARD)) {
+            return 0;
+        }
+        return (variant.hashCode() + 1L) * 0xBF58476D1CE4E5B9L;
+    }
+
+    /**
+     * Position is an immutable bitboard view of a game: the stones of the player to move and the
+     * mask of all occupied cells.
+     */
+    public static final class Position {
+        final BitboardGeometry g;
+        final long current;
+        final long mask;
+        final int moves;
+
+        Position(BitboardGeometry g, long current, long mask, int moves) {
+            this.g = g;
+            this.current = current;
+            this.mask = mask;
+            this.moves = moves;
+        }
+
+        /**
+         * Converts a standard 7x6 game board into a position.
+         *
+         * @param board  The board as returned by Connect4Logic.getBoard() (row 0 is the top row).
+         * @param toMove The player whose turn it is ('X' or 'O').
+         * @return The position seen from the player to move.
+         */
+        public static Position of(char[][] board, char toMove) {
+            return of(Connect4Variant.STANDARD, board, toMove);
+        }
+
+        /**
+         * Converts a game board of any variant that fits in a long into a position.
+         *
+         * @param variant The variant of the game.
+         * @param board   The board as returned by Connect4Logic.getBoard() (row 0 is the top row).
+         * @param toMove  The player whose turn it is ('X' or 'O').
+         * @return The position seen from the player to move.
+         */
+        public static Position of(Connect4Variant variant, char[][] board, char toMove) {
+            BitboardGeometry g = BitboardGeometry.of(variant);
+            long current = 0;
+            long mask = 0;
+            int moves = 0;
+            for (int row = 0; row < g.height; row++) {
+                for (int col = 0; col < g.width; col++) {
+                    char cell = board[row][col];
+                    if (cell == ' ') {
+                        continue;
+                    }
+                    long bit = 1L << (col * g.h1 + g.height - 1 - row);
+                    mask |= bit;
+                    moves++;
+                    if (cell == toMove) {
+                        current |= bit;
+                    }
+                }
+            }
+            return new Position(g, current, mask, moves);
+        }
+
+        /**
+         * Checks whether a piece can still be dropped into a column.
+         *
+         * @param column The column (0-based).
+         * @return True if the column is not full.
+         */
+        public boolean canPlay(int column) {
+            return (mask & g.topMask(column)) == 0;
+        }
+
+        /**
+         * Returns the position after the player to move drops a piece into a column.
+         *
+         * @param column The column (0-based), which must be playable.
+         * @return The resulting position, seen from the other player.
+         */
+        public Position play(int column) {
+            return new Position(g, current ^ mask, mask | (mask + g.bottomMask(column)), moves + 1);
+        }
+
+        /**
+         * Checks whether dropping a piece into a column wins the game for the player to move.
+         *
+         * @param column The column (0-based), which must be playable.
+         * @return True if the move completes a line of four.
+         */
+        public boolean isWinningMove(int column) {
+            return g.alignment(current | ((mask + g.bottomMask(column)) & g.columnMask(column)));
+        }
+
+        /**
+         * Returns the number of pieces on the board.
+         *
+         * @return The move count.
+         */
+        public int getMoves() {
+            return moves;
+        }
+
+        /**
+         * Returns the number of columns of the board.
+         *
+         * @return The column count.
+         */
+        public int getColumns() {
+            return g.width;
+        }
+
+        /**
+         * Returns a key that identifies the position uniquely among positions of the same variant.
+         *
+         * @return The position key.
+         */
+        public long key() {
+            return current + mask;
+        }
+    }
+
+    /**
+     * Picks a random playable column, as the easy computer player does.
+     *
+     * @param position The position to move in.
+     * @return A playable column (0-based), or -1 if the board is full.
+     */
+    public int randomMove(Position position) {
+        if (position.moves >= cells) {
+            return -1;
+        }
+        int column;
+        do {
+            column = random.nextInt(g.width);
+        } while (!position.canPlay(column));
+        return column;
+    }
+
+    @Override
+    public int randomMove(char[][] board) {
+        return randomMove(Position.of(g.variant, board, 'X'));
+    }
+
+    @Override
+    public int bestMove(char[][] board, char toMove, int maxDepth, long deadlineNanos) {
+        return bestMove(Position.of(g.variant, board, toMove), maxDepth, deadlineNanos);
+    }
+
+    /**
+     * Searches a position with iterative deepening until the depth is reached or the deadline
+     * passes, and returns the best column found by the deepest completed iteration.
+     *
+     * @param position      The position to move in.
+     * @param maxDepth      The maximum search depth in plies (at least 1).
+     * @param deadlineNanos The System.nanoTime() value at which the search stops.
+     * @return The best column (0-based), or -1 if the board is full.
+     */
+    public int bestMove(Position position, int maxDepth, long deadlineNanos) {
+        nodes = 0;
+        tableHits = 0;
+        depthReached = 0;
+        aborted = false;
+        deadline = deadlineNanos;
+
+        int bestColumn = -1;
+        for (int col : g.columnOrder) {
+            if (position.canPlay(col)) {
+                if (position.isWinningMove(col)) {
+                    depthReached = 1;
+                    return col;
+                }
+                if (bestColumn < 0) {
+                    bestColumn = col;
+                }
+            }
+        }
+        if (bestColumn < 0) {
+            return -1;
+        }
+
+        for (int depth = 1; depth <= Math.max(1, maxDepth); depth++) {
+            int column = searchRoot(position, depth);
+            if (aborted) {
+                break;
+            }
+            bestColumn = column;
+            depthReached = depth;
+            if (position.moves + depth >= cells) {
+                break; // Searched to the end of the game
+            }
+        }
+        return bestColumn;
+    }
+
+    /**
+     * Scores every move of a position, for analysis: each move gets its own full-window search, so
+     * the scores are exact to the depth rather than just good enough to pick the best move. A
+     * winning move scores WIN_SCORE minus the ply of the win, and a losing one its negation.
+     *
+     * @param position      The position to move in.
+     * @param depth         The search depth in plies (at least 1).
+     * @param deadlineNanos The System.nanoTime() value at which the search stops.
+     * @param scores        Receives the score of each column from the point of view of the player to
+     *                      move, or Integer.MIN_VALUE for columns that cannot be played. If the game
+     *                      is already won, every column gets Integer.MIN_VALUE.
+     * @return True if every move was searched, false if the search was stopped by the deadline or
+     * by cancel(), in which case the scores are incomplete.
+     */
+    public boolean scoreMoves(Position position, int depth, long deadlineNanos, int[] scores) {
+        nodes = 0;
+        tableHits = 0;
+        aborted = false;
+        deadline = deadlineNanos;
+        Arrays.fill(scores, Integer.MIN_VALUE);
+        if (g.alignment(position.current ^ position.mask)) {
+            return true; // The previous move won
+        }
+        for (int col : g.columnOrder) {
+            if (!position.canPlay(col)) {
+                continue;
+            }
+            if (position.isWinningMove(col)) {
+                scores[col] = WIN_SCORE - (position.moves + 1);
+                continue;
+            }
+            long mask = position.mask;
+            int score = -negamax(position.current ^ mask, mask | (mask + g.bottomMask(col)),
+                    position.moves + 1, depth - 1, -WIN_SCORE - 1, WIN_SCORE + 1);
+            if (aborted) {
+                return false;
+            }
+            scores[col] = score;
+        }
+        depthReached = depth;
+        return true;
+    }
+
+    /**
+     * Stops the running search, if any, and every search started later until resetCancel() is
+     * called. May be called from any thread; the search notices within about a thousand nodes and
+     * returns its last completed result.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Lets searches run again after cancel(). Called by the thread that owns the search before it
+     * picks up new work, so that a cancel() for that work is never lost.
+     */
+    public void resetCancel() {
+        cancelled = false;
+    }
+
+    /**
+     * Returns the number of nodes visited by the last search.
+     *
+     * @return The node count.
+     */
+    @Override
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of transposition table hits during the last search.
+     *
+     * @return The hit count.
+     */
+    @Override
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * Returns the depth of the deepest iteration the last search completed.
+     *
+     * @return The completed depth in plies.
+     */
+    @Override
+    public int getDepthReached() {
+        return depthReached;
+    }
+
+    private int searchRoot(Position position, int depth) {
+        int alpha = -WIN_SCORE - 1;
+        int beta = WIN_SCORE + 1;
+        int bestColumn = -1;
+        long key = position.key() ^ keySalt;
+        int ttMove = TranspositionTable.move(table.probe(key));
+
+        for (int i = -1; i < g.width; i++) {
+            int col = i < 0 ? ttMove : g.columnOrder[i];
+            if (col < 0 || col >= g.width || (i >= 0 && col == ttMove) || !position.canPlay(col)) {
+                continue;
+            }
+            long mask = position.mask;
+            int score = -negamax(position.current ^ mask, mask | (mask + g.bottomMask(col)),
+                    position.moves + 1, depth - 1, -beta, -alpha);
+            if (aborted) {
+                return bestColumn;
+            }
+            if (score > alpha || bestColumn < 0) {
+                alpha = Math.max(alpha, score);
+                bestColumn = col;
+            }
+        }
+        table.store(key, alpha, depth, TranspositionTable.EXACT, bestColumn);
+        return bestColumn;
+    }
+
+    private int negamax(long current, long mask, int moves, int depth, int alpha, int beta) {
+        if ((++nodes & 1023) == 0 && (cancelled || System.nanoTime() - deadline > 0)) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        if (moves == cells) {
+            return 0; // Draw
+        }
+        for (int col = 0; col < g.width; col++) {
+            if ((mask & g.topMask(col)) == 0
+                    && g.alignment(current | ((mask + g.bottomMask(col)) & g.columnMask(col)))) {
+                return WIN_SCORE - (moves + 1);
+            }
+        }
+        if (depth <= 0) {
+            return evaluate(current, mask);
+        }
+
+        long key = (current + mask) ^ keySalt;
+        long entry = table.probe(key);
+        int ttMove = -1;
+        if (entry != 0) {
+            tableHits++;
+            ttMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int score = TranspositionTable.score(entry);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT) {
+                    return score;
+                } else if (bound == TranspositionTable.LOWER) {
+                    alpha = Math.max(alpha, score);
+                } else {
+                    beta = Math.min(beta, score);
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+        }
+
+        int originalAlpha = alpha;
+        int best = -WIN_SCORE - 1;
+        int bestColumn = -1;
+        for (int i = -1; i < g.width; i++) {
+            int col = i < 0 ? ttMove : g.columnOrder[i];
+            if (col < 0 || col >= g.width || (i >= 0 && col == ttMove) || (mask & g.topMask(col)) != 0) {
+                continue;
+            }
+            int score = -negamax(current ^ mask, mask | (mask + g.bottomMask(col)), moves + 1, depth - 1, -beta, -alpha);
+            if (aborted) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestColumn = col;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        int bound = best <= originalAlpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(key, best, depth, bound, bestColumn);
+        return best;
+    }
+
+    /**
+     * Scores a quiet position from the point of view of the player to move by counting the
+     * winning windows that each player can still complete.
+     */
+    private int evaluate(long current, long mask) {
+        long opponent = current ^ mask;
+        long center = g.centerColumn;
+        int[] weights = windowWeights;
+        int score = centerWeight * (Long.bitCount(current & center) - Long.bitCount(opponent & center));
+        for (long window : g.windows) {
+            long own = window & current;
+            long other = window & opponent;
+            if (other == 0) {
+                score += weights[Long.bitCount(own)];
+            } else if (own == 0) {
+                score -= weights[Long.bitCount(other)];
+            }
+        }
+        return score;
+    }
+}
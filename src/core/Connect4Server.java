@@ -2,15 +2,66 @@ package core;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 /**
  * core.Connect4Server class manages the server side of the Connect 4 game.
  * It accepts client connections, pairs them for games, or allows a player to play against the computer.
  */
 public class Connect4Server {
-    private static final int PORT = 8000; // Server port
+    // Created first: the other services log while they start
+    private static final ServerLog log = ServerLog.fromSystemProperties();
+    private static final int PORT = Integer.getInteger("connect4.port", 8000); // Server port
+    private static final long DRAIN_MILLIS = Long.getLong("connect4.server.drainSeconds", 30) * 1000;
     private static final ExecutorService pool = Executors.newCachedThreadPool();
+    private static final Difficulty AI_DIFFICULTY =
+            Difficulty.parse(System.getProperty("connect4.ai.difficulty"), Difficulty.HARD);
+    private static final TranspositionTable aiTable =
+            new TranspositionTable(Integer.getInteger("connect4.ai.tableSize", 1 << 22));
+    private static final Connect4AIService aiService = new Connect4AIService(
+            Integer.getInteger("connect4.ai.threads", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("connect4.ai.maxQueue", 1024), aiTable,
+            loadNetwork(System.getProperty("connect4.ai.networkFile")));
+    // Answers analysis requests, searching with the computer player's cache
+    private static final BatchAnalyzer analyzer = BatchAnalyzer.fromSystemProperties(aiTable);
+    // Where the computer player's cache is kept across restarts; null when it is not kept
+    private static final String AI_TABLE_FILE = System.getProperty("connect4.ai.tableFile");
+    private static final ScheduledExecutorService tableSaver = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "ai-table-saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ConnectionMonitor monitor = ConnectionMonitor.fromSystemProperties(log);
+    private static final TimeControl DEFAULT_CLOCK = TimeControl.parse(System.getProperty("connect4.clock"));
+    // One timer thread runs the clocks of every multiplayer game
+    private static final HashedWheelTimer clockTimer =
+            new HashedWheelTimer(Integer.getInteger("connect4.clock.tickMillis", 10), 1024, "game-clock",
+                    e -> log.error("clock.expire.failed", e));
+    // Multiplayer players waiting for an opponent, one per variant and time control
+    private static final Map<String, WaitingPlayer> waitingPlayers = new HashMap<>();
+    // Running games, so they can be listed and watched
+    private static final GameDirectory directory = new GameDirectory();
+    private static final int MAX_GAMES_PER_CONNECTION = Integer.getInteger("connect4.mux.maxGames", 256);
+    // Parks idle single-player sessions; null when hibernation is turned off
+    private static final SessionHibernator hibernator = SessionHibernator.fromSystemProperties(pool);
+    private static final SinglePlayerSession.Hibernation hibernation = hibernator == null ? null
+            : new SinglePlayerSession.Hibernation(hibernator, monitor, aiService, log);
+    // Ratings of named players, loaded before the first connection is accepted; null if they could not be loaded
+    private static RatingService ratings;
+    // Finished games, for tools.Connect4OpeningStats; null unless connect4.archive.file is set
+    private static GameArchive.Writer archive;
+    // Every client message with its timing, for tools.Connect4TrafficReplayer; null unless connect4.capture.file is set
+    private static TrafficCapture capture;
+    private static volatile ServerSocket serverSocket;
+    // Set on shutdown: running games finish but no new ones start
+    private static volatile boolean draining;
 
     /**
      * Entry point for the Connect 4 server application. Listens for incoming client connections
@@ -19,55 +70,502 @@ public class Connect4Server {
      * @param args Command-line arguments (not used).
      */
     public static void main(String[] args) {
-        System.out.println("Server is starting...");
+        log.log(ServerLog.Level.INFO, "server.start", "port", PORT);
+        monitor.start();
+        try {
+            ratings = RatingService.fromSystemProperties("ratings-" + PORT);
+            log.log(ServerLog.Level.INFO, "ratings.loaded", "players", ratings.size());
+        } catch (IOException e) {
+            log.log(ServerLog.Level.WARN, "ratings.disabled", "reason", e.getMessage());
+        }
+        String archiveFile = System.getProperty("connect4.archive.file");
+        if (archiveFile != null) {
+            try {
+                archive = new GameArchive.Writer(Paths.get(archiveFile));
+            } catch (IOException e) {
+                log.log(ServerLog.Level.WARN, "archive.disabled", "reason", e.getMessage());
+            }
+        }
+        String captureFile = System.getProperty("connect4.capture.file");
+        if (captureFile != null) {
+            try {
+                capture = new TrafficCapture(Paths.get(captureFile));
+                log.log(ServerLog.Level.INFO, "capture.start", "file", captureFile);
+            } catch (IOException e) {
+                log.log(ServerLog.Level.WARN, "capture.disabled", "reason", e.getMessage());
+            }
+        }
+        if (AI_TABLE_FILE != null) {
+            loadAITable();
+            long minutes = Long.getLong("connect4.ai.tableSaveMinutes", 10);
+            if (minutes > 0) {
+                tableSaver.scheduleWithFixedDelay(Connect4Server::saveAITable, minutes, minutes, TimeUnit.MINUTES);
+            }
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(Connect4Server::drain, "server-drain"));
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+            Connect4Server.serverSocket = serverSocket;
+            log.log(ServerLog.Level.INFO, "server.listening", "port", PORT);
             while (true) {
-                System.out.println("Waiting for a player...");
                 Socket player = serverSocket.accept();
-                System.out.println("Player connected.");
+                log.log(ServerLog.Level.INFO, "connection.accept", "remote", player.getRemoteSocketAddress());
+                try {
+                    monitor.configure(player);
+                } catch (IOException e) {
+                    player.close();
+                    continue;
+                }
+                // The handshake runs on the pool so a silent client cannot block the accept loop
+                pool.execute(() -> handshake(player));
+            }
+        } catch (IOException e) {
+            if (!draining) {
+                log.error("server.failed", e);
+            }
+        } finally {
+            if (!draining) {
+                stopServices();
+            }
+        }
+    }
+
+    /**
+     * Shuts the server down gracefully: stops accepting connections and starting games, then waits
+     * up to the drain timeout for the running games to finish. Runs as a shutdown hook.
+     */
+    private static void drain() {
+        draining = true;
+        log.log(ServerLog.Level.INFO, "server.drain", "games", directory.size(),
+                "parked", hibernator == null ? 0 : hibernator.getParked());
+        try {
+            ServerSocket socket = serverSocket;
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+        long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        while (directory.size() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        stopServices();
+    }
+
+    /**
+     * Stops the worker threads and timers.
+     */
+    private static void stopServices() {
+        pool.shutdown();
+        aiService.shutdown();
+        analyzer.close();
+        monitor.shutdown();
+        clockTimer.stop();
+        if (hibernator != null) {
+            hibernator.shutdown();
+        }
+        tableSaver.shutdown();
+        if (AI_TABLE_FILE != null) {
+            saveAITable();
+        }
+        if (ratings != null) {
+            try {
+                ratings.close();
+            } catch (IOException e) {
+                log.error("ratings.close.failed", e);
+            }
+        }
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                log.error("archive.close.failed", e);
+            }
+        }
+        if (capture != null) {
+            try {
+                capture.close();
+            } catch (IOException e) {
+                log.error("capture.close.failed", e);
+            }
+        }
+        log.log(ServerLog.Level.INFO, "server.stop");
+        log.close();
+    }
 
-                // Ask the player if they want single or multiplayer mode
-                ObjectOutputStream out = new ObjectOutputStream(player.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(player.getInputStream());
+    /**
+     * Loads the n-tuple network the medium computer player plays with.
+     *
+     * @param file The network file, or null.
+     * @return The network, or null if there is none or it cannot be loaded; medium moves are then searched.
+     */
+    private static NTupleNetwork loadNetwork(String file) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            NTupleNetwork network = NTupleNetwork.load(Paths.get(file));
+            log.log(ServerLog.Level.INFO, "network.loaded", "file", file, "variant", network.getVariant());
+            return network;
+        } catch (IOException e) {
+            log.log(ServerLog.Level.WARN, "network.failed", "file", file, "reason", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Warms the computer player's cache with the table saved by an earlier run, if there is one.
+     */
+    private static void loadAITable() {
+        Path file = Paths.get(AI_TABLE_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            int entries = aiTable.load(file);
+            log.log(ServerLog.Level.INFO, "table.loaded", "positions", entries,
+                    "millis", (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            log.log(ServerLog.Level.WARN, "table.load.failed", "reason", e.getMessage());
+        }
+    }
 
-                out.writeObject("Would you like to play against another player (2) or the computer (1)? Enter 1 or 2:");
-                out.flush();
-                int mode = (int) in.readObject();
+    /**
+     * Saves the computer player's cache so the next run starts warm.
+     */
+    private static synchronized void saveAITable() {
+        long start = System.nanoTime();
+        try {
+            int entries = aiTable.save(Paths.get(AI_TABLE_FILE));
+            log.log(ServerLog.Level.INFO, "table.saved", "positions", entries,
+                    "millis", (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            log.log(ServerLog.Level.WARN, "table.save.failed", "reason", e.getMessage());
+        }
+    }
 
+    /**
+     * Asks a new client which mode they want and starts or joins a game session. The client has the
+     * handshake timeout to answer.
+     *
+     * @param player The client's socket.
+     */
+    private static void handshake(Socket player) {
+        PlayerConnection connection;
+        try {
+            connection = new PlayerConnection(player, monitor, capture);
+        } catch (SocketTimeoutException e) {
+            monitor.recordClose(ConnectionMonitor.CloseReason.HANDSHAKE_TIMEOUT);
+            return;
+        } catch (IOException e) {
+            monitor.recordClose(ConnectionMonitor.CloseReason.DISCONNECTED);
+            return;
+        }
 
-                if (mode == 1) {
-                    // Single-player game
-                    System.out.println("Player chose to play against computer.");
-                    pool.execute(new SinglePlayerSession(player, out, in));
+        Object reply;
+        try {
+            // Ask the player if they want single or multiplayer mode
+            connection.send("Would you like to play against another player (2) or the computer (1)? Enter 1 or 2:");
+            reply = connection.receive(monitor.getHandshakeTimeoutMillis(),
+                    ConnectionMonitor.CloseReason.HANDSHAKE_TIMEOUT);
+        } catch (IOException | ClassNotFoundException e) {
+            connection.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            return;
+        }
+
+        if (reply instanceof String && HandshakeRequest.MUX.equals(HandshakeRequest.parse(reply).get("mode"))) {
+            // Several games over this connection, each starting with its own handshake
+            try {
+                connection.send("Multiplexing enabled");
+            } catch (IOException e) {
+                connection.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+                return;
+            }
+            new MultiplexedConnection(connection, monitor, pool, Connect4Server::startSession,
+                    MAX_GAMES_PER_CONNECTION, 64 * MAX_GAMES_PER_CONNECTION).run();
+        } else {
+            startSession(connection, reply);
+        }
+    }
+
+    /**
+     * Starts the session a handshake asks for on a player's channel: a game against the computer,
+     * a multiplayer game, watching a game, listing the games or showing the leaderboard. Runs until
+     * the session ends. Games of players who sent a name are rated.
+     *
+     * @param channel The player's channel.
+     * @param reply   The player's handshake.
+     */
+    private static void startSession(PlayerChannel channel, Object reply) {
+        HandshakeRequest request;
+        Connect4Variant variant;
+        TimeControl clock;
+        String name;
+        int gameMode;
+        try {
+            try {
+                request = HandshakeRequest.parse(reply);
+                variant = request.getVariant();
+                clock = request.getTimeControl(DEFAULT_CLOCK);
+                // Leaderboard requests may look up any name, including the computer's
+                name = HandshakeRequest.LEADERBOARD.equals(request.get("mode")) ? null : request.getPlayerName();
+            } catch (IllegalArgumentException e) {
+                channel.send("Unsupported request: " + e.getMessage());
+                channel.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+                return;
+            }
+
+            String mode = request.get("mode");
+            if (HandshakeRequest.PING.equals(mode)) {
+                // Health check, used by gateways
+                channel.send("pong " + (draining ? "draining" : "ok") + " games=" + directory.size());
+                channel.close(ConnectionMonitor.CloseReason.COMPLETED);
+                return;
+            } else if (draining && !HandshakeRequest.LIST.equals(mode) && !HandshakeRequest.WATCH.equals(mode)
+                    && !HandshakeRequest.LEADERBOARD.equals(mode)) {
+                channel.send("Server is shutting down. Please reconnect.");
+                channel.close(ConnectionMonitor.CloseReason.COMPLETED);
+                return;
+            } else if (HandshakeRequest.MUX.equals(mode)) {
+                // Only a whole connection can be multiplexed
+                channel.send("Unsupported request: " + mode);
+                channel.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+                return;
+            } else if (HandshakeRequest.LIST.equals(mode)) {
+                channel.send(directory.list());
+                channel.close(ConnectionMonitor.CloseReason.COMPLETED);
+                return;
+            } else if (HandshakeRequest.LEADERBOARD.equals(mode)) {
+                channel.send(leaderboard(request));
+                channel.close(ConnectionMonitor.CloseReason.COMPLETED);
+                return;
+            } else if (HandshakeRequest.ANALYZE.equals(mode)) {
+                analyzeGame(channel, request.get("moves"), variant);
+                return;
+            } else if (HandshakeRequest.WATCH.equals(mode)) {
+                GameDirectory.Game watched = null;
+                try {
+                    watched = directory.find(Integer.parseInt(String.valueOf(request.get("game"))));
+                } catch (NumberFormatException e) {
+                    // Reported as an unknown game below
+                }
+                if (watched == null) {
+                    channel.send("Unknown game: " + request.get("game"));
+                    channel.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
                 } else {
-                    while (true) {
-                        // Multiplayer game - wait for a second player
-                        System.out.println("Waiting for a another player...");
-                        Socket player2 = serverSocket.accept();
-                        System.out.println("Second player connected.");
-
-                        ObjectOutputStream out2 = new ObjectOutputStream(player2.getOutputStream());
-                        ObjectInputStream in2 = new ObjectInputStream(player2.getInputStream());
-
-                        out2.writeObject("Would you like to play against another player (2) or the computer (1)? Enter 1 or 2:");
-                        out2.flush();
-
-                        int mode2 = (int) in2.readObject();
-                        if (mode2 == 1) {
-                            System.out.println("Player chose to play against computer.");
-                            pool.execute(new SinglePlayerSession(player2, out2, in2));
-                            continue;
-                        } else {
-                            pool.execute(new MultiplayerSession(player, player2, out, in, out2, in2));
-                            break;
-                        }
-                    }
+                    watched.watch(channel); // Disconnected when the game ends
                 }
+                return;
             }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        } finally {
-            pool.shutdown();
+            try {
+                gameMode = request.getMode();
+            } catch (IllegalArgumentException e) {
+                channel.send("Unsupported request: " + e.getMessage());
+                channel.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+                return;
+            }
+        } catch (IOException e) {
+            channel.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            return;
+        }
+
+        if (gameMode == HandshakeRequest.SINGLE_PLAYER) {
+            // Single-player game
+            GameDirectory.Game listing = directory.open(variant + " computer");
+            Difficulty difficulty = request.getDifficulty(AI_DIFFICULTY);
+            log.log(ServerLog.Level.INFO, "session.start", "game", listing.getId(), "mode", "computer",
+                    "variant", variant, "difficulty", difficulty);
+            // The computer is rated like a player, one rating per difficulty
+            GameResultListener results = results(name, channel,
+                    HandshakeRequest.COMPUTER_PREFIX + difficulty.name().toLowerCase(), null);
+            GameEvents.Session session = new GameEvents.Session();
+            session.begin();
+            // Run by whichever thread ends the session: it may have parked and woken on another
+            Runnable ended = () -> {
+                log.log(ServerLog.Level.INFO, "session.end", "game", listing.getId());
+                directory.close(listing);
+                GameEvents.commit(session, "computer", variant, listing.getId());
+            };
+            new SinglePlayerSession(channel, monitor, aiService, difficulty, variant, listing, results, log,
+                    hibernation, ended).run();
+        } else {
+            // Multiplayer game - pair with a player waiting for the same variant and time control, or
+            // with the player a gateway matched them with
+            String match = request.get("match");
+            String pairing = variant + " " + clock + (match != null ? " match " + match : "");
+            WaitingPlayer opponent;
+            synchronized (waitingPlayers) {
+                opponent = waitingPlayers.remove(pairing);
+                if (opponent == null || opponent.channel.isClosed()) {
+                    log.log(ServerLog.Level.INFO, "session.waiting", "variant", variant, "clock", clock);
+                    waitingPlayers.put(pairing, new WaitingPlayer(channel, name));
+                    return;
+                }
+            }
+            GameEvents.commit(opponent.wait, pairing);
+            GameDirectory.Game listing = directory.open(variant + " multiplayer"
+                    + (clock.isTimed() ? " clock " + clock : ""));
+            log.log(ServerLog.Level.INFO, "session.start", "game", listing.getId(), "mode", "multiplayer",
+                    "variant", variant, "clock", clock);
+            GameEvents.Session session = new GameEvents.Session();
+            session.begin();
+            try {
+                new MultiplayerSession(opponent.channel, channel, monitor, variant, clock, clockTimer, listing,
+                        results(opponent.name, opponent.channel, name, channel), log).run();
+            } finally {
+                log.log(ServerLog.Level.INFO, "session.end", "game", listing.getId());
+                directory.close(listing);
+                GameEvents.commit(session, "multiplayer", variant, listing.getId());
+            }
+        }
+    }
+
+    /**
+     * Answers an analysis request: every position of the game, from the empty board to the last
+     * move, is analyzed and sent as one line (see BatchAnalyzer.Result), followed by a summary line.
+     *
+     * @param channel The client's channel.
+     * @param moves   The game's moves, as BatchAnalyzer.parseMoves reads them.
+     * @param variant The board variant.
+     * @throws IOException If the client cannot be reached.
+     */
+    private static void analyzeGame(PlayerChannel channel, String moves, Connect4Variant variant) throws IOException {
+        List<PositionSnapshot> positions;
+        try {
+            if (moves == null) {
+                throw new IllegalArgumentException("moves option is missing");
+            }
+            positions = BatchAnalyzer.gamePositions(variant, moves);
+        } catch (IllegalArgumentException e) {
+            channel.send("Unsupported request: " + e.getMessage());
+            channel.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+            return;
+        }
+        log.log(ServerLog.Level.INFO, "analysis.start", "variant", variant, "positions", positions.size());
+        BatchAnalyzer.Summary summary;
+        try {
+            summary = analyzer.analyze(positions.iterator(), result -> channel.send(result.toString()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.close(ConnectionMonitor.CloseReason.COMPLETED);
+            return;
+        }
+        log.log(ServerLog.Level.INFO, "analysis.end", "positions", summary.getPositions(),
+                "perSecond", Math.round(summary.getPositionsPerSecond()));
+        channel.send("Analysis complete: " + summary);
+        channel.close(ConnectionMonitor.CloseReason.COMPLETED);
+    }
+
+    /**
+     * Formats the leaderboard for a leaderboard request: the top players, given by the top option
+     * (default 10, at most 100), and the rank of the player given by the name option.
+     *
+     * @param request The request.
+     * @return The leaderboard, one player per line.
+     */
+    private static String leaderboard(HandshakeRequest request) {
+        if (ratings == null) {
+            return "Ratings are not available.";
+        }
+        int count = 10;
+        try {
+            count = Math.max(1, Math.min(100, Integer.parseInt(String.valueOf(request.get("top")))));
+        } catch (NumberFormatException e) {
+            // Default length
+        }
+        StringBuilder text = new StringBuilder("Leaderboard: ").append(ratings.size()).append(" players");
+        int rank = 1;
+        for (RatingService.Rating rating : ratings.top(count)) {
+            text.append('\n').append(rank++).append(". ").append(rating);
+        }
+        String name = request.get("name");
+        if (name != null) {
+            int playerRank = ratings.rankOf(name);
+            text.append('\n').append(playerRank > 0 ? name + " is ranked " + playerRank + ": " + ratings.get(name)
+                    : name + " is not rated");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the listener that archives each game and rates games between two named players,
+     * telling them their new ratings. Games with a guest, or of a player against themselves, are not
+     * rated.
+     *
+     * @param nameX   The name of the player playing 'X', or null for a guest.
+     * @param playerX The channel of the player playing 'X'.
+     * @param nameO   The name of the player playing 'O', or null for a guest.
+     * @param playerO The channel of the player playing 'O', or null for the computer.
+     * @return The listener.
+     */
+    private static GameResultListener results(String nameX, PlayerChannel playerX, String nameO, PlayerChannel playerO) {
+        RatingService service = ratings;
+        GameArchive.Writer games = archive;
+        boolean rated = service != null && nameX != null && nameO != null && !nameX.equals(nameO);
+        if (!rated && games == null) {
+            return GameResultListener.NONE;
+        }
+        return (game, winner) -> {
+            double beforeX = rated ? service.get(nameX).getRating() : 0;
+            double beforeO = rated ? service.get(nameO).getRating() : 0;
+            if (games != null) {
+                try {
+                    games.append(game.getVariant(), game.getMoves(), winner, (int) Math.round((beforeX + beforeO) / 2));
+                } catch (IOException e) {
+                    log.log(ServerLog.Level.WARN, "archive.failed", "reason", e.getMessage());
+                }
+            }
+            if (!rated) {
+                return;
+            }
+            try {
+                service.recordGame(nameX, nameO, winner == 'X' ? 1 : winner == 'O' ? 0 : 0.5);
+            } catch (IOException e) {
+                // The ratings changed in memory and are saved with the next snapshot
+                log.log(ServerLog.Level.WARN, "ratings.log.failed", "reason", e.getMessage());
+            }
+            tellRating(service, playerX, nameX, beforeX);
+            tellRating(service, playerO, nameO, beforeO);
+        };
+    }
+
+    /**
+     * Tells a player their new rating and rank after a rated game.
+     *
+     * @param service The rating service.
+     * @param player  The player's channel, or null for the computer.
+     * @param name    The player's name.
+     * @param before  The player's rating before the game.
+     * @throws IOException If the player cannot be reached.
+     */
+    private static void tellRating(RatingService service, PlayerChannel player, String name, double before)
+            throws IOException {
+        if (player == null || player.isClosed()) {
+            return;
+        }
+        long after = Math.round(service.get(name).getRating());
+        long change = after - Math.round(before);
+        player.send("Your rating: " + after + " (" + (change >= 0 ? "+" : "") + change + "), ranked "
+                + service.rankOf(name) + " of " + service.size() + ".");
+    }
+
+    /**
+     * A multiplayer player waiting to be paired.
+     */
+    private static final class WaitingPlayer {
+        final PlayerChannel channel;
+        final String name;
+        final GameEvents.Matchmaking wait = new GameEvents.Matchmaking();
+
+        WaitingPlayer(PlayerChannel channel, String name) {
+            this.channel = channel;
+            this.name = name;
+            wait.begin();
         }
     }
 }
@@ -76,34 +574,51 @@ public class Connect4Server {
  * Executes a multiplayer session between two players.
  */
 class MultiplayerSession implements Runnable {
-    private final Socket player1;
-    private final Socket player2;
+    private final PlayerChannel player1;
+    private final PlayerChannel player2;
+    private final ConnectionMonitor monitor;
     private final Connect4Logic game;
-    private final ObjectOutputStream out1;
-    private final ObjectInputStream in1;
-    private final ObjectOutputStream out2;
-    private final ObjectInputStream in2;
+    private final TimeControl timeControl;
+    private final HashedWheelTimer timer;
+    private final GameClock clock;
+    private final GameDirectory.Game listing;
+    private final GameResultListener results;
+    private final ServerLog log;
+    // The side that ran out of time or left during its turn, or 0
+    private char forfeited;
 
 
     /**
-     * Creates a new MultiplayerSession object that initializes player sockets, communication
-     * streams, and the game logic.
+     * Creates a new MultiplayerSession object that initializes the player connections, the game logic
+     * and the game clock.
      *
-     * @param player1 The first player's socket.
-     * @param player2 The second player's socket.
-     * @param out1    Output stream for player 1.
-     * @param in1     Input stream for player 1.
-     * @param out2    Output stream for player 2.
-     * @param in2     Input stream for player 2.
+     * @param player1     The first player's channel.
+     * @param player2     The second player's channel.
+     * @param monitor     The monitor holding the turn and idle timeouts.
+     * @param variant     The board variant both players asked for.
+     * @param timeControl The time control both players asked for.
+     * @param timer       The timer that runs the game clock.
+     * @param listing     The game's entry in the game directory, which spectators watch.
+     * @param results     Told the result of every game, including forfeits.
+     * @param log         The server log.
      */
-    public MultiplayerSession(Socket player1, Socket player2, ObjectOutputStream out1, ObjectInputStream in1, ObjectOutputStream out2, ObjectInputStream in2) {
+    public MultiplayerSession(PlayerChannel player1, PlayerChannel player2, ConnectionMonitor monitor,
+                              Connect4Variant variant, TimeControl timeControl, HashedWheelTimer timer,
+                              GameDirectory.Game listing, GameResultListener results, ServerLog log) {
         this.player1 = player1;
         this.player2 = player2;
-        this.game = new Connect4Logic();
-        this.out1 = out1;
-        this.in1 = in1;
-        this.out2 = out2;
-        this.in2 = in2;
+        this.monitor = monitor;
+        this.game = new Connect4Logic(variant);
+        this.timeControl = timeControl;
+        this.timer = timer;
+        this.listing = listing;
+        this.results = results;
+        this.log = log;
+        listing.track(game);
+        // Untimed games still limit each move to the turn timeout. A fallen flag closes the player's
+        // connection, which wakes the session thread waiting for their move.
+        this.clock = new GameClock(timer, timeControl, monitor.getTurnTimeoutMillis(),
+                player -> (player == 0 ? player1 : player2).close(ConnectionMonitor.CloseReason.TURN_TIMEOUT));
 
     }
 
@@ -113,82 +628,142 @@ class MultiplayerSession implements Runnable {
      * updating the game board, and notifying players of game results (win, draw, or invalid moves).
      * After the game ends, prompts both players to decide whether to replay or exit.
      *
-     * This method ensures continuous communication with both players using their respective
-     * input and output streams while managing the Connect 4 game state.
+     * A player whose clock runs out, or who leaves, forfeits the game and the opponent is told why
+     * the game ended.
      */
     @Override
     public void run() {
+        // The clock ends every wait, including long move limits the client chose; the idle limit must not cut it short
+        boolean held = clock.limitsMoves();
+        if (held) {
+            player1.holdOpen(true);
+            player2.holdOpen(true);
+        }
         try {
-            out1.writeObject("Welcome Player 1! You are 'X'");
-            out2.writeObject("Welcome Player 2! You are 'O'");
+            player1.send("Welcome Player 1! You are 'X'");
+            player2.send("Welcome Player 2! You are 'O'");
 
             boolean isGameOver = false;
 
             while (!isGameOver) {
                 // Player 1 turn
-                isGameOver = handleTurn(in1, out1, out2, 'X');
+                isGameOver = handleTurn(player1, player2, 'X', 0);
                 if (isGameOver) break;
 
                 // Player 2 turn
-                isGameOver = handleTurn(in2, out2, out1, 'O');
+                isGameOver = handleTurn(player2, player1, 'O', 1);
             }
 
-            askToReplay(out1, in1, out2, in2);
+            askToReplay();
+        } catch (SocketTimeoutException e) {
+            log.log(ServerLog.Level.INFO, "game.abandon", "game", listing.getId(), "reason", "time",
+                    "player", forfeited == 0 ? "none" : forfeited);
+            abandon("Your opponent ran out of time and forfeits the game.");
         } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+            log.log(ServerLog.Level.INFO, "game.abandon", "game", listing.getId(), "reason", "left",
+                    "player", forfeited == 0 ? "none" : forfeited);
+            abandon("Your opponent left the game.");
+        } finally {
+            if (held) {
+                player1.holdOpen(false);
+                player2.holdOpen(false);
+            }
         }
     }
 
     /**
      * Handles a single player's turn, processes their input, updates the board, and notifies the opponent.
      *
-     * @param in           Input stream of the current player.
-     * @param out          Output stream for the current player.
-     * @param opponentOut  Output stream for the opponent.
-     * @param player       The current player.
+     * @param current  The current player's channel.
+     * @param opponent The opponent's channel.
+     * @param player   The current player.
+     * @param side     The current player's clock, 0 or 1.
      * @return True if the game is over (win or draw), otherwise false.
-     * @throws IOException            When communication with a client fails.
+     * @throws IOException            When communication with a client fails or the player runs out of time.
      * @throws ClassNotFoundException When an invalid object is received from the client.
      */
-    private boolean handleTurn(ObjectInputStream in, ObjectOutputStream out, ObjectOutputStream opponentOut, char player)
+    private boolean handleTurn(PlayerChannel current, PlayerChannel opponent, char player, int side)
             throws IOException, ClassNotFoundException {
-        out.writeObject("Your turn, Player " + player + ". Enter a column (1-7):");
-        out.flush();
+        long remaining = clock.getRemainingMillis(side);
+        current.send("Your turn, Player " + player + (remaining >= 0 ? " (" + formatClock(remaining) + " left)" : "")
+                + ". Enter a column (1-" + game.getColumns() + "):");
+
+        clock.start(side);
+        Object input;
+        try {
+            input = current.receive(0, ConnectionMonitor.CloseReason.TURN_TIMEOUT);
+        } catch (IOException e) {
+            forfeited = player;
+            if (!clock.stop()) {
+                throw new SocketTimeoutException("Player " + player + " ran out of time");
+            }
+            throw e;
+        }
+        if (!clock.stop()) {
+            // The flag fell just before the move arrived
+            forfeited = player;
+            current.close(ConnectionMonitor.CloseReason.TURN_TIMEOUT);
+            throw new SocketTimeoutException("Player " + player + " ran out of time");
+        }
 
-        int column = (int) in.readObject();
-        if (game.makeMove(column)) {
+        GameEvents.Move event = new GameEvents.Move();
+        event.begin();
+        long written = current.getBytesWritten() + opponent.getBytesWritten();
+        boolean isGameOver = applyMove(current, opponent, player, input);
+        GameEvents.commit(event, listing.getId(), player, input instanceof Integer ? (Integer) input : 0, false,
+                current.getBytesWritten() + opponent.getBytesWritten() - written);
+        return isGameOver;
+    }
 
-            String boardStateString = Arrays.deepToString(game.getBoard());
-            out.writeObject(boardStateString);
-            out.flush();
+    /**
+     * Applies a player's input to the game and tells both players and the spectators the outcome.
+     *
+     * @param current  The current player's channel.
+     * @param opponent The opponent's channel.
+     * @param player   The current player.
+     * @param input    What the current player sent.
+     * @return True if the game is over (win or draw), otherwise false.
+     * @throws IOException When communication with a client fails.
+     */
+    private boolean applyMove(PlayerChannel current, PlayerChannel opponent, char player, Object input)
+            throws IOException {
+        if (!(input instanceof Integer)) {
+            current.send("Invalid input. Please enter a valid column (1-" + game.getColumns() + ").");
+            return false;
+        }
+        if (game.makeMove((Integer) input)) {
 
-            opponentOut.writeObject(boardStateString);
-            out.flush();
+            String boardStateString = Arrays.deepToString(game.getBoard());
+            current.send(boardStateString);
+            opponent.send(boardStateString);
+            listing.broadcast(boardStateString);
 
 
             if (game.checkWin()) {
                 String message = "Player " + player + " wins!";
-                out.writeObject(message);  // Send to player 1
-                opponentOut.writeObject(message);  // Send to player 2
-                out.flush();
-                opponentOut.flush();
+                current.send(message);  // Send to the current player
+                opponent.send(message);  // Send to the opponent
+                listing.broadcast(message);
+                log.log(ServerLog.Level.INFO, "game.end", "game", listing.getId(), "winner", player,
+                        "moves", game.getMoveCount());
+                results.gameEnded(game, player);
                 return true;
 
 
             } else if (game.isBoardFull()) {
-                out.writeObject("Game is a draw!");
-                out.flush();
-                opponentOut.writeObject("Game is a draw!");
-                out.flush();
+                current.send("Game is a draw!");
+                opponent.send("Game is a draw!");
+                listing.broadcast("Game is a draw!");
+                log.log(ServerLog.Level.INFO, "game.end", "game", listing.getId(), "winner", "draw",
+                        "moves", game.getMoveCount());
+                results.gameEnded(game, ' ');
                 return true;
             } else {
                 game.switchPlayer();
             }
         } else {
-            out.writeObject("Invalid move. Try again.");
-            out.flush();
-            opponentOut.writeObject("Invalid move. Try again.");
-            out.flush();
+            current.send("Invalid move. Try again.");
+            opponent.send("Invalid move. Try again.");
         }
         return false;
     }
@@ -196,62 +771,132 @@ class MultiplayerSession implements Runnable {
     /**
      * Prompts both players to decide if they wish to replay. Restarts the session if both agree.
      *
-     * @param out1 Output stream for player 1.
-     * @param in1  Input stream for player 1.
-     * @param out2 Output stream for player 2.
-     * @param in2  Input stream for player 2.
-     * @throws IOException            When communication with a client fails.
+     * @throws IOException            When communication with a client fails or a player does not answer in time.
      * @throws ClassNotFoundException When an invalid object is received from the client.
      */
-    private void askToReplay(ObjectOutputStream out1, ObjectInputStream in1, ObjectOutputStream out2, ObjectInputStream in2)
-            throws IOException, ClassNotFoundException {
-        out1.writeObject("Do you want to play again? Enter 'Yes' or 'No':");
-        out1.flush();
+    private void askToReplay() throws IOException, ClassNotFoundException {
+        player1.send("Do you want to play again? Enter 'Yes' or 'No':");
+        player2.send("Do you want to play again? Enter 'Yes' or 'No':");
 
-        out2.writeObject("Do you want to play again? Enter 'Yes' or 'No':");
-        out2.flush();
+        Object response1 = player1.receive(monitor.getIdleTimeoutMillis(), ConnectionMonitor.CloseReason.IDLE_TIMEOUT);
+        Object response2 = player2.receive(monitor.getIdleTimeoutMillis(), ConnectionMonitor.CloseReason.IDLE_TIMEOUT);
 
-        String response1 = (String) in1.readObject();
-        String response2 = (String) in2.readObject();
 
-
-        if (response1.equalsIgnoreCase("Yes") && response2.equalsIgnoreCase("Yes")) {
-            out1.writeObject("New game started");
-            out2.writeObject("New game started");
-            new MultiplayerSession(player1, player2, out1, in1, out2, in2).run();
+        if ("Yes".equalsIgnoreCase(String.valueOf(response1)) && "Yes".equalsIgnoreCase(String.valueOf(response2))) {
+            player1.send("New game started");
+            player2.send("New game started");
+            new MultiplayerSession(player1, player2, monitor, game.getVariant(), timeControl, timer, listing,
+                    results, log).run();
         } else {
-            out1.writeObject("Thank you for playing!");
-            out2.writeObject("Thank you for playing!");
-            player1.close();
-            player2.close();
+            player1.send("Thank you for playing!");
+            player2.send("Thank you for playing!");
+            player1.close(ConnectionMonitor.CloseReason.COMPLETED);
+            player2.close(ConnectionMonitor.CloseReason.COMPLETED);
+        }
+    }
+
+    /**
+     * Formats a clock reading as minutes and seconds.
+     *
+     * @param millis The time in milliseconds.
+     * @return The time as M:SS.
+     */
+    private static String formatClock(long millis) {
+        long seconds = (millis + 999) / 1000;
+        return seconds / 60 + ":" + (seconds % 60 < 10 ? "0" : "") + seconds % 60;
+    }
+
+    /**
+     * Ends the session after a player timed out or left: the remaining player is told why and
+     * disconnected, and any connection still open is closed. A player who ran out of time or left
+     * during their turn loses the game.
+     *
+     * @param message The message for the remaining player.
+     */
+    private void abandon(String message) {
+        PlayerChannel[] players = {player1, player2};
+        for (PlayerChannel connection : players) {
+            if (connection.isClosed()) {
+                continue;
+            }
+            try {
+                connection.send(message);
+            } catch (IOException e) {
+                connection.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            }
+        }
+        if (forfeited != 0) {
+            try {
+                results.gameEnded(game, forfeited == 'X' ? 'O' : 'X');
+            } catch (IOException e) {
+                // The remaining player left too; their connection is closed below
+            }
+        }
+        for (PlayerChannel connection : players) {
+            if (!connection.isClosed()) {
+                connection.close(ConnectionMonitor.CloseReason.OPPONENT_LEFT);
+            }
         }
     }
 }
 
 /**
  * Executes a single-player session where the player competes against the computer.
+ *
+ * A session whose player has been silent for the hibernator's idle threshold, on their turn or at
+ * the replay prompt, parks (see SessionHibernator): it stores the variant, the difficulty and the
+ * moves played, and gives up its thread and its game objects until the player's next message.
  */
 class SinglePlayerSession implements Runnable {
-    private final Socket player;
+    // How long the session waits for the computer's move before playing a random one
+    private static final long AI_MOVE_TIMEOUT_MILLIS = Long.getLong("connect4.ai.moveTimeoutMillis", 10_000);
+    private static final byte WAIT_TURN = 1;
+    private static final byte WAIT_REPLAY = 2;
+
+    private final PlayerChannel player;
+    private final ConnectionMonitor monitor;
     private final Connect4Logic game;
     private final Connect4ComputerPlayer computerPlayer;
-    private final ObjectOutputStream out;
-    private final ObjectInputStream in;
+    private final Connect4AIService aiService;
+    private final Difficulty difficulty;
+    private final GameDirectory.Game listing;
+    private final GameResultListener results;
+    private final ServerLog log;
+    private final Hibernation hibernation;
+    private final Runnable ended;
+    // Set once another thread or session is responsible for ending the session
+    private boolean detached;
 
     /**
-     * Creates a new SinglePlayerSession object that initializes the player socket, communication streams,
-     * game logic, and computer player.
+     * Creates a new SinglePlayerSession object that initializes the player connection, game logic,
+     * and computer player.
      *
-     * @param player The player's socket.
-     * @param out    Output stream for the player.
-     * @param in     Input stream from the player.
+     * @param player      The player's channel.
+     * @param monitor     The monitor holding the turn and idle timeouts.
+     * @param aiService   The service that computes the computer's moves.
+     * @param difficulty  The difficulty level of the computer player.
+     * @param variant     The board variant the player asked for.
+     * @param listing     The game's entry in the game directory, which spectators watch.
+     * @param results     Told the result of every finished game.
+     * @param log         The server log.
+     * @param hibernation Parks the session while the player is idle, or null to always wait on the thread.
+     * @param ended       Run once when the session ends, on whichever thread ends it.
      */
-    public SinglePlayerSession(Socket player, ObjectOutputStream out, ObjectInputStream in) {
+    public SinglePlayerSession(PlayerChannel player, ConnectionMonitor monitor, Connect4AIService aiService,
+                               Difficulty difficulty, Connect4Variant variant, GameDirectory.Game listing,
+                               GameResultListener results, ServerLog log, Hibernation hibernation, Runnable ended) {
         this.player = player;
-        this.game = new Connect4Logic();
+        this.monitor = monitor;
+        this.game = new Connect4Logic(variant);
         this.computerPlayer = new Connect4ComputerPlayer(game);
-        this.out = out;
-        this.in = in;
+        this.aiService = aiService;
+        this.difficulty = difficulty;
+        this.listing = listing;
+        this.results = results;
+        this.log = log;
+        this.hibernation = hibernation;
+        listing.track(game);
+        this.ended = ended;
     }
 
     /**
@@ -260,99 +905,280 @@ class SinglePlayerSession implements Runnable {
      * updates the game board, and notifies the player of game results (win, draw, or invalid moves).
      * After the game ends, asks the player whether they wish to replay or exit.
      *
-     * The method communicates with the player via input and output streams and leverages
-     * computer AI for automated gameplay.
+     * The method communicates with the player over their connection and leverages
+     * computer AI for automated gameplay. A player who does not move within the turn timeout is disconnected.
+     * The method returns early if the session parks; it then continues on another thread.
      */
     @Override
     public void run() {
+        try {
+            player.send("Welcome! You are 'X'. The computer is 'O'."); // Ensure the welcome message is sent
+            play(false);
+        } catch (IOException | ClassNotFoundException e) {
+            disconnected();
+        } finally {
+            if (!detached) {
+                ended.run();
+            }
+        }
+    }
 
+    /**
+     * Continues a session that woke from hibernation.
+     *
+     * @param waitingFor What the session was waiting for: WAIT_TURN or WAIT_REPLAY.
+     */
+    private void resume(byte waitingFor) {
         try {
-            out.writeObject("Welcome! You are 'X'. The computer is 'O'.");
-            out.flush(); // Ensure the welcome message is sent
+            if (waitingFor == WAIT_TURN) {
+                play(true);
+            } else {
+                answerReplay();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            disconnected();
+        } finally {
+            if (!detached) {
+                ended.run();
+            }
+        }
+    }
 
-            boolean isGameOver = false;
+    /**
+     * Plays the game to the end, then asks about a replay.
+     *
+     * @param prompted True if the player has already been asked for their move.
+     * @throws IOException            If communication with the client fails or the player does not move in time.
+     * @throws ClassNotFoundException If an invalid object is received from the client.
+     */
+    private void play(boolean prompted) throws IOException, ClassNotFoundException {
+        boolean isGameOver = false;
 
-            while (!isGameOver) {
-                // Player's turn
-                out.writeObject("Your turn. Enter a column (1-7):");
-                out.flush(); // Ensure the prompt is sent
-                Object input = in.readObject();
-
-                if (input instanceof Integer) {
-                    int column = (Integer) input;
-                    if (game.makeMove(column)) {
-
-                        char[][] board = game.getBoard();
-                        String boardStateString = Arrays.deepToString(game.getBoard());
-                        out.writeObject(boardStateString);
-                        out.flush();
-
-                        if (game.checkWin()) {
-                            out.writeObject("Player X wins!");
-                            out.flush();
-                            break;
-                        } else if (game.isBoardFull()) {
-                            out.writeObject("Game is a draw!");
-                            out.flush();
-                            break;
-                        } else {
-                            game.switchPlayer();
-                        }
-
-                        // Computer's turn
-                        int computerMove = computerPlayer.generateMove();
-                        game.makeMove(computerMove);
-
-                        boardStateString = Arrays.deepToString(game.getBoard());
-                        out.writeObject(boardStateString);
-                        out.flush();
-
-                        if (game.checkWin()) {
-                            out.writeObject("Player O wins!");
-                            out.flush();
-                            break;
-                        } else if (game.isBoardFull()) {
-                            out.writeObject("Game is a draw!");
-                            out.flush();
-                            break;
-                        } else {
-                            game.switchPlayer();
-                        }
-                    } else {
-                        out.writeObject("Invalid move. Try again.");
-                        out.flush();
-                    }
-                } else {
-                    out.writeObject("Invalid input. Please enter a valid column (1-7).");
-                    out.flush();
+        while (!isGameOver) {
+            // Player's turn
+            if (!prompted) {
+                player.send("Your turn. Enter a column (1-" + game.getColumns() + "):");
+            }
+            prompted = false;
+            Object input = await(monitor.getTurnTimeoutMillis(), ConnectionMonitor.CloseReason.TURN_TIMEOUT, WAIT_TURN);
+            if (detached) {
+                return; // Parked until the player moves
+            }
+
+            GameEvents.Move event = new GameEvents.Move();
+            event.begin();
+            long written = player.getBytesWritten();
+            boolean moved = false;
+            if (!(input instanceof Integer)) {
+                player.send("Invalid input. Please enter a valid column (1-" + game.getColumns() + ").");
+            } else if (!game.makeMove((Integer) input)) {
+                player.send("Invalid move. Try again.");
+            } else {
+                moved = true;
+                isGameOver = finishMove('X');
+            }
+            GameEvents.commit(event, listing.getId(), 'X', input instanceof Integer ? (Integer) input : 0, false,
+                    player.getBytesWritten() - written);
+
+            if (moved && !isGameOver) {
+                // Computer's turn, computed on the AI worker pool
+                event = new GameEvents.Move();
+                event.begin();
+                written = player.getBytesWritten();
+                int computerMove;
+                try {
+                    computerMove = aiService.requestMove(game, difficulty).get(AI_MOVE_TIMEOUT_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    log.error("computer.move.failed", e.getCause(), "game", listing.getId());
+                    computerMove = computerPlayer.generateMove(); // Fall back to a random move
+                } catch (TimeoutException e) {
+                    log.log(ServerLog.Level.WARN, "computer.move.timeout", "game", listing.getId());
+                    computerMove = computerPlayer.generateMove();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    computerMove = computerPlayer.generateMove();
                 }
+                game.makeMove(computerMove);
+                isGameOver = finishMove('O');
+                GameEvents.commit(event, listing.getId(), 'O', computerMove, true, player.getBytesWritten() - written);
             }
+        }
 
-            askToReplay(out, in);
+        askToReplay();
+    }
 
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+    /**
+     * Waits for the player's next message. Once the player has been idle for the hibernator's
+     * threshold, the session parks instead of waiting on: detached is then set and null returned.
+     *
+     * @param timeoutMillis How long the player has to answer, or 0 for no limit.
+     * @param onTimeout     The reason the channel is closed with if the player does not answer in time.
+     * @param waitingFor    What the session is waiting for, stored if it parks.
+     * @return The message, or null if the session parked.
+     * @throws IOException            If the read fails or the player does not answer in time.
+     * @throws ClassNotFoundException If an invalid object is received from the client.
+     */
+    private Object await(int timeoutMillis, ConnectionMonitor.CloseReason onTimeout, byte waitingFor)
+            throws IOException, ClassNotFoundException {
+        long idle = hibernation == null ? 0 : hibernation.hibernator.getIdleMillis();
+        if (idle <= 0 || (timeoutMillis > 0 && timeoutMillis <= idle)) {
+            return player.receive(timeoutMillis, onTimeout);
+        }
+        try {
+            return player.receive((int) idle);
+        } catch (SocketTimeoutException e) {
+            // Idle long enough to park
+        } catch (IOException e) {
+            player.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            throw e;
+        } catch (ClassNotFoundException e) {
+            player.close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+            throw e;
         }
+        int remaining = timeoutMillis > 0 ? (int) (timeoutMillis - idle) : 0;
+        byte[] state = state(waitingFor);
+        if (state.length <= SessionHibernator.STATE_BYTES // Large boards keep their thread
+                && hibernation.hibernator.park(player, remaining, onTimeout, state, hibernation,
+                player, listing, results, ended)) {
+            detached = true;
+            return null;
+        }
+        return player.receive(remaining, onTimeout);
+    }
+
+    /**
+     * Returns the state stored while the session is parked: what it waits for, the difficulty, the
+     * variant and, on the player's turn, the moves played.
+     */
+    private byte[] state(byte waitingFor) {
+        Connect4Variant variant = game.getVariant();
+        byte[] moves = waitingFor == WAIT_TURN ? GameCodec.encodeGame(variant, game.getMoves()) : new byte[0];
+        ByteBuffer state = ByteBuffer.allocate(5 + moves.length);
+        state.put(waitingFor).put((byte) difficulty.ordinal())
+                .put((byte) variant.getRows()).put((byte) variant.getColumns()).put((byte) variant.getConnectLength())
+                .put(moves);
+        return state.array();
+    }
+
+    /**
+     * Closes the connection of a player who left or timed out.
+     */
+    private void disconnected() {
+        log.log(ServerLog.Level.INFO, "game.abandon", "game", listing.getId(), "reason", "left");
+        player.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+    }
+
+    /**
+     * Sends the board after a move to the player and the spectators, and announces the result if
+     * the move ended the game.
+     *
+     * @param piece The side that moved: 'X' for the player, 'O' for the computer.
+     * @return True if the game is over (win or draw), otherwise false.
+     * @throws IOException If communication with the client fails.
+     */
+    private boolean finishMove(char piece) throws IOException {
+        String boardStateString = Arrays.deepToString(game.getBoard());
+        player.send(boardStateString);
+        listing.broadcast(boardStateString);
+
+        if (game.checkWin()) {
+            player.send("Player " + piece + " wins!");
+            listing.broadcast("Player " + piece + " wins!");
+            log.log(ServerLog.Level.INFO, "game.end", "game", listing.getId(), "winner", piece,
+                    "moves", game.getMoveCount());
+            results.gameEnded(game, piece);
+            return true;
+        } else if (game.isBoardFull()) {
+            player.send("Game is a draw!");
+            listing.broadcast("Game is a draw!");
+            log.log(ServerLog.Level.INFO, "game.end", "game", listing.getId(), "winner", "draw",
+                    "moves", game.getMoveCount());
+            results.gameEnded(game, ' ');
+            return true;
+        }
+        game.switchPlayer();
+        return false;
     }
 
     /**
      * Prompts the player to decide if they wish to replay. Restarts the session if they agree.
      *
-     * @param out Output stream for the player.
-     * @param in  Input stream from the player.
-     * @throws IOException            If communication with the client fails.
+     * @throws IOException            If communication with the client fails or the player does not answer in time.
      * @throws ClassNotFoundException If an invalid object is received from the client.
      */
-    private void askToReplay(ObjectOutputStream out, ObjectInputStream in) throws IOException, ClassNotFoundException {
-        out.writeObject("Do you want to play again? Enter 'Yes' or 'No':");
-        String response = (String) in.readObject();
-        if (response.equalsIgnoreCase("Yes")) {
-            out.writeObject("New game started");
-            out.flush();
-            new SinglePlayerSession(player, out, in).run();
+    private void askToReplay() throws IOException, ClassNotFoundException {
+        player.send("Do you want to play again? Enter 'Yes' or 'No':");
+        answerReplay();
+    }
+
+    /**
+     * Waits for the answer to the replay prompt and acts on it.
+     *
+     * @throws IOException            If communication with the client fails or the player does not answer in time.
+     * @throws ClassNotFoundException If an invalid object is received from the client.
+     */
+    private void answerReplay() throws IOException, ClassNotFoundException {
+        Object response = await(monitor.getIdleTimeoutMillis(), ConnectionMonitor.CloseReason.IDLE_TIMEOUT, WAIT_REPLAY);
+        if (detached) {
+            return; // Parked until the player answers
+        }
+        if ("Yes".equalsIgnoreCase(String.valueOf(response))) {
+            player.send("New game started");
+            detached = true; // The new game's session ends the session
+            new SinglePlayerSession(player, monitor, aiService, difficulty, game.getVariant(), listing, results, log,
+                    hibernation, ended).run();
         } else {
-            out.writeObject("Thank you for playing!");
-            player.close();
+            player.send("Thank you for playing!");
+            player.close(ConnectionMonitor.CloseReason.COMPLETED);
+        }
+    }
+
+    /**
+     * Parks single-player sessions and brings them back. One is shared by every session of a server.
+     */
+    static final class Hibernation implements SessionHibernator.Restorer {
+        private final SessionHibernator hibernator;
+        private final ConnectionMonitor monitor;
+        private final Connect4AIService aiService;
+        private final ServerLog log;
+
+        /**
+         * Creates the hibernation shared by the sessions of a server.
+         *
+         * @param hibernator The hibernator sessions park in.
+         * @param monitor    The monitor holding the turn and idle timeouts.
+         * @param aiService  The service that computes the computer's moves.
+         * @param log        The server log.
+         */
+        Hibernation(SessionHibernator hibernator, ConnectionMonitor monitor, Connect4AIService aiService,
+                    ServerLog log) {
+            this.hibernator = hibernator;
+            this.monitor = monitor;
+            this.aiService = aiService;
+            this.log = log;
+        }
+
+        /**
+         * Rebuilds a parked session from its state, replays its moves and continues it.
+         */
+        @Override
+        public void restore(ByteBuffer state, Object[] attachments) {
+            byte waitingFor = state.get();
+            Difficulty difficulty = Difficulty.values()[state.get()];
+            Connect4Variant variant = new Connect4Variant(state.get(), state.get(), state.get());
+            SinglePlayerSession session = new SinglePlayerSession((PlayerChannel) attachments[0], monitor, aiService,
+                    difficulty, variant, (GameDirectory.Game) attachments[1], (GameResultListener) attachments[2],
+                    log, this, (Runnable) attachments[3]);
+            if (waitingFor == WAIT_TURN) {
+                int[] moves = new int[variant.getRows() * variant.getColumns()];
+                int count = GameCodec.decodeGame(variant, state, moves);
+                for (int i = 0; i < count; i++) {
+                    session.game.makeMove(moves[i]);
+                    session.game.switchPlayer();
+                }
+            }
+            session.resume(waitingFor);
         }
     }
-}
\ No newline at end of file
+}
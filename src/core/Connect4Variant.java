@@ -0,0 +1,117 @@
+package core;
+
+/**
+ * Connect4Variant describes the board a game is played on: its width, height and the number of
+ * pieces in a row needed to win. Variants are written as "COLUMNSxROWS" with an optional
+ * "cLENGTH" suffix, for example "7x6" (the standard game), "9x7" or "8x7c5".
+ */
+public final class Connect4Variant {
+    /** The standard 7 columns by 6 rows, connect four game. */
+    public static final Connect4Variant STANDARD = new Connect4Variant(6, 7, 4);
+
+    /** Largest supported width or height. */
+    public static final int MAX_SIZE = 16;
+
+    private final int rows;
+    private final int columns;
+    private final int connectLength;
+
+    /**
+     * Creates a variant.
+     *
+     * @param rows          The number of rows (4 to 16).
+     * @param columns       The number of columns (4 to 16).
+     * @param connectLength The number of pieces in a row needed to win (3 up to the larger dimension).
+     * @throws IllegalArgumentException If the dimensions are out of range.
+     */
+    public Connect4Variant(int rows, int columns, int connectLength) {
+        if (rows < 4 || rows > MAX_SIZE || columns < 4 || columns > MAX_SIZE) {
+            throw new IllegalArgumentException("Board must be between 4x4 and " + MAX_SIZE + "x" + MAX_SIZE);
+        }
+        if (connectLength < 3 || connectLength > Math.max(rows, columns)) {
+            throw new IllegalArgumentException("Invalid connect length: " + connectLength);
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.connectLength = connectLength;
+    }
+
+    /**
+     * Parses a variant such as "7x6" or "8x7c5".
+     *
+     * @param text The variant text (columns x rows, optional connect length).
+     * @return The variant.
+     * @throws IllegalArgumentException If the text is not a valid variant.
+     */
+    public static Connect4Variant parse(String text) {
+        String value = text.trim().toLowerCase();
+        try {
+            int x = value.indexOf('x');
+            int c = value.indexOf('c');
+            int columns = Integer.parseInt(value.substring(0, x));
+            int rows = Integer.parseInt(c < 0 ? value.substring(x + 1) : value.substring(x + 1, c));
+            int connect = c < 0 ? 4 : Integer.parseInt(value.substring(c + 1));
+            if (rows == STANDARD.rows && columns == STANDARD.columns && connect == STANDARD.connectLength) {
+                return STANDARD;
+            }
+            return new Connect4Variant(rows, columns, connect);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid variant: " + text);
+        }
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return The row count.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return The column count.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of pieces in a row needed to win.
+     *
+     * @return The connect length.
+     */
+    public int getConnectLength() {
+        return connectLength;
+    }
+
+    /**
+     * Checks whether the board fits in a single 64-bit bitboard, using one spare bit per column.
+     *
+     * @return True if columns * (rows + 1) is at most 64.
+     */
+    public boolean fitsInLong() {
+        return columns * (rows + 1) <= 64;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Connect4Variant)) {
+            return false;
+        }
+        Connect4Variant variant = (Connect4Variant) other;
+        return rows == variant.rows && columns == variant.columns && connectLength == variant.connectLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return (rows * 31 + columns) * 31 + connectLength;
+    }
+
+    @Override
+    public String toString() {
+        return columns + "x" + rows + (connectLength == 4 ? "" : "c" + connectLength);
+    }
+}
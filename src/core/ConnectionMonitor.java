@@ -0,0 +1,253 @@
+package core;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ConnectionMonitor holds the server's connection timeouts and socket settings, and runs a reaper
+ * thread that closes connections that have stalled: clients that are blocked on a write for too long
+ * (they have stopped reading) and clients that have sent nothing for longer than the idle timeout.
+ * Connections a session holds open (see PlayerChannel.holdOpen), such as spectators and players
+ * whose game clock already bounds every wait, are not closed for being idle.
+ * Closing the socket wakes the session thread blocked on it, which then ends the game.
+ *
+ * Every closed connection is counted by the reason it was closed, and the counts are logged once a
+ * minute when they change.
+ */
+public class ConnectionMonitor {
+    /**
+     * Why a connection was closed.
+     */
+    public enum CloseReason {
+        /** The client finished normally. */
+        COMPLETED,
+        /** The client closed the connection or it failed. */
+        DISCONNECTED,
+        /** The client sent something the server does not understand. */
+        PROTOCOL_ERROR,
+        /** The client did not answer the mode prompt in time. */
+        HANDSHAKE_TIMEOUT,
+        /** The client did not make a move in time and forfeited. */
+        TURN_TIMEOUT,
+        /** The client sent nothing for longer than the idle timeout. */
+        IDLE_TIMEOUT,
+        /** The client stopped reading, so a write to it stalled. */
+        SLOW_CLIENT,
+        /** The opponent left, so the game could not continue. */
+        OPPONENT_LEFT
+    }
+
+    private final int handshakeTimeoutMillis;
+    private final int turnTimeoutMillis;
+    private final int idleTimeoutMillis;
+    private final int writeTimeoutMillis;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final ServerLog log;
+
+    private final Set<PlayerConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLongArray closes = new AtomicLongArray(CloseReason.values().length);
+    private Thread reaper;
+
+    /**
+     * Creates a monitor that writes its summaries to a server log. A timeout of 0 disables it.
+     *
+     * @param handshakeTimeoutMillis How long a new client has to answer the mode prompt.
+     * @param turnTimeoutMillis      How long a player has to make a move before forfeiting.
+     * @param idleTimeoutMillis      How long any other read (such as the replay answer) may take.
+     * @param writeTimeoutMillis     How long a write may stay blocked before the client is dropped.
+     * @param sendBufferSize         The socket send buffer size in bytes, or 0 for the system default.
+     * @param receiveBufferSize      The socket receive buffer size in bytes, or 0 for the system default.
+     * @param log                    The log the summaries go to.
+     */
+    public ConnectionMonitor(int handshakeTimeoutMillis, int turnTimeoutMillis, int idleTimeoutMillis,
+                             int writeTimeoutMillis, int sendBufferSize, int receiveBufferSize, ServerLog log) {
+        this.log = log;
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+        this.turnTimeoutMillis = turnTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Creates a monitor configured from the connect4.timeout.* and connect4.socket.* system properties.
+     *
+     * @param log The log the summaries go to.
+     * @return The monitor.
+     */
+    public static ConnectionMonitor fromSystemProperties(ServerLog log) {
+        return new ConnectionMonitor(
+                Integer.getInteger("connect4.timeout.handshake", 30_000),
+                Integer.getInteger("connect4.timeout.turn", 120_000),
+                Integer.getInteger("connect4.timeout.idle", 300_000),
+                Integer.getInteger("connect4.timeout.write", 15_000),
+                Integer.getInteger("connect4.socket.sendBuffer", 0),
+                Integer.getInteger("connect4.socket.receiveBuffer", 0), log);
+    }
+
+    /**
+     * Applies the socket options to a newly accepted socket. Moves are small messages that must go
+     * out immediately, so Nagle's algorithm is turned off.
+     *
+     * @param socket The accepted socket.
+     * @throws IOException If an option cannot be set.
+     */
+    public void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
+    /**
+     * Starts the reaper thread.
+     */
+    public synchronized void start() {
+        if (reaper != null) {
+            return;
+        }
+        reaper = new Thread(this::reap, "connection-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Stops the reaper thread.
+     */
+    public synchronized void shutdown() {
+        if (reaper != null) {
+            reaper.interrupt();
+            reaper = null;
+        }
+    }
+
+    /**
+     * Checks every open connection once a second and closes the ones that have stalled.
+     */
+    private void reap() {
+        long writeLimit = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        // Reads are already bounded by socket timeouts; this catches connections nobody is reading
+        long idleLimit = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis) * 2;
+        String lastSummary = summary();
+        int ticks = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (PlayerConnection connection : connections) {
+                long writeStartedAt = connection.getWriteStartedAt();
+                if (writeLimit > 0 && writeStartedAt != 0 && now - writeStartedAt > writeLimit) {
+                    connection.close(CloseReason.SLOW_CLIENT);
+                } else if (idleLimit > 0 && now - connection.getLastActivity() > idleLimit && !connection.isHeldOpen()) {
+                    connection.close(CloseReason.IDLE_TIMEOUT);
+                }
+            }
+            if (++ticks % 60 == 0) {
+                String summary = summary();
+                if (!summary.equals(lastSummary)) {
+                    log.log(ServerLog.Level.INFO, "connections", "summary", summary);
+                    lastSummary = summary;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a connection to the set the reaper watches.
+     *
+     * @param connection The new connection.
+     */
+    void register(PlayerConnection connection) {
+        connections.add(connection);
+    }
+
+    /**
+     * Removes a connection from the set the reaper watches.
+     *
+     * @param connection The closed connection.
+     */
+    void unregister(PlayerConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Counts a closed connection.
+     *
+     * @param reason Why it was closed.
+     */
+    void recordClose(CloseReason reason) {
+        closes.incrementAndGet(reason.ordinal());
+    }
+
+    /**
+     * Returns how many connections were closed for a reason.
+     *
+     * @param reason The reason.
+     * @return The number of connections closed for it.
+     */
+    public long getCloseCount(CloseReason reason) {
+        return closes.get(reason.ordinal());
+    }
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return The open connection count.
+     */
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Returns the handshake timeout.
+     *
+     * @return The timeout in milliseconds, or 0 for none.
+     */
+    public int getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    /**
+     * Returns the turn timeout.
+     *
+     * @return The timeout in milliseconds, or 0 for none.
+     */
+    public int getTurnTimeoutMillis() {
+        return turnTimeoutMillis;
+    }
+
+    /**
+     * Returns the idle timeout.
+     *
+     * @return The timeout in milliseconds, or 0 for none.
+     */
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Formats the open connection count and the close counts for the server log.
+     *
+     * @return A one-line summary.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder("open=").append(connections.size());
+        for (CloseReason reason : CloseReason.values()) {
+            summary.append(' ').append(reason.name().toLowerCase()).append('=').append(getCloseCount(reason));
+        }
+        return summary.toString();
+    }
+}
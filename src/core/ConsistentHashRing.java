@@ -0,0 +1,85 @@
+package core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * ConsistentHashRing maps keys to nodes so that every process built from the same node list maps a
+ * key to the same node, and removing a node only moves the keys that were on it. Each node is placed
+ * on the ring many times to spread keys evenly.
+ *
+ * @param <T> The node type.
+ */
+public class ConsistentHashRing<T> {
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+    private final int nodes;
+
+    /**
+     * Builds a ring.
+     *
+     * @param nodes    The nodes.
+     * @param replicas How many points each node has on the ring.
+     * @param name     Gives the stable name a node is hashed by, such as host:port.
+     */
+    public ConsistentHashRing(List<T> nodes, int replicas, Function<T, String> name) {
+        for (T node : nodes) {
+            for (int i = 0; i < replicas; i++) {
+                ring.put(hash(name.apply(node) + "#" + i), node);
+            }
+        }
+        this.nodes = nodes.size();
+    }
+
+    /**
+     * Finds the node for a key, skipping nodes that are unavailable.
+     *
+     * @param key       The key, such as a game id.
+     * @param available Says whether a node may be used.
+     * @return The first available node clockwise from the key, or null if none is available.
+     */
+    public T select(String key, Predicate<T> available) {
+        long hash = hash(key);
+        // Walk clockwise from the key, wrapping around once
+        for (Map<Long, T> part : List.of(ring.tailMap(hash, true), ring.headMap(hash, false))) {
+            for (T node : part.values()) {
+                if (available.test(node)) {
+                    return node;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of nodes on the ring.
+     *
+     * @return The node count.
+     */
+    public int size() {
+        return nodes;
+    }
+
+    /**
+     * Hashes a string with 64-bit FNV-1a followed by a final avalanche step, so nearby keys land far apart.
+     *
+     * @param key The string.
+     * @return The hash.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,56 @@
+package core;
+
+/**
+ * Difficulty levels for the computer player. Each level carries the search depth and the time
+ * budget the computer is allowed to spend on a single move.
+ */
+public enum Difficulty {
+    EASY(0, 0),
+    MEDIUM(4, 50),
+    HARD(10, 500);
+
+    private final int depth;
+    private final long timeBudgetMillis;
+
+    Difficulty(int depth, long timeBudgetMillis) {
+        this.depth = depth;
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * Returns the maximum search depth for this level. A depth of 0 means the computer plays random moves.
+     *
+     * @return The search depth in plies.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the time the computer may spend searching a single move.
+     *
+     * @return The time budget in milliseconds.
+     */
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    /**
+     * Parses a difficulty name, falling back to the given default when the name is unknown.
+     *
+     * @param name         The difficulty name (case-insensitive), may be null.
+     * @param defaultValue The value returned when the name cannot be parsed.
+     * @return The matching difficulty or the default.
+     */
+    public static Difficulty parse(String name, Difficulty defaultValue) {
+        if (name == null) {
+            return defaultValue;
+        }
+        for (Difficulty difficulty : values()) {
+            if (difficulty.name().equalsIgnoreCase(name.trim())) {
+                return difficulty;
+            }
+        }
+        return defaultValue;
+    }
+}
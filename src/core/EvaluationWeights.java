@@ -0,0 +1,91 @@
+package core;
+
+/**
+ * EvaluationWeights are the terms the searches use to score positions they cannot search to the
+ * end: a bonus per piece in the center column, and a score for every line window a player can
+ * still complete, depending on how many of its cells the player already holds.
+ */
+public final class EvaluationWeights {
+    /** The weights the computer player uses. */
+    public static final EvaluationWeights DEFAULT = new EvaluationWeights(3, 50, 5, 1);
+
+    private final int center;
+    private final int nearWin;
+    private final int developing;
+    private final int open;
+
+    /**
+     * Creates a set of weights.
+     *
+     * @param center     The score of each own piece in the center column.
+     * @param nearWin    The score of a window one piece short of a line.
+     * @param developing The score of a window two pieces short of a line.
+     * @param open       The score of a window with fewer pieces.
+     */
+    public EvaluationWeights(int center, int nearWin, int developing, int open) {
+        this.center = center;
+        this.nearWin = nearWin;
+        this.developing = developing;
+        this.open = open;
+    }
+
+    /**
+     * Parses weights written as CENTER/NEARWIN/DEVELOPING/OPEN, for example "3/50/5/1".
+     *
+     * @param text The weights.
+     * @return The parsed weights.
+     * @throws IllegalArgumentException If the text is not four integers separated by slashes.
+     */
+    public static EvaluationWeights parse(String text) {
+        String[] parts = text.trim().split("/");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Weights must be CENTER/NEARWIN/DEVELOPING/OPEN: " + text);
+        }
+        return new EvaluationWeights(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+    }
+
+    /**
+     * Returns the score of each own piece in the center column.
+     *
+     * @return The center weight.
+     */
+    public int getCenter() {
+        return center;
+    }
+
+    /**
+     * Returns the window scores for a connect length, indexed by the number of pieces a player
+     * holds in a window the opponent has not blocked.
+     *
+     * @param connect The connect length.
+     * @return A new array of connect + 1 scores.
+     */
+    int[] windowWeights(int connect) {
+        int[] weights = new int[connect + 1];
+        for (int n = 1; n < connect; n++) {
+            weights[n] = n == connect - 1 ? nearWin : n == connect - 2 ? developing : open;
+        }
+        return weights;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof EvaluationWeights)) {
+            return false;
+        }
+        EvaluationWeights weights = (EvaluationWeights) other;
+        return center == weights.center && nearWin == weights.nearWin && developing == weights.developing
+                && open == weights.open;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((center * 31 + nearWin) * 31 + developing) * 31 + open;
+    }
+
+    @Override
+    public String toString() {
+        return center + "/" + nearWin + "/" + developing + "/" + open;
+    }
+}
@@ -0,0 +1,269 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * GameArchive is an append-only file of finished games, written by the server and the tournament
+ * runner and read by tools.Connect4OpeningStats.
+ *
+ * The file starts with an 8-byte header (magic and version). Each game follows as one record: a
+ * flags byte holding the result, and whether a variant other than the standard board follows;
+ * the variant's rows, columns and connect length if so; the players' mean rating as a varint (0
+ * when either player is unrated); and the moves as written by GameCodec.encodeGame. A standard
+ * game therefore takes about 20 bytes.
+ */
+public final class GameArchive {
+    /** The size of the file header; records start at this offset. */
+    public static final int HEADER_BYTES = 8;
+    /** The longest a record can be: flags, variant, rating, move count and moves on the largest board. */
+    public static final int MAX_RECORD_BYTES = 1 + 3 + 5 + 2 + Connect4Variant.MAX_SIZE * Connect4Variant.MAX_SIZE * 4 / 8;
+
+    private static final int FILE_MAGIC = 0x43344741; // "C4GA"
+    private static final int FILE_VERSION = 1;
+    private static final int RESULT_MASK = 0x3;
+    private static final int HAS_VARIANT = 0x4;
+
+    private GameArchive() {
+    }
+
+    /**
+     * Checks the header of an archive.
+     *
+     * @param header The first HEADER_BYTES bytes of the file.
+     * @throws IOException If the file is not an archive of this version.
+     */
+    public static void checkHeader(ByteBuffer header) throws IOException {
+        if (header.remaining() < HEADER_BYTES || header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) {
+            throw new IOException("Not a game archive of this version");
+        }
+    }
+
+    /**
+     * Appends games to an archive. Appends from several threads are serialized, and each record is
+     * written with a single write, so a crash loses at most the record being written.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD_BYTES);
+
+        /**
+         * Opens an archive for appending, creating it if it does not exist.
+         *
+         * @param file The archive file.
+         * @throws IOException If the file cannot be opened, or exists and is not an archive.
+         */
+        public Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                if (channel.size() == 0) {
+                    channel.write(ByteBuffer.allocate(HEADER_BYTES).putInt(FILE_MAGIC).putInt(FILE_VERSION).flip());
+                } else {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    channel.read(header, 0);
+                    checkHeader(header.flip());
+                }
+                channel.position(channel.size());
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Appends a finished game.
+         *
+         * @param variant The board variant.
+         * @param columns The columns played, 1-based.
+         * @param winner  'X' or 'O' for the winning side (also after a forfeit), or ' ' for a draw.
+         * @param rating  The players' mean rating, or 0 when either player is unrated.
+         * @throws IOException If the record cannot be written.
+         */
+        public synchronized void append(Connect4Variant variant, int[] columns, char winner, int rating)
+                throws IOException {
+            byte[] moves = GameCodec.encodeGame(variant, columns);
+            buffer.clear();
+            boolean standard = variant.equals(Connect4Variant.STANDARD);
+            buffer.put((byte) ((winner == 'X' ? 1 : winner == 'O' ? 2 : 0) | (standard ? 0 : HAS_VARIANT)));
+            if (!standard) {
+                buffer.put((byte) variant.getRows()).put((byte) variant.getColumns())
+                        .put((byte) variant.getConnectLength());
+            }
+            for (int value = Math.max(0, rating); ; value >>>= 7) {
+                if (value < 0x80) {
+                    buffer.put((byte) value);
+                    break;
+                }
+                buffer.put((byte) (value & 0x7F | 0x80));
+            }
+            buffer.put(moves).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Closes the archive.
+         *
+         * @throws IOException If the file cannot be closed.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the records of an archive from a buffer, one at a time, into fields that are reused for
+     * every record.
+     */
+    public static final class Cursor {
+        private final ByteBuffer in;
+        private final int[] columns = new int[Connect4Variant.MAX_SIZE * Connect4Variant.MAX_SIZE];
+        private Connect4Variant variant;
+        private char winner;
+        private int rating;
+        private int moveCount;
+
+        /**
+         * Creates a cursor over records.
+         *
+         * @param in The records, from the buffer's position to its limit.
+         */
+        public Cursor(ByteBuffer in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return False when no record is left.
+         * @throws IllegalArgumentException If the record is corrupt or truncated.
+         */
+        public boolean next() {
+            return read(true);
+        }
+
+        /**
+         * Skips the next record, reading its variant, result and rating but not its moves. This finds
+         * record boundaries faster than next.
+         *
+         * @return False when no record is left.
+         * @throws IllegalArgumentException If the record is corrupt or truncated.
+         */
+        public boolean skip() {
+            return read(false);
+        }
+
+        private boolean read(boolean withMoves) {
+            if (!in.hasRemaining()) {
+                return false;
+            }
+            int flags = in.get();
+            if ((flags & RESULT_MASK) == 3 || (flags & ~(RESULT_MASK | HAS_VARIANT)) != 0) {
+                throw new IllegalArgumentException("Bad record flags: " + flags);
+            }
+            winner = (flags & RESULT_MASK) == 1 ? 'X' : (flags & RESULT_MASK) == 2 ? 'O' : ' ';
+            if ((flags & HAS_VARIANT) != 0) {
+                if (in.remaining() < 3) {
+                    throw new IllegalArgumentException("Truncated record");
+                }
+                int rows = in.get();
+                int cols = in.get();
+                int connect = in.get();
+                if (variant == null || variant.getRows() != rows || variant.getColumns() != cols
+                        || variant.getConnectLength() != connect) {
+                    variant = new Connect4Variant(rows, cols, connect);
+                }
+            } else {
+                variant = Connect4Variant.STANDARD;
+            }
+            rating = readVarint(28);
+            if (withMoves) {
+                moveCount = GameCodec.decodeGame(variant, in, columns);
+            } else {
+                moveCount = readVarint(14);
+                int bytes = (moveCount * GameCodec.bitsPerMove(variant) + 7) / 8;
+                if (in.remaining() < bytes) {
+                    throw new IllegalArgumentException("Truncated game: " + moveCount + " moves");
+                }
+                in.position(in.position() + bytes);
+            }
+            return true;
+        }
+
+        private int readVarint(int maxShift) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (!in.hasRemaining() || shift > maxShift) {
+                    throw new IllegalArgumentException("Bad varint");
+                }
+                int b = in.get();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * Returns the offset just after the last record read, relative to the buffer.
+         *
+         * @return The buffer's position.
+         */
+        public int position() {
+            return in.position();
+        }
+
+        /**
+         * Returns the variant of the current record.
+         *
+         * @return The board variant.
+         */
+        public Connect4Variant getVariant() {
+            return variant;
+        }
+
+        /**
+         * Returns the result of the current record.
+         *
+         * @return 'X' or 'O' for the winning side, or ' ' for a draw.
+         */
+        public char getWinner() {
+            return winner;
+        }
+
+        /**
+         * Returns the players' mean rating for the current record.
+         *
+         * @return The rating, or 0 when either player was unrated.
+         */
+        public int getRating() {
+            return rating;
+        }
+
+        /**
+         * Returns the number of moves of the current record.
+         *
+         * @return The move count.
+         */
+        public int getMoveCount() {
+            return moveCount;
+        }
+
+        /**
+         * Returns a move of the current record, which must have been read by next.
+         *
+         * @param index The move number, from 0.
+         * @return The column played, 1-based.
+         */
+        public int getMove(int index) {
+            return columns[index];
+        }
+    }
+}
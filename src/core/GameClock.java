@@ -0,0 +1,121 @@
+package core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * GameClock keeps the time of both players in a game. Only the player to move has their clock
+ * running; when it runs past the move limit or their remaining game time, the flag falls and the
+ * flag-fall handler is called on the timer thread.
+ *
+ * Each clock owns a single timeout that is armed again on every move, so running a clock allocates
+ * nothing after it is created.
+ */
+public class GameClock {
+    private final HashedWheelTimer timer;
+    private final TimeControl control;
+    private final long moveLimitMillis;
+    private final IntConsumer onFlagFall;
+    private final long[] remainingMillis = new long[2];
+    private final FlagFall flagFall = new FlagFall();
+
+    private volatile int running = -1;
+    private volatile int flagged = -1;
+    private long startedAt;
+
+    /**
+     * Creates a clock. Both players start with the full game time.
+     *
+     * @param timer             The timer that runs the clock.
+     * @param control           The time control of the game.
+     * @param defaultMoveMillis The move limit used when the time control has none, or 0 for none.
+     * @param onFlagFall        Called with the player (0 or 1) whose flag fell. It runs on the timer
+     *                          thread and must not block.
+     */
+    public GameClock(HashedWheelTimer timer, TimeControl control, long defaultMoveMillis, IntConsumer onFlagFall) {
+        this.timer = timer;
+        this.control = control;
+        this.moveLimitMillis = control.getMoveMillis() > 0 ? control.getMoveMillis() : defaultMoveMillis;
+        this.onFlagFall = onFlagFall;
+        remainingMillis[0] = control.getTotalMillis();
+        remainingMillis[1] = control.getTotalMillis();
+    }
+
+    /**
+     * Starts a player's clock at the beginning of their move.
+     *
+     * @param player The player to move, 0 or 1.
+     */
+    public void start(int player) {
+        long limit = moveLimitMillis;
+        if (control.getTotalMillis() > 0) {
+            limit = limit > 0 ? Math.min(limit, remainingMillis[player]) : remainingMillis[player];
+        }
+        running = player;
+        startedAt = System.nanoTime();
+        if (limit > 0) {
+            timer.schedule(flagFall, limit);
+        }
+    }
+
+    /**
+     * Stops the running clock once the player's move has arrived and charges them the time used.
+     *
+     * @return False if the player's flag fell before the move arrived, otherwise true.
+     */
+    public boolean stop() {
+        int player = running;
+        if (player < 0) {
+            return flagged < 0;
+        }
+        boolean inTime = timer.cancel(flagFall);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        if (control.getTotalMillis() > 0) {
+            remainingMillis[player] = Math.max(0, remainingMillis[player] - elapsed);
+        }
+        running = -1;
+        return inTime;
+    }
+
+    /**
+     * Checks whether every move is limited, by a move limit or by the game time.
+     *
+     * @return True if a player who does not move in time always loses on time.
+     */
+    public boolean limitsMoves() {
+        return moveLimitMillis > 0 || control.getTotalMillis() > 0;
+    }
+
+    /**
+     * Returns a player's remaining game time.
+     *
+     * @param player The player, 0 or 1.
+     * @return The remaining time in milliseconds, or -1 if the game has no total limit.
+     */
+    public long getRemainingMillis(int player) {
+        return control.getTotalMillis() > 0 ? remainingMillis[player] : -1;
+    }
+
+    /**
+     * Returns the player whose flag fell.
+     *
+     * @return The player, 0 or 1, or -1 if no flag has fallen.
+     */
+    public int getFlaggedPlayer() {
+        return flagged;
+    }
+
+    /**
+     * The timeout armed for the player to move.
+     */
+    private class FlagFall extends HashedWheelTimer.Timeout {
+        @Override
+        protected void expire() {
+            int player = running;
+            if (player >= 0) {
+                flagged = player;
+                onFlagFall.accept(player);
+            }
+        }
+    }
+}
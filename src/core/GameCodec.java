@@ -0,0 +1,249 @@
+package core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * GameCodec converts games and positions to compact binary forms.
+ *
+ * A game is stored as its move sequence: a varint move count followed by the 0-based columns
+ * packed 3 bits per move (4 bits on boards wider than 8 columns), so a full standard game takes
+ * 17 bytes.
+ *
+ * A position is stored as the 64-bit key the bitboard search uses: the occupied cells plus the
+ * cells of the player to move, column by column in the bitboard layout. The sum differs for every
+ * position, so the key can be decoded back into a board. The canonical key is the
+ * smaller of the keys of the position and its left/right mirror image, so both orientations
+ * deduplicate to one entry. Position keys need a board that fits in 64 bits (see
+ * Connect4Variant.fitsInLong()), which includes the standard board.
+ */
+public final class GameCodec {
+    private GameCodec() {
+    }
+
+    /**
+     * Returns the number of bits each move takes in an encoded game.
+     *
+     * @param variant The board variant.
+     * @return 3 for boards up to 8 columns wide, 4 otherwise.
+     */
+    public static int bitsPerMove(Connect4Variant variant) {
+        return variant.getColumns() <= 8 ? 3 : 4;
+    }
+
+    /**
+     * Encodes a game as its packed move sequence.
+     *
+     * @param variant The board variant.
+     * @param columns The columns played, 1-based as Connect4Logic.makeMove takes them.
+     * @return The encoded game.
+     * @throws IllegalArgumentException If a column is outside the board.
+     */
+    public static byte[] encodeGame(Connect4Variant variant, int[] columns) {
+        int bits = bitsPerMove(variant);
+        int count = columns.length;
+        int header = count < 0x80 ? 1 : count < 0x4000 ? 2 : 3;
+        byte[] encoded = new byte[header + (count * bits + 7) / 8];
+        int offset = 0;
+        for (int remaining = count; offset < header; remaining >>>= 7) {
+            encoded[offset++] = (byte) ((remaining & 0x7F) | (offset < header ? 0x80 : 0));
+        }
+        long buffer = 0;
+        int buffered = 0;
+        for (int column : columns) {
+            if (column < 1 || column > variant.getColumns()) {
+                throw new IllegalArgumentException("Column outside the board: " + column);
+            }
+            buffer |= (long) (column - 1) << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                encoded[offset++] = (byte) buffer;
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        if (buffered > 0) {
+            encoded[offset] = (byte) buffer;
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes a game encoded by encodeGame.
+     *
+     * @param variant The board variant the game was encoded for.
+     * @param encoded The encoded game.
+     * @return The columns played, 1-based.
+     * @throws IllegalArgumentException If the data is truncated, holds a column outside the board or
+     *                                  more moves than the board has cells.
+     */
+    public static int[] decodeGame(Connect4Variant variant, byte[] encoded) {
+        int[] columns = new int[variant.getRows() * variant.getColumns()];
+        int count = decodeGame(variant, ByteBuffer.wrap(encoded), columns);
+        return Arrays.copyOf(columns, count);
+    }
+
+    /**
+     * Decodes a game encoded by encodeGame from a buffer into an array the caller reuses, so that
+     * large archives can be read without allocating per game.
+     *
+     * @param variant The board variant the game was encoded for.
+     * @param in      The buffer, positioned at the game; it is left positioned after the game.
+     * @param columns Receives the columns played, 1-based.
+     * @return The number of moves.
+     * @throws IllegalArgumentException If the data is truncated, holds a column outside the board or
+     *                                  more moves than the array holds.
+     */
+    public static int decodeGame(Connect4Variant variant, ByteBuffer in, int[] columns) {
+        int bits = bitsPerMove(variant);
+        int count = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!in.hasRemaining() || shift > 14) {
+                throw new IllegalArgumentException("Bad move count");
+            }
+            int b = in.get();
+            count |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (count > columns.length) {
+            throw new IllegalArgumentException("Too many moves: " + count);
+        }
+        if (in.remaining() < (count * bits + 7) / 8) {
+            throw new IllegalArgumentException("Truncated game: " + count + " moves");
+        }
+        int mask = (1 << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < count; i++) {
+            if (buffered < bits) {
+                buffer |= (long) (in.get() & 0xFF) << buffered;
+                buffered += 8;
+            }
+            int column = (int) (buffer & mask) + 1;
+            if (column > variant.getColumns()) {
+                throw new IllegalArgumentException("Column outside the board: " + column);
+            }
+            columns[i] = column;
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the key of the position after a sequence of moves.
+     *
+     * @param variant The board variant, which must fit in 64 bits.
+     * @param columns The columns played, 1-based.
+     * @param count   How many of the moves to play.
+     * @return The position key.
+     * @throws IllegalArgumentException If the board does not fit in 64 bits or a move is not playable.
+     */
+    public static long positionKey(Connect4Variant variant, int[] columns, int count) {
+        BitboardGeometry g = BitboardGeometry.of(variant);
+        long current = 0;
+        long mask = 0;
+        for (int i = 0; i < count; i++) {
+            int column = columns[i] - 1;
+            if (column < 0 || column >= g.width || (mask & g.topMask(column)) != 0) {
+                throw new IllegalArgumentException("Move " + (i + 1) + " is not playable: " + columns[i]);
+            }
+            current ^= mask;
+            mask |= mask + g.bottomMask(column);
+        }
+        return current + mask;
+    }
+
+    /**
+     * Returns the key of a board. The player to move is X when both players have the same number
+     * of pieces, and O otherwise.
+     *
+     * @param variant The board variant, which must fit in 64 bits.
+     * @param board   The board as returned by Connect4Logic.getBoard() (row 0 is the top row).
+     * @return The position key.
+     * @throws IllegalArgumentException If the board does not fit in 64 bits.
+     */
+    public static long positionKey(Connect4Variant variant, char[][] board) {
+        int x = 0;
+        int o = 0;
+        for (char[] row : board) {
+            for (char cell : row) {
+                if (cell == 'X') {
+                    x++;
+                } else if (cell == 'O') {
+                    o++;
+                }
+            }
+        }
+        return Connect4Search.Position.of(variant, board, x == o ? 'X' : 'O').key();
+    }
+
+    /**
+     * Returns the key of a position's mirror image, with the columns in reverse order.
+     *
+     * @param variant The board variant, which must fit in 64 bits.
+     * @param key     The position key.
+     * @return The mirrored key.
+     */
+    public static long mirror(Connect4Variant variant, long key) {
+        BitboardGeometry g = BitboardGeometry.of(variant);
+        long columnBits = (1L << g.h1) - 1;
+        long mirrored = 0;
+        for (int left = 0, right = g.width - 1; left < g.width; left++, right--) {
+            mirrored |= ((key >>> (left * g.h1)) & columnBits) << (right * g.h1);
+        }
+        return mirrored;
+    }
+
+    /**
+     * Returns the canonical key of a position: the same for the position and its mirror image.
+     *
+     * @param variant The board variant, which must fit in 64 bits.
+     * @param key     The position key.
+     * @return The smaller (unsigned) of the key and its mirror.
+     */
+    public static long canonicalKey(Connect4Variant variant, long key) {
+        long mirrored = mirror(variant, key);
+        return Long.compareUnsigned(key, mirrored) <= 0 ? key : mirrored;
+    }
+
+    /**
+     * Decodes a position key back into a board.
+     *
+     * @param variant The board variant the key was made for, which must fit in 64 bits.
+     * @param key     The position key.
+     * @return The board (row 0 is the top row), as Connect4Logic.getBoard() returns it.
+     * @throws IllegalArgumentException If the key is not a valid position of the variant.
+     */
+    public static char[][] decodePosition(Connect4Variant variant, long key) {
+        BitboardGeometry g = BitboardGeometry.of(variant);
+        long columnBits = (1L << g.h1) - 1;
+        int[] heights = new int[g.width];
+        int pieces = 0;
+        for (int col = 0; col < g.width; col++) {
+            long field = (key >>> (col * g.h1)) & columnBits;
+            // The field is the column's occupied cells plus the mover's pieces: 2^height - 1 + own
+            heights[col] = 63 - Long.numberOfLeadingZeros(field + 1);
+            if (heights[col] > g.height) {
+                throw new IllegalArgumentException("Not a position key: " + Long.toHexString(key));
+            }
+            pieces += heights[col];
+        }
+        char toMove = pieces % 2 == 0 ? 'X' : 'O';
+        char other = toMove == 'X' ? 'O' : 'X';
+        char[][] board = new char[g.height][g.width];
+        for (char[] row : board) {
+            Arrays.fill(row, ' ');
+        }
+        for (int col = 0; col < g.width; col++) {
+            long field = (key >>> (col * g.h1)) & columnBits;
+            long own = field - ((1L << heights[col]) - 1);
+            for (int r = 0; r < heights[col]; r++) {
+                board[g.height - 1 - r][col] = (own >>> r & 1) != 0 ? toMove : other;
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,186 @@
+package core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GameDirectory keeps the games running on the server under a server-wide id, so that clients can
+ * list them and watch them. A game keeps its id across replays between the same players.
+ */
+public class GameDirectory {
+    /**
+     * A game in the directory and the channels watching it.
+     */
+    public static final class Game {
+        private final int id;
+        private final String description;
+        private final List<PlayerChannel> spectators = new CopyOnWriteArrayList<>();
+        private volatile String lastBoard;
+        private volatile Connect4Logic game; // The game being played, read through its snapshots
+
+        Game(int id, String description) {
+            this.id = id;
+            this.description = description;
+        }
+
+        /**
+         * Returns the id of the game.
+         *
+         * @return The game id.
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Returns what kind of game this is.
+         *
+         * @return A short description such as "8x7c5 multiplayer".
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Sets the game being played, whose progress the game list shows, and has it publish
+         * snapshots for the list to read. Called again when the players start a new game, by the
+         * thread playing it.
+         *
+         * @param game The game.
+         */
+        public void track(Connect4Logic game) {
+            game.publishSnapshots();
+            this.game = game;
+        }
+
+        /**
+         * Returns the position of the game being played. Safe to call from any thread.
+         *
+         * @return The latest position, or null if no game is tracked.
+         */
+        public PositionSnapshot getPosition() {
+            Connect4Logic tracked = game;
+            return tracked == null ? null : tracked.getSnapshot();
+        }
+
+        /**
+         * Adds a spectator and sends them the current board.
+         *
+         * @param spectator The spectator's channel.
+         * @throws IOException If the spectator cannot be reached.
+         */
+        public void watch(PlayerChannel spectator) throws IOException {
+            spectator.send("Watching game " + id + " (" + description + ")");
+            spectator.holdOpen(true); // Spectators only listen; they are disconnected when the game ends
+            // Added before the board is sent, so no move made meanwhile is missed
+            spectators.add(spectator);
+            String sent = null;
+            String board;
+            // A move broadcast while the board was sent may have reached the spectator first: send the newer board again
+            while ((board = lastBoard) != null && !board.equals(sent)) {
+                spectator.send(board);
+                sent = board;
+            }
+        }
+
+        /**
+         * Sends a board update or result to every spectator. Spectators that cannot be reached are dropped.
+         *
+         * @param message The message the players received.
+         */
+        public void broadcast(String message) {
+            if (message.startsWith("[[")) {
+                lastBoard = message;
+            }
+            for (PlayerChannel spectator : spectators) {
+                try {
+                    spectator.send(message);
+                } catch (IOException e) {
+                    spectators.remove(spectator);
+                    spectator.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+                }
+            }
+        }
+
+        /**
+         * Tells the spectators that the game is over and disconnects them.
+         */
+        private void end() {
+            for (PlayerChannel spectator : spectators) {
+                try {
+                    spectator.send("Game " + id + " has ended.");
+                    spectator.close(ConnectionMonitor.CloseReason.COMPLETED);
+                } catch (IOException e) {
+                    spectator.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+                }
+            }
+            spectators.clear();
+        }
+    }
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Map<Integer, Game> games = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a new game.
+     *
+     * @param description What kind of game it is.
+     * @return The game, with a new id.
+     */
+    public Game open(String description) {
+        Game game = new Game(nextId.getAndIncrement(), description);
+        games.put(game.id, game);
+        return game;
+    }
+
+    /**
+     * Removes a game that has ended and disconnects its spectators.
+     *
+     * @param game The game.
+     */
+    public void close(Game game) {
+        games.remove(game.id);
+        game.end();
+    }
+
+    /**
+     * Looks up a running game.
+     *
+     * @param id The game id.
+     * @return The game, or null if no game with that id is running.
+     */
+    public Game find(int id) {
+        return games.get(id);
+    }
+
+    /**
+     * Returns the number of running games.
+     *
+     * @return The game count.
+     */
+    public int size() {
+        return games.size();
+    }
+
+    /**
+     * Lists the running games. The positions are read from the games' snapshots, so listing never
+     * waits for or disturbs a game in progress.
+     *
+     * @return One line per game: the id, the description and the number of moves played.
+     */
+    public String list() {
+        StringBuilder list = new StringBuilder("Games: ").append(games.size());
+        for (Game game : games.values()) {
+            list.append('\n').append(game.id).append(' ').append(game.description);
+            PositionSnapshot position = game.getPosition();
+            if (position != null) {
+                list.append(", move ").append(position.getMoveCount());
+            }
+        }
+        return list.toString();
+    }
+}
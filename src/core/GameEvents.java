@@ -0,0 +1,189 @@
+package core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * GameEvents are the Java Flight Recorder events the server emits: game sessions, moves,
+ * matchmaking waits and computer player searches. Each event's duration is the time the phase
+ * took. While no recording is running, creating and committing an event costs next to nothing,
+ * because the JIT removes the disabled event code. Fields are only filled in once
+ * shouldCommit() says the event will be recorded.
+ *
+ * tools.Connect4RecordingSummary turns a recording into per-phase latency tables.
+ */
+public final class GameEvents {
+    private GameEvents() {
+    }
+
+    /**
+     * A game session, from the first game to the player or players leaving.
+     */
+    @Name("connect4.Session")
+    @Label("Game Session")
+    @Category("Connect4")
+    @Description("A game session, including replays between the same players")
+    public static final class Session extends Event {
+        @Label("Mode")
+        String mode;
+
+        @Label("Variant")
+        String variant;
+
+        @Label("Game Id")
+        int gameId;
+    }
+
+    /**
+     * One move: validating it, applying it and sending the board to the players and spectators.
+     * A computer move also includes waiting for the computer player.
+     */
+    @Name("connect4.Move")
+    @Label("Move")
+    @Category("Connect4")
+    @Description("Handling of one move, from receiving it to sending the new board")
+    public static final class Move extends Event {
+        @Label("Game Id")
+        int gameId;
+
+        @Label("Player")
+        char player;
+
+        @Label("Column")
+        int column;
+
+        @Label("Computer")
+        boolean computer;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    /**
+     * A multiplayer player waiting for an opponent.
+     */
+    @Name("connect4.Matchmaking")
+    @Label("Matchmaking Wait")
+    @Category("Connect4")
+    @Description("Time a multiplayer player waited to be paired")
+    public static final class Matchmaking extends Event {
+        @Label("Pairing")
+        @Description("The variant and time control the players asked for")
+        String pairing;
+    }
+
+    /**
+     * One computer player search.
+     */
+    @Name("connect4.Search")
+    @Label("Computer Search")
+    @Category("Connect4")
+    @Description("A search for the computer player's move")
+    public static final class Search extends Event {
+        @Label("Difficulty")
+        String difficulty;
+
+        @Label("Depth Limit")
+        int depthLimit;
+
+        @Label("Depth Reached")
+        int depthReached;
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Table Hits")
+        long tableHits;
+
+        @Label("Queue Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueWait;
+
+        @Label("Degraded")
+        @Description("Searched less deeply than the difficulty asks because of load")
+        boolean degraded;
+    }
+
+    /**
+     * Ends a session event and records it if a recording wants it.
+     *
+     * @param event   The event, begun when the session started.
+     * @param mode    "computer" or "multiplayer".
+     * @param variant The board variant.
+     * @param gameId  The game's id in the game directory.
+     */
+    static void commit(Session event, String mode, Connect4Variant variant, int gameId) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.mode = mode;
+            event.variant = variant.toString();
+            event.gameId = gameId;
+            event.commit();
+        }
+    }
+
+    /**
+     * Ends a move event and records it if a recording wants it.
+     *
+     * @param event        The event, begun when the move was received.
+     * @param gameId       The game's id in the game directory.
+     * @param player       The side that moved, 'X' or 'O'.
+     * @param column       The column played (1-based), or 0 for input that was not a column.
+     * @param computer     Whether the computer made the move.
+     * @param bytesWritten The bytes written to the players while handling the move.
+     */
+    static void commit(Move event, int gameId, char player, int column, boolean computer, long bytesWritten) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.gameId = gameId;
+            event.player = player;
+            event.column = column;
+            event.computer = computer;
+            event.bytesWritten = bytesWritten;
+            event.commit();
+        }
+    }
+
+    /**
+     * Ends a matchmaking event and records it if a recording wants it.
+     *
+     * @param event   The event, begun when the player started waiting.
+     * @param pairing The variant and time control the players asked for.
+     */
+    static void commit(Matchmaking event, String pairing) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.pairing = pairing;
+            event.commit();
+        }
+    }
+
+    /**
+     * Ends a search event and records it if a recording wants it.
+     *
+     * @param event      The event, begun when the search started.
+     * @param difficulty The difficulty the move was requested at.
+     * @param depthLimit The depth the search was allowed.
+     * @param search     The engine that ran the search, for its statistics.
+     * @param queueWait  How long the request waited for a worker, in nanoseconds.
+     */
+    static void commit(Search event, Difficulty difficulty, int depthLimit, SearchEngine search, long queueWait) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.difficulty = difficulty.name();
+            event.depthLimit = depthLimit;
+            event.depthReached = search.getDepthReached();
+            event.nodes = search.getNodes();
+            event.tableHits = search.getTableHits();
+            event.queueWait = queueWait;
+            event.degraded = depthLimit < difficulty.getDepth();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package core;
+
+import java.io.IOException;
+
+/**
+ * GameResultListener is told how each game of a session ended, for example to update the players'
+ * ratings or archive the game. Games abandoned without a result are not reported.
+ */
+public interface GameResultListener {
+    /** A listener that ignores results, used for games that are neither rated nor archived. */
+    GameResultListener NONE = (game, winner) -> {
+    };
+
+    /**
+     * Called when a game ends, before the players are asked to replay.
+     *
+     * @param game   The game, with the moves played; after a forfeit the game is unfinished.
+     * @param winner 'X' or 'O' for the winning side, or ' ' for a draw.
+     * @throws IOException If the listener cannot reach a player.
+     */
+    void gameEnded(Connect4Logic game, char winner) throws IOException;
+}
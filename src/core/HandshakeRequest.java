@@ -0,0 +1,162 @@
+package core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HandshakeRequest is a client's answer to the server's mode prompt. Older clients answer with an
+ * Integer (1 for the computer, 2 for another player); newer clients send a String of key=value
+ * options separated by spaces, for example "mode=2 variant=8x7c5 difficulty=hard clock=300/30 name=alice".
+ *
+ * Unknown options are kept, so new options can be added without breaking older servers.
+ */
+public class HandshakeRequest {
+    /** Mode value for a game against the computer. */
+    public static final int SINGLE_PLAYER = 1;
+    /** Mode value for a game against another player. */
+    public static final int MULTIPLAYER = 2;
+    /** Mode value that turns the connection into a multiplexed one carrying several games. */
+    public static final String MUX = "mux";
+    /** Mode value for watching a running game, given by the game option. */
+    public static final String WATCH = "watch";
+    /** Mode value for listing the running games. */
+    public static final String LIST = "list";
+    /** Mode value for a health check; the server answers "pong ok" or "pong draining". */
+    public static final String PING = "ping";
+    /** Mode value for the rating leaderboard, optionally with a player's rank given by the name option. */
+    public static final String LEADERBOARD = "leaderboard";
+    /** Mode value for analyzing a game given by the moves option, one line per position. */
+    public static final String ANALYZE = "analyze";
+    /** Prefix of the names the server rates its computer players under; players cannot use it. */
+    public static final String COMPUTER_PREFIX = "computer-";
+
+    private final Map<String, String> options;
+
+    /**
+     * Creates a request from its options.
+     *
+     * @param options The key=value options.
+     */
+    public HandshakeRequest(Map<String, String> options) {
+        this.options = new LinkedHashMap<>(options);
+    }
+
+    /**
+     * Parses the object a client sent in reply to the mode prompt.
+     *
+     * @param reply An Integer mode or a String of key=value options.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If the reply is neither.
+     */
+    public static HandshakeRequest parse(Object reply) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (reply instanceof Integer) {
+            options.put("mode", String.valueOf(reply));
+        } else if (reply instanceof String) {
+            for (String token : ((String) reply).trim().split("\\s+")) {
+                int eq = token.indexOf('=');
+                if (eq > 0) {
+                    options.put(token.substring(0, eq).toLowerCase(), token.substring(eq + 1));
+                } else if (!token.isEmpty()) {
+                    options.put("mode", token); // A bare value is the mode
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unexpected handshake: " + reply);
+        }
+        return new HandshakeRequest(options);
+    }
+
+    /**
+     * Returns the requested mode.
+     *
+     * @return SINGLE_PLAYER or MULTIPLAYER.
+     * @throws IllegalArgumentException If the mode is neither 1 nor 2, for example a stray move sent
+     *                                  where a handshake was expected.
+     */
+    public int getMode() {
+        String mode = options.get("mode");
+        if (String.valueOf(SINGLE_PLAYER).equals(mode)) {
+            return SINGLE_PLAYER;
+        } else if (String.valueOf(MULTIPLAYER).equals(mode)) {
+            return MULTIPLAYER;
+        }
+        throw new IllegalArgumentException("Unknown mode: " + mode);
+    }
+
+    /**
+     * Returns the requested board variant.
+     *
+     * @return The variant, or the standard variant when none was requested.
+     * @throws IllegalArgumentException If the requested variant is invalid.
+     */
+    public Connect4Variant getVariant() {
+        String variant = options.get("variant");
+        return variant == null ? Connect4Variant.STANDARD : Connect4Variant.parse(variant);
+    }
+
+    /**
+     * Returns the requested difficulty of the computer player.
+     *
+     * @param defaultValue The difficulty used when none (or an unknown one) was requested.
+     * @return The difficulty.
+     */
+    public Difficulty getDifficulty(Difficulty defaultValue) {
+        return Difficulty.parse(options.get("difficulty"), defaultValue);
+    }
+
+    /**
+     * Returns the requested time control for a multiplayer game.
+     *
+     * @param defaultValue The time control used when none was requested.
+     * @return The time control.
+     * @throws IllegalArgumentException If the requested time control is invalid.
+     */
+    public TimeControl getTimeControl(TimeControl defaultValue) {
+        String clock = options.get("clock");
+        return clock == null ? defaultValue : TimeControl.parse(clock);
+    }
+
+    /**
+     * Returns the name the player wants their games rated under.
+     *
+     * @return The name, or null for a guest whose games are not rated.
+     * @throws IllegalArgumentException If the name is invalid or reserved.
+     */
+    public String getPlayerName() {
+        String name = options.get("name");
+        if (name == null) {
+            return null;
+        }
+        if (!name.matches("[A-Za-z0-9_.-]{1,32}") || name.toLowerCase().startsWith(COMPUTER_PREFIX)) {
+            throw new IllegalArgumentException("Invalid name: " + name);
+        }
+        return name;
+    }
+
+    /**
+     * Returns an option.
+     *
+     * @param key The option name.
+     * @return The option value, or null if it was not sent.
+     */
+    public String get(String key) {
+        return options.get(key);
+    }
+
+    /**
+     * Formats the request as the String a client sends to the server.
+     *
+     * @return The key=value options separated by spaces.
+     */
+    public String toMessage() {
+        StringBuilder message = new StringBuilder();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (message.length() > 0) {
+                message.append(' ');
+            }
+            message.append(option.getKey()).append('=').append(option.getValue());
+        }
+        return message.toString();
+    }
+}
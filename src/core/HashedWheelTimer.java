@@ -0,0 +1,190 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * HashedWheelTimer runs timeouts for many sessions on a single thread. Time is divided into ticks
+ * and a timeout is kept in the wheel bucket of the tick it expires on; timeouts further away than
+ * one turn of the wheel wait a number of extra rounds. Each tick the timer thread only looks at one
+ * bucket, so the cost does not grow with the number of sessions.
+ *
+ * Timeouts are intrusive list nodes owned by their caller and can be armed again after they expire
+ * or are cancelled, so scheduling and cancelling are O(1) and allocate nothing.
+ */
+public class HashedWheelTimer {
+    /**
+     * A timeout that can be scheduled on a wheel. Subclasses say what happens when it expires.
+     */
+    public abstract static class Timeout {
+        private static final int IDLE = 0;
+        private static final int SCHEDULED = 1;
+        private static final int EXPIRED = 2;
+
+        private int state = IDLE;
+        private int bucket;
+        private long rounds;
+        private Timeout prev;
+        private Timeout next;
+
+        /**
+         * Called on the timer thread when the timeout expires. It must not block.
+         */
+        protected abstract void expire();
+    }
+
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final List<Timeout> expired = new ArrayList<>();
+    private final Thread worker;
+    private final Consumer<RuntimeException> onError;
+    private final long startTime;
+    private long tick; // The next tick to process
+    private int size;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a timer. Timeouts whose expire() throws are reported to a handler, and the
+     * timer carries on.
+     *
+     * @param tickMillis The length of a tick; timeouts fire at most one tick late.
+     * @param wheelSize  The number of buckets, rounded up to a power of two.
+     * @param name       The name of the timer thread.
+     * @param onError    Called on the timer thread with the exception of a timeout that failed.
+     */
+    public HashedWheelTimer(long tickMillis, int wheelSize, String name, Consumer<RuntimeException> onError) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Timeout[Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1];
+        this.mask = wheel.length - 1;
+        this.onError = onError;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Arms a timeout, replacing its previous deadline if it is already scheduled.
+     *
+     * @param timeout     The timeout.
+     * @param delayMillis How long from now it expires.
+     */
+    public synchronized void schedule(Timeout timeout, long delayMillis) {
+        if (timeout.state == Timeout.SCHEDULED) {
+            unlink(timeout);
+        }
+        long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+        // Bucket n is processed once tick n has fully elapsed
+        long target = Math.max(tick, (deadline + tickNanos - 1) / tickNanos - 1);
+        timeout.rounds = (target - tick) / wheel.length;
+        timeout.bucket = (int) (target & mask);
+        timeout.state = Timeout.SCHEDULED;
+        timeout.prev = null;
+        timeout.next = wheel[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        wheel[timeout.bucket] = timeout;
+        size++;
+    }
+
+    /**
+     * Disarms a timeout.
+     *
+     * @param timeout The timeout.
+     * @return False if the timeout has already expired, otherwise true.
+     */
+    public synchronized boolean cancel(Timeout timeout) {
+        if (timeout.state == Timeout.EXPIRED) {
+            return false;
+        }
+        if (timeout.state == Timeout.SCHEDULED) {
+            unlink(timeout);
+        }
+        timeout.state = Timeout.IDLE;
+        return true;
+    }
+
+    /**
+     * Returns the number of timeouts scheduled.
+     *
+     * @return The pending timeout count.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Stops the timer thread. Pending timeouts never expire.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * Removes a scheduled timeout from its bucket. The caller holds the lock.
+     */
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    /**
+     * Processes one bucket per tick, expiring its timeouts outside the lock.
+     */
+    private void run() {
+        while (running) {
+            long sleepNanos;
+            synchronized (this) {
+                sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+            }
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (this) {
+                Timeout timeout = wheel[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds > 0) {
+                        timeout.rounds--;
+                    } else {
+                        unlink(timeout);
+                        timeout.state = Timeout.EXPIRED;
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+                tick++;
+            }
+            for (int i = 0; i < expired.size(); i++) {
+                try {
+                    expired.get(i).expire();
+                } catch (RuntimeException e) {
+                    onError.accept(e);
+                }
+            }
+            expired.clear();
+        }
+    }
+}
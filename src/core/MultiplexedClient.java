@@ -0,0 +1,220 @@
+package core;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MultiplexedClient runs several games over one connection to a Connect4Server. After connecting it
+ * asks the server to multiplex the connection; each game is then opened with its own handshake and
+ * behaves like a separate connection, with the same messages a single-game client sees.
+ */
+public class MultiplexedClient implements Closeable {
+    private static final Object CLOSED = new Object(); // Marks the end of a game's messages
+    private static final int RESET_INTERVAL = 256;
+
+    private final Socket socket;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+    private final Map<Integer, Game> games = new ConcurrentHashMap<>();
+    private final AtomicInteger nextChannel = new AtomicInteger(1);
+    private final Thread reader;
+    private int sentSinceReset;
+    private volatile boolean closed;
+
+    /**
+     * Asks the server to multiplex a connected socket.
+     *
+     * @param socket The socket connected to the server.
+     * @throws IOException If the server does not support multiplexing or the connection fails.
+     */
+    public MultiplexedClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.out.flush();
+        this.in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        try {
+            in.readObject(); // Mode prompt
+            out.writeObject("mode=" + HandshakeRequest.MUX);
+            out.flush();
+            Object reply = in.readObject();
+            if (!"Multiplexing enabled".equals(reply)) {
+                throw new IOException("Server does not support multiplexing: " + reply);
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        this.reader = new Thread(this::read, "mux-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Opens a new game on the connection.
+     *
+     * @param handshake What a single-game client would send in reply to the mode prompt, for example
+     *                  1 or "mode=2 variant=8x7c5". A plain Integer mode is sent as "mode=" and the
+     *                  mode, since only a String opens a channel.
+     * @return The game.
+     * @throws IOException If the connection has failed.
+     */
+    public Game open(Object handshake) throws IOException {
+        if (isClosed()) {
+            throw new EOFException("Connection is closed");
+        }
+        Game game = new Game(nextChannel.getAndIncrement());
+        games.put(game.channel, game);
+        write(new MuxFrame(game.channel, handshake instanceof Integer ? "mode=" + handshake : handshake));
+        return game;
+    }
+
+    /**
+     * Returns the number of games open on the connection.
+     *
+     * @return The open game count.
+     */
+    public int getGameCount() {
+        return games.size();
+    }
+
+    /**
+     * Checks whether the connection has closed.
+     *
+     * @return True once the server can no longer be reached over this connection.
+     */
+    public boolean isClosed() {
+        return closed || socket.isClosed();
+    }
+
+    /**
+     * Closes the connection and every game on it.
+     *
+     * @throws IOException If the socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Writes a frame, forgetting earlier objects every few hundred frames.
+     */
+    private void write(MuxFrame frame) throws IOException {
+        synchronized (out) {
+            if (++sentSinceReset == RESET_INTERVAL) {
+                out.reset();
+                sentSinceReset = 0;
+            }
+            out.writeObject(frame);
+            out.flush();
+        }
+    }
+
+    /**
+     * Routes frames from the server to their games until the connection closes.
+     */
+    private void read() {
+        try {
+            while (true) {
+                Object received = in.readObject();
+                if (!(received instanceof MuxFrame)) {
+                    continue;
+                }
+                MuxFrame frame = (MuxFrame) received;
+                Game game = games.get(frame.getChannel());
+                if (game == null) {
+                    continue;
+                }
+                if (frame.isClose()) {
+                    games.remove(game.channel);
+                    game.inbox.add(CLOSED);
+                } else {
+                    game.inbox.add(frame.getPayload());
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // Connection closed; every game ends with it
+        }
+        closed = true;
+        for (Game game : games.values()) {
+            game.inbox.add(CLOSED);
+        }
+        games.clear();
+    }
+
+    /**
+     * One game on the connection.
+     */
+    public final class Game {
+        private final int channel;
+        private final BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+
+        Game(int channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the channel id of the game on this connection.
+         *
+         * @return The channel id.
+         */
+        public int getChannel() {
+            return channel;
+        }
+
+        /**
+         * Sends a move or answer to the server.
+         *
+         * @param message The message, as a single-game client would send it.
+         * @throws IOException If the connection has failed.
+         */
+        public void send(Object message) throws IOException {
+            write(new MuxFrame(channel, message));
+        }
+
+        /**
+         * Waits for the next message from the server.
+         *
+         * @param timeoutMillis How long to wait, or 0 to wait forever.
+         * @return The message.
+         * @throws SocketTimeoutException If nothing arrives in time.
+         * @throws EOFException           If the server closed the game or the connection.
+         * @throws InterruptedIOException If interrupted while waiting.
+         */
+        public Object receive(long timeoutMillis) throws IOException {
+            Object message;
+            try {
+                message = timeoutMillis > 0 ? inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS) : inbox.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (message == null) {
+                throw new SocketTimeoutException("No message for game " + channel);
+            }
+            if (message == CLOSED) {
+                inbox.add(CLOSED);
+                throw new EOFException("Game " + channel + " is closed");
+            }
+            return message;
+        }
+
+        /**
+         * Leaves the game. The server treats this like a disconnect of a single-game client.
+         *
+         * @throws IOException If the connection has failed.
+         */
+        public void close() throws IOException {
+            if (games.remove(channel) != null) {
+                inbox.add(CLOSED);
+                write(MuxFrame.close(channel));
+            }
+        }
+    }
+}
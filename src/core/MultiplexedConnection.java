@@ -0,0 +1,294 @@
+package core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * MultiplexedConnection carries several games over one client connection. Every message travels in
+ * a MuxFrame tagged with a channel id chosen by the client. The first frame on a new channel is that
+ * game's handshake (what a plain client sends in reply to the mode prompt), and each channel is then
+ * handed to its own session as a PlayerChannel. Only a String handshake opens a channel; anything else
+ * on an unknown channel is answered with a close frame. Frames that arrive for a recently closed
+ * channel, such as a move the client sent while the server was ending the game, are dropped, so
+ * clients must not reuse a channel id soon after it closed.
+ *
+ * One thread reads frames and routes them to the channels; one thread writes the frames queued by
+ * every channel, so a session never blocks on the socket. A client that lets too many frames pile
+ * up is disconnected as a slow client. A session may also park instead of waiting for its channel's
+ * next message; the reader thread then hands the session back to the executor when the message
+ * arrives.
+ */
+public class MultiplexedConnection {
+    private static final Object CLOSED = new Object(); // Wakes a channel's reader when it closes
+    private static final MuxFrame STOP = MuxFrame.close(-1); // Stops the writer
+    private static final int RECENTLY_CLOSED = 1024;
+
+    private final PlayerConnection connection;
+    private final ConnectionMonitor monitor;
+    private final Executor executor;
+    private final BiConsumer<PlayerChannel, Object> opener;
+    private final int maxChannels;
+    private final int maxQueuedFrames;
+    private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+    private final BlockingQueue<MuxFrame> outbox = new LinkedBlockingQueue<>();
+    // Ids of the last channels closed, whose late frames are dropped
+    private final Set<Integer> recentlyClosed = Collections.synchronizedSet(Collections.newSetFromMap(
+            new LinkedHashMap<Integer, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                    return size() > RECENTLY_CLOSED;
+                }
+            }));
+
+    /**
+     * Creates a multiplexed connection over a connection that has finished its handshake.
+     *
+     * @param connection      The client connection.
+     * @param monitor         The monitor counting closed channels.
+     * @param executor        Runs the writer and a session for each new channel.
+     * @param opener          Starts the session for a new channel, given the channel and its handshake.
+     *                        It runs on the executor and may block for the length of the game.
+     * @param maxChannels     The most channels the client may have open at once.
+     * @param maxQueuedFrames The most frames that may wait to be written before the client is dropped.
+     */
+    public MultiplexedConnection(PlayerConnection connection, ConnectionMonitor monitor, Executor executor,
+                                 BiConsumer<PlayerChannel, Object> opener, int maxChannels, int maxQueuedFrames) {
+        this.connection = connection;
+        this.monitor = monitor;
+        this.executor = executor;
+        this.opener = opener;
+        this.maxChannels = maxChannels;
+        this.maxQueuedFrames = maxQueuedFrames;
+    }
+
+    /**
+     * Reads and routes frames until the client disconnects, then closes every channel.
+     */
+    public void run() {
+        executor.execute(this::write);
+        ConnectionMonitor.CloseReason reason = ConnectionMonitor.CloseReason.DISCONNECTED;
+        try {
+            while (true) {
+                Object received = connection.receive(0);
+                if (!(received instanceof MuxFrame)) {
+                    reason = ConnectionMonitor.CloseReason.PROTOCOL_ERROR;
+                    break;
+                }
+                route((MuxFrame) received);
+            }
+        } catch (IOException e) {
+            // The client went away or the connection was closed by the reaper
+        } catch (ClassNotFoundException e) {
+            reason = ConnectionMonitor.CloseReason.PROTOCOL_ERROR;
+        }
+        for (Channel channel : channels.values()) {
+            channel.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+        }
+        connection.close(reason);
+        outbox.offer(STOP);
+    }
+
+    /**
+     * Returns the number of open channels.
+     *
+     * @return The open channel count.
+     */
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * Delivers a frame to its channel, opening the channel if it is new.
+     */
+    private void route(MuxFrame frame) {
+        Channel channel = channels.get(frame.getChannel());
+        if (channel != null) {
+            if (frame.isClose()) {
+                channel.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            } else {
+                channel.deliver(frame.getPayload());
+            }
+        } else if (!frame.isClose() && !recentlyClosed.contains(frame.getChannel())) {
+            if (!(frame.getPayload() instanceof String)) {
+                // Not a handshake: a late message for a channel this side never opened
+                enqueue(MuxFrame.close(frame.getChannel()));
+                return;
+            }
+            if (channels.size() >= maxChannels) {
+                recentlyClosed.add(frame.getChannel());
+                enqueue(new MuxFrame(frame.getChannel(), "Too many games on this connection."));
+                enqueue(MuxFrame.close(frame.getChannel()));
+                return;
+            }
+            Channel opened = new Channel(frame.getChannel());
+            channels.put(opened.id, opened);
+            Object handshake = frame.getPayload();
+            executor.execute(() -> opener.accept(opened, handshake));
+        }
+    }
+
+    /**
+     * Queues a frame for the writer, dropping the client if it has fallen too far behind.
+     */
+    private void enqueue(MuxFrame frame) {
+        if (outbox.size() >= maxQueuedFrames) {
+            connection.close(ConnectionMonitor.CloseReason.SLOW_CLIENT);
+            return;
+        }
+        outbox.add(frame);
+    }
+
+    /**
+     * Writes queued frames until the connection closes.
+     */
+    private void write() {
+        try {
+            while (true) {
+                MuxFrame frame = outbox.take();
+                if (frame == STOP) {
+                    return;
+                }
+                long before = connection.getBytesWritten();
+                connection.send(frame);
+                Channel channel = channels.get(frame.getChannel());
+                if (channel != null) {
+                    channel.bytesWritten += connection.getBytesWritten() - before;
+                }
+            }
+        } catch (IOException e) {
+            connection.close(ConnectionMonitor.CloseReason.DISCONNECTED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One game on the connection.
+     */
+    private final class Channel implements PlayerChannel {
+        private final int id;
+        private final BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+        private final AtomicReference<Runnable> readable = new AtomicReference<>();
+        private volatile boolean closed;
+        private boolean held; // Whether this channel holds the connection open
+        private volatile long bytesWritten; // Only updated by the writer thread
+
+        Channel(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void send(Object message) throws IOException {
+            if (closed || connection.isClosed()) {
+                throw new EOFException("Channel " + id + " is closed");
+            }
+            enqueue(new MuxFrame(id, message));
+        }
+
+        /**
+         * Queues a message from the client, or CLOSED, and runs the readable callback if there is one.
+         *
+         * @param message The message.
+         */
+        void deliver(Object message) {
+            inbox.add(message);
+            Runnable callback = readable.getAndSet(null);
+            if (callback != null) {
+                callback.run();
+            }
+        }
+
+        @Override
+        public boolean onReadable(Runnable callback) {
+            readable.set(callback);
+            // A message that arrived before the callback was set would never run it
+            if (!inbox.isEmpty() && readable.compareAndSet(callback, null)) {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Holds the connection open on behalf of this channel. A channel holds it at most once, and
+         * its hold is released when it closes.
+         */
+        @Override
+        public void holdOpen(boolean hold) {
+            synchronized (this) {
+                if (closed || hold == held) {
+                    return;
+                }
+                held = hold;
+            }
+            connection.holdOpen(hold);
+        }
+
+        @Override
+        public Object receive(int timeoutMillis) throws IOException {
+            Object message;
+            try {
+                message = timeoutMillis > 0 ? inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS) : inbox.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting on channel " + id);
+            }
+            if (message == null) {
+                throw new SocketTimeoutException("No message on channel " + id);
+            }
+            if (message == CLOSED) {
+                inbox.add(CLOSED); // Every later read fails too
+                throw new EOFException("Channel " + id + " is closed");
+            }
+            return message;
+        }
+
+        @Override
+        public void close(ConnectionMonitor.CloseReason reason) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (held) {
+                    held = false;
+                    connection.holdOpen(false);
+                }
+            }
+            recentlyClosed.add(id);
+            channels.remove(id);
+            deliver(CLOSED);
+            monitor.recordClose(reason);
+            if (!connection.isClosed()) {
+                enqueue(MuxFrame.close(id));
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Returns the bytes of this channel's frames the writer has sent; frames still queued are not counted yet.
+         *
+         * @return The byte count.
+         */
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
+}
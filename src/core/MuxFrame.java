@@ -0,0 +1,68 @@
+package core;
+
+import java.io.Serializable;
+
+/**
+ * MuxFrame is one message on a multiplexed connection, tagged with the channel (game) it belongs
+ * to. The payload is the same object that would be sent on a connection carrying a single game.
+ * A frame without a payload closes its channel.
+ */
+public final class MuxFrame implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int channel;
+    private final Object payload;
+
+    /**
+     * Creates a frame.
+     *
+     * @param channel The channel the frame belongs to.
+     * @param payload The message, or null to close the channel.
+     */
+    public MuxFrame(int channel, Object payload) {
+        this.channel = channel;
+        this.payload = payload;
+    }
+
+    /**
+     * Creates a frame that closes a channel.
+     *
+     * @param channel The channel to close.
+     * @return The close frame.
+     */
+    public static MuxFrame close(int channel) {
+        return new MuxFrame(channel, null);
+    }
+
+    /**
+     * Returns the channel the frame belongs to.
+     *
+     * @return The channel id.
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the message carried by the frame.
+     *
+     * @return The message, or null for a close frame.
+     */
+    public Object getPayload() {
+        return payload;
+    }
+
+    /**
+     * Checks whether the frame closes its channel.
+     *
+     * @return True for a close frame.
+     */
+    public boolean isClose() {
+        return payload == null;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + channel + " " + (payload == null ? "close" : payload);
+    }
+}
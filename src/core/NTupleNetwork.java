@@ -0,0 +1,275 @@
+package core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * NTupleNetwork values Connect 4 positions with an n-tuple network: a set of small groups of cells
+ * (tuples), each with a lookup table holding a weight for every combination of the tuples' cell
+ * states. A cell is empty, empty and playable (the next piece in its column lands there), X or O.
+ * The value of a board is the hyperbolic tangent of the sum of the weights its tuples select, read
+ * from X's point of view: near 1 when X is winning and near -1 when O is. Every tuple is also applied
+ * to the mirror image of the board with the same table, so the network values a position and its
+ * mirror image alike.
+ *
+ * Weights are learned from self-play by tools.Connect4NTupleTrainer and saved to a binary file;
+ * evaluating a board only reads primitive arrays and allocates nothing. Training threads update the
+ * weights without locks: a lost update now and then does not hurt learning.
+ */
+public class NTupleNetwork {
+    private static final int FILE_MAGIC = 0x43344e54; // "C4NT"
+    private static final int FILE_VERSION = 1;
+    private static final int STATES = 4;
+    private static final int EMPTY = 0;
+    private static final int PLAYABLE = 1;
+    private static final int X = 2;
+    private static final int O = 3;
+
+    private final Connect4Variant variant;
+    private final int tupleLength;
+    // Per tuple and cell, the row and column of the cell, and the column of its mirror image
+    private final int[] rows;
+    private final int[] columns;
+    private final int[] mirrorColumns;
+    private final int tableSize;
+    private final float[] weights;
+
+    private NTupleNetwork(Connect4Variant variant, int tupleLength, int[] cells, float[] weights) {
+        this.variant = variant;
+        this.tupleLength = tupleLength;
+        this.rows = new int[cells.length];
+        this.columns = new int[cells.length];
+        this.mirrorColumns = new int[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            rows[i] = cells[i] / variant.getColumns();
+            columns[i] = cells[i] % variant.getColumns();
+            mirrorColumns[i] = variant.getColumns() - 1 - columns[i];
+        }
+        this.tableSize = 1 << (2 * tupleLength);
+        this.weights = weights;
+    }
+
+    /**
+     * Creates an untrained network whose tuples are random walks over neighbouring cells.
+     *
+     * @param variant     The board variant.
+     * @param tupleCount  The number of tuples.
+     * @param tupleLength The cells per tuple, from 2 to 10.
+     * @param seed        The seed for the random walks.
+     * @return A network whose weights are all zero.
+     * @throws IllegalArgumentException If the tuple length is out of range or the board is smaller than a tuple.
+     */
+    public static NTupleNetwork create(Connect4Variant variant, int tupleCount, int tupleLength, long seed) {
+        int width = variant.getColumns();
+        int height = variant.getRows();
+        if (tupleLength < 2 || tupleLength > 10 || tupleLength > width * height || tupleCount < 1) {
+            throw new IllegalArgumentException("Bad tuple shape: " + tupleCount + " x " + tupleLength);
+        }
+        Random random = new Random(seed);
+        int[] cells = new int[tupleCount * tupleLength];
+        for (int t = 0; t < tupleCount; t++) {
+            int base = t * tupleLength;
+            int row = random.nextInt(height);
+            int col = random.nextInt(width);
+            cells[base] = row * width + col;
+            for (int k = 1; k < tupleLength; k++) {
+                // Step to a neighbouring cell (including diagonals) not yet in the tuple
+                int next;
+                do {
+                    int r = row + random.nextInt(3) - 1;
+                    int c = col + random.nextInt(3) - 1;
+                    next = r >= 0 && r < height && c >= 0 && c < width ? r * width + c : -1;
+                    if (next >= 0 && random.nextInt(4) == 0) {
+                        // Let the walk move on through cells already taken, so it cannot get stuck
+                        row = r;
+                        col = c;
+                    }
+                } while (next < 0 || contains(cells, base, base + k, next));
+                cells[base + k] = next;
+                row = next / width;
+                col = next % width;
+            }
+        }
+        return new NTupleNetwork(variant, tupleLength, cells, new float[tupleCount << (2 * tupleLength)]);
+    }
+
+    private static boolean contains(int[] cells, int from, int to, int cell) {
+        for (int i = from; i < to; i++) {
+            if (cells[i] == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the variant the network was trained for.
+     *
+     * @return The board variant.
+     */
+    public Connect4Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Returns the number of tuples.
+     *
+     * @return The tuple count.
+     */
+    public int getTupleCount() {
+        return rows.length / tupleLength;
+    }
+
+    /**
+     * Returns the number of cells in each tuple.
+     *
+     * @return The tuple length.
+     */
+    public int getTupleLength() {
+        return tupleLength;
+    }
+
+    /**
+     * Values a board.
+     *
+     * @param board The board (row 0 is the top row).
+     * @return The value from X's point of view, between -1 (O wins) and 1 (X wins).
+     */
+    public double value(char[][] board) {
+        return Math.tanh(sum(board));
+    }
+
+    /**
+     * Moves the value of a board towards a target by one step of gradient descent on the squared
+     * error, which is how temporal difference learning trains the network.
+     *
+     * @param board  The board (row 0 is the top row).
+     * @param target The value the board should have had, from X's point of view.
+     * @param rate   The learning rate.
+     * @return The value of the board before the update.
+     */
+    public double train(char[][] board, double target, double rate) {
+        double value = Math.tanh(sum(board));
+        float step = (float) (rate * (target - value) * (1 - value * value));
+        int tuples = getTupleCount();
+        for (int t = 0; t < tuples; t++) {
+            int offset = t * tableSize;
+            weights[offset + index(board, t, columns)] += step;
+            weights[offset + index(board, t, mirrorColumns)] += step;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the sum of the weights a board selects, in both orientations.
+     */
+    private double sum(char[][] board) {
+        double sum = 0;
+        int tuples = getTupleCount();
+        for (int t = 0; t < tuples; t++) {
+            int offset = t * tableSize;
+            sum += weights[offset + index(board, t, columns)] + weights[offset + index(board, t, mirrorColumns)];
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the table index of a tuple: the states of its cells as a base 4 number.
+     *
+     * @param cols The columns of the tuples' cells, as they are or mirrored.
+     */
+    private int index(char[][] board, int tuple, int[] cols) {
+        int index = 0;
+        int last = board.length - 1;
+        for (int i = tuple * tupleLength, end = i + tupleLength; i < end; i++) {
+            int row = rows[i];
+            int col = cols[i];
+            char cell = board[row][col];
+            int state;
+            if (cell == 'X') {
+                state = X;
+            } else if (cell == 'O') {
+                state = O;
+            } else {
+                state = row == last || board[row + 1][col] != ' ' ? PLAYABLE : EMPTY;
+            }
+            index = index * STATES + state;
+        }
+        return index;
+    }
+
+    /**
+     * Saves the network: a header with the variant and the tuple shape, the tuples' cells, and the
+     * weights. The file is written next to the target and moved into place.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeByte(variant.getRows());
+            out.writeByte(variant.getColumns());
+            out.writeByte(variant.getConnectLength());
+            out.writeByte(tupleLength);
+            out.writeInt(getTupleCount());
+            for (int i = 0; i < rows.length; i++) {
+                out.writeByte(rows[i] * variant.getColumns() + columns[i]);
+            }
+            for (float weight : weights) {
+                out.writeFloat(weight);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a network saved by save.
+     *
+     * @param file The file.
+     * @return The network.
+     * @throws IOException If the file cannot be read or is not a network saved by this version.
+     */
+    public static NTupleNetwork load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Not a network saved by this version: " + file);
+            }
+            Connect4Variant variant;
+            int tupleLength;
+            int tupleCount;
+            try {
+                variant = new Connect4Variant(in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte());
+                tupleLength = in.readUnsignedByte();
+                tupleCount = in.readInt();
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad network header: " + file, e);
+            }
+            int cellCount = variant.getRows() * variant.getColumns();
+            if (tupleLength < 2 || tupleLength > 10 || tupleCount < 1 || tupleCount > cellCount * 64) {
+                throw new IOException("Bad tuple shape in " + file);
+            }
+            int[] cells = new int[tupleCount * tupleLength];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = in.readUnsignedByte();
+                if (cells[i] >= cellCount) {
+                    throw new IOException("Tuple cell outside the board in " + file);
+                }
+            }
+            float[] weights = new float[tupleCount << (2 * tupleLength)];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = in.readFloat();
+            }
+            return new NTupleNetwork(variant, tupleLength, cells, weights);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package core;
+
+import java.util.Random;
+
+/**
+ * NTupleSearch picks moves with an n-tuple network instead of a deep search: it takes a winning
+ * move if there is one, avoids moves that let the opponent win at once, and otherwise plays the move
+ * whose resulting position the network values most. A move costs at most one network evaluation per
+ * column, a small fraction of what an alpha-beta search costs, which suits the medium difficulty.
+ *
+ * The engine works on a scratch copy of the board that it keeps between moves, so choosing a move
+ * does not allocate.
+ */
+public class NTupleSearch implements SearchEngine {
+    private final NTupleNetwork network;
+    private final Connect4Variant variant;
+    private final char[][] scratch;
+    private final int[] columnOrder;
+    private final Random random = new Random();
+    private long nodes;
+
+    /**
+     * Creates an engine for the network's variant.
+     *
+     * @param network The trained network, which may be shared with other engines.
+     */
+    public NTupleSearch(NTupleNetwork network) {
+        this.network = network;
+        this.variant = network.getVariant();
+        this.scratch = new char[variant.getRows()][variant.getColumns()];
+        // Centre columns first, so ties go to the more central move
+        this.columnOrder = BitboardGeometry.createColumnOrder(variant.getColumns());
+    }
+
+    /**
+     * Chooses a move. The depth and deadline are ignored: the engine always looks at the player's
+     * moves and the opponent's immediate replies, which takes microseconds.
+     */
+    @Override
+    public int bestMove(char[][] board, char toMove, int maxDepth, long deadlineNanos) {
+        for (int row = 0; row < scratch.length; row++) {
+            System.arraycopy(board[row], 0, scratch[row], 0, scratch[row].length);
+        }
+        char opponent = toMove == 'X' ? 'O' : 'X';
+        nodes = 0;
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int column : columnOrder) {
+            int row = drop(column, toMove);
+            if (row < 0) {
+                continue;
+            }
+            double value;
+            if (Connect4Logic.completesLine(scratch, row, column, variant.getConnectLength())) {
+                value = 3;
+            } else if (opponentWins(opponent)) {
+                value = -3; // Still better than nothing when every move loses
+            } else {
+                nodes++;
+                double forX = network.value(scratch);
+                value = toMove == 'X' ? forX : -forX;
+            }
+            scratch[row][column] = ' ';
+            if (value > bestValue) {
+                bestValue = value;
+                best = column;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Checks whether the opponent could win with their next move.
+     */
+    private boolean opponentWins(char opponent) {
+        for (int column = 0; column < scratch[0].length; column++) {
+            int row = drop(column, opponent);
+            if (row >= 0) {
+                boolean won = Connect4Logic.completesLine(scratch, row, column, variant.getConnectLength());
+                scratch[row][column] = ' ';
+                if (won) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops a piece into a column of the scratch board.
+     *
+     * @return The row the piece landed in, or -1 if the column is full.
+     */
+    private int drop(int column, char piece) {
+        for (int row = scratch.length - 1; row >= 0; row--) {
+            if (scratch[row][column] == ' ') {
+                scratch[row][column] = piece;
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int randomMove(char[][] board) {
+        int playable = 0;
+        for (int column = 0; column < board[0].length; column++) {
+            if (board[0][column] == ' ') {
+                playable++;
+            }
+        }
+        if (playable == 0) {
+            return -1;
+        }
+        int pick = random.nextInt(playable);
+        for (int column = 0; ; column++) {
+            if (board[0][column] == ' ' && pick-- == 0) {
+                return column;
+            }
+        }
+    }
+
+    @Override
+    public long getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public long getTableHits() {
+        return 0;
+    }
+
+    @Override
+    public int getDepthReached() {
+        return 2;
+    }
+}
@@ -0,0 +1,102 @@
+package core;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * PlayerChannel is the path between a game session and one player. A channel is either a whole
+ * client connection (PlayerConnection) or one game on a multiplexed connection
+ * (MultiplexedConnection), and sessions work the same way over both.
+ */
+public interface PlayerChannel {
+    /**
+     * Sends a message to the player.
+     *
+     * @param message The message to send.
+     * @throws IOException If the message cannot be sent or the channel was closed.
+     */
+    void send(Object message) throws IOException;
+
+    /**
+     * Waits for the next message from the player.
+     *
+     * @param timeoutMillis How long to wait, or 0 to wait forever.
+     * @return The message received.
+     * @throws SocketTimeoutException If nothing arrives in time.
+     * @throws IOException            If the read fails or the channel was closed.
+     * @throws ClassNotFoundException If the player sent an unknown class.
+     */
+    Object receive(int timeoutMillis) throws IOException, ClassNotFoundException;
+
+    /**
+     * Closes the channel and records why. Later calls do nothing.
+     *
+     * @param reason Why the channel is being closed.
+     */
+    void close(ConnectionMonitor.CloseReason reason);
+
+    /**
+     * Checks whether the channel has been closed.
+     *
+     * @return True once close has been called.
+     */
+    boolean isClosed();
+
+    /**
+     * Returns how many bytes have been written to the player so far.
+     *
+     * @return The byte count.
+     */
+    long getBytesWritten();
+
+    /**
+     * Asks the channel to run a callback once the next message has arrived, or the channel has
+     * closed, instead of a thread waiting in receive. The callback runs once, on the thread that
+     * delivers the message, and must not block; receive then returns the message at once. Used to
+     * park idle sessions (see SessionHibernator).
+     *
+     * @param callback The callback.
+     * @return True if the callback is registered; false if a message is already waiting or the
+     * channel cannot call back, in which case the callback never runs.
+     */
+    default boolean onReadable(Runnable callback) {
+        return false;
+    }
+
+    /**
+     * Tells the connection monitor whether the player may stay silent for longer than its idle
+     * limit: a spectator, or a player in a game whose clock bounds every wait. While a channel is
+     * held open the monitor does not close its connection as idle; a stalled write still closes it.
+     * Every hold must be released with false, unless the channel is closed.
+     *
+     * @param held True to hold the channel open, false to release it.
+     */
+    default void holdOpen(boolean held) {
+    }
+
+    /**
+     * Waits for the next message from the player, closing the channel if the read times out or fails.
+     *
+     * @param timeoutMillis How long to wait, or 0 to wait forever.
+     * @param onTimeout     The reason recorded if nothing arrives in time.
+     * @return The message received.
+     * @throws SocketTimeoutException If nothing arrives in time.
+     * @throws IOException            If the read fails or the channel was closed.
+     * @throws ClassNotFoundException If the player sent an unknown class.
+     */
+    default Object receive(int timeoutMillis, ConnectionMonitor.CloseReason onTimeout)
+            throws IOException, ClassNotFoundException {
+        try {
+            return receive(timeoutMillis);
+        } catch (SocketTimeoutException e) {
+            close(onTimeout);
+            throw e;
+        } catch (IOException e) {
+            close(ConnectionMonitor.CloseReason.DISCONNECTED);
+            throw e;
+        } catch (ClassNotFoundException e) {
+            close(ConnectionMonitor.CloseReason.PROTOCOL_ERROR);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package core;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PlayerConnection wraps a client's socket and object streams. It records when the client was last
+ * heard from and whether a write is in progress, so that the ConnectionMonitor can close connections
+ * that stall, and it makes sure every connection is closed exactly once with a reason.
+ */
+public class PlayerConnection implements PlayerChannel {
+    private static final int RESET_INTERVAL = 256;
+
+    private final Socket socket;
+    private final CountingOutputStream counter;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+    private final ConnectionMonitor monitor;
+    private final TrafficCapture.Connection capture; // Null unless the server captures traffic
+
+    private int sentSinceReset;
+    private volatile long lastActivity = System.nanoTime();
+    private volatile long writeStartedAt;
+    private final AtomicInteger holds = new AtomicInteger(); // Sessions and mux channels holding the connection open
+    private volatile boolean closed;
+
+    /**
+     * Opens the object streams on a connected socket and registers the connection with the monitor.
+     * Reading the client's stream header is bounded by the monitor's handshake timeout.
+     *
+     * @param socket  The client's socket.
+     * @param monitor The monitor watching this connection.
+     * @throws IOException If the streams cannot be opened (including a handshake timeout).
+     */
+    public PlayerConnection(Socket socket, ConnectionMonitor monitor) throws IOException {
+        this(socket, monitor, null);
+    }
+
+    /**
+     * Opens the object streams on a connected socket and registers the connection with the monitor,
+     * recording the client's messages in a traffic capture.
+     *
+     * @param socket  The client's socket.
+     * @param monitor The monitor watching this connection.
+     * @param capture The capture the connection's traffic is recorded in, or null.
+     * @throws IOException If the streams cannot be opened (including a handshake timeout).
+     */
+    public PlayerConnection(Socket socket, ConnectionMonitor monitor, TrafficCapture capture) throws IOException {
+        this.socket = socket;
+        this.monitor = monitor;
+        monitor.register(this);
+        try {
+            socket.setSoTimeout(monitor.getHandshakeTimeoutMillis());
+            this.counter = new CountingOutputStream(socket.getOutputStream());
+            this.out = new ObjectOutputStream(counter);
+            this.out.flush();
+            this.in = new ObjectInputStream(socket.getInputStream());
+        } catch (IOException e) {
+            monitor.unregister(this);
+            socket.close();
+            throw e;
+        }
+        this.capture = capture == null ? null : capture.open();
+    }
+
+    /**
+     * Sends a message to the client and flushes it. The stream forgets the objects it has written
+     * every few hundred messages, so a long-lived connection does not hold on to all of them.
+     *
+     * @param message The message to send.
+     * @throws IOException If the write fails or the connection was closed.
+     */
+    @Override
+    public void send(Object message) throws IOException {
+        // Writes have their own lock so that close() is never held up by a stalled write
+        synchronized (out) {
+            writeStartedAt = System.nanoTime();
+            try {
+                if (++sentSinceReset == RESET_INTERVAL) {
+                    out.reset();
+                    sentSinceReset = 0;
+                }
+                out.writeObject(message);
+                out.flush();
+                if (capture != null) {
+                    capture.sent();
+                }
+            } finally {
+                writeStartedAt = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns how many bytes have been written to the client, including stream headers.
+     *
+     * @return The byte count.
+     */
+    @Override
+    public long getBytesWritten() {
+        return counter.count;
+    }
+
+    /**
+     * Waits for the next message from the client.
+     *
+     * @param timeoutMillis How long to wait, or 0 to wait forever.
+     * @return The message received.
+     * @throws java.net.SocketTimeoutException If nothing arrives in time.
+     * @throws IOException                     If the read fails or the connection was closed.
+     * @throws ClassNotFoundException          If the client sent an unknown class.
+     */
+    @Override
+    public Object receive(int timeoutMillis) throws IOException, ClassNotFoundException {
+        socket.setSoTimeout(timeoutMillis);
+        Object message = in.readObject();
+        lastActivity = System.nanoTime();
+        if (capture != null) {
+            capture.received(message);
+        }
+        return message;
+    }
+
+    /**
+     * Closes the connection and records why. Later calls do nothing.
+     *
+     * @param reason Why the connection is being closed.
+     */
+    @Override
+    public void close(ConnectionMonitor.CloseReason reason) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        monitor.unregister(this);
+        monitor.recordClose(reason);
+        if (capture != null) {
+            capture.closed(reason);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already broken, nothing more to release
+        }
+    }
+
+    /**
+     * Checks whether the connection has been closed.
+     *
+     * @return True once close has been called.
+     */
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Holds the connection open, or releases a hold. Holds are counted, since every game of a
+     * multiplexed connection may hold it.
+     *
+     * @param held True to add a hold, false to release one.
+     */
+    @Override
+    public void holdOpen(boolean held) {
+        holds.addAndGet(held ? 1 : -1);
+    }
+
+    /**
+     * Checks whether a session expects the client to stay silent, so the idle limit does not apply.
+     *
+     * @return True while the connection has a hold.
+     */
+    boolean isHeldOpen() {
+        return holds.get() > 0;
+    }
+
+    /**
+     * Returns when the client last sent a message.
+     *
+     * @return The System.nanoTime() of the last message received.
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Returns when the write in progress started.
+     *
+     * @return The System.nanoTime() the current write started at, or 0 if no write is in progress.
+     */
+    long getWriteStartedAt() {
+        return writeStartedAt;
+    }
+
+    /**
+     * Returns the address of the client.
+     *
+     * @return The remote address.
+     */
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    /**
+     * Counts the bytes written through it.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private volatile long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
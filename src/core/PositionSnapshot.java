@@ -0,0 +1,269 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * PositionSnapshot is an immutable view of a game's board at one moment: X's stones and the occupied
+ * cells as two bitboards, and the number of moves played. Connect4Logic publishes a new snapshot
+ * after every move, so other threads (the computer player, the game directory, analysis) can read
+ * a consistent position at any time without locks and without copying the board.
+ *
+ * The bitboards use the layout of BitboardGeometry: column c occupies bits c * (rows + 1) to
+ * c * (rows + 1) + rows - 1, bottom row first. Boards that do not fit in a long keep the same layout
+ * spread over several words.
+ */
+public final class PositionSnapshot {
+    private final Connect4Variant variant;
+    private final long x;
+    private final long occupied;
+    private final long[] wideX;        // Null unless the board does not fit in a long
+    private final long[] wideOccupied;
+    private final int moveCount;
+
+    private PositionSnapshot(Connect4Variant variant, long x, long occupied, long[] wideX, long[] wideOccupied,
+                             int moveCount) {
+        this.variant = variant;
+        this.x = x;
+        this.occupied = occupied;
+        this.wideX = wideX;
+        this.wideOccupied = wideOccupied;
+        this.moveCount = moveCount;
+    }
+
+    /**
+     * Returns the snapshot of an empty board.
+     *
+     * @param variant The board variant.
+     * @return The empty position.
+     */
+    public static PositionSnapshot empty(Connect4Variant variant) {
+        if (variant.fitsInLong()) {
+            return new PositionSnapshot(variant, 0, 0, null, null, 0);
+        }
+        int words = (variant.getColumns() * (variant.getRows() + 1) + 63) / 64;
+        return new PositionSnapshot(variant, 0, 0, new long[words], new long[words], 0);
+    }
+
+    /**
+     * Returns the snapshot of a board.
+     *
+     * @param variant   The board variant.
+     * @param board     The board (row 0 is the top row); only read.
+     * @param moveCount The number of pieces on the board.
+     * @return The position.
+     */
+    static PositionSnapshot of(Connect4Variant variant, char[][] board, int moveCount) {
+        PositionSnapshot empty = empty(variant);
+        long x = 0;
+        long occupied = 0;
+        for (int row = 0; row < board.length; row++) {
+            for (int column = 0; column < board[row].length; column++) {
+                char piece = board[row][column];
+                if (piece == ' ') {
+                    continue;
+                }
+                int bit = empty.bit(row, column);
+                if (empty.wideX == null) {
+                    occupied |= 1L << bit;
+                    x |= piece == 'X' ? 1L << bit : 0;
+                } else {
+                    empty.wideOccupied[bit >>> 6] |= 1L << bit;
+                    empty.wideX[bit >>> 6] |= piece == 'X' ? 1L << bit : 0;
+                }
+            }
+        }
+        return new PositionSnapshot(variant, x, occupied, empty.wideX, empty.wideOccupied, moveCount);
+    }
+
+    /**
+     * Returns the snapshot after a piece is placed.
+     *
+     * @param row    The row the piece landed in (row 0 is the top row).
+     * @param column The column (0-based).
+     * @param piece  'X' or 'O'.
+     * @return The new position.
+     */
+    PositionSnapshot play(int row, int column, char piece) {
+        int bit = bit(row, column);
+        if (wideX == null) {
+            return new PositionSnapshot(variant, piece == 'X' ? x | 1L << bit : x, occupied | 1L << bit,
+                    null, null, moveCount + 1);
+        }
+        long[] nextX = wideX.clone();
+        long[] nextOccupied = wideOccupied.clone();
+        if (piece == 'X') {
+            nextX[bit >>> 6] |= 1L << bit;
+        }
+        nextOccupied[bit >>> 6] |= 1L << bit;
+        return new PositionSnapshot(variant, 0, 0, nextX, nextOccupied, moveCount + 1);
+    }
+
+    /**
+     * Returns the snapshot after the piece at a cell is taken back.
+     *
+     * @param row    The row of the piece (row 0 is the top row).
+     * @param column The column (0-based).
+     * @return The new position.
+     */
+    PositionSnapshot undo(int row, int column) {
+        int bit = bit(row, column);
+        if (wideX == null) {
+            return new PositionSnapshot(variant, x & ~(1L << bit), occupied & ~(1L << bit), null, null,
+                    moveCount - 1);
+        }
+        long[] nextX = wideX.clone();
+        long[] nextOccupied = wideOccupied.clone();
+        nextX[bit >>> 6] &= ~(1L << bit);
+        nextOccupied[bit >>> 6] &= ~(1L << bit);
+        return new PositionSnapshot(variant, 0, 0, nextX, nextOccupied, moveCount - 1);
+    }
+
+    private int bit(int row, int column) {
+        return column * (variant.getRows() + 1) + variant.getRows() - 1 - row;
+    }
+
+    private boolean isSet(long board, long[] wide, int bit) {
+        return ((wide == null ? board : wide[bit >>> 6]) >>> bit & 1) != 0;
+    }
+
+    /**
+     * Returns the board variant.
+     *
+     * @return The variant.
+     */
+    public Connect4Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Returns the number of pieces on the board.
+     *
+     * @return The move count.
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Returns the player whose turn it is: X when both players have played the same number of moves.
+     *
+     * @return 'X' or 'O'.
+     */
+    public char getToMove() {
+        return moveCount % 2 == 0 ? 'X' : 'O';
+    }
+
+    /**
+     * Returns the piece in a cell.
+     *
+     * @param row    The row (row 0 is the top row).
+     * @param column The column (0-based).
+     * @return 'X', 'O' or ' ' for an empty cell.
+     */
+    public char get(int row, int column) {
+        int bit = bit(row, column);
+        if (!isSet(occupied, wideOccupied, bit)) {
+            return ' ';
+        }
+        return isSet(x, wideX, bit) ? 'X' : 'O';
+    }
+
+    /**
+     * Checks whether a piece can still be dropped into a column.
+     *
+     * @param column The column (0-based).
+     * @return True if the column exists and is not full.
+     */
+    public boolean isPlayable(int column) {
+        return column >= 0 && column < variant.getColumns() && !isSet(occupied, wideOccupied, bit(0, column));
+    }
+
+    /**
+     * Checks whether every cell is taken.
+     *
+     * @return True if the board is full.
+     */
+    public boolean isFull() {
+        return moveCount == variant.getRows() * variant.getColumns();
+    }
+
+    /**
+     * Returns X's stones, for boards that fit in a long.
+     *
+     * @return The bitboard of X's stones.
+     * @throws IllegalStateException If the board does not fit in a long.
+     */
+    public long getXStones() {
+        requireLong();
+        return x;
+    }
+
+    /**
+     * Returns the occupied cells, for boards that fit in a long.
+     *
+     * @return The bitboard of all stones.
+     * @throws IllegalStateException If the board does not fit in a long.
+     */
+    public long getOccupied() {
+        requireLong();
+        return occupied;
+    }
+
+    /**
+     * Converts the snapshot into a search position seen from the player to move, for boards that
+     * fit in a long.
+     *
+     * @return The position.
+     * @throws IllegalStateException If the board does not fit in a long.
+     */
+    public Connect4Search.Position toPosition() {
+        requireLong();
+        long current = getToMove() == 'X' ? x : x ^ occupied;
+        return new Connect4Search.Position(BitboardGeometry.of(variant), current, occupied, moveCount);
+    }
+
+    private void requireLong() {
+        if (wideX != null) {
+            throw new IllegalStateException("Board does not fit in 64 bits: " + variant);
+        }
+    }
+
+    /**
+     * Returns the board as Connect4Logic.getBoard() lays it out, in a new array the caller owns.
+     *
+     * @return The board (row 0 is the top row).
+     */
+    public char[][] toBoard() {
+        char[][] board = new char[variant.getRows()][variant.getColumns()];
+        for (int row = 0; row < board.length; row++) {
+            for (int column = 0; column < board[row].length; column++) {
+                board[row][column] = get(row, column);
+            }
+        }
+        return board;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PositionSnapshot)) {
+            return false;
+        }
+        PositionSnapshot that = (PositionSnapshot) other;
+        return variant.equals(that.variant) && x == that.x && occupied == that.occupied
+                && Arrays.equals(wideX, that.wideX) && Arrays.equals(wideOccupied, that.wideOccupied);
+    }
+
+    @Override
+    public int hashCode() {
+        return variant.hashCode() * 31 + Long.hashCode(x * 31 + occupied)
+                + Arrays.hashCode(wideX) * 17 + Arrays.hashCode(wideOccupied);
+    }
+
+    /**
+     * Formats the board as the server sends it to players: Arrays.deepToString of the board.
+     */
+    @Override
+    public String toString() {
+        return Arrays.deepToString(toBoard());
+    }
+}
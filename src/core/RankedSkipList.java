@@ -0,0 +1,221 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * RankedSkipList is a sorted skip list that also knows the position of every element. Each link
+ * records how many elements it skips, so adding, removing, finding the rank of an element and
+ * fetching the element at a rank all take O(log n) expected time.
+ *
+ * The comparator must be consistent with equals and never call two different elements equal.
+ * The list is not thread-safe.
+ *
+ * @param <T> The element type.
+ */
+public class RankedSkipList<T> {
+    private static final int MAX_LEVEL = 32;
+
+    private final Comparator<? super T> comparator;
+    private final Node<T> head = new Node<>(null, MAX_LEVEL);
+    private final Random random = new Random(0x5eed);
+    private int level = 1;
+    private int size;
+
+    /**
+     * Creates an empty list.
+     *
+     * @param comparator The order of the elements; the first element has rank 1.
+     */
+    public RankedSkipList(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Adds an element.
+     *
+     * @param value The element, which must not already be in the list.
+     */
+    @SuppressWarnings("unchecked")
+    public void add(T value) {
+        Node<T>[] update = (Node<T>[]) new Node<?>[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && comparator.compare(x.next[i].value, value) < 0) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            level = nodeLevel;
+        }
+
+        Node<T> node = new Node<>(value, nodeLevel);
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            // The new node splits the span of the link it was inserted into
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        size++;
+    }
+
+    /**
+     * Removes an element.
+     *
+     * @param value The element.
+     * @return True if the element was in the list.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean remove(T value) {
+        Node<T>[] update = (Node<T>[]) new Node<?>[MAX_LEVEL];
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && comparator.compare(x.next[i].value, value) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        x = x.next[0];
+        if (x == null || comparator.compare(x.value, value) != 0) {
+            return false;
+        }
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].next[i] = x.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the rank of an element.
+     *
+     * @param value The element.
+     * @return Its position, starting at 1, or 0 if it is not in the list.
+     */
+    public int rank(T value) {
+        int rank = 0;
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && comparator.compare(x.next[i].value, value) <= 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            if (x != head && comparator.compare(x.value, value) == 0) {
+                return rank;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the element at a rank.
+     *
+     * @param rank The position, starting at 1.
+     * @return The element, or null if the rank is out of range.
+     */
+    public T get(int rank) {
+        if (rank < 1 || rank > size) {
+            return null;
+        }
+        int traversed = 0;
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= rank) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            if (traversed == rank) {
+                return x.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the elements from a rank onwards.
+     *
+     * @param rank  The first position, starting at 1.
+     * @param count The most elements to return.
+     * @return The elements in order.
+     */
+    public List<T> range(int rank, int count) {
+        List<T> values = new ArrayList<>(Math.max(0, Math.min(count, size - rank + 1)));
+        if (rank < 1 || rank > size) {
+            return values;
+        }
+        // Find the node before the first one, then walk the bottom level
+        int traversed = 0;
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] < rank) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+        }
+        for (x = x.next[0]; x != null && values.size() < count; x = x.next[0]) {
+            values.add(x.value);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Chooses the level of a new node; each level is a quarter as likely as the one below.
+     */
+    private int randomLevel() {
+        int nodeLevel = 1;
+        while (nodeLevel < MAX_LEVEL && (random.nextInt() & 3) == 0) {
+            nodeLevel++;
+        }
+        return nodeLevel;
+    }
+
+    /**
+     * A skip list node. span[i] is the number of elements the link next[i] moves forward.
+     */
+    private static final class Node<T> {
+        final T value;
+        final Node<T>[] next;
+        final int[] span;
+
+        @SuppressWarnings("unchecked")
+        Node(T value, int level) {
+            this.value = value;
+            this.next = (Node<T>[]) new Node<?>[level];
+            this.span = new int[level];
+        }
+    }
+}
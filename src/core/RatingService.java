@@ -0,0 +1,390 @@
+package core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * RatingService keeps an Elo rating for every named player and ranks them on a leaderboard. Ratings
+ * change when a rated game ends; the leaderboard answers top-N and rank-of-player queries in
+ * O(log n) from a {@link RankedSkipList}.
+ *
+ * Ratings are persisted in a directory as a snapshot of every player plus a change log holding the
+ * new rating of each player changed since the snapshot. Every few thousand changes, and on close,
+ * a new snapshot is written and the log is started again, so loading never replays more than one
+ * snapshot interval of changes however long the server has been running.
+ *
+ * The snapshots written every few thousand changes are written by a background thread from a copy of
+ * the ratings, so the game that reaches the interval does not wait for the disk. The log is moved
+ * aside as the previous log while that snapshot is written and deleted once it is in place; loading
+ * replays the previous log too, so a crash at any point loses no change.
+ */
+public class RatingService implements Closeable {
+    /** The rating of a player who has not finished a rated game. */
+    public static final double INITIAL_RATING = 1500;
+    private static final int PROVISIONAL_GAMES = 30;
+    private static final String SNAPSHOT = "ratings.snapshot";
+    private static final String LOG = "ratings.log";
+    private static final String PREVIOUS_LOG = "ratings.log.previous";
+
+    /**
+     * A player's rating and record. Ratings are immutable; a game replaces them.
+     */
+    public static final class Rating {
+        private final String name;
+        private final double rating;
+        private final int wins;
+        private final int losses;
+        private final int draws;
+
+        Rating(String name, double rating, int wins, int losses, int draws) {
+            this.name = name;
+            this.rating = rating;
+            this.wins = wins;
+            this.losses = losses;
+            this.draws = draws;
+        }
+
+        /**
+         * Returns the player's name.
+         *
+         * @return The name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the player's rating.
+         *
+         * @return The Elo rating.
+         */
+        public double getRating() {
+            return rating;
+        }
+
+        /**
+         * Returns the number of rated games the player has finished.
+         *
+         * @return The game count.
+         */
+        public int getGames() {
+            return wins + losses + draws;
+        }
+
+        /**
+         * Returns the player's record.
+         *
+         * @return Wins, losses and draws as "W-L-D".
+         */
+        public String getRecord() {
+            return wins + "-" + losses + "-" + draws;
+        }
+
+        /**
+         * Formats the rating as a line of the snapshot or log.
+         */
+        private String toLine() {
+            return name + ' ' + rating + ' ' + wins + ' ' + losses + ' ' + draws;
+        }
+
+        /**
+         * Parses a line of the snapshot or log.
+         *
+         * @throws IllegalArgumentException If the line is incomplete, for example cut short by a crash.
+         */
+        private static Rating fromLine(String line) {
+            String[] fields = line.split(" ");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("Bad rating line: " + line);
+            }
+            return new Rating(fields[0], Double.parseDouble(fields[1]), Integer.parseInt(fields[2]),
+                    Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + Math.round(rating) + " (" + getRecord() + ")";
+        }
+    }
+
+    // Highest rating first; equal ratings by name so no two players compare equal
+    private static final Comparator<Rating> LEADERBOARD_ORDER =
+            Comparator.comparingDouble((Rating rating) -> -rating.rating).thenComparing(rating -> rating.name);
+
+    private final Map<String, Rating> players = new HashMap<>();
+    private final RankedSkipList<Rating> leaderboard = new RankedSkipList<>(LEADERBOARD_ORDER);
+    private final Path directory;
+    private final int snapshotInterval;
+    private Writer log;
+    private int logged;
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "ratings-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The snapshot being written in the background, or null
+    private Future<?> pendingSnapshot;
+
+    /**
+     * Loads the ratings from a directory, creating it if needed.
+     *
+     * @param directory        The directory holding the snapshot and change log.
+     * @param snapshotInterval How many changes are logged before a new snapshot is written.
+     * @throws IOException If the ratings cannot be read or the log cannot be opened.
+     */
+    public RatingService(Path directory, int snapshotInterval) throws IOException {
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        Files.createDirectories(directory);
+        load(directory.resolve(SNAPSHOT));
+        // The logs hold the latest rating of each changed player, so replaying them is idempotent
+        logged = load(directory.resolve(PREVIOUS_LOG)) + load(directory.resolve(LOG));
+        log = Files.newBufferedWriter(directory.resolve(LOG), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Creates the service from the connect4.ratings.dir and connect4.ratings.snapshotInterval
+     * system properties.
+     *
+     * @param defaultDirectory The directory used when none is configured.
+     * @return The service.
+     * @throws IOException If the ratings cannot be loaded.
+     */
+    public static RatingService fromSystemProperties(String defaultDirectory) throws IOException {
+        return new RatingService(Paths.get(System.getProperty("connect4.ratings.dir", defaultDirectory)),
+                Integer.getInteger("connect4.ratings.snapshotInterval", 10000));
+    }
+
+    /**
+     * Updates both players' ratings after a rated game.
+     *
+     * @param first  The first player's name.
+     * @param second The second player's name.
+     * @param score  The first player's score: 1 for a win, 0.5 for a draw, 0 for a loss.
+     * @throws IOException If the change cannot be logged, or the last background snapshot failed; the
+     *                     ratings are still updated in memory.
+     */
+    public synchronized void recordGame(String first, String second, double score) throws IOException {
+        Rating a = get(first);
+        Rating b = get(second);
+        double expected = 1 / (1 + Math.pow(10, (b.rating - a.rating) / 400));
+        update(a, score, expected);
+        update(b, 1 - score, 1 - expected);
+        log.flush();
+        IOException failure = null;
+        if (pendingSnapshot != null && pendingSnapshot.isDone()) {
+            Future<?> done = pendingSnapshot;
+            pendingSnapshot = null;
+            try {
+                awaitSnapshot(done);
+            } catch (IOException e) {
+                // The previous log is kept, so no change is lost until the next snapshot succeeds
+                failure = e;
+            }
+        }
+        if (logged >= snapshotInterval && pendingSnapshot == null) {
+            startSnapshot();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns a player's rating.
+     *
+     * @param name The player's name.
+     * @return The rating, which is the initial rating for players who have not played a rated game.
+     */
+    public synchronized Rating get(String name) {
+        Rating rating = players.get(name);
+        return rating != null ? rating : new Rating(name, INITIAL_RATING, 0, 0, 0);
+    }
+
+    /**
+     * Returns a player's place on the leaderboard.
+     *
+     * @param name The player's name.
+     * @return The rank, starting at 1, or 0 for players who have not played a rated game.
+     */
+    public synchronized int rankOf(String name) {
+        Rating rating = players.get(name);
+        return rating == null ? 0 : leaderboard.rank(rating);
+    }
+
+    /**
+     * Returns the top of the leaderboard.
+     *
+     * @param count The most players to return.
+     * @return The highest rated players, best first.
+     */
+    public synchronized List<Rating> top(int count) {
+        return leaderboard.range(1, count);
+    }
+
+    /**
+     * Returns the number of rated players.
+     *
+     * @return The player count.
+     */
+    public synchronized int size() {
+        return players.size();
+    }
+
+    /**
+     * Writes a snapshot of every rating and starts a new change log, waiting for the snapshot to be
+     * written. The snapshot is written to a temporary file and moved into place, so a crash leaves
+     * either the old or the new snapshot.
+     *
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public synchronized void snapshot() throws IOException {
+        if (pendingSnapshot != null) {
+            Future<?> pending = pendingSnapshot;
+            pendingSnapshot = null;
+            try {
+                awaitSnapshot(pending);
+            } catch (IOException e) {
+                // The snapshot below replaces it
+            }
+        }
+        startSnapshot();
+        Future<?> started = pendingSnapshot;
+        pendingSnapshot = null;
+        awaitSnapshot(started);
+    }
+
+    /**
+     * Writes a final snapshot and closes the change log.
+     *
+     * @throws IOException If the snapshot cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            snapshot();
+        } finally {
+            log.close();
+            snapshotWriter.shutdown();
+        }
+    }
+
+    /**
+     * Moves the change log aside as the previous log, starts a new one, and has the background
+     * thread write a snapshot of a copy of the ratings and then delete the previous log. If an
+     * earlier snapshot failed the previous log is still there, and the new log is appended to it
+     * rather than replacing it.
+     */
+    private void startSnapshot() throws IOException {
+        List<Rating> copy = new ArrayList<>(players.values());
+        log.close();
+        Path current = directory.resolve(LOG);
+        Path previous = directory.resolve(PREVIOUS_LOG);
+        if (Files.exists(previous)) {
+            try (Writer out = Files.newBufferedWriter(previous, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+                out.write(new String(Files.readAllBytes(current), StandardCharsets.UTF_8));
+            }
+            Files.delete(current);
+        } else {
+            Files.move(current, previous, StandardCopyOption.ATOMIC_MOVE);
+        }
+        log = Files.newBufferedWriter(current, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        logged = 0;
+        pendingSnapshot = snapshotWriter.submit(() -> {
+            writeSnapshot(copy);
+            Files.delete(previous);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for a snapshot written in the background.
+     *
+     * @throws IOException If the snapshot could not be written.
+     */
+    private static void awaitSnapshot(Future<?> snapshot) throws IOException {
+        try {
+            snapshot.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Snapshot failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the snapshot");
+        }
+    }
+
+    /**
+     * Writes ratings to a temporary file and moves it into place as the snapshot.
+     */
+    private void writeSnapshot(List<Rating> ratings) throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (Rating rating : ratings) {
+                out.write(rating.toLine());
+                out.write('\n');
+            }
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Applies one game's result to a player, moves them on the leaderboard and logs the change.
+     * Players in their first games move faster so they reach their level sooner.
+     */
+    private void update(Rating old, double score, double expected) throws IOException {
+        double k = old.getGames() < PROVISIONAL_GAMES ? 40 : 20;
+        Rating rating = new Rating(old.name, old.rating + k * (score - expected),
+                old.wins + (score == 1 ? 1 : 0), old.losses + (score == 0 ? 1 : 0), old.draws + (score == 0.5 ? 1 : 0));
+        put(rating);
+        log.write(rating.toLine());
+        log.write('\n');
+        logged++;
+    }
+
+    /**
+     * Replaces a player's rating in the map and on the leaderboard.
+     */
+    private void put(Rating rating) {
+        Rating old = players.put(rating.name, rating);
+        if (old != null) {
+            leaderboard.remove(old);
+        }
+        leaderboard.add(rating);
+    }
+
+    /**
+     * Reads ratings from a snapshot or log, later lines replacing earlier ones. Unreadable lines,
+     * such as one cut short by a crash, are skipped.
+     *
+     * @return The number of lines read.
+     */
+    private int load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int lines = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                try {
+                    put(Rating.fromLine(line));
+                    lines++;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping " + file.getFileName() + ": " + e.getMessage());
+                }
+            }
+        }
+        return lines;
+    }
+}
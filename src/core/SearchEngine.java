@@ -0,0 +1,78 @@
+package core;
+
+/**
+ * SearchEngine is implemented by the searches the computer player uses to pick moves. Engines keep
+ * per-search state and are owned by a single thread; they may share a TranspositionTable.
+ */
+public interface SearchEngine {
+    /** Score of a win; faster wins score higher. Heuristic scores always stay well below it. */
+    int WIN_SCORE = 10000;
+
+    /**
+     * Searches a position with iterative deepening until the depth is reached or the deadline
+     * passes, and returns the best column found by the deepest completed iteration.
+     *
+     * @param board         The board (row 0 is the top row).
+     * @param toMove        The player to move ('X' or 'O').
+     * @param maxDepth      The maximum search depth in plies (at least 1).
+     * @param deadlineNanos The System.nanoTime() value at which the search stops.
+     * @return The best column (0-based), or -1 if the board is full.
+     */
+    int bestMove(char[][] board, char toMove, int maxDepth, long deadlineNanos);
+
+    /**
+     * Picks a random playable column, as the easy computer player does.
+     *
+     * @param board The board (row 0 is the top row).
+     * @return A playable column (0-based), or -1 if the board is full.
+     */
+    int randomMove(char[][] board);
+
+    /**
+     * Returns the number of nodes visited by the last search.
+     *
+     * @return The node count.
+     */
+    long getNodes();
+
+    /**
+     * Returns the number of transposition table hits during the last search.
+     *
+     * @return The hit count.
+     */
+    long getTableHits();
+
+    /**
+     * Returns the depth of the deepest iteration the last search completed.
+     *
+     * @return The completed depth in plies.
+     */
+    int getDepthReached();
+
+    /**
+     * Creates the engine for a variant: the single-long bitboard search when the board fits in 64
+     * bits, and the multi-word search otherwise.
+     *
+     * @param variant The board variant.
+     * @param table   The transposition table to use.
+     * @return A new engine.
+     */
+    static SearchEngine create(Connect4Variant variant, TranspositionTable table) {
+        return create(variant, table, EvaluationWeights.DEFAULT);
+    }
+
+    /**
+     * Creates the engine for a variant that scores positions with the given weights.
+     *
+     * @param variant The board variant.
+     * @param table   The transposition table to use; not shared with engines using other weights.
+     * @param weights The evaluation weights.
+     * @return A new engine.
+     */
+    static SearchEngine create(Connect4Variant variant, TranspositionTable table, EvaluationWeights weights) {
+        if (variant.fitsInLong()) {
+            return new Connect4Search(variant, table, weights);
+        }
+        return new WideBoardSearch(variant, table, weights);
+    }
+}
@@ -0,0 +1,474 @@
+package core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ServerLog writes the server's log asynchronously. Threads that log only fill in a slot of a
+ * preallocated ring buffer, claimed with a compare-and-set and published with a volatile write, so
+ * they never wait on the console or the disk and never contend on a lock. A single writer thread
+ * formats the records and writes them in batches, either to standard output or to a log file that is
+ * rotated when it reaches a size limit.
+ *
+ * Records are structured: an event name and key=value pairs, such as the session's game id, so
+ * that the log can be searched and parsed:
+ *
+ * 2026-10-19T12:00:00.125Z INFO session.start game=12 mode=computer variant=7x6
+ *
+ * When the buffer is full a record is either dropped, and the number dropped is logged later, or
+ * the logging thread waits for the writer to make room, depending on the overflow policy. If the
+ * log cannot be written, the writer reports it on standard error and stops; later records are
+ * dropped and counted whatever the policy, so no thread waits on a log that is gone.
+ */
+public class ServerLog {
+    /**
+     * How important a record is.
+     */
+    public enum Level {
+        /** Normal operation. */
+        INFO,
+        /** Something failed but the server carries on. */
+        WARN,
+        /** A failure that stops part of the server. */
+        ERROR
+    }
+
+    /**
+     * What happens to a record logged while the buffer is full.
+     */
+    public enum Overflow {
+        /** The record is dropped and counted; the logging thread never waits. */
+        DROP,
+        /** The logging thread waits until the writer has made room. */
+        BLOCK
+    }
+
+    private static final int MAX_PAIRS = 4;
+    private static final long IDLE_PARK_NANOS = 2_000_000;
+    private static final int BATCH_BYTES = 64 * 1024;
+
+    private final Record[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Overflow overflow;
+    private final Path file;
+    private final long maxFileBytes;
+    private final int keptFiles;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Owned by the writer thread
+    private long consumed;
+    private final StringBuilder line = new StringBuilder(256);
+    private final byte[] batch = new byte[BATCH_BYTES];
+    private int batchLength;
+    private OutputStream out;
+    private long fileBytes;
+
+    /**
+     * Creates a log and starts its writer thread.
+     *
+     * @param capacity     The number of records the buffer holds, rounded up to a power of two.
+     * @param overflow     What to do with records logged while the buffer is full.
+     * @param file         The log file, or null to write to standard output.
+     * @param maxFileBytes The size at which the log file is rotated.
+     * @param keptFiles    The number of rotated files kept (file.1 is the newest).
+     */
+    public ServerLog(int capacity, Overflow overflow, Path file, long maxFileBytes, int keptFiles) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Record[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Record(i);
+        }
+        this.mask = size - 1;
+        this.overflow = overflow;
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.keptFiles = keptFiles;
+        this.writer = new Thread(this::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Creates a log configured from the connect4.log.* system properties.
+     *
+     * @return The log.
+     */
+    public static ServerLog fromSystemProperties() {
+        String file = System.getProperty("connect4.log.file");
+        return new ServerLog(Integer.getInteger("connect4.log.bufferSize", 8192),
+                Overflow.valueOf(System.getProperty("connect4.log.overflow", "drop").toUpperCase()),
+                file == null ? null : Paths.get(file),
+                Long.getLong("connect4.log.maxFileMegabytes", 64) * 1024 * 1024,
+                Integer.getInteger("connect4.log.files", 5));
+    }
+
+    /**
+     * Logs an event.
+     *
+     * @param level The level.
+     * @param event The event name, such as session.start.
+     */
+    public void log(Level level, String event) {
+        log(level, event, null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * Logs an event with one key=value pair.
+     *
+     * @param level The level.
+     * @param event The event name.
+     * @param k1    The key.
+     * @param v1    The value, formatted by the writer thread with String.valueOf.
+     */
+    public void log(Level level, String event, String k1, Object v1) {
+        log(level, event, null, k1, v1, null, null, null, null, null, null);
+    }
+
+    /**
+     * Logs an event with two key=value pairs.
+     *
+     * @param level The level.
+     * @param event The event name.
+     * @param k1    The first key.
+     * @param v1    The first value.
+     * @param k2    The second key.
+     * @param v2    The second value.
+     */
+    public void log(Level level, String event, String k1, Object v1, String k2, Object v2) {
+        log(level, event, null, k1, v1, k2, v2, null, null, null, null);
+    }
+
+    /**
+     * Logs an event with three key=value pairs.
+     *
+     * @param level The level.
+     * @param event The event name.
+     * @param k1    The first key.
+     * @param v1    The first value.
+     * @param k2    The second key.
+     * @param v2    The second value.
+     * @param k3    The third key.
+     * @param v3    The third value.
+     */
+    public void log(Level level, String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        log(level, event, null, k1, v1, k2, v2, k3, v3, null, null);
+    }
+
+    /**
+     * Logs an event with four key=value pairs.
+     *
+     * @param level The level.
+     * @param event The event name.
+     * @param k1    The first key.
+     * @param v1    The first value.
+     * @param k2    The second key.
+     * @param v2    The second value.
+     * @param k3    The third key.
+     * @param v3    The third value.
+     * @param k4    The fourth key.
+     * @param v4    The fourth value.
+     */
+    public void log(Level level, String event, String k1, Object v1, String k2, Object v2, String k3, Object v3,
+                    String k4, Object v4) {
+        log(level, event, null, k1, v1, k2, v2, k3, v3, k4, v4);
+    }
+
+    /**
+     * Logs a failure with its stack trace.
+     *
+     * @param event The event name.
+     * @param error The exception.
+     */
+    public void error(String event, Throwable error) {
+        log(Level.ERROR, event, error, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * Logs a failure with its stack trace and one key=value pair.
+     *
+     * @param event The event name.
+     * @param error The exception.
+     * @param k1    The key.
+     * @param v1    The value.
+     */
+    public void error(String event, Throwable error, String k1, Object v1) {
+        log(Level.ERROR, event, error, k1, v1, null, null, null, null, null, null);
+    }
+
+    /**
+     * Claims a slot and fills it in. Values are formatted later by the writer, so only references
+     * are stored here.
+     */
+    private void log(Level level, String event, Throwable error, String k1, Object v1, String k2, Object v2,
+                     String k3, Object v3, String k4, Object v4) {
+        long sequence = claimed.get();
+        Record record;
+        while (true) {
+            record = slots[(int) sequence & mask];
+            long state = record.sequence;
+            if (state == sequence) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+                sequence = claimed.get();
+            } else if (state < sequence) {
+                // The writer has not consumed this slot's previous record yet: the buffer is full
+                if (overflow == Overflow.DROP || !running) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(50_000);
+                sequence = claimed.get();
+            } else {
+                sequence = claimed.get(); // Another thread claimed this slot first
+            }
+        }
+        record.millis = System.currentTimeMillis();
+        record.level = level;
+        record.event = event;
+        record.error = error;
+        Object[] pairs = record.pairs;
+        pairs[0] = k1;
+        pairs[1] = v1;
+        pairs[2] = k2;
+        pairs[3] = v2;
+        pairs[4] = k3;
+        pairs[5] = v3;
+        pairs[6] = k4;
+        pairs[7] = v4;
+        record.sequence = sequence + 1; // Publishes the record to the writer
+    }
+
+    /**
+     * Returns the number of records dropped because the buffer was full.
+     *
+     * @return The dropped count.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the records still in the buffer and stops the writer thread. Records logged afterwards
+     * are dropped.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writer loop: drains the buffer in order, batching the formatted records, and flushes whenever
+     * the buffer runs empty.
+     */
+    private void write() {
+        long reportedDrops = 0;
+        try {
+            open();
+            while (true) {
+                boolean stopping = !running;
+                int count = 0;
+                Record record;
+                while ((record = slots[(int) consumed & mask]).sequence == consumed + 1) {
+                    format(record);
+                    record.error = null;
+                    Arrays.fill(record.pairs, null); // Let the values be collected
+                    record.sequence = consumed + slots.length; // Hands the slot back to the loggers
+                    consumed++;
+                    count++;
+                }
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    Record note = new Record(0);
+                    note.millis = System.currentTimeMillis();
+                    note.level = Level.WARN;
+                    note.event = "log.dropped";
+                    note.pairs[0] = "records";
+                    note.pairs[1] = drops - reportedDrops;
+                    format(note);
+                    reportedDrops = drops;
+                    count++;
+                }
+                if (count > 0 || stopping) {
+                    flush();
+                }
+                if (stopping) {
+                    break;
+                }
+                if (count == 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("The log cannot be written: " + e.getMessage());
+        } finally {
+            // Nothing writes records any more: later ones are dropped rather than waited for
+            running = false;
+            if (file != null && out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing left to report it to
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats a record into the batch as one line, plus the stack trace if there is one.
+     */
+    private void format(Record record) throws IOException {
+        line.setLength(0);
+        line.append(Instant.ofEpochMilli(record.millis)).append(' ').append(record.level).append(' ')
+                .append(record.event);
+        Object[] pairs = record.pairs;
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i] != null) {
+                line.append(' ').append(pairs[i]).append('=');
+                appendValue(String.valueOf(pairs[i + 1]));
+            }
+        }
+        if (record.error != null) {
+            line.append(" error=");
+            appendValue(String.valueOf(record.error));
+            StringWriter trace = new StringWriter();
+            record.error.printStackTrace(new PrintWriter(trace));
+            line.append('\n').append(trace.toString().trim());
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (batchLength + bytes.length > batch.length) {
+            flush();
+        }
+        if (bytes.length > batch.length) {
+            writeOut(bytes, bytes.length);
+        } else {
+            System.arraycopy(bytes, 0, batch, batchLength, bytes.length);
+            batchLength += bytes.length;
+        }
+    }
+
+    /**
+     * Appends a value, quoted if it is empty or contains spaces, quotes or line breaks.
+     */
+    private void appendValue(String value) {
+        boolean plain = !value.isEmpty();
+        for (int i = 0; i < value.length() && plain; i++) {
+            char c = value.charAt(i);
+            plain = c > ' ' && c != '"' && c != '=';
+        }
+        if (plain) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c == '\r') {
+                line.append("\\r");
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Writes the batch out.
+     */
+    private void flush() throws IOException {
+        if (batchLength > 0) {
+            writeOut(batch, batchLength);
+            batchLength = 0;
+        }
+        out.flush();
+    }
+
+    private void writeOut(byte[] bytes, int length) throws IOException {
+        if (file != null && fileBytes + length > maxFileBytes && fileBytes > 0) {
+            rotate();
+        }
+        out.write(bytes, 0, length);
+        fileBytes += length;
+    }
+
+    /**
+     * Opens the log file for appending, or standard output.
+     */
+    private void open() throws IOException {
+        if (file == null) {
+            out = System.out;
+            return;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileBytes = Files.size(file);
+    }
+
+    /**
+     * Closes the log file, shifts file.1 to file.2 and so on, dropping the oldest, and starts a new file.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + "." + keptFiles));
+        for (int i = keptFiles - 1; i >= 1; i--) {
+            Path from = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(from)) {
+                Files.move(from, file.resolveSibling(file.getFileName() + "." + (i + 1)),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (keptFiles > 0) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        open();
+    }
+
+    /**
+     * A slot of the ring buffer. Its sequence says whose turn it is: equal to the position a logger
+     * may claim, one more once the record is published, and advanced by the buffer size once the
+     * writer has consumed it.
+     */
+    private static final class Record {
+        volatile long sequence;
+        long millis;
+        Level level;
+        String event;
+        Throwable error;
+        final Object[] pairs = new Object[2 * MAX_PAIRS];
+
+        Record(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * SessionHibernator parks idle game sessions so they hold neither a thread nor their game objects
+ * while they wait for a player. A session that has waited longer than the idle threshold writes its
+ * state (the board variant, the moves played, its settings) into a fixed-size record in an off-heap
+ * arena and returns its thread. The only heap objects a parked session keeps are the ones it cannot
+ * do without, such as its channels and its game directory entry.
+ *
+ * The player's next message, or the channel closing, wakes the session: its record is read back and
+ * freed, and the session's Restorer rebuilds it on the executor and carries on where it stopped.
+ * Only channels that can call back when a message arrives can park (see PlayerChannel.onReadable);
+ * on other channels sessions keep waiting on their thread.
+ *
+ * Parked sessions do not hold a timer: once a second a sweeper thread scans the arena and closes the
+ * channels of sessions that have waited past their deadline, which wakes them to end their game as
+ * they would have after a timeout.
+ */
+public class SessionHibernator {
+    /** The most state a session may store. */
+    public static final int STATE_BYTES = 56;
+    /** The most heap objects a session may keep while parked. */
+    public static final int MAX_ATTACHMENTS = 5;
+
+    /**
+     * Rebuilds a parked session and continues it. Restorers are shared by every session of a kind,
+     * so parking allocates no restorer.
+     */
+    public interface Restorer {
+        /**
+         * Called on the executor when a parked session wakes.
+         *
+         * @param state       The state the session stored.
+         * @param attachments The objects the session kept, in the order given to park.
+         */
+        void restore(ByteBuffer state, Object[] attachments);
+    }
+
+    // Record layout: deadline (8 bytes, System.currentTimeMillis, 0 for none), timeout reason + 1
+    // (1 byte, 0 marks a free slot), state length (1 byte), padding (6 bytes), state (56 bytes)
+    private static final int RECORD_BYTES = 72;
+    private static final int DEADLINE = 0;
+    private static final int REASON = 8;
+    private static final int LENGTH = 9;
+    private static final int STATE = 16;
+    private static final int SLAB_RECORDS = 1 << 14;
+    private static final int REFERENCES = MAX_ATTACHMENTS + 2; // Restorer, channel, attachments
+    private static final int SWEEP_CHUNK = 4096;
+    private static final ConnectionMonitor.CloseReason[] REASONS = ConnectionMonitor.CloseReason.values();
+
+    private final Executor executor;
+    private final long idleMillis;
+    private final int maxSessions;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final List<Object[]> references = new ArrayList<>();
+    private int[] free = new int[SLAB_RECORDS];
+    private int freeCount;
+    private int capacity;
+    private int parked;
+    private long totalParked;
+    private final Thread sweeper;
+
+    /**
+     * Creates a hibernator and starts its sweeper thread.
+     *
+     * @param executor    Runs the sessions that wake.
+     * @param idleMillis  How long a session waits on its thread before it parks.
+     * @param maxSessions The most sessions parked at once; sessions beyond it keep their thread.
+     */
+    public SessionHibernator(Executor executor, long idleMillis, int maxSessions) {
+        this.executor = executor;
+        this.idleMillis = idleMillis;
+        this.maxSessions = maxSessions;
+        this.sweeper = new Thread(this::sweep, "session-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /**
+     * Creates a hibernator configured from the connect4.hibernate.* system properties.
+     *
+     * @param executor Runs the sessions that wake.
+     * @return The hibernator, or null if hibernation is turned off.
+     */
+    public static SessionHibernator fromSystemProperties(Executor executor) {
+        long idleMillis = Long.getLong("connect4.hibernate.idleMillis", 10_000);
+        if (idleMillis <= 0) {
+            return null;
+        }
+        return new SessionHibernator(executor, idleMillis, Integer.getInteger("connect4.hibernate.maxSessions", 1 << 20));
+    }
+
+    /**
+     * Returns how long a session waits on its thread before it parks.
+     *
+     * @return The idle threshold in milliseconds.
+     */
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Parks a session until the next message arrives on a channel or the channel closes.
+     *
+     * @param channel       The channel whose next message wakes the session.
+     * @param timeoutMillis How long the session may stay parked, or 0 for no limit.
+     * @param onTimeout     The reason the channel is closed with when the time is up.
+     * @param state         The session's state, at most STATE_BYTES bytes.
+     * @param restorer      Rebuilds the session when it wakes.
+     * @param attachments   Objects the session keeps on the heap, at most MAX_ATTACHMENTS.
+     * @return True if the session is parked and its thread may return. False if it could not park
+     * (the channel cannot call back, the arena is full or a message is already waiting); the session
+     * then keeps waiting on its thread.
+     */
+    public boolean park(PlayerChannel channel, long timeoutMillis, ConnectionMonitor.CloseReason onTimeout,
+                        byte[] state, Restorer restorer, Object... attachments) {
+        if (state.length > STATE_BYTES || attachments.length > MAX_ATTACHMENTS) {
+            throw new IllegalArgumentException("Session state too large to park");
+        }
+        int slot;
+        synchronized (this) {
+            slot = allocate();
+            if (slot < 0) {
+                return false;
+            }
+            ByteBuffer slab = slabs.get(slot / SLAB_RECORDS);
+            int base = (slot % SLAB_RECORDS) * RECORD_BYTES;
+            slab.putLong(base + DEADLINE, timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0);
+            slab.put(base + REASON, (byte) (onTimeout.ordinal() + 1));
+            slab.put(base + LENGTH, (byte) state.length);
+            for (int i = 0; i < state.length; i++) {
+                slab.put(base + STATE + i, state[i]);
+            }
+            Object[] refs = references.get(slot / SLAB_RECORDS);
+            int ref = (slot % SLAB_RECORDS) * REFERENCES;
+            refs[ref] = restorer;
+            refs[ref + 1] = channel;
+            System.arraycopy(attachments, 0, refs, ref + 2, attachments.length);
+            parked++;
+        }
+        if (channel.onReadable(() -> wake(slot))) {
+            synchronized (this) {
+                totalParked++;
+            }
+            return true;
+        }
+        release(slot); // Already readable, or the channel cannot call back
+        return false;
+    }
+
+    /**
+     * Wakes a parked session: reads its record back, frees the slot and restores the session.
+     */
+    private void wake(int slot) {
+        ByteBuffer state;
+        Restorer restorer;
+        Object[] attachments = new Object[MAX_ATTACHMENTS];
+        synchronized (this) {
+            ByteBuffer slab = slabs.get(slot / SLAB_RECORDS);
+            int base = (slot % SLAB_RECORDS) * RECORD_BYTES;
+            byte[] bytes = new byte[slab.get(base + LENGTH)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = slab.get(base + STATE + i);
+            }
+            state = ByteBuffer.wrap(bytes);
+            Object[] refs = references.get(slot / SLAB_RECORDS);
+            int ref = (slot % SLAB_RECORDS) * REFERENCES;
+            restorer = (Restorer) refs[ref];
+            System.arraycopy(refs, ref + 2, attachments, 0, MAX_ATTACHMENTS);
+        }
+        release(slot);
+        executor.execute(() -> restorer.restore(state, attachments));
+    }
+
+    /**
+     * Takes a free slot, growing the arena by a slab if needed. The caller holds the lock.
+     *
+     * @return The slot, or -1 if the arena is full.
+     */
+    private int allocate() {
+        if (freeCount == 0) {
+            if (capacity >= maxSessions) {
+                return -1;
+            }
+            slabs.add(ByteBuffer.allocateDirect(SLAB_RECORDS * RECORD_BYTES));
+            references.add(new Object[SLAB_RECORDS * REFERENCES]);
+            if (free.length < capacity + SLAB_RECORDS) {
+                free = Arrays.copyOf(free, capacity + SLAB_RECORDS);
+            }
+            // Lowest slots on top, so the sweeper's scans stay short while few sessions are parked
+            for (int i = SLAB_RECORDS - 1; i >= 0; i--) {
+                free[freeCount++] = capacity + i;
+            }
+            capacity += SLAB_RECORDS;
+        }
+        return free[--freeCount];
+    }
+
+    /**
+     * Frees a slot and lets go of its references.
+     */
+    private synchronized void release(int slot) {
+        ByteBuffer slab = slabs.get(slot / SLAB_RECORDS);
+        slab.put((slot % SLAB_RECORDS) * RECORD_BYTES + REASON, (byte) 0);
+        Object[] refs = references.get(slot / SLAB_RECORDS);
+        int ref = (slot % SLAB_RECORDS) * REFERENCES;
+        Arrays.fill(refs, ref, ref + REFERENCES, null);
+        free[freeCount++] = slot;
+        parked--;
+    }
+
+    /**
+     * Returns the number of sessions parked now.
+     *
+     * @return The parked count.
+     */
+    public synchronized int getParked() {
+        return parked;
+    }
+
+    /**
+     * Returns the number of times a session has parked since the server started.
+     *
+     * @return The total count.
+     */
+    public synchronized long getTotalParked() {
+        return totalParked;
+    }
+
+    /**
+     * Returns the off-heap memory the arena has reserved.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long getArenaBytes() {
+        return (long) capacity * RECORD_BYTES;
+    }
+
+    /**
+     * Sweeper loop: once a second, closes the channels of sessions parked past their deadline. The
+     * arena is scanned in chunks so parking is never held up for long.
+     */
+    private void sweep() {
+        List<PlayerChannel> expired = new ArrayList<>();
+        List<ConnectionMonitor.CloseReason> reasons = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (int start = 0; ; start += SWEEP_CHUNK) {
+                synchronized (this) {
+                    if (start >= capacity) {
+                        break;
+                    }
+                    for (int slot = start; slot < Math.min(start + SWEEP_CHUNK, capacity); slot++) {
+                        ByteBuffer slab = slabs.get(slot / SLAB_RECORDS);
+                        int base = (slot % SLAB_RECORDS) * RECORD_BYTES;
+                        int reason = slab.get(base + REASON);
+                        long deadline = slab.getLong(base + DEADLINE);
+                        if (reason != 0 && deadline != 0 && deadline <= now) {
+                            Object[] refs = references.get(slot / SLAB_RECORDS);
+                            expired.add((PlayerChannel) refs[(slot % SLAB_RECORDS) * REFERENCES + 1]);
+                            reasons.add(REASONS[reason - 1]);
+                            slab.putLong(base + DEADLINE, 0); // Closed once
+                        }
+                    }
+                }
+                // Closing wakes the session, which takes the lock, so close outside it
+                for (int i = 0; i < expired.size(); i++) {
+                    expired.get(i).close(reasons.get(i));
+                }
+                expired.clear();
+                reasons.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the sweeper. Parked sessions stay parked until their channels close.
+     */
+    public void shutdown() {
+        sweeper.interrupt();
+    }
+}
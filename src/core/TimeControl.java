@@ -0,0 +1,119 @@
+package core;
+
+/**
+ * TimeControl is the time limit of a timed game: a total time each player has for all of their
+ * moves, and a limit on any single move. Either limit may be 0, meaning there is none.
+ *
+ * Time controls are written as TOTAL[/MOVE] in seconds, for example "300/30" for five minutes per
+ * game and at most thirty seconds per move, or "/20" for twenty seconds per move only.
+ */
+public final class TimeControl {
+    /** No clock at all. */
+    public static final TimeControl UNTIMED = new TimeControl(0, 0);
+    // The longest limit parse() accepts, so deadlines computed from a limit cannot overflow
+    private static final long MAX_SECONDS = 7 * 24 * 60 * 60;
+
+    private final long totalMillis;
+    private final long moveMillis;
+
+    /**
+     * Creates a time control.
+     *
+     * @param totalMillis The time each player has for the whole game, or 0 for no limit.
+     * @param moveMillis  The time allowed for a single move, or 0 for no limit.
+     * @throws IllegalArgumentException If a limit is negative.
+     */
+    public TimeControl(long totalMillis, long moveMillis) {
+        if (totalMillis < 0 || moveMillis < 0) {
+            throw new IllegalArgumentException("Time limits cannot be negative");
+        }
+        this.totalMillis = totalMillis;
+        this.moveMillis = moveMillis;
+    }
+
+    /**
+     * Parses a time control written as TOTAL[/MOVE] in seconds.
+     *
+     * @param text The time control, may be null.
+     * @return The time control, or UNTIMED for null or an empty string.
+     * @throws IllegalArgumentException If the text cannot be parsed, or a limit is negative or longer
+     *                                  than a week.
+     */
+    public static TimeControl parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return UNTIMED;
+        }
+        String trimmed = text.trim();
+        int slash = trimmed.indexOf('/');
+        try {
+            String total = slash < 0 ? trimmed : trimmed.substring(0, slash);
+            String move = slash < 0 ? "" : trimmed.substring(slash + 1);
+            return new TimeControl(millis(total, text), millis(move, text));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown time control: " + text);
+        }
+    }
+
+    /**
+     * Converts one limit of a time control from seconds to milliseconds.
+     *
+     * @return The limit in milliseconds, or 0 for an empty limit.
+     */
+    private static long millis(String seconds, String text) {
+        if (seconds.isEmpty()) {
+            return 0;
+        }
+        long value = Long.parseLong(seconds);
+        if (value < 0 || value > MAX_SECONDS) {
+            throw new IllegalArgumentException("Time limits must be between 0 and " + MAX_SECONDS + " seconds: "
+                    + text);
+        }
+        return value * 1000;
+    }
+
+    /**
+     * Returns the time each player has for the whole game.
+     *
+     * @return The time in milliseconds, or 0 for no limit.
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * Returns the time allowed for a single move.
+     *
+     * @return The time in milliseconds, or 0 for no limit.
+     */
+    public long getMoveMillis() {
+        return moveMillis;
+    }
+
+    /**
+     * Checks whether this time control has any limit.
+     *
+     * @return True if the game is timed.
+     */
+    public boolean isTimed() {
+        return totalMillis > 0 || moveMillis > 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TimeControl)) {
+            return false;
+        }
+        TimeControl that = (TimeControl) other;
+        return totalMillis == that.totalMillis && moveMillis == that.moveMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(totalMillis) * 31 + Long.hashCode(moveMillis);
+    }
+
+    @Override
+    public String toString() {
+        return totalMillis / 1000 + (moveMillis > 0 ? "/" + moveMillis / 1000 : "");
+    }
+}
@@ -0,0 +1,458 @@
+package core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TrafficCapture records every message clients send to the server, with its timing, so that
+ * tools.Connect4TrafficReplayer can play the same traffic against another server.
+ *
+ * The file starts with an 8-byte header (magic and version). Each record follows as a kind byte,
+ * the connection's id as a varint and the microseconds since the previous record as a varint:
+ * <ul>
+ *     <li>OPEN: a client connected.</li>
+ *     <li>MESSAGE: a client sent a message. The record holds how many messages the server sent on
+ *     the connection since the client's previous message (a varint), then the message: a tag byte
+ *     followed by an Integer as a zigzag varint, a String as its UTF-8 length and bytes, a MuxFrame
+ *     as its channel and payload, or any other object in Java serialization.</li>
+ *     <li>CLOSE: the connection closed. The record holds how many messages the server sent since the
+ *     client's last message and the close reason.</li>
+ * </ul>
+ * A move takes about 5 bytes.
+ *
+ * Recording threads only stamp the time and queue the record, without a lock; a single writer thread
+ * encodes the records and writes them in batches, as ServerLog does. Records are written in the order
+ * they were queued. A record stamped a moment before the previous one, because its thread queued it
+ * later, is written with the previous record's time, so times never go backwards. When the writer
+ * falls too far behind, recording threads wait for it rather than lose traffic.
+ */
+public final class TrafficCapture implements Closeable {
+    /** A client connected. */
+    public static final int OPEN = 1;
+    /** A client sent a message. */
+    public static final int MESSAGE = 2;
+    /** A connection closed. */
+    public static final int CLOSE = 3;
+
+    private static final int FILE_MAGIC = 0x43345443; // "C4TC"
+    private static final int FILE_VERSION = 1;
+    private static final int NULL = 0;
+    private static final int INTEGER = 1;
+    private static final int STRING = 2;
+    private static final int FRAME = 3;
+    private static final int CLOSE_FRAME = 4;
+    private static final int SERIALIZED = 5;
+    private static final int MAX_QUEUED = 65536;
+    private static final long IDLE_PARK_NANOS = 2_000_000;
+
+    private final DataOutputStream out;
+    private final AtomicInteger nextConnection = new AtomicInteger(1);
+    private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean closed;
+
+    // Owned by the writer thread until it stops
+    private long lastNanos = System.nanoTime();
+    private IOException failure;
+
+    /**
+     * A record waiting for the writer.
+     */
+    private static final class Record {
+        final int kind;
+        final int connection;
+        final int serverMessages;
+        final Object message;
+        final ConnectionMonitor.CloseReason reason;
+        final long nanos = System.nanoTime();
+
+        Record(int kind, int connection, int serverMessages, Object message, ConnectionMonitor.CloseReason reason) {
+            this.kind = kind;
+            this.connection = connection;
+            this.serverMessages = serverMessages;
+            this.message = message;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Creates a capture file, replacing any file of the same name.
+     *
+     * @param file The capture file.
+     * @throws IOException If the file cannot be created.
+     */
+    public TrafficCapture(Path file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        this.writer = new Thread(this::drain, "capture-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a new connection.
+     *
+     * @return The connection's recorder.
+     */
+    public Connection open() {
+        Connection connection = new Connection(nextConnection.getAndIncrement());
+        write(OPEN, connection.id, 0, null, null);
+        return connection;
+    }
+
+    /**
+     * Queues a record for the writer, waiting while the writer is too far behind. Records made after
+     * the capture closed or failed are dropped.
+     */
+    private void write(int kind, int connection, int serverMessages, Object message,
+                       ConnectionMonitor.CloseReason reason) {
+        while (queued.get() >= MAX_QUEUED && running) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(50_000);
+        }
+        if (closed || !running) {
+            return;
+        }
+        queued.incrementAndGet();
+        queue.offer(new Record(kind, connection, serverMessages, message, reason));
+    }
+
+    /**
+     * Writer loop: writes the queued records in order and flushes whenever the queue runs empty. A
+     * write that fails stops the capture; the failure is reported by close.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                boolean stopping = closed;
+                int count = 0;
+                Record record;
+                while ((record = queue.poll()) != null) {
+                    queued.decrementAndGet();
+                    write(record);
+                    count++;
+                }
+                if (count > 0 || stopping) {
+                    out.flush();
+                }
+                if (stopping) {
+                    break;
+                }
+                if (count == 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            // Nothing writes records any more: later ones are dropped rather than waited for
+            running = false;
+            queue.clear();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes one record.
+     */
+    private void write(Record record) throws IOException {
+        // A record queued after one stamped later gets the same time rather than a negative gap
+        long now = Math.max(record.nanos, lastNanos);
+        out.write(record.kind);
+        writeVarint(record.connection);
+        writeVarint((now - lastNanos) / 1000);
+        // Only whole microseconds are written, so the rest carries over to the next record
+        lastNanos = now - (now - lastNanos) % 1000;
+        if (record.kind == MESSAGE) {
+            writeVarint(record.serverMessages);
+            writeMessage(record.message);
+        } else if (record.kind == CLOSE) {
+            writeVarint(record.serverMessages);
+            out.write(record.reason.ordinal());
+        }
+    }
+
+    private void writeMessage(Object message) throws IOException {
+        if (message == null) {
+            out.write(NULL);
+        } else if (message instanceof Integer) {
+            int value = (Integer) message;
+            out.write(INTEGER);
+            writeVarint(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+        } else if (message instanceof String) {
+            byte[] bytes = ((String) message).getBytes(StandardCharsets.UTF_8);
+            out.write(STRING);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        } else if (message instanceof MuxFrame && ((MuxFrame) message).isClose()) {
+            out.write(CLOSE_FRAME);
+            writeVarint(((MuxFrame) message).getChannel());
+        } else if (message instanceof MuxFrame) {
+            out.write(FRAME);
+            writeVarint(((MuxFrame) message).getChannel());
+            writeMessage(((MuxFrame) message).getPayload());
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(message);
+            }
+            out.write(SERIALIZED);
+            writeVarint(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Writes the queued records, then flushes and closes the file. Records made afterwards are
+     * dropped.
+     *
+     * @throws IOException If a record could not be written or the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the capture");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Records the traffic of one connection.
+     */
+    public final class Connection {
+        private final int id;
+        private final AtomicInteger sent = new AtomicInteger();
+
+        private Connection(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Counts a message the server sent to the client.
+         */
+        public void sent() {
+            sent.incrementAndGet();
+        }
+
+        /**
+         * Records a message the client sent.
+         *
+         * @param message The message.
+         */
+        public void received(Object message) {
+            write(MESSAGE, id, sent.getAndSet(0), message, null);
+        }
+
+        /**
+         * Records that the connection closed.
+         *
+         * @param reason Why the connection closed.
+         */
+        public void closed(ConnectionMonitor.CloseReason reason) {
+            write(CLOSE, id, sent.getAndSet(0), null, reason);
+        }
+    }
+
+    /**
+     * Reads the records of a capture file, one at a time, into fields that are reused for every
+     * record.
+     */
+    public static final class Reader implements Closeable {
+        private static final ConnectionMonitor.CloseReason[] REASONS = ConnectionMonitor.CloseReason.values();
+
+        private final DataInputStream in;
+        private int kind;
+        private int connection;
+        private long micros;
+        private int serverMessages;
+        private Object message;
+        private ConnectionMonitor.CloseReason reason;
+
+        /**
+         * Opens a capture file.
+         *
+         * @param file The capture file.
+         * @throws IOException If the file cannot be opened or is not a capture of this version.
+         */
+        public Reader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                in.close();
+                throw new IOException("Not a traffic capture of this version");
+            }
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return True if a record was read, false at the end of the file. A record cut short by a
+         * crash counts as the end of the file.
+         * @throws IOException If the file cannot be read or holds an unknown record.
+         */
+        public boolean next() throws IOException {
+            int read = in.read();
+            if (read < 0) {
+                return false;
+            }
+            try {
+                kind = read;
+                connection = (int) readVarint();
+                micros += readVarint();
+                message = null;
+                reason = null;
+                serverMessages = 0;
+                if (kind == MESSAGE) {
+                    serverMessages = (int) readVarint();
+                    message = readMessage();
+                } else if (kind == CLOSE) {
+                    serverMessages = (int) readVarint();
+                    reason = REASONS[in.readUnsignedByte()];
+                } else if (kind != OPEN) {
+                    throw new IOException("Unknown record kind " + kind);
+                }
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        private Object readMessage() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case INTEGER:
+                    long zigzag = readVarint();
+                    return (int) (zigzag >>> 1) ^ -(int) (zigzag & 1);
+                case STRING:
+                    byte[] bytes = new byte[(int) readVarint()];
+                    in.readFully(bytes);
+                    return new String(bytes, StandardCharsets.UTF_8);
+                case FRAME:
+                    int channel = (int) readVarint();
+                    return new MuxFrame(channel, readMessage());
+                case CLOSE_FRAME:
+                    return MuxFrame.close((int) readVarint());
+                case SERIALIZED:
+                    byte[] serialized = new byte[(int) readVarint()];
+                    in.readFully(serialized);
+                    try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                        return objects.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException("Unknown class in capture", e);
+                    }
+                default:
+                    throw new IOException("Unknown message tag " + tag);
+            }
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * Returns the kind of the record: OPEN, MESSAGE or CLOSE.
+         *
+         * @return The kind.
+         */
+        public int getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the id of the connection the record belongs to.
+         *
+         * @return The connection id, unique within the capture.
+         */
+        public int getConnection() {
+            return connection;
+        }
+
+        /**
+         * Returns when the record was made.
+         *
+         * @return Microseconds since the capture started.
+         */
+        public long getMicros() {
+            return micros;
+        }
+
+        /**
+         * Returns how many messages the server sent on the connection since the client's previous
+         * message.
+         *
+         * @return The count; 0 for OPEN records.
+         */
+        public int getServerMessages() {
+            return serverMessages;
+        }
+
+        /**
+         * Returns the message of a MESSAGE record.
+         *
+         * @return The message the client sent.
+         */
+        public Object getMessage() {
+            return message;
+        }
+
+        /**
+         * Returns the close reason of a CLOSE record.
+         *
+         * @return Why the connection closed, or null for other records.
+         */
+        public ConnectionMonitor.CloseReason getReason() {
+            return reason;
+        }
+
+        /**
+         * Closes the file.
+         *
+         * @throws IOException If the file cannot be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * TranspositionTable caches search results for positions so that the computer player does not
+ * search the same position twice. A single table is shared by every search thread.
+ *
+ * Entries are stored without locks: each slot keeps the data word and the key XOR-ed with the data
+ * word, so a slot that was torn by two concurrent writers simply fails verification and is treated
+ * as a miss.
+ *
+ * A table can be saved to a file and loaded into a new table of any size, so a restarted server
+ * keeps what its searches learned.
+ */
+public class TranspositionTable {
+    /** Bound type stored with an entry: the score is exact. */
+    public static final int EXACT = 1;
+    /** Bound type stored with an entry: the score is a lower bound (fail high). */
+    public static final int LOWER = 2;
+    /** Bound type stored with an entry: the score is an upper bound (fail low). */
+    public static final int UPPER = 3;
+
+    private static final int FILE_MAGIC = 0x43345454; // "C4TT"
+    // Bump when scores or keys change meaning, so tables saved by older versions are ignored
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 16;
+    private static final int ENTRIES_PER_REGION = 1 << 26; // Mapped 1 GB at a time
+
+    private final long[] keys;
+    private final long[] data;
+    private final int indexMask;
+
+    /**
+     * Creates a table with the given number of slots, rounded up to a power of two.
+     *
+     * @param slots The requested number of slots.
+     */
+    public TranspositionTable(int slots) {
+        int size = Integer.highestOneBit(Math.max(1024, slots - 1)) << 1;
+        this.keys = new long[size];
+        this.data = new long[size];
+        this.indexMask = size - 1;
+    }
+
+    /**
+     * Stores a search result for a position, replacing whatever was in its slot.
+     *
+     * @param key   The position key.
+     * @param score The score of the position.
+     * @param depth The remaining depth the score was searched to.
+     * @param bound The bound type (EXACT, LOWER or UPPER).
+     * @param move  The best column found (0-based), or -1.
+     */
+    public void store(long key, int score, int depth, int bound, int move) {
+        long entry = pack(score, depth, bound, move);
+        int index = index(key);
+        keys[index] = key ^ entry;
+        data[index] = entry;
+    }
+
+    /**
+     * Looks up the data word stored for a position.
+     *
+     * @param key The position key.
+     * @return The packed data word, or 0 when the position is not in the table.
+     */
+    public long probe(long key) {
+        int index = index(key);
+        long entry = data[index];
+        if (entry != 0 && (keys[index] ^ entry) == key) {
+            return entry;
+        }
+        return 0;
+    }
+
+    /**
+     * Clears every slot.
+     */
+    public void clear() {
+        java.util.Arrays.fill(keys, 0);
+        java.util.Arrays.fill(data, 0);
+    }
+
+    /**
+     * Saves the occupied slots to a file: a header, then the key and data word of each entry. The
+     * file is written next to the target and moved into place, so a crash never leaves a partial
+     * file behind. Searches may keep running; slots they tear while being copied are left out.
+     *
+     * @param file The file.
+     * @return The number of entries saved.
+     * @throws IOException If the file cannot be written.
+     */
+    public int save(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            channel.position(HEADER_BYTES);
+            for (int i = 0; i < keys.length; i++) {
+                long entry = data[i];
+                long key = keys[i] ^ entry;
+                if (entry == 0 || index(key) != i) {
+                    continue; // Empty or torn
+                }
+                if (buffer.remaining() < ENTRY_BYTES) {
+                    write(channel, buffer);
+                }
+                buffer.putLong(key).putLong(entry);
+                count++;
+            }
+            write(channel, buffer);
+            buffer.putInt(FILE_MAGIC).putInt(FILE_VERSION).putLong(count);
+            channel.position(0);
+            write(channel, buffer);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Loads the entries of a saved table by mapping the file into memory, replacing the slots they
+     * hash to. The saved table may have had a different size.
+     *
+     * @param file The file written by save.
+     * @return The number of entries loaded.
+     * @throws IOException If the file cannot be read, or was not written by this version of the table.
+     */
+    public int load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) {
+                throw new IOException("Not a table saved by this version: " + file);
+            }
+            long count = header.getLong();
+            if (channel.size() != HEADER_BYTES + count * ENTRY_BYTES) {
+                throw new IOException("Truncated table file: " + file);
+            }
+            for (long first = 0; first < count; first += ENTRIES_PER_REGION) {
+                int entries = (int) Math.min(ENTRIES_PER_REGION, count - first);
+                LongBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * ENTRY_BYTES, (long) entries * ENTRY_BYTES).asLongBuffer();
+                for (int i = 0; i < entries; i++) {
+                    long key = region.get();
+                    long entry = region.get();
+                    int index = index(key);
+                    keys[index] = key ^ entry;
+                    data[index] = entry;
+                }
+            }
+            return (int) count;
+        }
+    }
+
+    /**
+     * Writes out and clears a buffer.
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the number of slots in the table.
+     *
+     * @return The table size.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Extracts the score from a packed data word.
+     *
+     * @param entry A data word returned by probe.
+     * @return The stored score.
+     */
+    public static int score(long entry) {
+        return (short) (entry >>> 16);
+    }
+
+    /**
+     * Extracts the search depth from a packed data word.
+     *
+     * @param entry A data word returned by probe.
+     * @return The stored depth.
+     */
+    public static int depth(long entry) {
+        return (int) (entry >>> 8) & 0xFF;
+    }
+
+    /**
+     * Extracts the bound type from a packed data word.
+     *
+     * @param entry A data word returned by probe.
+     * @return EXACT, LOWER or UPPER.
+     */
+    public static int bound(long entry) {
+        return (int) (entry >>> 32) & 0x3;
+    }
+
+    /**
+     * Extracts the best move from a packed data word.
+     *
+     * @param entry A data word returned by probe.
+     * @return The stored column (0-based), or -1 if none was stored.
+     */
+    public static int move(long entry) {
+        return (int) (entry & 0xFF) - 1;
+    }
+
+    private static long pack(int score, int depth, int bound, int move) {
+        return ((long) bound << 32)
+                | ((long) (score & 0xFFFF) << 16)
+                | ((long) (depth & 0xFF) << 8)
+                | (move + 1 & 0xFF);
+    }
+
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & indexMask;
+    }
+}
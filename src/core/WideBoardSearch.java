@@ -0,0 +1,370 @@
+package core;
+
+import java.util.Random;
+
+/**
+ * WideBoardSearch is the computer player's search for variants whose board does not fit in a
+ * single long (for example 9x7). Stones are kept in multi-word bitboards that are updated in place
+ * as moves are made and unmade, wins are detected by walking the lines through the last piece, and
+ * positions are hashed with Zobrist keys for the shared TranspositionTable.
+ *
+ * A search instance is not thread-safe and is meant to be owned by one thread.
+ */
+public class WideBoardSearch implements SearchEngine {
+    private static final int[][] DIRECTIONS = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+    private final Connect4Variant variant;
+    private final int width;
+    private final int height;
+    private final int connect;
+    private final int cells;
+    private final long[][] stones;   // Indexed by player: 0 is the player to move at the root
+    private final int[] heights;
+    private final long[][] zobrist;  // Indexed by piece: 0 is X, 1 is O
+    private final int[][] windows;
+    private final int centerWeight;
+    private final int[] windowWeights;
+    private final int[] columnOrder;
+    private final TranspositionTable table;
+    private final Random random = new Random();
+
+    private int rootPiece;
+    private long hash;
+    private long deadline;
+    private boolean aborted;
+    private long nodes;
+    private long tableHits;
+    private int depthReached;
+
+    /**
+     * Creates a search for a variant that shares the given transposition table.
+     *
+     * @param variant The board variant.
+     * @param table   The table used to cache results, may be shared with other searches.
+     */
+    public WideBoardSearch(Connect4Variant variant, TranspositionTable table) {
+        this(variant, table, EvaluationWeights.DEFAULT);
+    }
+
+    /**
+     * Creates a search for a variant that scores positions with the given weights. Searches with
+     * different weights must not share a table, since stored scores depend on the weights.
+     *
+     * @param variant The board variant.
+     * @param table   The table used to cache results.
+     * @param weights The evaluation weights.
+     */
+    public WideBoardSearch(Connect4Variant variant, TranspositionTable table, EvaluationWeights weights) {
+        this.variant = variant;
+        this.width = variant.getColumns();
+        this.height = variant.getRows();
+        this.connect = variant.getConnectLength();
+        this.cells = width * height;
+        this.table = table;
+        int words = (cells + 63) / 64;
+        this.stones = new long[2][words];
+        this.heights = new int[width];
+        this.centerWeight = weights.getCenter();
+        this.windowWeights = weights.windowWeights(connect);
+        this.columnOrder = BitboardGeometry.createColumnOrder(width);
+        this.windows = createWindows();
+
+        // Keys must be the same in every process so that stored table entries stay valid
+        Random keys = new Random(variant.hashCode());
+        this.zobrist = new long[2][cells];
+        for (int piece = 0; piece < 2; piece++) {
+            for (int cell = 0; cell < cells; cell++) {
+                zobrist[piece][cell] = keys.nextLong();
+            }
+        }
+    }
+
+    @Override
+    public int randomMove(char[][] board) {
+        load(board, 'X');
+        int moves = countMoves();
+        if (moves >= cells) {
+            return -1;
+        }
+        int column;
+        do {
+            column = random.nextInt(width);
+        } while (heights[column] >= height);
+        return column;
+    }
+
+    @Override
+    public int bestMove(char[][] board, char toMove, int maxDepth, long deadlineNanos) {
+        load(board, toMove);
+        int moves = countMoves();
+        nodes = 0;
+        tableHits = 0;
+        depthReached = 0;
+        aborted = false;
+        deadline = deadlineNanos;
+
+        int bestColumn = -1;
+        for (int col : columnOrder) {
+            if (heights[col] < height) {
+                if (isWinningMove(0, col)) {
+                    depthReached = 1;
+                    return col;
+                }
+                if (bestColumn < 0) {
+                    bestColumn = col;
+                }
+            }
+        }
+        if (bestColumn < 0) {
+            return -1;
+        }
+
+        for (int depth = 1; depth <= Math.max(1, maxDepth); depth++) {
+            int column = searchRoot(moves, depth);
+            if (aborted) {
+                break;
+            }
+            bestColumn = column;
+            depthReached = depth;
+            if (moves + depth >= cells) {
+                break; // Searched to the end of the game
+            }
+        }
+        return bestColumn;
+    }
+
+    @Override
+    public long getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    @Override
+    public int getDepthReached() {
+        return depthReached;
+    }
+
+    private int searchRoot(int moves, int depth) {
+        int alpha = -WIN_SCORE - 1;
+        int beta = WIN_SCORE + 1;
+        int bestColumn = -1;
+        long key = hash;
+        int ttMove = TranspositionTable.move(table.probe(key));
+
+        for (int i = -1; i < width; i++) {
+            int col = i < 0 ? ttMove : columnOrder[i];
+            if (col < 0 || col >= width || (i >= 0 && col == ttMove) || heights[col] >= height) {
+                continue;
+            }
+            play(0, col);
+            int score = -negamax(1, moves + 1, depth - 1, -beta, -alpha);
+            undo(0, col);
+            if (aborted) {
+                return bestColumn;
+            }
+            if (score > alpha || bestColumn < 0) {
+                alpha = Math.max(alpha, score);
+                bestColumn = col;
+            }
+        }
+        table.store(key, alpha, depth, TranspositionTable.EXACT, bestColumn);
+        return bestColumn;
+    }
+
+    private int negamax(int player, int moves, int depth, int alpha, int beta) {
+        if ((++nodes & 4095) == 0 && System.nanoTime() - deadline > 0) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        if (moves == cells) {
+            return 0; // Draw
+        }
+        for (int col = 0; col < width; col++) {
+            if (heights[col] < height && isWinningMove(player, col)) {
+                return WIN_SCORE - (moves + 1);
+            }
+        }
+        if (depth <= 0) {
+            return evaluate(player);
+        }
+
+        long key = hash;
+        long entry = table.probe(key);
+        int ttMove = -1;
+        if (entry != 0) {
+            tableHits++;
+            ttMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int score = TranspositionTable.score(entry);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT) {
+                    return score;
+                } else if (bound == TranspositionTable.LOWER) {
+                    alpha = Math.max(alpha, score);
+                } else {
+                    beta = Math.min(beta, score);
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+        }
+
+        int originalAlpha = alpha;
+        int best = -WIN_SCORE - 1;
+        int bestColumn = -1;
+        for (int i = -1; i < width; i++) {
+            int col = i < 0 ? ttMove : columnOrder[i];
+            if (col < 0 || col >= width || (i >= 0 && col == ttMove) || heights[col] >= height) {
+                continue;
+            }
+            play(player, col);
+            int score = -negamax(1 - player, moves + 1, depth - 1, -beta, -alpha);
+            undo(player, col);
+            if (aborted) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestColumn = col;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        int bound = best <= originalAlpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(key, best, depth, bound, bestColumn);
+        return best;
+    }
+
+    private void play(int player, int col) {
+        int cell = col * height + heights[col]++;
+        stones[player][cell >>> 6] ^= 1L << cell;
+        hash ^= zobrist[player ^ rootPiece][cell];
+    }
+
+    private void undo(int player, int col) {
+        int cell = col * height + --heights[col];
+        stones[player][cell >>> 6] ^= 1L << cell;
+        hash ^= zobrist[player ^ rootPiece][cell];
+    }
+
+    /**
+     * Checks whether dropping a piece into a column completes a line, by walking the lines through
+     * the cell the piece would land in.
+     */
+    private boolean isWinningMove(int player, int col) {
+        long[] own = stones[player];
+        int row = heights[col];
+        for (int[] dir : DIRECTIONS) {
+            int count = 1;
+            for (int sign = -1; sign <= 1; sign += 2) {
+                int c = col + sign * dir[0];
+                int r = row + sign * dir[1];
+                while (c >= 0 && c < width && r >= 0 && r < height && has(own, c * height + r)) {
+                    count++;
+                    c += sign * dir[0];
+                    r += sign * dir[1];
+                }
+            }
+            if (count >= connect) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int evaluate(int player) {
+        long[] own = stones[player];
+        long[] other = stones[1 - player];
+        int score = 0;
+        int center = width / 2;
+        for (int r = 0; r < heights[center]; r++) {
+            score += has(own, center * height + r) ? centerWeight : -centerWeight;
+        }
+        for (int[] window : windows) {
+            int ownCount = 0;
+            int otherCount = 0;
+            for (int cell : window) {
+                if (has(own, cell)) {
+                    ownCount++;
+                } else if (has(other, cell)) {
+                    otherCount++;
+                }
+            }
+            if (otherCount == 0) {
+                score += windowWeights[ownCount];
+            } else if (ownCount == 0) {
+                score -= windowWeights[otherCount];
+            }
+        }
+        return score;
+    }
+
+    private static boolean has(long[] board, int cell) {
+        return (board[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    private void load(char[][] board, char toMove) {
+        rootPiece = toMove == 'X' ? 0 : 1;
+        hash = Connect4Search.variantSalt(variant);
+        for (long[] words : stones) {
+            java.util.Arrays.fill(words, 0);
+        }
+        for (int col = 0; col < width; col++) {
+            heights[col] = 0;
+            for (int r = 0; r < height; r++) {
+                char cell = board[height - 1 - r][col];
+                if (cell == ' ') {
+                    break;
+                }
+                heights[col]++;
+                int player = cell == toMove ? 0 : 1;
+                int index = col * height + r;
+                stones[player][index >>> 6] |= 1L << index;
+                hash ^= zobrist[player ^ rootPiece][index];
+            }
+        }
+    }
+
+    private int countMoves() {
+        int moves = 0;
+        for (int h : heights) {
+            moves += h;
+        }
+        return moves;
+    }
+
+    private int[][] createWindows() {
+        int[][] result = new int[cells * DIRECTIONS.length][];
+        int count = 0;
+        for (int col = 0; col < width; col++) {
+            for (int row = 0; row < height; row++) {
+                for (int[] dir : DIRECTIONS) {
+                    int endCol = col + (connect - 1) * dir[0];
+                    int endRow = row + (connect - 1) * dir[1];
+                    if (endCol < 0 || endCol >= width || endRow < 0 || endRow >= height) {
+                        continue;
+                    }
+                    int[] window = new int[connect];
+                    for (int i = 0; i < connect; i++) {
+                        window[i] = (col + i * dir[0]) * height + row + i * dir[1];
+                    }
+                    result[count++] = window;
+                }
+            }
+        }
+        return java.util.Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,153 @@
+package tools;
+
+import core.BatchAnalyzer;
+import core.Connect4Variant;
+import core.PositionSnapshot;
+import core.TranspositionTable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Connect4Analysis analyzes positions given as move strings with core.BatchAnalyzer, on every core,
+ * and prints one result line per position followed by the throughput. Each input line holds one
+ * game as the columns played, for example "4453" (or "10,4,11" on boards with more than nine
+ * columns); lines with an illegal move are reported on standard error and skipped.
+ *
+ * Options are given as key=value arguments: file (the games; standard input when absent or "-"),
+ * plies (last to analyze only the position after each line's last move, or all for every position
+ * of each game; default last), variant (board variant such as 8x7c5), depth (plies; default 12),
+ * time (milliseconds per position; 0 for no limit; default 200), threads (default: available
+ * processors) and tableSize (transposition table slots shared by all threads; default 4194304).
+ */
+public class Connect4Analysis {
+    private final String file;
+    private final boolean allPlies;
+    private final Connect4Variant variant;
+    private final int depth;
+    private final long timeMillis;
+    private final int threads;
+    private final int tableSize;
+
+    // Input line of each position handed to the analyzer and not yet printed
+    private final ArrayDeque<Integer> lines = new ArrayDeque<>();
+    private int invalidLines;
+
+    /**
+     * Creates an analysis from parsed options.
+     *
+     * @param options The key=value options.
+     * @throws IllegalArgumentException If an option is invalid.
+     */
+    public Connect4Analysis(Map<String, String> options) {
+        this.file = options.getOrDefault("file", "-");
+        String plies = options.getOrDefault("plies", "last");
+        if (!plies.equals("last") && !plies.equals("all")) {
+            throw new IllegalArgumentException("plies must be last or all");
+        }
+        this.allPlies = plies.equals("all");
+        this.variant = options.containsKey("variant") ? Connect4Variant.parse(options.get("variant"))
+                : Connect4Variant.STANDARD;
+        this.depth = Integer.parseInt(options.getOrDefault("depth", "12"));
+        this.timeMillis = Long.parseLong(options.getOrDefault("time", "200"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.tableSize = Integer.parseInt(options.getOrDefault("tableSize", String.valueOf(1 << 22)));
+    }
+
+    /**
+     * Analyzes every position and prints the results.
+     *
+     * @throws IOException          If the games cannot be read.
+     * @throws InterruptedException If interrupted while waiting for the analysis.
+     */
+    public void run() throws IOException, InterruptedException {
+        InputStream input = file.equals("-") ? System.in : new FileInputStream(file);
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                false, "UTF-8");
+        BatchAnalyzer.Summary summary;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+             BatchAnalyzer analyzer = new BatchAnalyzer(threads, new TranspositionTable(tableSize), depth, timeMillis)) {
+            summary = analyzer.analyze(new Positions(reader),
+                    result -> out.append(String.valueOf(lines.poll())).append(' ').append(result.toString()).append('\n'));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+        System.err.printf("%s, %d invalid lines skipped (%d threads, depth %d, time %s)%n", summary, invalidLines,
+                threads, depth, timeMillis > 0 ? timeMillis + " ms" : "unlimited");
+    }
+
+    /**
+     * Reads the positions to analyze from the input, a line at a time, as the analyzer asks for them.
+     */
+    private class Positions implements Iterator<PositionSnapshot> {
+        private final BufferedReader reader;
+        private final ArrayDeque<PositionSnapshot> pending = new ArrayDeque<>();
+        private int lineNumber;
+
+        Positions(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                String line;
+                while (pending.isEmpty() && (line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        if (allPlies) {
+                            List<PositionSnapshot> positions = BatchAnalyzer.gamePositions(variant, line);
+                            pending.addAll(positions);
+                        } else {
+                            pending.add(BatchAnalyzer.parseMoves(variant, line));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        invalidLines++;
+                        System.err.println("Line " + lineNumber + ": " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public PositionSnapshot next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lines.add(lineNumber);
+            return pending.poll();
+        }
+    }
+
+    /**
+     * Entry point for the analysis.
+     *
+     * @param args Options in key=value form, for example file=games.txt plies=all depth=14.
+     * @throws IOException          If the games cannot be read.
+     * @throws InterruptedException If interrupted while analyzing.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        new Connect4Analysis(options).run();
+    }
+}
@@ -0,0 +1,324 @@
+package tools;
+
+import core.Connect4Variant;
+import core.MultiplexedClient;
+
+import java.io.*;
+import java.net.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connect4LoadGenerator is a headless client that opens many concurrent connections to a
+ * Connect4Server, plays games with scripted or random moves and reports connection setup time,
+ * move round-trip latency percentiles and throughput.
+ *
+ * Options are given as key=value arguments:
+ * host (default localhost), port (8000), connections (100), games per connection (1),
+ * mode (1 = computer, 2 = multiplayer, mixed), moves (random or a column script such as 4453),
+ * variant (board variant such as 8x7c5, negotiated in the handshake), clock (multiplayer time
+ * control such as 300/30), mux (games played at once over each connection, multiplexed; 0 for one
+ * game per connection), name (prefix of the names bots play rated games under; bots are unrated
+ * when omitted), ramp (milliseconds over which
+ * connections are opened) and timeout (socket read timeout in seconds).
+ */
+public class Connect4LoadGenerator {
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int games;
+    private final String mode;
+    private final String script;
+    private final Connect4Variant variant;
+    private final String clock;
+    private final int mux;
+    private final String name;
+    private final long rampMillis;
+    private final int timeoutMillis;
+
+    private final LatencyRecorder connectTimes = new LatencyRecorder();
+    private final LatencyRecorder moveTimes = new LatencyRecorder();
+    private final AtomicLong gamesPlayed = new AtomicLong();
+    private final AtomicLong invalidMoves = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Creates a load generator from parsed options.
+     *
+     * @param options The key=value options.
+     */
+    public Connect4LoadGenerator(Map<String, String> options) {
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "8000"));
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "100"));
+        this.games = Integer.parseInt(options.getOrDefault("games", "1"));
+        this.mode = options.getOrDefault("mode", "1");
+        this.script = options.getOrDefault("moves", "random");
+        this.variant = options.containsKey("variant") ? Connect4Variant.parse(options.get("variant")) : null;
+        this.clock = options.get("clock");
+        this.mux = Integer.parseInt(options.getOrDefault("mux", "0"));
+        this.name = options.get("name");
+        this.rampMillis = Long.parseLong(options.getOrDefault("ramp", "0"));
+        this.timeoutMillis = Integer.parseInt(options.getOrDefault("timeout", "60")) * 1000;
+    }
+
+    /**
+     * Runs every bot to completion and prints the report.
+     *
+     * @throws InterruptedException If interrupted while waiting for the bots.
+     */
+    public void run() throws InterruptedException {
+        ExecutorService clients = Executors.newFixedThreadPool(connections);
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            long delay = connections > 1 ? rampMillis * i / (connections - 1) : 0;
+            clients.execute(new Client(delay, i));
+        }
+        clients.shutdown();
+        clients.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Connections: %d, games: %d, moves: %d, invalid moves: %d, errors: %d%n",
+                connections, gamesPlayed.get(), moveTimes.count(), invalidMoves.get(), errors.get());
+        System.out.printf("Elapsed: %.2f s, throughput: %.1f moves/s, %.1f games/s%n",
+                seconds, moveTimes.count() / seconds, gamesPlayed.get() / seconds);
+        System.out.println("Connection setup (ms): " + connectTimes.summary());
+        System.out.println("Move round trip (ms):  " + moveTimes.summary());
+    }
+
+    /**
+     * Returns the handshake a bot sends to start its game.
+     */
+    private Object handshake(int bot) {
+        int botMode = modeOf(bot);
+        if (variant == null && clock == null && name == null) {
+            return botMode;
+        }
+        return "mode=" + botMode + (variant != null ? " variant=" + variant : "")
+                + (clock != null ? " clock=" + clock : "") + (name != null ? " name=" + name + bot : "");
+    }
+
+    /**
+     * Returns the mode of the bot with the given number.
+     */
+    private int modeOf(int bot) {
+        return "mixed".equals(mode) ? 1 + (bot / 2) % 2 : Integer.parseInt(mode);
+    }
+
+    /**
+     * How a bot exchanges messages with the server: a connection of its own or one game on a
+     * multiplexed connection.
+     */
+    private interface Link {
+        Object read() throws IOException, ClassNotFoundException;
+
+        void write(Object message) throws IOException;
+    }
+
+    /**
+     * One client connection, carrying a single bot or, when multiplexing, several bots at once.
+     */
+    private class Client implements Runnable {
+        private final long delayMillis;
+        private final int id;
+
+        Client(long delayMillis, int id) {
+            this.delayMillis = delayMillis;
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(delayMillis);
+                long connectStart = System.nanoTime();
+                try (Socket socket = new Socket()) {
+                    socket.setTcpNoDelay(true);
+                    socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+                    socket.setSoTimeout(timeoutMillis);
+                    if (mux > 0) {
+                        runMultiplexed(socket, connectStart);
+                        return;
+                    }
+                    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.flush();
+                    ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+
+                    in.readObject(); // Mode prompt
+                    connectTimes.record(System.nanoTime() - connectStart);
+                    out.writeObject(handshake(id));
+                    out.flush();
+                    new Bot(id).play(new Link() {
+                        @Override
+                        public Object read() throws IOException, ClassNotFoundException {
+                            return in.readObject();
+                        }
+
+                        @Override
+                        public void write(Object message) throws IOException {
+                            out.writeObject(message);
+                            out.flush();
+                        }
+                    });
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                errors.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Plays several games at once over one multiplexed connection, one thread per game.
+         */
+        private void runMultiplexed(Socket socket, long connectStart) throws IOException, InterruptedException {
+            // The server reads the socket on its own; games time out individually instead
+            socket.setSoTimeout(0);
+            try (MultiplexedClient client = new MultiplexedClient(socket)) {
+                connectTimes.record(System.nanoTime() - connectStart);
+                Thread[] threads = new Thread[mux];
+                for (int k = 0; k < mux; k++) {
+                    int bot = id * mux + k;
+                    MultiplexedClient.Game game = client.open(handshake(bot));
+                    threads[k] = new Thread(() -> {
+                        try {
+                            new Bot(bot).play(new Link() {
+                                @Override
+                                public Object read() throws IOException {
+                                    return game.receive(timeoutMillis);
+                                }
+
+                                @Override
+                                public void write(Object message) throws IOException {
+                                    game.send(message);
+                                }
+                            });
+                        } catch (IOException | ClassNotFoundException e) {
+                            errors.incrementAndGet();
+                        }
+                    });
+                    threads[k].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+        }
+    }
+
+    /**
+     * A single scripted player.
+     */
+    private class Bot {
+        private final Random random;
+        private String lastBoard;
+        private int scriptIndex;
+
+        Bot(int id) {
+            this.random = new Random(id);
+        }
+
+        /**
+         * Plays games until the server says goodbye, recording the round trip of every move.
+         */
+        void play(Link link) throws IOException, ClassNotFoundException {
+            long[] latencies = new long[64];
+            int count = 0;
+            try {
+                int played = 0;
+                long sentAt = 0;
+                boolean awaitingBoard = false;
+                while (true) {
+                    Object response = link.read();
+                    if (!(response instanceof String)) {
+                        continue;
+                    }
+                    String message = (String) response;
+                    if (message.startsWith("[[")) {
+                        lastBoard = message;
+                        if (awaitingBoard) {
+                            if (count == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, count * 2);
+                            }
+                            latencies[count++] = System.nanoTime() - sentAt;
+                            awaitingBoard = false;
+                        }
+                    } else if (message.startsWith("Your turn")) {
+                        sentAt = System.nanoTime();
+                        link.write(nextMove());
+                        awaitingBoard = true;
+                    } else if (message.contains("Invalid move")) {
+                        if (awaitingBoard) {
+                            invalidMoves.incrementAndGet();
+                        }
+                        awaitingBoard = false;
+                    } else if (message.contains("wins!") || message.contains("draw")) {
+                        // The server waits for the replay answer right after announcing the result
+                        played++;
+                        gamesPlayed.incrementAndGet();
+                        link.write(played < games ? "Yes" : "No");
+                        lastBoard = null;
+                        scriptIndex = 0;
+                    } else if (message.startsWith("Thank you for playing")) {
+                        break;
+                    }
+                }
+            } finally {
+                moveTimes.record(latencies, count);
+            }
+        }
+
+        /**
+         * Chooses the next column from the script, or a random non-full column.
+         */
+        private int nextMove() {
+            if (!"random".equals(script) && scriptIndex < script.length()) {
+                int column = script.charAt(scriptIndex++) - '0';
+                if (isOpen(column)) {
+                    return column;
+                }
+            }
+            int column;
+            int attempts = 0;
+            do {
+                column = random.nextInt(columns()) + 1;
+            } while (!isOpen(column) && ++attempts < 50);
+            return column;
+        }
+
+        /**
+         * Checks the top row of the last board received, formatted by Arrays.deepToString.
+         */
+        private boolean isOpen(int column) {
+            if (column < 1 || column > columns()) {
+                return false;
+            }
+            return lastBoard == null || lastBoard.charAt(2 + 3 * (column - 1)) == ' ';
+        }
+    }
+
+    private int columns() {
+        return variant == null ? Connect4Variant.STANDARD.getColumns() : variant.getColumns();
+    }
+
+    /**
+     * Entry point for the load generator.
+     *
+     * @param args Options in key=value form, for example connections=1000 games=5 mode=mixed.
+     * @throws InterruptedException If interrupted while waiting for the bots.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        new Connect4LoadGenerator(options).run();
+    }
+}
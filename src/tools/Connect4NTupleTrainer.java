@@ -0,0 +1,190 @@
+package tools;
+
+import core.Connect4Logic;
+import core.Connect4Variant;
+import core.NTupleNetwork;
+import core.NTupleSearch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connect4NTupleTrainer trains an n-tuple network (see core.NTupleNetwork) by temporal difference
+ * learning from self-play on Connect4Logic, and saves it for the medium computer player.
+ *
+ * Every thread plays its own games against itself. Each player mostly moves as the medium computer
+ * player does (see core.NTupleSearch), and sometimes at random so that other lines are explored.
+ * After each move the position the previous move led to is trained towards the value of the new
+ * position, and the last position towards the result of the game. The threads share the network's
+ * weights without locks. While training, the network's score against a random mover is
+ * reported every ten seconds.
+ *
+ * Options are given as key=value arguments: games (default 200000), threads (default: available
+ * processors), rate (learning rate; default 0.002), epsilon (share of random moves; default 0.1),
+ * tuples (default 40), length (cells per tuple; default 6), variant (default 7x6), seed, init (a
+ * network file to continue training) and out (default ntuple.bin).
+ */
+public class Connect4NTupleTrainer {
+    private static final long REPORT_MILLIS = 10_000;
+    private static final int REPORT_GAMES = 100;
+
+    private final NTupleNetwork network;
+    private final int games;
+    private final int threads;
+    private final double rate;
+    private final double epsilon;
+    private final long seed;
+    private final Path out;
+    private final AtomicLong played = new AtomicLong();
+
+    /**
+     * Creates a trainer from parsed options.
+     *
+     * @param options The key=value options.
+     * @throws IOException              If the network to continue from cannot be loaded.
+     * @throws IllegalArgumentException If an option is invalid.
+     */
+    public Connect4NTupleTrainer(Map<String, String> options) throws IOException {
+        this.seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        if (options.containsKey("init")) {
+            this.network = NTupleNetwork.load(Paths.get(options.get("init")));
+        } else {
+            Connect4Variant variant = options.containsKey("variant") ? Connect4Variant.parse(options.get("variant"))
+                    : Connect4Variant.STANDARD;
+            this.network = NTupleNetwork.create(variant, Integer.parseInt(options.getOrDefault("tuples", "40")),
+                    Integer.parseInt(options.getOrDefault("length", "6")), seed);
+        }
+        this.games = Integer.parseInt(options.getOrDefault("games", "200000"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0.002"));
+        this.epsilon = Double.parseDouble(options.getOrDefault("epsilon", "0.1"));
+        this.out = Paths.get(options.getOrDefault("out", "ntuple.bin"));
+    }
+
+    /**
+     * Trains the network and saves it.
+     *
+     * @throws IOException          If the network cannot be saved.
+     * @throws InterruptedException If interrupted while waiting for the training threads.
+     */
+    public void run() throws IOException, InterruptedException {
+        System.out.printf("Training %d tuples of %d cells on %s: %d games, %d threads, rate %s, epsilon %s%n",
+                network.getTupleCount(), network.getTupleLength(), network.getVariant(), games, threads, rate, epsilon);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int share = games / threads + (t < games % threads ? 1 : 0);
+            long threadSeed = seed * 31 + t;
+            pool.execute(() -> train(share, new Random(threadSeed)));
+        }
+        pool.shutdown();
+        Random random = new Random(seed);
+        while (!pool.awaitTermination(REPORT_MILLIS, TimeUnit.MILLISECONDS)) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d games, %.0f games/s, score against random moves %.1f%%%n", played.get(),
+                    played.get() / seconds, 100 * scoreAgainstRandom(REPORT_GAMES, random));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        network.save(out);
+        System.out.printf("Trained on %d games in %.1f s (%.0f games/s), score against random moves %.1f%%; saved to %s%n",
+                played.get(), seconds, played.get() / seconds, 100 * scoreAgainstRandom(10 * REPORT_GAMES, random), out);
+    }
+
+    /**
+     * Plays self-play games and trains the network after every move.
+     */
+    private void train(int count, Random random) {
+        Connect4Logic game = new Connect4Logic(network.getVariant());
+        NTupleSearch search = new NTupleSearch(network);
+        char[][] board = game.getBoard();
+        for (int i = 0; i < count; i++) {
+            game.reset();
+            while (true) {
+                char player = game.getCurrentPlayer();
+                int column = random.nextDouble() < epsilon ? randomColumn(game, random)
+                        : search.bestMove(board, player, 0, 0) + 1;
+                game.makeMove(column);
+                boolean won = game.checkLastMoveWin();
+                boolean over = won || game.isBoardFull();
+                double value = won ? (player == 'X' ? 1 : -1) : over ? 0 : network.value(board);
+                if (game.getMoveCount() > 1) {
+                    // Train the position the previous move led to towards the value of this one
+                    game.undoMove();
+                    network.train(board, value, rate);
+                    game.makeMove(column);
+                }
+                if (over) {
+                    network.train(board, value, rate);
+                    break;
+                }
+                game.switchPlayer();
+            }
+            played.incrementAndGet();
+        }
+    }
+
+    private static int randomColumn(Connect4Logic game, Random random) {
+        int column;
+        do {
+            column = random.nextInt(game.getColumns()) + 1;
+        } while (game.getBoard()[0][column - 1] != ' ');
+        return column;
+    }
+
+    /**
+     * Plays the network, as the medium computer player uses it, against random moves, half the
+     * games as X and half as O.
+     *
+     * @return The network's score, from 0 to 1.
+     */
+    private double scoreAgainstRandom(int count, Random random) {
+        NTupleSearch search = new NTupleSearch(network);
+        double score = 0;
+        for (int i = 0; i < count; i++) {
+            char side = i % 2 == 0 ? 'X' : 'O';
+            Connect4Logic game = new Connect4Logic(network.getVariant());
+            while (true) {
+                char player = game.getCurrentPlayer();
+                int column = player == side ? search.bestMove(game.getBoard(), player, 0, 0) + 1
+                        : randomColumn(game, random);
+                game.makeMove(column);
+                if (game.checkLastMoveWin()) {
+                    score += player == side ? 1 : 0;
+                    break;
+                } else if (game.isBoardFull()) {
+                    score += 0.5;
+                    break;
+                }
+                game.switchPlayer();
+            }
+        }
+        return score / count;
+    }
+
+    /**
+     * Entry point for the trainer.
+     *
+     * @param args The key=value options.
+     * @throws IOException          If a network cannot be loaded or saved.
+     * @throws InterruptedException If interrupted while training.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        new Connect4NTupleTrainer(options).run();
+    }
+}
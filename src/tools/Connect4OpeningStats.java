@@ -0,0 +1,455 @@
+package tools;
+
+import core.Connect4Logic;
+import core.Connect4Variant;
+import core.GameArchive;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connect4OpeningStats reads game archives (see core.GameArchive) and reports how often each
+ * opening is won, drawn and lost, overall and for each rating band.
+ *
+ * Archives are memory-mapped a window at a time and never loaded whole. The main thread only finds
+ * the record boundaries and hands out chunks of about a megabyte; worker threads replay each game
+ * of a chunk through Connect4Logic, which also rejects illegal games, and count its result on every
+ * node of its opening path in a tree of their own. The trees keep their counts in primitive arrays
+ * and are merged once at the end, so the workers never share state and the job scales with the
+ * number of cores.
+ *
+ * Options are given as key=value arguments, the other arguments being archive files:
+ * depth (plies kept in the opening tree; default 6), show (plies printed; default 4), minGames
+ * (openings played fewer times are not printed; default 100), ratings (comma-separated band
+ * limits; default 1400,1600,1800), mirror (count an opening and its mirror image together; default
+ * true), variant (games of other variants are skipped; default 7x6), threads (default: available
+ * processors) and chunk (bytes per task; default 1048576).
+ */
+public class Connect4OpeningStats {
+    private static final long WINDOW_BYTES = 64L << 20;
+
+    private final int depth;
+    private final int show;
+    private final long minGames;
+    private final int[] ratingLimits;
+    private final boolean mirror;
+    private final Connect4Variant variant;
+    private final int threads;
+    private final int chunkBytes;
+
+    // Each worker thread counts into its own tree; the trees are merged when the job ends
+    private final List<Worker> workers = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(() -> {
+        Worker created = new Worker();
+        workers.add(created);
+        return created;
+    });
+
+    /**
+     * Creates the job from parsed options.
+     *
+     * @param options The key=value options.
+     * @throws IllegalArgumentException If an option is invalid.
+     */
+    public Connect4OpeningStats(Map<String, String> options) {
+        this.depth = Integer.parseInt(options.getOrDefault("depth", "6"));
+        this.show = Math.min(depth, Integer.parseInt(options.getOrDefault("show", "4")));
+        this.minGames = Long.parseLong(options.getOrDefault("minGames", "100"));
+        this.ratingLimits = Arrays.stream(options.getOrDefault("ratings", "1400,1600,1800").split(","))
+                .filter(limit -> !limit.isEmpty()).mapToInt(Integer::parseInt).sorted().toArray();
+        this.mirror = Boolean.parseBoolean(options.getOrDefault("mirror", "true"));
+        this.variant = options.containsKey("variant") ? Connect4Variant.parse(options.get("variant"))
+                : Connect4Variant.STANDARD;
+        this.threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.chunkBytes = Integer.parseInt(options.getOrDefault("chunk", String.valueOf(1 << 20)));
+        if (depth < 1 || threads < 1 || chunkBytes < GameArchive.MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("depth and threads must be positive, and chunk at least "
+                    + GameArchive.MAX_RECORD_BYTES);
+        }
+    }
+
+    /**
+     * Reads the archives and prints the statistics.
+     *
+     * @param files The archive files.
+     * @throws IOException          If an archive cannot be read.
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    public void run(List<Path> files) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        long bytes = 0;
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+                bytes += split(file, channel, pool);
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            pool.shutdownNow();
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+        long merge = System.nanoTime();
+        Worker total = new Worker();
+        for (Worker each : workers) {
+            total.merge(each);
+        }
+        long end = System.nanoTime();
+        double seconds = (end - start) / 1e9;
+
+        print(total.tree);
+        System.out.println();
+        System.out.printf("%d games (%d invalid, %d of other variants skipped), %d positions in the tree%n",
+                total.games, total.invalid, total.otherVariants, total.tree.size());
+        System.out.printf("Elapsed: %.2f s (merge %.0f ms), %.0f games/s, %.1f MB/s, %d threads%n", seconds,
+                (end - merge) / 1e6, total.games / seconds, bytes / seconds / 1e6, threads);
+    }
+
+    /**
+     * Finds the record boundaries of an archive and submits its records in chunks.
+     *
+     * @return The size of the file.
+     */
+    private long split(Path file, FileChannel channel, ExecutorService pool) throws IOException {
+        long size = channel.size();
+        try {
+            GameArchive.checkHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(size, GameArchive.HEADER_BYTES)));
+        } catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+        long chunkStart = GameArchive.HEADER_BYTES;
+        long windowStart = chunkStart;
+        while (windowStart < size) {
+            long windowEnd = Math.min(size, windowStart + WINDOW_BYTES);
+            GameArchive.Cursor cursor = new GameArchive.Cursor(
+                    channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart));
+            int last = 0;
+            try {
+                // Stop short of the window's end unless it is the file's end, so no record is cut
+                while ((windowEnd == size || windowEnd - windowStart - last >= GameArchive.MAX_RECORD_BYTES)
+                        && cursor.skip()) {
+                    last = cursor.position();
+                    if (windowStart + last - chunkStart >= chunkBytes) {
+                        submit(pool, channel, chunkStart, windowStart + last);
+                        chunkStart = windowStart + last;
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.printf("%s: %s at byte %d; the rest of the file is ignored%n", file, e.getMessage(),
+                        windowStart + last);
+                size = windowStart + last;
+                break;
+            }
+            windowStart += last;
+        }
+        if (chunkStart < size) {
+            submit(pool, channel, chunkStart, size);
+        }
+        return size;
+    }
+
+    /**
+     * Submits a chunk of whole records to the workers.
+     */
+    private void submit(ExecutorService pool, FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        pool.execute(() -> {
+            Worker current = worker.get();
+            GameArchive.Cursor cursor = new GameArchive.Cursor(chunk);
+            while (cursor.next()) {
+                current.add(cursor);
+            }
+        });
+    }
+
+    /**
+     * Returns the rating band of a game: 0 for unrated games, then one band per rating limit.
+     */
+    private int band(int rating) {
+        if (rating == 0) {
+            return 0;
+        }
+        int band = 1;
+        while (band <= ratingLimits.length && rating >= ratingLimits[band - 1]) {
+            band++;
+        }
+        return band;
+    }
+
+    private String bandName(int band) {
+        if (band == 0) {
+            return "unrated";
+        } else if (ratingLimits.length == 0) {
+            return "rated";
+        } else if (band == 1) {
+            return "<" + ratingLimits[0];
+        } else if (band == ratingLimits.length + 1) {
+            return ratingLimits[band - 2] + "+";
+        }
+        return ratingLimits[band - 2] + "-" + (ratingLimits[band - 1] - 1);
+    }
+
+    /**
+     * Prints the opening tree: every opening played at least minGames times, up to show plies,
+     * with its results and X's score in each rating band.
+     */
+    private void print(OpeningTree tree) {
+        System.out.printf("%-" + width() + "s %10s %6s %6s %6s %6s", "opening", "games", "X", "draw", "O",
+                "score");
+        for (int band = 0; band < tree.bands; band++) {
+            System.out.printf(" %10s", bandName(band));
+        }
+        System.out.println();
+        print(tree, 0, 0, "");
+    }
+
+    private int width() {
+        return Math.max(8, 3 * show);
+    }
+
+    private void print(OpeningTree tree, int node, int plies, String line) {
+        long games = tree.games(node);
+        if (games < minGames || games == 0) {
+            return;
+        }
+        long x = tree.total(node, OpeningTree.X_WINS);
+        long draws = tree.total(node, OpeningTree.DRAWS);
+        long o = tree.total(node, OpeningTree.O_WINS);
+        System.out.printf("%-" + width() + "s %10d %5.1f%% %5.1f%% %5.1f%% %5.1f%%",
+                line.isEmpty() ? "(start)" : line, games, 100.0 * x / games, 100.0 * draws / games,
+                100.0 * o / games, 100.0 * (x + 0.5 * draws) / games);
+        for (int band = 0; band < tree.bands; band++) {
+            long bandGames = tree.games(node, band);
+            System.out.printf(" %10s", bandGames == 0 ? "-" : String.format("%.1f%%",
+                    100.0 * (tree.count(node, band, OpeningTree.X_WINS) + 0.5 * tree.count(node, band, OpeningTree.DRAWS))
+                            / bandGames));
+        }
+        System.out.println();
+        if (plies >= show) {
+            return;
+        }
+        List<Integer> children = new ArrayList<>();
+        for (int child = tree.firstChild[node]; child != 0; child = tree.nextSibling[child]) {
+            children.add(child);
+        }
+        children.sort((a, b) -> Long.compare(tree.games(b), tree.games(a)));
+        for (int child : children) {
+            print(tree, child, plies + 1, line + tree.column[child] + " ");
+        }
+    }
+
+    /**
+     * A worker thread's share of the job: its opening tree, its counters and a board to replay on.
+     */
+    private final class Worker {
+        final OpeningTree tree = new OpeningTree(ratingLimits.length + 2);
+        final Connect4Logic game = new Connect4Logic(variant);
+        final int[] path = new int[depth + 1];
+        long games;
+        long invalid;
+        long otherVariants;
+
+        /**
+         * Replays a game and counts its result on every node of its opening.
+         */
+        void add(GameArchive.Cursor record) {
+            if (!record.getVariant().equals(variant)) {
+                otherVariants++;
+                return;
+            }
+            int count = record.getMoveCount();
+            int columns = variant.getColumns();
+            // Games whose first move off the center line is on the right are counted as their mirror image
+            boolean flip = false;
+            if (mirror) {
+                for (int i = 0; i < count; i++) {
+                    int column = record.getMove(i);
+                    if (column != columns + 1 - column) {
+                        flip = column > columns + 1 - column;
+                        break;
+                    }
+                }
+            }
+            game.reset();
+            int node = 0;
+            int plies = 0;
+            path[0] = 0;
+            for (int i = 0; i < count; i++) {
+                int column = record.getMove(i);
+                if (!game.makeMove(column) || (i < count - 1 && game.checkLastMoveWin())) {
+                    invalid++;
+                    return; // A full column, or moves after the game was won
+                }
+                game.switchPlayer();
+                if (i < depth) {
+                    node = tree.child(node, flip ? columns + 1 - column : column);
+                    path[++plies] = node;
+                }
+            }
+            int band = band(record.getRating());
+            int result = record.getWinner() == 'X' ? OpeningTree.X_WINS
+                    : record.getWinner() == 'O' ? OpeningTree.O_WINS : OpeningTree.DRAWS;
+            for (int i = 0; i <= plies; i++) {
+                tree.add(path[i], band, result, 1);
+            }
+            games++;
+        }
+
+        /**
+         * Adds another worker's counts to this one.
+         */
+        void merge(Worker other) {
+            tree.merge(other.tree);
+            games += other.games;
+            invalid += other.invalid;
+            otherVariants += other.otherVariants;
+        }
+    }
+
+    /**
+     * A tree of openings with win, draw and loss counts per rating band on every node. Node 0 is
+     * the starting position; nodes are kept in arrays, and each node's children in a linked list.
+     */
+    static final class OpeningTree {
+        static final int X_WINS = 0;
+        static final int DRAWS = 1;
+        static final int O_WINS = 2;
+
+        final int bands;
+        int[] parent = new int[1024];
+        byte[] column = new byte[1024];
+        int[] firstChild = new int[1024];
+        int[] nextSibling = new int[1024];
+        long[] counts;
+        private int size = 1;
+
+        OpeningTree(int bands) {
+            this.bands = bands;
+            this.counts = new long[1024 * bands * 3];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Returns the child of a node for a move, creating it if needed.
+         */
+        int child(int node, int move) {
+            int previous = 0;
+            for (int child = firstChild[node]; child != 0; child = nextSibling[child]) {
+                if (column[child] == move) {
+                    return child;
+                }
+                previous = child;
+            }
+            if (size == parent.length) {
+                int capacity = size * 2;
+                parent = Arrays.copyOf(parent, capacity);
+                column = Arrays.copyOf(column, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                counts = Arrays.copyOf(counts, capacity * bands * 3);
+            }
+            int created = size++;
+            parent[created] = node;
+            column[created] = (byte) move;
+            if (previous == 0) {
+                firstChild[node] = created;
+            } else {
+                nextSibling[previous] = created;
+            }
+            return created;
+        }
+
+        void add(int node, int band, int result, long games) {
+            counts[(node * bands + band) * 3 + result] += games;
+        }
+
+        long count(int node, int band, int result) {
+            return counts[(node * bands + band) * 3 + result];
+        }
+
+        long games(int node, int band) {
+            int base = (node * bands + band) * 3;
+            return counts[base] + counts[base + 1] + counts[base + 2];
+        }
+
+        long games(int node) {
+            long games = 0;
+            for (int band = 0; band < bands; band++) {
+                games += games(node, band);
+            }
+            return games;
+        }
+
+        long total(int node, int result) {
+            long total = 0;
+            for (int band = 0; band < bands; band++) {
+                total += count(node, band, result);
+            }
+            return total;
+        }
+
+        /**
+         * Adds another tree's counts. Nodes are created before their children, so walking the other
+         * tree in creation order always finds a node's parent already mapped.
+         */
+        void merge(OpeningTree other) {
+            int[] mapped = new int[other.size];
+            for (int node = 0; node < other.size; node++) {
+                mapped[node] = node == 0 ? 0 : child(mapped[other.parent[node]], other.column[node]);
+                for (int band = 0; band < bands; band++) {
+                    for (int result = 0; result < 3; result++) {
+                        add(mapped[node], band, result, other.count(node, band, result));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Entry point for the statistics job.
+     *
+     * @param args The key=value options and the archive files.
+     * @throws IOException          If an archive cannot be read.
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            } else {
+                files.add(Paths.get(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: java tools.Connect4OpeningStats [key=value...] ARCHIVE...");
+            System.exit(2);
+        }
+        new Connect4OpeningStats(options).run(files);
+    }
+}
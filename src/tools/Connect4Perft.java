@@ -0,0 +1,359 @@
+package tools;
+
+import core.Connect4Logic;
+import core.Connect4Search;
+import core.Connect4Variant;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Connect4Perft enumerates every legal move sequence up to a depth and counts, for each ply, the
+ * positions reached and how many of them are wins and draws. Games that are won or drawn are not
+ * played on. Different game engines must produce the same counts, so the tool proves a faster
+ * engine equivalent to Connect4Logic, and the nodes per second it reports make it a speed benchmark.
+ *
+ * The first plies are split into fork-join tasks; below them each task walks its subtree on one
+ * board, making and taking back moves.
+ *
+ * Options are given as key=value arguments: depth (default 8), engine (logic for Connect4Logic's
+ * char[][] board with the full checkWin the server uses, bitboard for Connect4Search.Position, or
+ * all; default all), variant (default 7x6), threads (default: available processors) and split
+ * (plies turned into tasks; default 3). The counts of the engines are compared with each other and
+ * with the reference counts known for the variant; the exit status is 1 if any differ.
+ */
+public class Connect4Perft {
+    // Positions, wins and draws at plies 1, 2, ... of the standard board. The positions are the
+    // published perft counts; the wins were counted by both engines.
+    private static final long[][] STANDARD_REFERENCE = {
+            {7, 0, 0},
+            {49, 0, 0},
+            {343, 0, 0},
+            {2_401, 0, 0},
+            {16_807, 0, 0},
+            {117_649, 0, 0},
+            {823_536, 13_032, 0},
+            {5_673_234, 44_430, 0},
+            {39_394_572, 1_086_882, 0},
+            {268_031_646, 4_261_058, 0},
+            {1_844_590_828L, 67_282_752, 0},
+    };
+    // The same for 4 columns of 15 rows, connect 5: a board whose diagonal and horizontal lines
+    // cannot fit, which checks that the bitboard engine finds no wins in those directions.
+    private static final long[][] NARROW_REFERENCE = {
+            {4, 0, 0},
+            {16, 0, 0},
+            {64, 0, 0},
+            {256, 0, 0},
+            {1_024, 0, 0},
+            {4_096, 0, 0},
+            {16_384, 0, 0},
+            {65_536, 0, 0},
+            {262_144, 324, 0},
+            {1_047_280, 1_284, 0},
+            {4_183_984, 15_744, 0},
+    };
+    private static final Map<Connect4Variant, long[][]> REFERENCES = new HashMap<>();
+
+    static {
+        REFERENCES.put(Connect4Variant.STANDARD, STANDARD_REFERENCE);
+        REFERENCES.put(Connect4Variant.parse("4x15c5"), NARROW_REFERENCE);
+    }
+
+    private final int depth;
+    private final List<String> engines;
+    private final Connect4Variant variant;
+    private final int split;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates the tool from parsed options.
+     *
+     * @param options The key=value options.
+     * @throws IllegalArgumentException If an option is invalid.
+     */
+    public Connect4Perft(Map<String, String> options) {
+        this.depth = Integer.parseInt(options.getOrDefault("depth", "8"));
+        this.variant = options.containsKey("variant") ? Connect4Variant.parse(options.get("variant"))
+                : Connect4Variant.STANDARD;
+        String engine = options.getOrDefault("engine", "all");
+        this.engines = new ArrayList<>();
+        if (engine.equals("all") || engine.equals("logic")) {
+            engines.add("logic");
+        }
+        if ((engine.equals("all") && variant.fitsInLong()) || engine.equals("bitboard")) {
+            engines.add("bitboard");
+        }
+        if (engines.isEmpty()) {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        this.split = Integer.parseInt(options.getOrDefault("split", "3"));
+        this.pool = new ForkJoinPool(Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+    }
+
+    /**
+     * Runs every engine, prints the counts and checks them.
+     *
+     * @return True if every engine produced the same counts, which match the reference counts.
+     */
+    public boolean run() {
+        System.out.printf("Perft of %s to depth %d, %d threads%n", variant, depth, pool.getParallelism());
+        long[] expected = null;
+        String expectedFrom = null;
+        long[][] reference = REFERENCES.get(variant);
+        if (reference != null) {
+            expected = new long[3 * (Math.min(depth, reference.length) + 1)];
+            for (int ply = 1; ply < expected.length / 3; ply++) {
+                System.arraycopy(reference[ply - 1], 0, expected, 3 * ply, 3);
+            }
+            expectedFrom = "reference";
+        }
+        boolean passed = true;
+        for (String engine : engines) {
+            long start = System.nanoTime();
+            Board root = engine.equals("logic") ? new LogicBoard(variant) : new BitboardBoard(variant);
+            long[] counts = pool.invoke(new PerftTask(root, 0));
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println();
+            System.out.printf("%s%n%5s %16s %14s %10s%n", engine, "ply", "positions", "wins", "draws");
+            long nodes = 0;
+            for (int ply = 1; ply <= depth; ply++) {
+                System.out.printf("%5d %16d %14d %10d%n", ply, counts[3 * ply], counts[3 * ply + 1], counts[3 * ply + 2]);
+                nodes += counts[3 * ply];
+            }
+            System.out.printf("%d nodes in %.2f s, %.2f M nodes/s%n", nodes, seconds, nodes / seconds / 1e6);
+
+            if (expected != null) {
+                int ply = firstDifference(expected, counts);
+                if (ply > 0) {
+                    System.out.printf("MISMATCH at ply %d: %s expects %d positions, %d wins, %d draws%n", ply,
+                            expectedFrom, expected[3 * ply], expected[3 * ply + 1], expected[3 * ply + 2]);
+                    passed = false;
+                } else {
+                    System.out.printf("Matches %s to ply %d%n", expectedFrom, expected.length / 3 - 1);
+                }
+            }
+            if (expected == null || expected.length < counts.length) {
+                // The first engine's counts are what the others must match
+                expected = counts;
+                expectedFrom = engine;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Returns the first ply at which two sets of counts differ, comparing only the plies both have.
+     *
+     * @return The ply, or 0 if they agree.
+     */
+    private static int firstDifference(long[] expected, long[] counts) {
+        for (int i = 3; i < Math.min(expected.length, counts.length); i++) {
+            if (expected[i] != counts[i]) {
+                return i / 3;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Counts a subtree, splitting it into one task per move while the ply is below the split depth.
+     */
+    private final class PerftTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final int ply;
+
+        PerftTask(Board board, int ply) {
+            this.board = board;
+            this.ply = ply;
+        }
+
+        @Override
+        protected long[] compute() {
+            long[] counts = new long[3 * (depth + 1)];
+            if (ply >= split) {
+                count(board, ply, counts);
+                return counts;
+            }
+            List<PerftTask> children = new ArrayList<>();
+            for (int column = 1; column <= variant.getColumns(); column++) {
+                Board child = board.copy();
+                int result = child.play(column);
+                if (result == Board.ILLEGAL) {
+                    continue;
+                }
+                counts[3 * (ply + 1)]++;
+                if (result != Board.ONGOING) {
+                    counts[3 * (ply + 1) + result]++;
+                }
+                if (result == Board.ONGOING && ply + 1 < depth) {
+                    children.add(new PerftTask(child, ply + 1));
+                }
+            }
+            for (PerftTask child : invokeAll(children)) {
+                long[] childCounts = child.join();
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += childCounts[i];
+                }
+            }
+            return counts;
+        }
+
+        /**
+         * Counts a subtree on one board, making and taking back each move.
+         */
+        private void count(Board board, int ply, long[] counts) {
+            for (int column = 1; column <= variant.getColumns(); column++) {
+                int result = board.play(column);
+                if (result == Board.ILLEGAL) {
+                    continue;
+                }
+                counts[3 * (ply + 1)]++;
+                if (result != Board.ONGOING) {
+                    counts[3 * (ply + 1) + result]++;
+                }
+                if (result == Board.ONGOING && ply + 1 < depth) {
+                    count(board, ply + 1, counts);
+                }
+                board.undo();
+            }
+        }
+    }
+
+    /**
+     * A game engine's board as perft drives it.
+     */
+    private interface Board {
+        // WIN and DRAW double as offsets into the counts of a ply: positions, wins, draws
+        int ONGOING = 0;
+        int WIN = 1;
+        int DRAW = 2;
+        int ILLEGAL = -1;
+
+        /**
+         * Drops a piece for the player to move, and passes the turn unless the move was illegal.
+         *
+         * @param column The column, 1-based.
+         * @return ONGOING, WIN or DRAW for the position reached, or ILLEGAL if the column is full.
+         */
+        int play(int column);
+
+        /**
+         * Takes back the last move played.
+         */
+        void undo();
+
+        /**
+         * Returns an independent board in the same position.
+         */
+        Board copy();
+    }
+
+    /**
+     * Connect4Logic's char[][] board, checked for wins with checkWin() as the server does.
+     */
+    private static final class LogicBoard implements Board {
+        private final Connect4Logic game;
+
+        LogicBoard(Connect4Variant variant) {
+            this.game = new Connect4Logic(variant);
+        }
+
+        @Override
+        public int play(int column) {
+            if (!game.makeMove(column)) {
+                return ILLEGAL;
+            }
+            int result = game.checkWin() ? WIN : game.isBoardFull() ? DRAW : ONGOING;
+            game.switchPlayer();
+            return result;
+        }
+
+        @Override
+        public void undo() {
+            game.switchPlayer();
+            game.undoMove();
+        }
+
+        @Override
+        public Board copy() {
+            LogicBoard copy = new LogicBoard(game.getVariant());
+            for (int column : game.getMoves()) {
+                copy.play(column);
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * The bitboard positions of Connect4Search, kept on a stack so moves can be taken back.
+     */
+    private static final class BitboardBoard implements Board {
+        private final int cells;
+        private final Connect4Search.Position[] stack;
+        private int top;
+
+        BitboardBoard(Connect4Variant variant) {
+            this.cells = variant.getRows() * variant.getColumns();
+            this.stack = new Connect4Search.Position[cells + 1];
+            char[][] empty = new Connect4Logic(variant).getBoard();
+            stack[0] = Connect4Search.Position.of(variant, empty, 'X');
+        }
+
+        private BitboardBoard(BitboardBoard other) {
+            this.cells = other.cells;
+            this.stack = new Connect4Search.Position[cells + 1];
+            this.stack[0] = other.stack[other.top];
+        }
+
+        @Override
+        public int play(int column) {
+            Connect4Search.Position position = stack[top];
+            if (!position.canPlay(column - 1)) {
+                return ILLEGAL;
+            }
+            boolean win = position.isWinningMove(column - 1);
+            stack[++top] = position.play(column - 1);
+            return win ? WIN : stack[top].getMoves() == cells ? DRAW : ONGOING;
+        }
+
+        @Override
+        public void undo() {
+            top--;
+        }
+
+        @Override
+        public Board copy() {
+            return new BitboardBoard(this);
+        }
+    }
+
+    /**
+     * Entry point for perft.
+     *
+     * @param args The key=value options.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        if (!new Connect4Perft(options).run()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package tools;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Connect4RecordingSummary reads a Java Flight Recorder recording of a Connect4Server and prints
+ * how long each phase took: sessions by mode, matchmaking waits by variant and clock, player and
+ * computer moves, and computer searches by difficulty, with the search statistics.
+ *
+ * Record a server with -XX:StartFlightRecording=filename=server.jfr and summarize it with
+ * java -cp out tools.Connect4RecordingSummary server.jfr
+ */
+public class Connect4RecordingSummary {
+    private final Map<String, Phase> phases = new TreeMap<>();
+
+    /**
+     * Adds every Connect4 event of a recording to the summary.
+     *
+     * @param file The recording.
+     * @throws IOException If the recording cannot be read.
+     */
+    public void read(Path file) throws IOException {
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                add(recording.readEvent());
+            }
+        }
+    }
+
+    /**
+     * Adds one event to the phase it belongs to.
+     *
+     * @param event The event; events other than Connect4 ones are ignored.
+     */
+    private void add(RecordedEvent event) {
+        long nanos = event.getDuration().toNanos();
+        switch (event.getEventType().getName()) {
+            case "connect4.Session":
+                phase("session " + event.getString("mode")).add(nanos);
+                break;
+            case "connect4.Matchmaking":
+                phase("matchmaking " + event.getString("pairing")).add(nanos);
+                break;
+            case "connect4.Move": {
+                Phase phase = phase(event.getBoolean("computer") ? "move computer" : "move player");
+                phase.add(nanos);
+                phase.bytes += event.getLong("bytesWritten");
+                break;
+            }
+            case "connect4.Search": {
+                Phase phase = phase("search " + event.getString("difficulty").toLowerCase());
+                phase.add(nanos);
+                phase.nodes += event.getLong("nodes");
+                phase.tableHits += event.getLong("tableHits");
+                phase.depth += event.getInt("depthReached");
+                phase.queueWaitNanos += event.getLong("queueWait");
+                if (event.getBoolean("degraded")) {
+                    phase.degraded++;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private Phase phase(String name) {
+        return phases.computeIfAbsent(name, key -> new Phase());
+    }
+
+    /**
+     * Prints one line per phase with its latency percentiles, then the search and traffic statistics.
+     */
+    public void print() {
+        if (phases.isEmpty()) {
+            System.out.println("No Connect4 events in the recording.");
+            return;
+        }
+        System.out.printf("%-28s %8s %10s %10s %10s %10s %10s%n", "phase (ms)", "count", "mean", "p50", "p90", "p99", "max");
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Phase phase = entry.getValue();
+            long[] sorted = Arrays.copyOf(phase.durations, phase.count);
+            Arrays.sort(sorted);
+            System.out.printf("%-28s %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), phase.count,
+                    phase.total / 1e6 / phase.count, percentile(sorted, 50), percentile(sorted, 90),
+                    percentile(sorted, 99), sorted[sorted.length - 1] / 1e6);
+        }
+        System.out.println();
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Phase phase = entry.getValue();
+            if (entry.getKey().startsWith("search")) {
+                System.out.printf("%-28s depth %.1f, %.0f nodes, %.2f M nodes/s, table hits %.1f%%, queue wait %.2f ms,"
+                                + " degraded %d%n", entry.getKey(), (double) phase.depth / phase.count,
+                        (double) phase.nodes / phase.count, phase.nodes / (phase.total / 1e3),
+                        phase.nodes == 0 ? 0 : 100.0 * phase.tableHits / phase.nodes,
+                        phase.queueWaitNanos / 1e6 / phase.count, phase.degraded);
+            } else if (entry.getKey().startsWith("move")) {
+                System.out.printf("%-28s %.0f bytes written per move%n", entry.getKey(), (double) phase.bytes / phase.count);
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * The durations and totals of one phase.
+     */
+    private static final class Phase {
+        long[] durations = new long[256];
+        int count;
+        long total;
+        long bytes;
+        long nodes;
+        long tableHits;
+        long depth;
+        long queueWaitNanos;
+        int degraded;
+
+        void add(long nanos) {
+            if (count == durations.length) {
+                durations = Arrays.copyOf(durations, count * 2);
+            }
+            durations[count++] = nanos;
+            total += nanos;
+        }
+    }
+
+    /**
+     * Entry point for the summary.
+     *
+     * @param args The recordings to summarize together.
+     * @throws IOException If a recording cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java tools.Connect4RecordingSummary RECORDING.jfr...");
+            System.exit(2);
+        }
+        Connect4RecordingSummary summary = new Connect4RecordingSummary();
+        for (String arg : args) {
+            summary.read(Paths.get(arg));
+        }
+        summary.print();
+    }
+}
@@ -0,0 +1,528 @@
+package tools;
+
+import core.Connect4Logic;
+import core.Connect4Variant;
+import core.ConsistentHashRing;
+import core.GameClock;
+import core.GameCodec;
+import core.HashedWheelTimer;
+import core.RankedSkipList;
+import core.ServerLog;
+import core.TimeControl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Connect4SelfCheck exercises the building blocks the server relies on but never tests end to end:
+ * the game codec, the ranked skip list, the wheel timer and the game clock under cancellation
+ * races, the log's ring buffer, the consistent hash ring and time control parsing. Each check runs
+ * randomized operations against a simple model of the expected behavior and prints ok or the first
+ * difference it found.
+ *
+ * Options are given as key=value arguments: checks (a comma-separated list of codec, skiplist,
+ * timer, clock, log, ring and timecontrol; default all), seed (default 1) and rounds (how many
+ * random operations the larger checks run; default 2000). The exit status is 1 if any check fails.
+ */
+public class Connect4SelfCheck {
+    private final Map<String, Check> checks = new LinkedHashMap<>();
+    private final List<String> selected;
+    private final long seed;
+    private final int rounds;
+
+    /**
+     * A check that returns null when it passes, or a description of what went wrong.
+     */
+    private interface Check {
+        String run(Random random) throws Exception;
+    }
+
+    /**
+     * Creates the tool from parsed options.
+     *
+     * @param options The key=value options.
+     * @throws IllegalArgumentException If an option is invalid.
+     */
+    public Connect4SelfCheck(Map<String, String> options) {
+        checks.put("codec", this::checkCodec);
+        checks.put("skiplist", this::checkSkipList);
+        checks.put("timer", this::checkTimer);
+        checks.put("clock", this::checkClock);
+        checks.put("log", this::checkLog);
+        checks.put("ring", this::checkRing);
+        checks.put("timecontrol", this::checkTimeControl);
+        String names = options.getOrDefault("checks", "all");
+        this.selected = names.equals("all") ? new ArrayList<>(checks.keySet()) : Arrays.asList(names.split(","));
+        for (String name : selected) {
+            if (!checks.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown check: " + name);
+            }
+        }
+        this.seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        this.rounds = Integer.parseInt(options.getOrDefault("rounds", "2000"));
+        if (rounds < 1) {
+            throw new IllegalArgumentException("rounds must be positive");
+        }
+    }
+
+    /**
+     * Runs the selected checks and prints the outcome of each.
+     *
+     * @return True if every check passed.
+     */
+    public boolean run() {
+        boolean passed = true;
+        for (String name : selected) {
+            long start = System.nanoTime();
+            String failure;
+            try {
+                failure = checks.get(name).run(new Random(seed));
+            } catch (Exception e) {
+                failure = "threw " + e;
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (failure == null) {
+                System.out.printf("%-12s ok (%d ms)%n", name, millis);
+            } else {
+                System.out.printf("%-12s FAILED: %s%n", name, failure);
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Encodes random games and positions and decodes them again: the varint move count, the packed
+     * columns, position keys made from moves and from boards, mirror images and canonical keys.
+     */
+    private String checkCodec(Random random) {
+        // The move count takes one byte below 128 moves and two from 128; 16x9 holds 144 moves
+        Connect4Variant large = Connect4Variant.parse("16x9");
+        for (int count : new int[]{0, 1, 127, 128, 144}) {
+            int[] columns = new int[count];
+            for (int i = 0; i < count; i++) {
+                columns[i] = 1 + random.nextInt(large.getColumns());
+            }
+            byte[] encoded = GameCodec.encodeGame(large, columns);
+            int header = count < 128 ? 1 : 2;
+            if (encoded.length != header + (count * 4 + 7) / 8) {
+                return count + " moves took " + encoded.length + " bytes";
+            }
+            if (!Arrays.equals(GameCodec.decodeGame(large, encoded), columns)) {
+                return count + " moves on 16x9 did not survive a round trip";
+            }
+        }
+
+        for (String name : new String[]{"7x6", "8x7", "9x7"}) {
+            Connect4Variant variant = Connect4Variant.parse(name);
+            int bits = GameCodec.bitsPerMove(variant);
+            for (int round = 0; round < rounds / 10; round++) {
+                Connect4Logic game = new Connect4Logic(variant);
+                int length = random.nextInt(variant.getRows() * variant.getColumns() + 1);
+                while (game.getMoveCount() < length && game.makeMove(1 + random.nextInt(variant.getColumns()))) {
+                    game.switchPlayer();
+                }
+                int[] columns = game.getMoves();
+                byte[] encoded = GameCodec.encodeGame(variant, columns);
+                if (encoded.length != 1 + (columns.length * bits + 7) / 8) {
+                    return name + ": " + columns.length + " moves took " + encoded.length + " bytes";
+                }
+                ByteBuffer twice = ByteBuffer.allocate(2 * encoded.length).put(encoded).put(encoded);
+                twice.flip();
+                int[] decoded = new int[variant.getRows() * variant.getColumns()];
+                for (int copy = 0; copy < 2; copy++) {
+                    int count = GameCodec.decodeGame(variant, twice, decoded);
+                    if (!Arrays.equals(Arrays.copyOf(decoded, count), columns)) {
+                        return name + ": game " + Arrays.toString(columns) + " decoded as "
+                                + Arrays.toString(Arrays.copyOf(decoded, count));
+                    }
+                }
+                if (columns.length > 0) {
+                    try {
+                        GameCodec.decodeGame(variant, Arrays.copyOf(encoded, encoded.length - 1));
+                        return name + ": a truncated game of " + columns.length + " moves was accepted";
+                    } catch (IllegalArgumentException expected) {
+                        // Truncated data must be rejected
+                    }
+                }
+                if (!variant.fitsInLong()) {
+                    continue;
+                }
+
+                long key = GameCodec.positionKey(variant, columns, columns.length);
+                if (key != GameCodec.positionKey(variant, game.getBoard())) {
+                    return name + ": the keys from the moves and from the board of "
+                            + Arrays.toString(columns) + " differ";
+                }
+                if (!Arrays.deepEquals(GameCodec.decodePosition(variant, key), game.getBoard())) {
+                    return name + ": the key of " + Arrays.toString(columns) + " decoded to another board";
+                }
+                int[] mirrored = new int[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    mirrored[i] = variant.getColumns() + 1 - columns[i];
+                }
+                long mirrorKey = GameCodec.positionKey(variant, mirrored, mirrored.length);
+                if (GameCodec.mirror(variant, key) != mirrorKey || GameCodec.mirror(variant, mirrorKey) != key) {
+                    return name + ": the mirror of " + Arrays.toString(columns) + " is not the mirrored game";
+                }
+                long canonical = GameCodec.canonicalKey(variant, key);
+                if (canonical != GameCodec.canonicalKey(variant, mirrorKey)
+                        || (canonical != key && canonical != mirrorKey)) {
+                    return name + ": " + Arrays.toString(columns) + " and its mirror have different canonical keys";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds and removes random elements and compares ranks, lookups and ranges with a sorted list.
+     */
+    private String checkSkipList(Random random) {
+        RankedSkipList<Integer> list = new RankedSkipList<>(Comparator.naturalOrder());
+        List<Integer> model = new ArrayList<>();
+        int values = Math.max(16, rounds / 4);
+        for (int round = 0; round < rounds; round++) {
+            Integer value = random.nextInt(values);
+            int index = Collections.binarySearch(model, value);
+            if (index >= 0) {
+                if (!list.remove(value)) {
+                    return "remove(" + value + ") missed an element in the list";
+                }
+                model.remove(index);
+            } else {
+                if (list.remove(value)) {
+                    return "remove(" + value + ") removed an element not in the list";
+                }
+                list.add(value);
+                model.add(-index - 1, value);
+            }
+            if (list.size() != model.size()) {
+                return "size " + list.size() + ", expected " + model.size();
+            }
+            // A full comparison is O(n log n); spot-check most rounds
+            int probes = round % 100 == 0 ? model.size() : 3;
+            for (int i = 0; i < probes && !model.isEmpty(); i++) {
+                int rank = probes == model.size() ? i + 1 : 1 + random.nextInt(model.size());
+                Integer expected = model.get(rank - 1);
+                if (!expected.equals(list.get(rank)) || list.rank(expected) != rank) {
+                    return "rank " + rank + " holds " + list.get(rank) + ", expected " + expected;
+                }
+            }
+            int missing = values + random.nextInt(values);
+            if (list.rank(missing) != 0 || list.get(0) != null || list.get(model.size() + 1) != null) {
+                return "ranks outside the list were found";
+            }
+            int from = 1 + random.nextInt(model.size() + 1);
+            int count = random.nextInt(20);
+            List<Integer> expected = model.subList(Math.min(from - 1, model.size()),
+                    Math.min(from - 1 + count, model.size()));
+            if (!list.range(from, count).equals(expected)) {
+                return "range(" + from + ", " + count + ") gave " + list.range(from, count) + ", expected " + expected;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Schedules timeouts from several threads and cancels about half of them while the timer is
+     * expiring them. A timeout whose cancel() returned true must never fire; every other timeout
+     * must fire exactly once.
+     */
+    private String checkTimer(Random random) throws InterruptedException {
+        List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        HashedWheelTimer timer = new HashedWheelTimer(1, 64, "self-check-timer", errors::add);
+        int threads = 4;
+        int perThread = Math.max(1, rounds / threads);
+        CountingTimeout[] timeouts = new CountingTimeout[threads * perThread];
+        boolean[] cancelled = new boolean[timeouts.length];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = new CountingTimeout();
+        }
+        try {
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int first = t * perThread;
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom local = ThreadLocalRandom.current();
+                    for (int i = first; i < first + perThread; i++) {
+                        // Delays around the tick so cancels land before, during and after expiry
+                        timer.schedule(timeouts[i], local.nextInt(5));
+                        if (local.nextBoolean()) {
+                            pause(local.nextInt(3));
+                            cancelled[i] = timer.cancel(timeouts[i]);
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (timer.size() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(20); // Timeouts that left the wheel expire outside the lock
+            for (int i = 0; i < timeouts.length; i++) {
+                int fired = timeouts[i].fired.get();
+                if (fired != (cancelled[i] ? 0 : 1)) {
+                    return "timeout " + i + (cancelled[i] ? " was cancelled but" : "") + " fired " + fired + " times";
+                }
+            }
+            if (timer.size() != 0) {
+                return timer.size() + " timeouts were left on the wheel";
+            }
+            return errors.isEmpty() ? null : "the timer reported " + errors.get(0);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Runs many game clocks with move limits close to the time the moves take. A move whose stop()
+     * returned true was in time, so its flag must not have fallen; stop() returning false must
+     * mean the flag fell.
+     */
+    private String checkClock(Random random) throws InterruptedException {
+        List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        HashedWheelTimer timer = new HashedWheelTimer(1, 64, "self-check-clock", errors::add);
+        try {
+            int clocks = 50;
+            int moves = Math.max(1, rounds / clocks);
+            AtomicInteger failures = new AtomicInteger();
+            StringBuilder failure = new StringBuilder();
+            CountDownLatch done = new CountDownLatch(clocks);
+            for (int c = 0; c < clocks; c++) {
+                long clockSeed = random.nextLong();
+                new Thread(() -> {
+                    try {
+                        Random local = new Random(clockSeed);
+                        AtomicInteger flags = new AtomicInteger();
+                        GameClock clock = new GameClock(timer, new TimeControl(0, 3), 0, player -> flags.incrementAndGet());
+                        for (int m = 0; m < moves && failures.get() == 0; m++) {
+                            int before = flags.get();
+                            clock.start(m % 2);
+                            pause(local.nextInt(6));
+                            boolean inTime = clock.stop();
+                            pause(2); // Lets a late flag fall show up
+                            int fell = flags.get() - before;
+                            if (inTime ? fell != 0 : fell > 1) {
+                                failures.incrementAndGet();
+                                synchronized (failure) {
+                                    failure.append("stop() returned ").append(inTime).append(" but the flag fell ")
+                                            .append(fell).append(" times");
+                                }
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "self-check-player-" + c).start();
+            }
+            if (!done.await(60, TimeUnit.SECONDS)) {
+                return "the clocks did not finish";
+            }
+            if (failures.get() > 0) {
+                synchronized (failure) {
+                    return failure.toString();
+                }
+            }
+            return errors.isEmpty() ? null : "the timer reported " + errors.get(0);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Logs numbered records from several threads through a small blocking ring buffer and reads
+     * the file back: every record must be there, in order for each thread.
+     */
+    private String checkLog(Random random) throws IOException, InterruptedException {
+        Path file = Files.createTempFile("connect4-selfcheck", ".log");
+        try {
+            ServerLog log = new ServerLog(16, ServerLog.Overflow.BLOCK, file, Long.MAX_VALUE, 1);
+            int threads = 4;
+            int perThread = rounds * 5;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers[t] = new Thread(() -> {
+                    for (int n = 0; n < perThread; n++) {
+                        log.log(ServerLog.Level.INFO, "selfcheck.record", "thread", thread, "n", n);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            log.close();
+
+            int[] next = new int[threads];
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(" ");
+                if (fields.length != 5 || !fields[2].equals("selfcheck.record")) {
+                    return "unexpected line: " + line;
+                }
+                int thread = Integer.parseInt(fields[3].substring("thread=".length()));
+                int n = Integer.parseInt(fields[4].substring("n=".length()));
+                if (n != next[thread]) {
+                    return "thread " + thread + " logged record " + n + " after " + (next[thread] - 1);
+                }
+                next[thread]++;
+            }
+            for (int t = 0; t < threads; t++) {
+                if (next[t] != perThread) {
+                    return "thread " + t + " logged " + next[t] + " of " + perThread + " records";
+                }
+            }
+            return log.getDropped() == 0 ? null : log.getDropped() + " records were dropped";
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Builds rings over the same nodes and checks that they agree, that the keys are spread over
+     * every node, and that taking a node away only moves the keys it had.
+     */
+    private String checkRing(Random random) {
+        List<String> nodes = Arrays.asList("10.0.0.1:5000", "10.0.0.2:5000", "10.0.0.3:5000", "10.0.0.4:5000",
+                "10.0.0.5:5000");
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes, 100, Function.identity());
+        List<String> shuffled = new ArrayList<>(nodes);
+        Collections.shuffle(shuffled, random);
+        ConsistentHashRing<String> other = new ConsistentHashRing<>(shuffled, 100, Function.identity());
+        String removed = nodes.get(random.nextInt(nodes.size()));
+        List<String> remaining = new ArrayList<>(nodes);
+        remaining.remove(removed);
+        ConsistentHashRing<String> smaller = new ConsistentHashRing<>(remaining, 100, Function.identity());
+
+        int keys = rounds * 10;
+        Map<String, Integer> load = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            String key = "game-" + random.nextLong();
+            String node = ring.select(key, n -> true);
+            if (!node.equals(other.select(key, n -> true))) {
+                return "rings built from the same nodes in another order disagree about " + key;
+            }
+            String without = smaller.select(key, n -> true);
+            if (!without.equals(ring.select(key, n -> !n.equals(removed)))) {
+                return "a ring without " + removed + " and a ring skipping it disagree about " + key;
+            }
+            if (!node.equals(removed) && !node.equals(without)) {
+                return "removing " + removed + " moved " + key + " from " + node + " to " + without;
+            }
+            load.merge(node, 1, Integer::sum);
+        }
+        for (String node : nodes) {
+            // Each of 5 nodes should have about a fifth of the keys
+            int share = load.getOrDefault(node, 0);
+            if (share < keys / 10 || share > keys * 3 / 10) {
+                return node + " got " + share + " of " + keys + " keys";
+            }
+        }
+        return ring.select("any", n -> false) == null ? null : "a ring with no available node selected one";
+    }
+
+    /**
+     * Parses valid and invalid time controls, including limits too large to convert to
+     * milliseconds.
+     */
+    private String checkTimeControl(Random random) {
+        Object[][] valid = {
+                {"300/30", 300_000L, 30_000L},
+                {" 60 ", 60_000L, 0L},
+                {"/20", 0L, 20_000L},
+                {"0/0", 0L, 0L},
+                {"604800/604800", 604_800_000L, 604_800_000L},
+        };
+        for (Object[] example : valid) {
+            TimeControl control = TimeControl.parse((String) example[0]);
+            if (control.getTotalMillis() != (Long) example[1] || control.getMoveMillis() != (Long) example[2]) {
+                return "\"" + example[0] + "\" parsed as " + control;
+            }
+            if (!TimeControl.parse(control.toString()).equals(control)) {
+                return control + " did not survive a round trip";
+            }
+        }
+        if (TimeControl.parse(null) != TimeControl.UNTIMED || TimeControl.parse("  ") != TimeControl.UNTIMED) {
+            return "a missing time control is not untimed";
+        }
+        String[] invalid = {"abc", "5/x", "-5", "5/-1", "1/2/3", "604801", "9223372036854775807",
+                "/9223372036854775807", "99999999999999999999"};
+        for (String text : invalid) {
+            try {
+                TimeControl control = TimeControl.parse(text);
+                return "\"" + text + "\" was accepted as " + control;
+            } catch (IllegalArgumentException expected) {
+                // Rejected as it should be
+            }
+        }
+        for (int i = 0; i < rounds; i++) {
+            long total = random.nextInt(604_801);
+            long move = random.nextInt(604_801);
+            TimeControl control = TimeControl.parse(total + "/" + move);
+            if (control.getTotalMillis() != total * 1000 || control.getMoveMillis() != move * 1000) {
+                return "\"" + total + "/" + move + "\" parsed as " + control;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A timeout that counts how often it fired.
+     */
+    private static final class CountingTimeout extends HashedWheelTimer.Timeout {
+        final AtomicInteger fired = new AtomicInteger();
+
+        @Override
+        protected void expire() {
+            fired.incrementAndGet();
+        }
+    }
+
+    /**
+     * Pauses the calling thread briefly, to let a race play out.
+     */
+    private static void pause(int millis) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Entry point for the self-check.
+     *
+     * @param args The key=value options.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        if (!new Connect4SelfCheck(options).run()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package tools;
+
+import core.Connect4Logic;
+import core.Connect4Variant;
+import core.Difficulty;
+import core.EvaluationWeights;
+import core.GameArchive;
+import core.NTupleNetwork;
+import core.NTupleSearch;
+import core.SearchEngine;
+import core.TranspositionTable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connect4Tournament plays computer player configurations against each other on every core and
+ * reports the Elo difference of each pairing with a 95% confidence interval, and the throughput.
+ * Games are played on Connect4Logic directly, without a server.
+ *
+ * Each game starts from a few random moves so the engines do not replay the same game; every
+ * opening is played twice with the colors swapped, so neither side profits from moving first.
+ *
+ * Options are given as key=value arguments:
+ * engine (repeated, at least twice) as NAME:key=value,... with the keys difficulty (EASY, MEDIUM
+ * or HARD, which sets the depth and time), depth (plies; 0 plays random moves), time (milliseconds
+ * per move; 0 for no limit), weights (evaluation weights as CENTER/NEARWIN/DEVELOPING/OPEN) and
+ * network (an n-tuple network file, played as the medium computer player plays it),
+ * format (roundrobin, or gauntlet where the first engine plays every other), games (per pairing,
+ * rounded up to an even number; default 100), openings (random moves before the engines take over;
+ * default 2), variant (board variant such as 8x7c5), threads (default: available processors),
+ * tableSize (transposition table slots per engine and thread; default 262144), seed (for the
+ * openings) and archive (a file to which every game is appended, for tools.Connect4OpeningStats).
+ */
+public class Connect4Tournament {
+    private final List<EngineConfig> engines;
+    private final boolean gauntlet;
+    private final int gamePairs;
+    private final int openingMoves;
+    private final Connect4Variant variant;
+    private final int threads;
+    private final int tableSize;
+    private final long seed;
+    private final String archiveFile;
+    private GameArchive.Writer archive;
+
+    private final AtomicLong gamesPlayed = new AtomicLong();
+    private final AtomicLong movesPlayed = new AtomicLong();
+    private final AtomicLong nodesSearched = new AtomicLong();
+    // Each worker thread keeps its own engines and tables, one per configuration
+    private final ThreadLocal<Map<EngineConfig, SearchEngine>> searches = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Creates a tournament from parsed options.
+     *
+     * @param options The key=value options other than engine.
+     * @param engines The engine specifications, NAME:key=value,...
+     * @throws IllegalArgumentException If an option or engine specification is invalid.
+     */
+    public Connect4Tournament(Map<String, String> options, List<String> engines) {
+        this.engines = new ArrayList<>();
+        for (String spec : engines) {
+            this.engines.add(EngineConfig.parse(spec));
+        }
+        if (this.engines.size() < 2) {
+            throw new IllegalArgumentException("At least two engines are needed");
+        }
+        String format = options.getOrDefault("format", "roundrobin");
+        if (!format.equals("roundrobin") && !format.equals("gauntlet")) {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        this.gauntlet = format.equals("gauntlet");
+        this.gamePairs = (Integer.parseInt(options.getOrDefault("games", "100")) + 1) / 2;
+        this.openingMoves = Integer.parseInt(options.getOrDefault("openings", "2"));
+        this.variant = options.containsKey("variant") ? Connect4Variant.parse(options.get("variant"))
+                : Connect4Variant.STANDARD;
+        this.threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.tableSize = Integer.parseInt(options.getOrDefault("tableSize", String.valueOf(1 << 18)));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        this.archiveFile = options.get("archive");
+    }
+
+    /**
+     * Plays every pairing and prints the results.
+     *
+     * @throws IOException          If the archive cannot be opened.
+     * @throws InterruptedException If interrupted while waiting for the games.
+     */
+    public void run() throws IOException, InterruptedException {
+        if (archiveFile != null) {
+            archive = new GameArchive.Writer(Paths.get(archiveFile));
+        }
+        List<Pairing> pairings = new ArrayList<>();
+        for (int i = 0; i < engines.size(); i++) {
+            for (int j = i + 1; j < engines.size(); j++) {
+                if (!gauntlet || i == 0) {
+                    pairings.add(new Pairing(engines.get(i), engines.get(j)));
+                }
+            }
+        }
+        System.out.printf("%d engines, %d pairings, %d games each, %d threads, variant %s%n",
+                engines.size(), pairings.size(), 2 * gamePairs, threads, variant);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int p = 0; p < pairings.size(); p++) {
+            Pairing pairing = pairings.get(p);
+            for (int k = 0; k < gamePairs; k++) {
+                long openingSeed = seed * 1_000_003L + p * 65_537L + k;
+                pool.execute(() -> playGamePair(pairing, openingSeed));
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (archive != null) {
+            archive.close();
+        }
+
+        System.out.println();
+        for (Pairing pairing : pairings) {
+            System.out.printf("%-12s vs %-12s %s%n", pairing.first.name, pairing.second.name,
+                    summary(pairing.wins.get(), pairing.draws.get(), pairing.losses.get()));
+        }
+        if (!gauntlet && engines.size() > 2) {
+            // Each engine's results against the rest of the field
+            System.out.println();
+            for (EngineConfig engine : engines) {
+                int wins = 0;
+                int draws = 0;
+                int losses = 0;
+                for (Pairing pairing : pairings) {
+                    if (pairing.first == engine) {
+                        wins += pairing.wins.get();
+                        losses += pairing.losses.get();
+                    } else if (pairing.second == engine) {
+                        wins += pairing.losses.get();
+                        losses += pairing.wins.get();
+                    } else {
+                        continue;
+                    }
+                    draws += pairing.draws.get();
+                }
+                System.out.printf("%-12s vs field        %s%n", engine.name, summary(wins, draws, losses));
+            }
+        }
+        System.out.println();
+        for (EngineConfig engine : engines) {
+            System.out.println(engine);
+        }
+        System.out.printf("Elapsed: %.2f s, %.1f games/s, %.0f moves/s, %.2f M nodes/s%n", seconds,
+                gamesPlayed.get() / seconds, movesPlayed.get() / seconds, nodesSearched.get() / seconds / 1e6);
+    }
+
+    /**
+     * Plays one random opening twice, once with each engine moving first.
+     */
+    private void playGamePair(Pairing pairing, long openingSeed) {
+        int[] opening = randomOpening(new Random(openingSeed));
+        record(pairing, playGame(pairing.first, pairing.second, opening), 'X');
+        record(pairing, playGame(pairing.second, pairing.first, opening), 'O');
+    }
+
+    /**
+     * Counts a game's result from the point of view of the pairing's first engine.
+     */
+    private void record(Pairing pairing, char winner, char firstSide) {
+        if (winner == ' ') {
+            pairing.draws.incrementAndGet();
+        } else if (winner == firstSide) {
+            pairing.wins.incrementAndGet();
+        } else {
+            pairing.losses.incrementAndGet();
+        }
+        gamesPlayed.incrementAndGet();
+    }
+
+    /**
+     * Chooses random opening moves that neither win nor fill the board.
+     *
+     * @return The opening as 1-based columns.
+     */
+    private int[] randomOpening(Random random) {
+        while (true) {
+            Connect4Logic game = new Connect4Logic(variant);
+            int[] opening = new int[openingMoves];
+            boolean over = false;
+            for (int i = 0; i < openingMoves && !over; i++) {
+                do {
+                    opening[i] = random.nextInt(game.getColumns()) + 1;
+                } while (!game.makeMove(opening[i]));
+                over = game.checkLastMoveWin() || game.isBoardFull();
+                game.switchPlayer();
+            }
+            if (!over) {
+                return opening;
+            }
+        }
+    }
+
+    /**
+     * Plays a game from an opening to the end.
+     *
+     * @param x       The engine playing 'X'.
+     * @param o       The engine playing 'O'.
+     * @param opening The opening moves.
+     * @return The winner, 'X' or 'O', or ' ' for a draw.
+     */
+    private char playGame(EngineConfig x, EngineConfig o, int[] opening) {
+        Connect4Logic game = new Connect4Logic(variant);
+        for (int column : opening) {
+            game.makeMove(column);
+            game.switchPlayer();
+        }
+        Map<EngineConfig, SearchEngine> engines = searches.get();
+        long moves = 0;
+        long nodes = 0;
+        while (true) {
+            char player = game.getCurrentPlayer();
+            EngineConfig config = player == 'X' ? x : o;
+            SearchEngine search = engines.computeIfAbsent(config, c -> c.network != null ? new NTupleSearch(c.network)
+                    : SearchEngine.create(variant, new TranspositionTable(tableSize), c.weights));
+            int column;
+            if (config.depth > 0 || config.network != null) {
+                // A time of 0 leaves the search limited by depth alone
+                long budget = config.timeMillis > 0 ? config.timeMillis : TimeUnit.HOURS.toMillis(1);
+                column = search.bestMove(game.getBoard(), player, config.depth, System.nanoTime() + budget * 1_000_000L);
+                nodes += search.getNodes();
+            } else {
+                column = search.randomMove(game.getBoard());
+            }
+            game.makeMove(column + 1);
+            moves++;
+            boolean won = game.checkLastMoveWin();
+            if (won || game.isBoardFull()) {
+                movesPlayed.addAndGet(moves);
+                nodesSearched.addAndGet(nodes);
+                char winner = won ? player : ' ';
+                archive(game, winner);
+                return winner;
+            }
+            game.switchPlayer();
+        }
+    }
+
+    /**
+     * Appends a finished game to the archive, if there is one. Engines have no rating, so the game
+     * is archived as unrated.
+     */
+    private void archive(Connect4Logic game, char winner) {
+        if (archive != null) {
+            try {
+                archive.append(variant, game.getMoves(), winner, 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Summarizes the results of one side: the record, the score and the Elo difference with its
+     * 95% confidence interval, from the normal approximation of the mean score per game.
+     */
+    static String summary(int wins, int draws, int losses) {
+        int games = wins + draws + losses;
+        if (games == 0) {
+            return "no games";
+        }
+        double score = (wins + 0.5 * draws) / games;
+        double variance = (wins * square(1 - score) + draws * square(0.5 - score) + losses * square(score)) / games;
+        double margin = 1.96 * Math.sqrt(variance / games);
+        return String.format("+%d -%d =%d  score %.1f%%  Elo %+.0f (95%% CI %+.0f to %+.0f)", wins, losses, draws,
+                100 * score, elo(score), elo(score - margin), elo(score + margin));
+    }
+
+    /**
+     * Converts an expected score into an Elo difference. Scores of 0 and 1 are clamped, since they
+     * would be infinitely far apart.
+     */
+    static double elo(double score) {
+        double clamped = Math.max(0.001, Math.min(0.999, score));
+        return -400 * Math.log10(1 / clamped - 1);
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+
+    /**
+     * A computer player configuration taking part in the tournament.
+     */
+    static final class EngineConfig {
+        final String name;
+        final int depth;
+        final long timeMillis;
+        final EvaluationWeights weights;
+        final String networkFile;
+        final NTupleNetwork network;
+
+        EngineConfig(String name, int depth, long timeMillis, EvaluationWeights weights, String networkFile,
+                     NTupleNetwork network) {
+            this.name = name;
+            this.depth = depth;
+            this.timeMillis = timeMillis;
+            this.weights = weights;
+            this.networkFile = networkFile;
+            this.network = network;
+        }
+
+        /**
+         * Parses NAME:key=value,... where the settings start from the hard difficulty.
+         *
+         * @throws IllegalArgumentException If the specification is invalid.
+         */
+        static EngineConfig parse(String spec) {
+            int colon = spec.indexOf(':');
+            String name = colon < 0 ? spec : spec.substring(0, colon);
+            Difficulty difficulty = Difficulty.HARD;
+            Integer depth = null;
+            Long time = null;
+            EvaluationWeights weights = EvaluationWeights.DEFAULT;
+            String networkFile = null;
+            NTupleNetwork network = null;
+            if (colon >= 0) {
+                for (String setting : spec.substring(colon + 1).split(",")) {
+                    int eq = setting.indexOf('=');
+                    if (eq < 0) {
+                        throw new IllegalArgumentException("Bad engine setting in " + spec + ": " + setting);
+                    }
+                    String key = setting.substring(0, eq);
+                    String value = setting.substring(eq + 1);
+                    if (key.equals("difficulty")) {
+                        difficulty = Difficulty.valueOf(value.toUpperCase());
+                    } else if (key.equals("depth")) {
+                        depth = Integer.parseInt(value);
+                    } else if (key.equals("time")) {
+                        time = Long.parseLong(value);
+                    } else if (key.equals("weights")) {
+                        weights = EvaluationWeights.parse(value);
+                    } else if (key.equals("network")) {
+                        try {
+                            network = NTupleNetwork.load(Paths.get(value));
+                            networkFile = value;
+                        } catch (IOException e) {
+                            throw new IllegalArgumentException("Cannot load network for " + name + ": " + e.getMessage(), e);
+                        }
+                    } else {
+                        throw new IllegalArgumentException("Unknown engine setting in " + spec + ": " + key);
+                    }
+                }
+            }
+            return new EngineConfig(name, depth != null ? depth : difficulty.getDepth(),
+                    time != null ? time : difficulty.getTimeBudgetMillis(), weights, networkFile, network);
+        }
+
+        @Override
+        public String toString() {
+            if (network != null) {
+                return name + ": n-tuple network " + networkFile;
+            } else if (depth == 0) {
+                return name + ": random moves";
+            }
+            return name + ": depth " + depth + ", time " + (timeMillis > 0 ? timeMillis + " ms" : "unlimited")
+                    + ", weights " + weights;
+        }
+    }
+
+    /**
+     * The results of two engines against each other, counted for the first engine.
+     */
+    private static final class Pairing {
+        final EngineConfig first;
+        final EngineConfig second;
+        final AtomicInteger wins = new AtomicInteger();
+        final AtomicInteger draws = new AtomicInteger();
+        final AtomicInteger losses = new AtomicInteger();
+
+        Pairing(EngineConfig first, EngineConfig second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    /**
+     * Entry point for the tournament.
+     *
+     * @param args The key=value options.
+     * @throws IOException          If the archive cannot be opened.
+     * @throws InterruptedException If interrupted while waiting for the games.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        List<String> engines = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0 && arg.substring(0, eq).equals("engine")) {
+                engines.add(arg.substring(eq + 1));
+            } else if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        new Connect4Tournament(options, engines).run();
+    }
+}
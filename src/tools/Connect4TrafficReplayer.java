@@ -0,0 +1,366 @@
+package tools;
+
+import core.ConnectionMonitor;
+import core.MuxFrame;
+import core.TrafficCapture;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Connect4TrafficReplayer plays traffic captured by a Connect4Server (see core.TrafficCapture)
+ * against a server: every recorded connection is opened again by a virtual client, which sends the
+ * recorded messages at the recorded times, sped up by a factor, while a thread per client reads
+ * what the server sends back.
+ *
+ * The replayer reports the time from each message to the server's first reply, how far behind
+ * schedule the messages went out, and which connections diverged from the capture: those the
+ * server closed while the capture still had messages for them, those that received a different
+ * number of server messages than the capture recorded, and those the server did not close when the
+ * capture says it did. A connection replays exactly only if the server answers it as it did when
+ * the capture was made: the easy computer player moves at random, the others search against a time
+ * budget, and multiplayer players who reach the server at nearly the same time may be paired
+ * differently, so some divergence is expected and grows with load. Server timeouts are not sped up,
+ * and connections are opened by the thread that sends the messages, so a server that is slow to
+ * accept connections shows up as lag.
+ *
+ * Options are given as key=value arguments: file (the capture; required), host (default
+ * localhost), port (8000), speed (default 1, for real time), copies (default 1; the number of
+ * virtual clients replaying each recorded connection at once) and timeout (seconds to wait for the
+ * server to finish after the last recorded message; default 30).
+ */
+public class Connect4TrafficReplayer {
+    private static final int RESET_INTERVAL = 256;
+
+    private final String file;
+    private final String host;
+    private final int port;
+    private final double speed;
+    private final int copies;
+    private final long timeoutMillis;
+
+    private final LatencyRecorder connectTimes = new LatencyRecorder();
+    private final LatencyRecorder replyTimes = new LatencyRecorder();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private long maxLagNanos;
+
+    /**
+     * Creates a replayer from parsed options.
+     *
+     * @param options The key=value options.
+     * @throws IllegalArgumentException If an option is invalid or the capture file is missing.
+     */
+    public Connect4TrafficReplayer(Map<String, String> options) {
+        this.file = options.get("file");
+        if (file == null) {
+            throw new IllegalArgumentException("file=CAPTURE is required");
+        }
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "8000"));
+        this.speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        this.copies = Integer.parseInt(options.getOrDefault("copies", "1"));
+        this.timeoutMillis = Long.parseLong(options.getOrDefault("timeout", "30")) * 1000;
+        if (speed <= 0 || copies < 1) {
+            throw new IllegalArgumentException("speed must be positive and copies at least 1");
+        }
+    }
+
+    /**
+     * Replays the capture and prints the report.
+     *
+     * @throws IOException          If the capture cannot be read.
+     * @throws InterruptedException If interrupted while waiting for the server.
+     */
+    public void run() throws IOException, InterruptedException {
+        List<Record> records = load();
+        if (records.isEmpty()) {
+            System.out.println("The capture holds no traffic");
+            return;
+        }
+        long recordedMicros = records.get(records.size() - 1).micros;
+        System.out.printf("Replaying %d records (%.1f s of traffic) at %sx speed, %d cop%s%n", records.size(),
+                recordedMicros / 1e6, speed, copies, copies == 1 ? "y" : "ies");
+
+        List<VirtualClient> clients = new ArrayList<>();
+        List<Map<Integer, VirtualClient>> open = new ArrayList<>();
+        for (int copy = 0; copy < copies; copy++) {
+            open.add(new HashMap<>());
+        }
+        long start = System.nanoTime();
+        for (Record record : records) {
+            long due = start + (long) (record.micros * 1000 / speed);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            maxLagNanos = Math.max(maxLagNanos, -wait);
+            for (Map<Integer, VirtualClient> copy : open) {
+                if (record.kind == TrafficCapture.OPEN) {
+                    VirtualClient client = new VirtualClient(clients.size());
+                    clients.add(client);
+                    copy.put(record.connection, client);
+                    client.open();
+                    continue;
+                }
+                VirtualClient client = copy.get(record.connection);
+                if (client == null) {
+                    continue; // Opened before the capture started
+                }
+                client.expected += record.serverMessages;
+                if (record.kind == TrafficCapture.MESSAGE) {
+                    client.send(record.message);
+                } else {
+                    copy.remove(record.connection);
+                    client.recordedClose(record.reason);
+                }
+            }
+        }
+        double dispatchSeconds = (System.nanoTime() - start) / 1e9;
+
+        // Let the server finish the replies to the last messages and close its connections
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (VirtualClient client : clients) {
+            client.finish(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        report(clients, dispatchSeconds);
+    }
+
+    /**
+     * Reads every record of the capture.
+     */
+    private List<Record> load() throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(Paths.get(file))) {
+            while (reader.next()) {
+                records.add(new Record(reader.getKind(), reader.getConnection(), reader.getMicros(),
+                        reader.getServerMessages(), reader.getMessage(), reader.getReason()));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Prints how the replay went.
+     */
+    private void report(List<VirtualClient> clients, double dispatchSeconds) {
+        int failed = 0;
+        int closedEarly = 0;
+        int stillOpen = 0;
+        int countDiffers = 0;
+        long expected = 0;
+        long received = 0;
+        for (VirtualClient client : clients) {
+            expected += client.expected;
+            received += client.received.get();
+            if (client.failed) {
+                failed++;
+            } else if (client.refused > 0) {
+                closedEarly++;
+            } else if (client.stillOpen && client.closeRecorded) {
+                stillOpen++;
+            } else if (client.closeRecorded ? client.received.get() != client.expected
+                    : client.received.get() < client.expected) {
+                countDiffers++;
+            }
+        }
+        System.out.printf("Connections: %d, messages sent: %d, refused: %d, dispatched in %.2f s, max lag %.2f ms%n",
+                clients.size(), sent.get(), refused.get(), dispatchSeconds, maxLagNanos / 1e6);
+        System.out.printf("Server messages: %d expected, %d received%n", expected, received);
+        System.out.printf("Diverged connections: %d (connect failed %d, closed early %d, left open %d, "
+                        + "reply count differs %d)%n", failed + closedEarly + stillOpen + countDiffers,
+                failed, closedEarly, stillOpen, countDiffers);
+        System.out.println("Connection setup (ms): " + connectTimes.summary());
+        System.out.println("First reply (ms):      " + replyTimes.summary());
+    }
+
+    /**
+     * One recorded event.
+     */
+    private static final class Record {
+        final int kind;
+        final int connection;
+        final long micros;
+        final int serverMessages;
+        final Object message;
+        final ConnectionMonitor.CloseReason reason;
+
+        Record(int kind, int connection, long micros, int serverMessages, Object message,
+               ConnectionMonitor.CloseReason reason) {
+            this.kind = kind;
+            this.connection = connection;
+            this.micros = micros;
+            this.serverMessages = serverMessages;
+            this.message = message;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * A client replaying one recorded connection. Messages are sent by the dispatching thread; a
+     * thread of its own reads the server's messages.
+     */
+    private class VirtualClient {
+        private final int id;
+        // Send times of messages still waiting for a reply, by mux channel (0 when not multiplexed)
+        private final Map<Integer, Long> pending = new ConcurrentHashMap<>();
+        private final AtomicInteger received = new AtomicInteger();
+        private Socket socket;
+        private ObjectOutputStream out;
+        private Thread reader;
+        private int sentSinceReset;
+        private int expected;
+        private int refused;
+        private boolean failed;
+        private boolean closeRecorded;
+        private boolean stillOpen;
+        // The number of server messages after which the client leaves, or -1 while it stays
+        private volatile int leaveAfter = -1;
+
+        VirtualClient(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Connects to the server and starts reading.
+         */
+        void open() {
+            long connectStart = System.nanoTime();
+            try {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), 10_000);
+                out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.flush();
+                connectTimes.record(System.nanoTime() - connectStart);
+            } catch (IOException e) {
+                failed = true;
+                return;
+            }
+            reader = new Thread(this::read, "replay-reader-" + id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Reader loop: counts the server's messages and times the first reply to each message sent.
+         */
+        private void read() {
+            try {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    Object message = in.readObject();
+                    long now = System.nanoTime();
+                    int count = received.incrementAndGet();
+                    if (count == leaveAfter) {
+                        leave();
+                    }
+                    Long sentAt = pending.remove(message instanceof MuxFrame ? ((MuxFrame) message).getChannel() : 0);
+                    if (sentAt != null) {
+                        replyTimes.record(now - sentAt);
+                    }
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                // The server closed the connection, or finish gave up on it
+            }
+        }
+
+        /**
+         * Sends a recorded message. A message the server no longer accepts is counted as refused.
+         */
+        void send(Object message) {
+            if (failed) {
+                return;
+            }
+            boolean closeFrame = message instanceof MuxFrame && ((MuxFrame) message).isClose();
+            if (!closeFrame) {
+                pending.putIfAbsent(message instanceof MuxFrame ? ((MuxFrame) message).getChannel() : 0,
+                        System.nanoTime());
+            }
+            try {
+                if (++sentSinceReset == RESET_INTERVAL) {
+                    out.reset();
+                    sentSinceReset = 0;
+                }
+                out.writeObject(message);
+                out.flush();
+                sent.incrementAndGet();
+            } catch (IOException e) {
+                refused++;
+                Connect4TrafficReplayer.this.refused.incrementAndGet();
+            }
+        }
+
+        /**
+         * Acts on the recorded end of the connection. If the client left, it leaves once it has
+         * received as many server messages as the recorded client had, as leaving earlier would cut
+         * off messages the server still had to send; otherwise the server is expected to close the
+         * connection itself.
+         */
+        void recordedClose(ConnectionMonitor.CloseReason reason) {
+            closeRecorded = true;
+            if (!failed && reason == ConnectionMonitor.CloseReason.DISCONNECTED) {
+                leaveAfter = expected;
+                if (received.get() >= expected) {
+                    leave();
+                }
+            }
+        }
+
+        /**
+         * Stops sending, so that the server sees the client leave.
+         */
+        private void leave() {
+            try {
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                // Already left, or closed by the server
+            }
+        }
+
+        /**
+         * Waits for the server to close the connection, then closes it if it has not.
+         */
+        void finish(long waitMillis) throws InterruptedException {
+            if (failed) {
+                return;
+            }
+            reader.join(waitMillis);
+            stillOpen = reader.isAlive();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more to release
+            }
+            reader.join();
+        }
+    }
+
+    /**
+     * Entry point for the replayer.
+     *
+     * @param args Options in key=value form, for example file=traffic.cap speed=10 copies=4.
+     * @throws IOException          If the capture cannot be read.
+     * @throws InterruptedException If interrupted while replaying.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        new Connect4TrafficReplayer(options).run();
+    }
+}
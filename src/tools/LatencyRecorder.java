@@ -0,0 +1,44 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples from many threads and reports percentiles, in milliseconds. Shared by
+ * the load generator and the traffic replayer.
+ */
+class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int size;
+
+    synchronized void record(long nanos) {
+        record(new long[]{nanos}, 1);
+    }
+
+    synchronized void record(long[] values, int count) {
+        if (size + count > samples.length) {
+            samples = Arrays.copyOf(samples, Math.max(samples.length * 2, size + count));
+        }
+        System.arraycopy(values, 0, samples, size, count);
+        size += count;
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    synchronized String summary() {
+        if (size == 0) {
+            return "no samples";
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        return String.format("p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
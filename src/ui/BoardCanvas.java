@@ -0,0 +1,273 @@
+package ui;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.geometry.VPos;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.TextAlignment;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * BoardCanvas draws the Connect 4 board on a single Canvas node. Only cells whose state changed are
+ * redrawn, and newly placed pieces fall into place with an animation driven by an AnimationTimer,
+ * so the cost of an update does not depend on the size of the board.
+ *
+ * Hints, such as the scores of an analysis, can be shown in the cell each column's next piece would
+ * land in.
+ */
+public class BoardCanvas extends Canvas {
+    private static final double GRAVITY_TILES = 30; // Acceleration of a falling piece, in tiles per second squared
+
+    private final double tileSize;
+    private int rows;
+    private int columns;
+    private char[][] shown;   // What is currently drawn
+    private char[][] target;  // The latest state received
+    private final List<Drop> drops = new ArrayList<>();
+    private boolean animate = true;
+    private IntConsumer columnHandler = column -> { };
+    private String[] hints;     // Per column, or null when no hints are shown
+    private int hintedColumn = -1;
+
+    private final AnimationTimer animator = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            animateDrops(now);
+        }
+    };
+
+    /**
+     * Creates a canvas for a board of the given size.
+     *
+     * @param rows     The number of rows.
+     * @param columns  The number of columns.
+     * @param tileSize The width and height of one cell in pixels.
+     */
+    public BoardCanvas(int rows, int columns, double tileSize) {
+        super(columns * tileSize, rows * tileSize);
+        this.tileSize = tileSize;
+        setOnMouseClicked(e -> {
+            int column = (int) (e.getX() / this.tileSize);
+            if (column >= 0 && column < this.columns) {
+                columnHandler.accept(column + 1);
+            }
+        });
+        setDimensions(rows, columns);
+    }
+
+    /**
+     * Sets the handler called with the column (1-based) the player clicked.
+     *
+     * @param handler The column handler.
+     */
+    public void setOnColumnSelected(IntConsumer handler) {
+        this.columnHandler = handler;
+    }
+
+    /**
+     * Enables or disables the falling-piece animation.
+     *
+     * @param animate True to animate new pieces.
+     */
+    public void setAnimate(boolean animate) {
+        this.animate = animate;
+    }
+
+    /**
+     * Resizes the board, clearing every cell.
+     *
+     * @param rows    The number of rows.
+     * @param columns The number of columns.
+     */
+    public void setDimensions(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.shown = new char[rows][columns];
+        this.target = new char[rows][columns];
+        this.hints = null;
+        setWidth(columns * tileSize);
+        setHeight(rows * tileSize);
+        clear();
+    }
+
+    /**
+     * Returns the number of rows of the board.
+     *
+     * @return The row count.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns of the board.
+     *
+     * @return The column count.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Empties every cell and redraws the whole board.
+     */
+    public void clear() {
+        drops.clear();
+        animator.stop();
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                shown[row][col] = ' ';
+                target[row][col] = ' ';
+                drawCell(row, col);
+            }
+        }
+    }
+
+    /**
+     * Shows a new board state. Cells that gained a piece are animated, any other changed cells are
+     * redrawn directly, and unchanged cells are left alone.
+     *
+     * @param boardState The board state (row 0 is the top row).
+     */
+    public void setBoard(char[][] boardState) {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                char cell = boardState[row][col];
+                if (cell == target[row][col]) {
+                    continue;
+                }
+                target[row][col] = cell;
+                if (animate && cell != ' ' && shown[row][col] == ' ') {
+                    drops.add(new Drop(row, col, cell));
+                } else {
+                    shown[row][col] = cell;
+                    drawCell(row, col);
+                }
+            }
+        }
+        if (!drops.isEmpty()) {
+            animator.start();
+        }
+    }
+
+    /**
+     * Shows a hint in the cell where each column's next piece would land, or removes the hints.
+     *
+     * @param hints        A hint per column, null for columns without one, or null to remove all hints.
+     * @param strongColumn The column (0-based) whose hint is emphasized, or -1.
+     */
+    public void setHints(String[] hints, int strongColumn) {
+        this.hints = hints != null && hints.length == columns ? hints : null;
+        this.hintedColumn = strongColumn;
+        for (int col = 0; col < columns; col++) {
+            int row = landingRow(col);
+            if (row >= 0) {
+                drawCell(row, col);
+            }
+        }
+    }
+
+    /**
+     * Returns the row the next piece of a column lands in, in the latest state received.
+     *
+     * @return The row, or -1 if the column is full.
+     */
+    private int landingRow(int col) {
+        for (int row = rows - 1; row >= 0; row--) {
+            if (target[row][col] == ' ') {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Advances every falling piece. Only the columns the pieces fall through are redrawn.
+     */
+    private void animateDrops(long now) {
+        GraphicsContext gc = getGraphicsContext2D();
+        for (Drop drop : drops) {
+            if (drop.startNanos == 0) {
+                drop.startNanos = now;
+            }
+            for (int row = 0; row <= drop.row; row++) {
+                drawCell(row, drop.column);
+            }
+        }
+
+        Iterator<Drop> it = drops.iterator();
+        while (it.hasNext()) {
+            Drop drop = it.next();
+            double seconds = (now - drop.startNanos) / 1e9;
+            double y = -tileSize + 0.5 * GRAVITY_TILES * tileSize * seconds * seconds;
+            double landing = drop.row * tileSize;
+            if (y >= landing) {
+                shown[drop.row][drop.column] = drop.piece;
+                drawCell(drop.row, drop.column);
+                it.remove();
+            } else {
+                gc.setFill(colorOf(drop.piece));
+                gc.fillOval(drop.column * tileSize + 5, y + 5, tileSize - 10, tileSize - 10);
+            }
+        }
+
+        if (drops.isEmpty()) {
+            animator.stop();
+        }
+    }
+
+    /**
+     * Draws a single cell from the shown state.
+     */
+    private void drawCell(int row, int col) {
+        GraphicsContext gc = getGraphicsContext2D();
+        double x = col * tileSize;
+        double y = row * tileSize;
+        gc.setFill(Color.WHITE);
+        gc.fillRect(x, y, tileSize, tileSize);
+        gc.setFill(colorOf(shown[row][col]));
+        gc.fillOval(x + 5, y + 5, tileSize - 10, tileSize - 10);
+        gc.setStroke(Color.BLACK);
+        gc.strokeOval(x + 5, y + 5, tileSize - 10, tileSize - 10);
+        if (hints != null && hints[col] != null && shown[row][col] == ' ' && row == landingRow(col)) {
+            boolean strong = col == hintedColumn;
+            gc.setFill(strong ? Color.DARKGREEN : Color.DIMGRAY);
+            gc.setFont(Font.font(null, strong ? FontWeight.BOLD : FontWeight.NORMAL, tileSize / 4));
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.setTextBaseline(VPos.CENTER);
+            gc.fillText(hints[col], x + tileSize / 2, y + tileSize / 2);
+        }
+    }
+
+    private static Color colorOf(char piece) {
+        if (piece == 'X') {
+            return Color.RED;
+        } else if (piece == 'O') {
+            return Color.YELLOW;
+        }
+        return Color.LIGHTGRAY;
+    }
+
+    /**
+     * A piece falling down a column towards its landing row.
+     */
+    private static final class Drop {
+        final int row;
+        final int column;
+        final char piece;
+        long startNanos;
+
+        Drop(int row, int column, char piece) {
+            this.row = row;
+            this.column = column;
+            this.piece = piece;
+        }
+    }
+}
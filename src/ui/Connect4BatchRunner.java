@@ -0,0 +1,231 @@
+package ui;
+
+import core.Connect4Logic;
+import core.Connect4Variant;
+
+import java.io.*;
+
+/**
+ * Connect4BatchRunner plays recorded games without any interaction. Each input line holds one game
+ * as a string of column numbers (for example "4453"), and one result line is written per game:
+ *
+ * <pre>
+ * game-number winner plies validity
+ * </pre>
+ *
+ * where winner is X, O, draw or - (unfinished), and validity is ok or invalid@ply for the first
+ * illegal move (full or unknown column, or a move after the game ended).
+ *
+ * Input is processed as a byte stream with one reused game and fixed buffers, so memory use does
+ * not depend on the size of the input.
+ */
+public class Connect4BatchRunner {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Connect4Logic game;
+    private final byte[] outBuffer = new byte[BUFFER_SIZE];
+    private int outPosition;
+    private OutputStream out;
+
+    private long games;
+    private long invalidGames;
+    private long plies;
+
+    // State of the game being read
+    private int ply;
+    private int invalidPly;
+    private char winner;
+    private boolean finished;
+    private boolean hasMoves;
+
+    /**
+     * Creates a runner for standard 7x6 games.
+     */
+    public Connect4BatchRunner() {
+        this(Connect4Variant.STANDARD);
+    }
+
+    /**
+     * Creates a runner for games of a variant. Moves are single digits, so variants with more than
+     * nine columns cannot be replayed.
+     *
+     * @param variant The board variant of the games.
+     */
+    public Connect4BatchRunner(Connect4Variant variant) {
+        this.game = new Connect4Logic(variant);
+    }
+
+    /**
+     * Plays every game from the input and writes one result line per game.
+     *
+     * @param input  The games, one per line.
+     * @param output Where the results are written.
+     * @throws IOException If reading or writing fails.
+     */
+    public void run(InputStream input, OutputStream output) throws IOException {
+        this.out = output;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        startGame();
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                if (b == '\n') {
+                    endGame();
+                } else if (b != '\r' && b != ' ' && b != '\t') {
+                    move(b);
+                }
+            }
+        }
+        endGame();
+        flush();
+        out.flush();
+    }
+
+    /**
+     * Returns the number of games played.
+     *
+     * @return The game count.
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Returns the number of games that contained an illegal move.
+     *
+     * @return The invalid game count.
+     */
+    public long getInvalidGames() {
+        return invalidGames;
+    }
+
+    /**
+     * Returns the total number of moves played over all games.
+     *
+     * @return The ply count.
+     */
+    public long getPlies() {
+        return plies;
+    }
+
+    private void startGame() {
+        game.reset();
+        ply = 0;
+        invalidPly = 0;
+        winner = '-';
+        finished = false;
+        hasMoves = false;
+    }
+
+    private void move(byte b) {
+        hasMoves = true;
+        if (invalidPly != 0) {
+            return; // Skip the rest of an invalid game
+        }
+        ply++;
+        int column = b - '0';
+        if (finished || !game.makeMove(column)) {
+            invalidPly = ply;
+            return;
+        }
+        if (game.checkLastMoveWin()) {
+            winner = game.getCurrentPlayer();
+            finished = true;
+        } else if (game.isBoardFull()) {
+            winner = 'D';
+            finished = true;
+        } else {
+            game.switchPlayer();
+        }
+    }
+
+    private void endGame() throws IOException {
+        if (!hasMoves) {
+            return; // Blank line
+        }
+        games++;
+        int played = invalidPly != 0 ? invalidPly - 1 : ply;
+        plies += played;
+
+        writeNumber(games);
+        writeByte(' ');
+        if (winner == 'D') {
+            writeAscii("draw");
+        } else {
+            writeByte(winner);
+        }
+        writeByte(' ');
+        writeNumber(played);
+        writeByte(' ');
+        if (invalidPly != 0) {
+            invalidGames++;
+            writeAscii("invalid@");
+            writeNumber(invalidPly);
+        } else {
+            writeAscii("ok");
+        }
+        writeByte('\n');
+        startGame();
+    }
+
+    private void writeNumber(long value) throws IOException {
+        if (outPosition + 20 > outBuffer.length) {
+            flush();
+        }
+        if (value == 0) {
+            outBuffer[outPosition++] = '0';
+            return;
+        }
+        int start = outPosition;
+        while (value > 0) {
+            outBuffer[outPosition++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        // Digits were written least significant first
+        for (int i = start, j = outPosition - 1; i < j; i++, j--) {
+            byte t = outBuffer[i];
+            outBuffer[i] = outBuffer[j];
+            outBuffer[j] = t;
+        }
+    }
+
+    private void writeAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            writeByte(text.charAt(i));
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (outPosition == outBuffer.length) {
+            flush();
+        }
+        outBuffer[outPosition++] = (byte) b;
+    }
+
+    private void flush() throws IOException {
+        out.write(outBuffer, 0, outPosition);
+        outPosition = 0;
+    }
+
+    /**
+     * Runs the batch mode from the command line.
+     *
+     * @param args An optional file of games; standard input is read when absent or "-".
+     * @throws IOException If reading or writing fails.
+     */
+    public static void main(String[] args) throws IOException {
+        String variant = System.getProperty("connect4.variant");
+        Connect4BatchRunner runner = new Connect4BatchRunner(
+                variant == null ? Connect4Variant.STANDARD : Connect4Variant.parse(variant));
+        long start = System.nanoTime();
+        InputStream input = args.length == 0 || args[0].equals("-") ? System.in : new FileInputStream(args[0]);
+        try (InputStream in = input) {
+            runner.run(in, new FileOutputStream(FileDescriptor.out));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d games (%d invalid), %d plies in %.2f s, %.0f games/min%n",
+                runner.getGames(), runner.getInvalidGames(), runner.getPlies(), seconds,
+                runner.getGames() / seconds * 60);
+    }
+}
@@ -2,7 +2,12 @@ package ui;
 
 import java.io.*;
 import java.net.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
+
+import core.Connect4Variant;
+import core.HandshakeRequest;
 import javafx.application.Application;
 import javafx.stage.Stage;
 import javafx.application.Platform;
@@ -19,6 +24,7 @@ public class Connect4Client extends Application {
     private ObjectOutputStream out;
     private ObjectInputStream in;
     private Socket socket;
+    private Connect4Variant variant = Connect4Variant.STANDARD;
 
     /**
      * Starts the client application and connects to the Connect 4 server. Once connected, it handles
@@ -78,14 +84,38 @@ public class Connect4Client extends Application {
 
     private void sendModeAndLaunchGUI(int mode, Stage stage) {
         try {
-            out.writeObject(mode);
+            String variantOption = System.getProperty("connect4.variant");
+            String difficultyOption = System.getProperty("connect4.difficulty");
+            String clockOption = System.getProperty("connect4.clock");
+            String nameOption = System.getProperty("connect4.name");
+            if (variantOption == null && difficultyOption == null && clockOption == null && nameOption == null) {
+                out.writeObject(mode); // Plain mode, understood by every server version
+            } else {
+                // Negotiate the board variant, computer difficulty, game clock and rated name with the server
+                Map<String, String> options = new LinkedHashMap<>();
+                options.put("mode", String.valueOf(mode));
+                if (variantOption != null) {
+                    variant = Connect4Variant.parse(variantOption);
+                    options.put("variant", variant.toString());
+                }
+                if (difficultyOption != null) {
+                    options.put("difficulty", difficultyOption);
+                }
+                if (clockOption != null) {
+                    options.put("clock", clockOption);
+                }
+                if (nameOption != null) {
+                    options.put("name", nameOption);
+                }
+                out.writeObject(new HandshakeRequest(options).toMessage());
+            }
             out.flush();
             System.out.println("Sent mode: " + mode);
 
             // Launch Connect4GUI
             Platform.runLater(() -> {
                 try {
-                    Connect4GUI gui = new Connect4GUI(socket, out, in);
+                    Connect4GUI gui = new Connect4GUI(socket, out, in, variant);
                     gui.start(new Stage());
                 } catch (Exception ex) {
                     ex.printStackTrace();
@@ -6,29 +6,44 @@ import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
-import javafx.scene.shape.Circle;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
-import java.util.Arrays;
 import java.util.Optional;
 
+import core.Connect4Variant;
+
 import java.io.*;
 import java.net.Socket;
 // Ensure JavaFX is properly linked
 
 /**
  * Connect4GUI class provides a graphical user interface for Connect4
- * that communicates with a server for gameplay.
+ * that communicates with a server for gameplay. In analysis mode a background search (see
+ * MoveAnalyzer) scores every column of each new position and the scores are shown on the board.
  */
 public class Connect4GUI extends Application {
     private static final int TILE_SIZE = 80;
-    private static final int ROWS = 6;
-    private static final int COLUMNS = 7;
 
     private Label statusLabel = new Label("Waiting for server...");
-    private Circle[][] boardCells = new Circle[ROWS][COLUMNS];
+    private BoardCanvas boardCanvas;
+    private Stage stage;
+    private final ServerMessagePipeline pipeline = new ServerMessagePipeline(
+            new ServerMessagePipeline.Listener() {
+                @Override
+                public void onBoard(char[][] boardState) {
+                    handleBoardUpdate(boardState);
+                }
+
+                @Override
+                public void onText(String message) {
+                    handleServerMessage(message);
+                }
+            });
     private TextField inputField = new TextField();
     private Button submitButton = new Button("Submit");
+    private CheckBox analysisBox = new CheckBox("Analysis");
+    private Label analysisLabel = new Label();
+    private MoveAnalyzer analyzer;
+    private Connect4Variant variant;
+    private char[][] lastBoard;
     private boolean isGameOver = false;
 
     private Label player1WinsLabel = new Label("Player 1 (X) Wins: 0");
@@ -50,9 +65,23 @@ public class Connect4GUI extends Application {
      * @param in     The input stream for receiving data from the server.
      */
     public Connect4GUI(Socket socket, ObjectOutputStream out, ObjectInputStream in) {
+        this(socket, out, in, Connect4Variant.STANDARD);
+    }
+
+    /**
+     * Constructor to initialize the Connect4 GUI with an existing server connection for a board variant.
+     *
+     * @param socket  The socket connected to the server.
+     * @param out     The output stream for sending data to the server.
+     * @param in      The input stream for receiving data from the server.
+     * @param variant The board variant requested from the server.
+     */
+    public Connect4GUI(Socket socket, ObjectOutputStream out, ObjectInputStream in, Connect4Variant variant) {
         this.socket = socket;
         this.out = out;
         this.in = in;
+        this.variant = variant;
+        this.boardCanvas = new BoardCanvas(variant.getRows(), variant.getColumns(), TILE_SIZE);
     }
 
 
@@ -71,12 +100,13 @@ public class Connect4GUI extends Application {
         VBox root = new VBox(10);
         HBox statusBox = new HBox(10, statusLabel, player1WinsLabel, player2WinsLabel);
 
-        GridPane board = createBoard();
+        BoardCanvas board = createBoard();
         HBox inputBox = createUserInputBox();
 
         root.getChildren().addAll(statusBox, board, inputBox);
 
-        Scene scene = new Scene(root, TILE_SIZE * COLUMNS, TILE_SIZE * ROWS + 120);
+        Scene scene = new Scene(root, boardCanvas.getWidth(), boardCanvas.getHeight() + 120);
+        stage = primaryStage;
         primaryStage.setScene(scene);
         primaryStage.setTitle("Connect 4");
         primaryStage.show();
@@ -90,33 +120,14 @@ public class Connect4GUI extends Application {
     }
 
     /**
-     * Creates the Connect4 game board using JavaFX.
+     * Creates the Connect4 game board, drawn on a single canvas.
      *
-     * @return A GridPane containing the game board.
+     * @return The canvas containing the game board.
      */
-    private GridPane createBoard() {
-        GridPane board = new GridPane();
-
-        for (int row = 0; row < ROWS; row++) {
-            for (int col = 0; col < COLUMNS; col++) {
-                Circle cell = new Circle(TILE_SIZE / 2 - 5);
-                cell.setFill(Color.LIGHTGRAY);
-                cell.setStroke(Color.BLACK);
-                boardCells[row][col] = cell; // Save reference to update later
-                board.add(cell, col, row);
-            }
-        }
-
-        // Add click handlers for playable columns
-        for (int col = 0; col < COLUMNS; col++) {
-            final int colIndex = col; // Capture column index for lambda
-            Rectangle columnArea = new Rectangle(TILE_SIZE, TILE_SIZE * ROWS);
-            columnArea.setFill(Color.TRANSPARENT);
-            columnArea.setOnMouseClicked(e -> submitMove(colIndex + 1));
-            board.add(columnArea, col, 0, 1, ROWS);
-        }
-
-        return board;
+    private BoardCanvas createBoard() {
+        boardCanvas.setAnimate(!Boolean.getBoolean("connect4.gui.noAnimation"));
+        boardCanvas.setOnColumnSelected(this::submitMove); // Clicking a column plays it
+        return boardCanvas;
     }
 
     /**
@@ -125,19 +136,28 @@ public class Connect4GUI extends Application {
      * @return An HBox containing the input field and submit button.
      */
     private HBox createUserInputBox() {
-        inputField.setPromptText("Enter column (1-7)");
+        inputField.setPromptText("Enter column (1-" + boardCanvas.getColumns() + ")");
         inputField.setPrefWidth(100);
         submitButton.setOnAction(e -> {
             try {
                 int column = Integer.parseInt(inputField.getText());
                 submitMove(column);
             } catch (NumberFormatException ex) {
-                statusLabel.setText("Invalid input! Please enter a number (1-7).");
+                statusLabel.setText("Invalid input! Please enter a number (1-" + boardCanvas.getColumns() + ").");
             }
             inputField.clear();
         });
 
-        HBox inputBox = new HBox(10, inputField, submitButton);
+        analysisBox.setSelected(Boolean.getBoolean("connect4.gui.analysis"));
+        analysisBox.setOnAction(e -> {
+            if (analysisBox.isSelected()) {
+                startAnalysis();
+            } else {
+                stopAnalysis();
+            }
+        });
+
+        HBox inputBox = new HBox(10, inputField, submitButton, analysisBox, analysisLabel);
         inputBox.setStyle("-fx-padding: 10;");
         return inputBox;
     }
@@ -150,6 +170,7 @@ public class Connect4GUI extends Application {
     private void submitMove(int column) {
         if (isGameOver) return;
 
+        stopAnalysis(); // The position is about to change; leave the CPU to the move
         try {
             out.writeObject(column); // Send the move to the server
         } catch (IOException e) {
@@ -160,78 +181,14 @@ public class Connect4GUI extends Application {
 
 
     /**
-     * Listens for messages from the server in a separate thread.
+     * Listens for messages from the server in a separate thread. Messages are decoded here and
+     * handed to the pipeline, which applies them on the JavaFX thread once per frame.
      */
     private void listenToServer() {
         try {
             System.out.println("Listening for server messages...");
             while (true) {
-
-                    Object response = in.readObject();
-
-                    if (response instanceof String) {
-                        String message = (String) response;
-
-                        // Check if the message is a board state
-                        if (message.startsWith("[[") && message.endsWith("]]")) {
-                            // Convert the String back to a char[][]
-                            char[][] boardState = parseBoardState(message);
-
-                            Platform.runLater(() -> {
-                                updateBoard(boardState);
-                                statusLabel.setText("Board updated."); // Optional: Debugging message.
-                            });
-                        } else {
-                            // Handle other string messages (e.g., "Your turn", "You win", etc.)
-                            Platform.runLater(() -> {
-                                statusLabel.setText(message);
-                                if (message.equals("New game started")) {
-                                    resetGame();
-                                    Platform.runLater(() -> {
-                                        statusLabel.setText("Game restarted! Your turn.");
-                                        inputField.setDisable(false); // Re-enable input
-                                        submitButton.setDisable(false);
-                                    });
-                                } else if (message.contains("Invalid move")) {
-                                    Platform.runLater(() -> statusLabel.setText("Invalid move! Your turn."));
-
-                                } else if (message.contains("wins!") && !isGameOver) { // Increment only if !isGameOver
-                                    isGameOver = true; // Prevent further increments
-
-                                    Platform.runLater(() -> {
-                                        if (message.contains("Player X")) {
-                                            statusLabel.setText("Player X wins!");
-                                            player1Wins++;
-                                            player1WinsLabel.setText("Player 1 (X) Wins: " + player1Wins);
-                                        } else if (message.contains("Player O")) {
-                                            statusLabel.setText("Player O wins!");
-                                            player2Wins++;
-                                            player2WinsLabel.setText("Player 2 (O)/Computer Wins: " + player2Wins);
-                                        }
-                                        handleReplayPrompt(); // Prompt after incrementing
-                                    });
-                                } else if (message.contains("Game is a draw!") && !isGameOver) {
-                                    isGameOver = true;
-                                    Platform.runLater(() -> {
-                                        statusLabel.setText(message);
-                                        handleReplayPrompt();
-                                    });
-                                }
-                            });
-                        }
-                    } else if (response instanceof char[][]) {
-                        char[][] boardState = (char[][]) response;
-                        Platform.runLater(() -> {
-                            updateBoard(boardState);
-                            statusLabel.setText("Board updated."); // Optional: Debugging message.
-                        });
-                    } else {
-                        Platform.runLater(() -> {
-                            System.out.println("Unexpected message type received!");
-                            statusLabel.setText("Unexpected message type received!");
-                        });
-                    }
-
+                pipeline.publish(in.readObject());
             }
         } catch (EOFException e) {
             Platform.runLater(() -> showErrorAndExit("Server disconnected. Game ended."));
@@ -239,6 +196,102 @@ public class Connect4GUI extends Application {
             Platform.runLater(() -> showErrorAndExit("Connection lost: " + e.getMessage()));
         }
     }
+
+    /**
+     * Handles a text message from the server (e.g. "Your turn", "You win"). Runs on the JavaFX thread.
+     *
+     * @param message The message received from the server.
+     */
+    private void handleServerMessage(String message) {
+        statusLabel.setText(message);
+        if (message.equals("New game started")) {
+            resetGame();
+            statusLabel.setText("Game restarted! Your turn.");
+            inputField.setDisable(false); // Re-enable input
+            submitButton.setDisable(false);
+        } else if (message.contains("Invalid move")) {
+            statusLabel.setText("Invalid move! Your turn.");
+            startAnalysis();
+        } else if (message.contains("wins!") && !isGameOver) { // Increment only if !isGameOver
+            isGameOver = true; // Prevent further increments
+            stopAnalysis();
+            if (message.contains("Player X")) {
+                statusLabel.setText("Player X wins!");
+                player1Wins++;
+                player1WinsLabel.setText("Player 1 (X) Wins: " + player1Wins);
+            } else if (message.contains("Player O")) {
+                statusLabel.setText("Player O wins!");
+                player2Wins++;
+                player2WinsLabel.setText("Player 2 (O)/Computer Wins: " + player2Wins);
+            }
+            handleReplayPrompt(); // Prompt after incrementing
+        } else if (message.contains("Game is a draw!") && !isGameOver) {
+            isGameOver = true;
+            stopAnalysis();
+            handleReplayPrompt();
+        }
+    }
+
+    /**
+     * Handles a new board state from the server. Runs on the JavaFX thread.
+     *
+     * @param boardState The board state.
+     */
+    private void handleBoardUpdate(char[][] boardState) {
+        if (boardState.length != boardCanvas.getRows() || boardState[0].length != boardCanvas.getColumns()) {
+            // The server is playing a different board size than expected
+            boardCanvas.setDimensions(boardState.length, boardState[0].length);
+            inputField.setPromptText("Enter column (1-" + boardCanvas.getColumns() + ")");
+            stage.setWidth(boardCanvas.getWidth());
+            stage.setHeight(boardCanvas.getHeight() + 120);
+        }
+        boardCanvas.setHints(null, -1);
+        updateBoard(boardState);
+        lastBoard = boardState;
+        statusLabel.setText("Board updated."); // Optional: Debugging message.
+        startAnalysis();
+    }
+
+    /**
+     * Analyzes the latest board in the background if analysis mode is on, replacing any running
+     * analysis. Runs on the JavaFX thread and returns at once.
+     */
+    private void startAnalysis() {
+        if (!analysisBox.isSelected() || lastBoard == null || isGameOver) {
+            return;
+        }
+        if (analyzer == null) {
+            analyzer = new MoveAnalyzer(this::showAnalysis, Integer.getInteger("connect4.gui.analysisDepth", 20),
+                    Long.getLong("connect4.gui.analysisMillis", 10_000L));
+        }
+        boardCanvas.setHints(null, -1);
+        analysisLabel.setText("Analyzing...");
+        analyzer.analyze(variant, lastBoard);
+    }
+
+    /**
+     * Cancels the running analysis and removes its scores from the board.
+     */
+    private void stopAnalysis() {
+        if (analyzer != null) {
+            analyzer.stop();
+        }
+        boardCanvas.setHints(null, -1);
+        analysisLabel.setText("");
+    }
+
+    /**
+     * Shows the scores of a completed analysis depth. Runs on the JavaFX thread.
+     *
+     * @param labels     The score label of each column, null for full columns.
+     * @param bestColumn The best column (0-based).
+     * @param depth      The depth searched.
+     */
+    private void showAnalysis(String[] labels, int bestColumn, int depth) {
+        boardCanvas.setHints(labels, bestColumn);
+        analysisLabel.setText("Best: column " + (bestColumn + 1) + " (depth " + depth + ")");
+    }
+
     /**
      * Displays a prompt asking the user whether they want to replay or exit the game.
      */
@@ -285,84 +338,25 @@ public class Connect4GUI extends Application {
     }
 
     /**
-     * Resets the game state and UI.
+     * Resets the game state and UI. Must be called on the JavaFX thread.
      */
     private void resetGame() {
-        Platform.runLater(() -> {
-            for (int row = 0; row < ROWS; row++) {
-                for (int col = 0; col < COLUMNS; col++) {
-                    boardCells[row][col].setFill(Color.LIGHTGRAY);
-                }
-            }
-            statusLabel.setText("Waiting for server to start the new game...");
-            inputField.setDisable(true);
-            submitButton.setDisable(true);
-            isGameOver = false; // Allow input again
-        });
-    }
-
-    /**
-     * Parses a string representation of the board state into a 2D array.
-     *
-     * @param boardStateString The string representation of the board state.
-     * @return A 2D char array of the board state.
-     */
-    private char[][] parseBoardState(String boardStateString) {
-        // Remove the outer brackets and split into rows
-        String[] rows = boardStateString.substring(2, boardStateString.length() - 2).split("\\], \\[");
-        char[][] boardState = new char[ROWS][COLUMNS];
-
-        // Iterate through rows
-        for (int row = 0; row < ROWS; row++) {
-            if (row >= rows.length) {
-                // If fewer rows are provided, fill the remaining rows with empty cells (for safety).
-                Arrays.fill(boardState[row], ' ');
-                continue;
-            }
-
-            // Split each row into cells
-            String[] cells = rows[row].split(", ");
-            for (int col = 0; col < COLUMNS; col++) {
-                if (col >= cells.length) {
-                    // Missing cell data, assign default
-                    boardState[row][col] = ' ';
-                } else {
-                    // Handle cell content safely
-                    String cell = cells[col].trim();
-                    if ("X".equals(cell)) {
-                        boardState[row][col] = 'X';
-                    } else if ("O".equals(cell)) {
-                        boardState[row][col] = 'O';
-                    } else {
-                        boardState[row][col] = ' '; // Default to blank space
-                    }
-                }
-            }
-        }
-
-        return boardState;
+        stopAnalysis();
+        lastBoard = null;
+        boardCanvas.clear();
+        statusLabel.setText("Waiting for server to start the new game...");
+        inputField.setDisable(true);
+        submitButton.setDisable(true);
+        isGameOver = false; // Allow input again
     }
 
-
     /**
-     * Updates the UI board to reflect the current game state.
+     * Updates the UI board to reflect the current game state. Only cells that changed are redrawn.
      *
      * @param boardState A 2D array representing the board state.
      */
     private void updateBoard(char[][] boardState) {
-        for (int row = 0; row < ROWS; row++) {
-            for (int col = 0; col < COLUMNS; col++) {
-                char cellState = boardState[row][col];
-                Circle circle = boardCells[row][col];
-                if (cellState == 'X') {
-                    circle.setFill(Color.RED);
-                } else if (cellState == 'O') {
-                    circle.setFill(Color.YELLOW);
-                } else {
-                    circle.setFill(Color.LIGHTGRAY);
-                }
-            }
-        }
+        boardCanvas.setBoard(boardState);
     }
 
     /**
@@ -394,6 +388,9 @@ public class Connect4GUI extends Application {
      */
     @Override
     public void stop() {
+        if (analyzer != null) {
+            analyzer.shutdown();
+        }
         try {
             if (socket != null) socket.close();
             if (out != null) out.close();
@@ -2,7 +2,14 @@ package ui;
 
 import core.Connect4Logic;
 import core.Connect4ComputerPlayer;
+import core.Connect4Variant;
+import core.Difficulty;
+import core.NTupleNetwork;
 import javafx.application.Application;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.Scanner;
 
@@ -13,13 +20,29 @@ public class Connect4TextConsole {
     private Connect4Logic game;
     private Connect4ComputerPlayer computerPlayer;
     private boolean isComputer;
+    private final ConsoleRenderer renderer;
+    private String notice; // Shown below the board on the next render
 
     /**
-     * Constructor initializes the game logic.
+     * Constructor initializes the game logic. The board variant can be chosen with the
+     * connect4.variant system property (for example 8x7c5), the computer's level with
+     * connect4.difficulty, and the medium level's network with connect4.ai.networkFile.
      */
     public Connect4TextConsole() {
-        game = new Connect4Logic();
-        computerPlayer = new Connect4ComputerPlayer(game);
+        String variant = System.getProperty("connect4.variant");
+        game = new Connect4Logic(variant == null ? Connect4Variant.STANDARD : Connect4Variant.parse(variant));
+        NTupleNetwork network = null;
+        String networkFile = System.getProperty("connect4.ai.networkFile");
+        if (networkFile != null) {
+            try {
+                network = NTupleNetwork.load(Paths.get(networkFile));
+            } catch (IOException e) {
+                System.out.println("Could not load the network: " + e.getMessage());
+            }
+        }
+        computerPlayer = new Connect4ComputerPlayer(game,
+                Difficulty.parse(System.getProperty("connect4.difficulty"), Difficulty.EASY), network);
+        renderer = new ConsoleRenderer(System.out, ConsoleRenderer.detectMode());
     }
 
     /**
@@ -57,10 +80,10 @@ public class Connect4TextConsole {
             try {
                 if (game.getCurrentPlayer() == 'X' || !isComputer) {
                     // Human player's turn
-                    System.out.println("Player " + game.getCurrentPlayer() + " - your turn. Choose a column number from 1-7.");
+                    System.out.println("Player " + game.getCurrentPlayer() + " - your turn. Choose a column number from 1-" + game.getColumns() + ".");
                     if (scanner.hasNextInt()) {
                         column = scanner.nextInt();
-                        if (column < 1 || column > 7) {
+                        if (column < 1 || column > game.getColumns()) {
                             throw new IndexOutOfBoundsException();
                         }
                     } else {
@@ -69,14 +92,14 @@ public class Connect4TextConsole {
                 } else if (isComputer && game.getCurrentPlayer() == 'O') {
                     // Computer player's turn
                     column = computerPlayer.generateMove();
-                    System.out.println("Computer (Player O) chooses column " + column);
+                    notice = "Computer (Player O) chooses column " + column;
                 }
             } catch (InputMismatchException e) {
-                System.out.println("Invalid input! Please choose a column number from 1 to 7.");
+                notice = "Invalid input! Please choose a column number from 1 to " + game.getColumns() + ".";
                 scanner.next();
                 continue;
             } catch (IndexOutOfBoundsException e) {
-                System.out.println("Invalid column number! Please choose a column number from 1 to 7.");
+                notice = "Invalid column number! Please choose a column number from 1 to " + game.getColumns() + ".";
                 continue;
             }
 
@@ -87,7 +110,7 @@ public class Connect4TextConsole {
                     throw new IndexOutOfBoundsException();
                 }
             } catch (IndexOutOfBoundsException e) {
-                System.out.println("That column is full! Try a different column."); // Retry same turn
+                notice = "That column is full! Try a different column."; // Retry same turn
                 continue;
             }
 
@@ -115,24 +138,29 @@ public class Connect4TextConsole {
 
 
     /**
-     * Prints the current state of the game board.
+     * Prints the current state of the game board, followed by any pending notice, as one frame.
      */
     private void printBoard() {
-        char[][] board = game.getBoard();
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[i].length; j++) {
-                System.out.print("|" + board[i][j]);
-            }
-            System.out.println("|");
-        }
+        renderer.render(game.getBoard(), notice);
+        notice = null;
     }
 
     /**
      * Main method to start the game.
      *
-     * @param args Command-line arguments (not used).
+     * @param args Command-line arguments. "--batch [file]" plays the games in the file (or standard
+     *             input) without interaction, see Connect4BatchRunner.
      */
     public static void main(String[] args) throws InputMismatchException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            try {
+                Connect4BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.err.println("Batch mode failed: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
         boolean validSelection = false;
         while (!validSelection) {
             Scanner scanner = new Scanner(System.in);
@@ -0,0 +1,113 @@
+package ui;
+
+import java.io.PrintStream;
+
+/**
+ * ConsoleRenderer draws the board for the text console. Each frame is built in a reused buffer and
+ * written with a single print and flush, which matters over slow remote terminals.
+ *
+ * In ANSI mode the cursor is moved back to the top of the screen and the board is redrawn in place
+ * instead of scrolling; in PLAIN mode (dumb terminals, redirected output) frames are printed one
+ * after another.
+ */
+public class ConsoleRenderer {
+    /**
+     * How frames are written to the terminal.
+     */
+    public enum Mode {
+        ANSI,
+        PLAIN
+    }
+
+    private static final String ESC = "\u001b[";
+    private static final String HOME = ESC + "H";
+    private static final String CLEAR_SCREEN = ESC + "2J";
+    private static final String CLEAR_LINE = ESC + "K";
+    private static final String CLEAR_BELOW = ESC + "J";
+
+    private final PrintStream out;
+    private final Mode mode;
+    private final StringBuilder frame = new StringBuilder(512);
+    private boolean firstFrame = true;
+
+    /**
+     * Creates a renderer writing to the given stream.
+     *
+     * @param out  The stream to write frames to.
+     * @param mode The rendering mode.
+     */
+    public ConsoleRenderer(PrintStream out, Mode mode) {
+        this.out = out;
+        this.mode = mode;
+    }
+
+    /**
+     * Picks the rendering mode for standard output. The connect4.console.render system property
+     * ("ansi" or "plain") overrides the detection, which uses ANSI only on an interactive terminal
+     * that is not declared dumb.
+     *
+     * @return The detected mode.
+     */
+    public static Mode detectMode() {
+        String override = System.getProperty("connect4.console.render");
+        if (override != null) {
+            return override.equalsIgnoreCase("ansi") ? Mode.ANSI : Mode.PLAIN;
+        }
+        String term = System.getenv("TERM");
+        if (System.console() == null || term == null || term.equals("dumb")) {
+            return Mode.PLAIN;
+        }
+        return Mode.ANSI;
+    }
+
+    /**
+     * Returns the rendering mode.
+     *
+     * @return The mode.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Draws the board followed by an optional notice line.
+     *
+     * @param board  The board to draw (row 0 is the top row).
+     * @param notice A message shown below the board, or null.
+     */
+    public void render(char[][] board, String notice) {
+        frame.setLength(0);
+        boolean ansi = mode == Mode.ANSI;
+        if (ansi) {
+            if (firstFrame) {
+                frame.append(CLEAR_SCREEN);
+                firstFrame = false;
+            }
+            frame.append(HOME);
+        }
+
+        for (char[] row : board) {
+            for (char cell : row) {
+                frame.append('|').append(cell);
+            }
+            frame.append('|');
+            if (ansi) {
+                frame.append(CLEAR_LINE);
+            }
+            frame.append('\n');
+        }
+        if (notice != null) {
+            frame.append(notice);
+            if (ansi) {
+                frame.append(CLEAR_LINE);
+            }
+            frame.append('\n');
+        }
+        if (ansi) {
+            frame.append(CLEAR_BELOW); // Remove what was left of the previous turn
+        }
+
+        out.print(frame);
+        out.flush();
+    }
+}
@@ -0,0 +1,203 @@
+package ui;
+
+import core.BatchAnalyzer;
+import core.Connect4Search;
+import core.Connect4Variant;
+import core.SearchEngine;
+import core.TranspositionTable;
+import javafx.application.Platform;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MoveAnalyzer scores every column of the position shown by the GUI on a background thread, for the
+ * hint overlay. Each new position cancels the running search, which stops within about a thousand
+ * nodes (well under a millisecond), and the analysis restarts from the new position. Results are
+ * delivered on the JavaFX thread after every completed depth, so the hints sharpen while the player
+ * thinks, and results for a position that has since been replaced are dropped.
+ *
+ * The analysis works on its own copy of the board with its own transposition table, so it never
+ * holds up the JavaFX thread or the moves sent to the server. Boards that do not fit in 64 bits are
+ * not analyzed.
+ */
+public class MoveAnalyzer {
+    private static final int TABLE_SLOTS = 1 << 20;
+
+    /**
+     * Receives analysis results on the JavaFX thread.
+     */
+    public interface Listener {
+        /**
+         * Called after each completed depth of the analysis of the latest position.
+         *
+         * @param labels     A short label per column describing its score, or null for columns that
+         *                   cannot be played.
+         * @param bestColumn The best column (0-based).
+         * @param depth      The depth searched, in plies.
+         */
+        void onAnalysis(String[] labels, int bestColumn, int depth);
+    }
+
+    private final Listener listener;
+    private final int maxDepth;
+    private final long timeLimitNanos;
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+    private final Thread worker;
+    private volatile long generation;
+    private volatile Connect4Search search; // Replaced by the worker when the variant changes
+    private volatile boolean running = true;
+
+    /**
+     * Creates an analyzer and starts its thread.
+     *
+     * @param listener        The listener called with results.
+     * @param maxDepth        The deepest search, in plies.
+     * @param timeLimitMillis How long one position is analyzed at most.
+     */
+    public MoveAnalyzer(Listener listener, int maxDepth, long timeLimitMillis) {
+        this.listener = listener;
+        this.maxDepth = maxDepth;
+        this.timeLimitNanos = timeLimitMillis * 1_000_000L;
+        this.worker = new Thread(this::work, "move-analyzer");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * Starts analyzing a position, cancelling the analysis of the previous one. Returns at once.
+     *
+     * @param variant The board variant; its connect length is used.
+     * @param board   The board (row 0 is the top row); copied, so the caller may keep changing it.
+     */
+    public void analyze(Connect4Variant variant, char[][] board) {
+        char[][] copy = new char[board.length][];
+        for (int row = 0; row < board.length; row++) {
+            copy[row] = board[row].clone();
+        }
+        Connect4Variant actual = new Connect4Variant(board.length, board[0].length, variant.getConnectLength());
+        pending.set(new Request(actual, copy, ++generation));
+        cancelRunning();
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Cancels the running analysis; results not yet delivered are dropped.
+     */
+    public void stop() {
+        generation++;
+        pending.set(null);
+        cancelRunning();
+    }
+
+    /**
+     * Stops the analyzer's thread.
+     */
+    public void shutdown() {
+        running = false;
+        stop();
+        LockSupport.unpark(worker);
+    }
+
+    private void cancelRunning() {
+        Connect4Search current = search;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Worker loop: takes the latest position and deepens its analysis until it is done or replaced.
+     */
+    private void work() {
+        Connect4Variant searchVariant = null;
+        while (running) {
+            Connect4Search current = search;
+            if (current != null) {
+                // Reset before taking the request, so a cancel for a newer request is never lost
+                current.resetCancel();
+            }
+            Request request = pending.getAndSet(null);
+            if (request == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            if (!request.variant.fitsInLong()) {
+                continue;
+            }
+            if (!request.variant.equals(searchVariant)) {
+                searchVariant = request.variant;
+                current = new Connect4Search(searchVariant, new TranspositionTable(TABLE_SLOTS));
+                search = current;
+                if (pending.get() != null) {
+                    continue; // Replaced while the old search was still the one being cancelled
+                }
+            }
+            analyze(current, request);
+        }
+    }
+
+    /**
+     * Analyzes one position with iterative deepening.
+     */
+    private void analyze(Connect4Search current, Request request) {
+        int pieces = 0;
+        int columns = request.board[0].length;
+        for (char[] row : request.board) {
+            for (char cell : row) {
+                if (cell != ' ') {
+                    pieces++;
+                }
+            }
+        }
+        char toMove = pieces % 2 == 0 ? 'X' : 'O';
+        Connect4Search.Position position = Connect4Search.Position.of(request.variant, request.board, toMove);
+        int remaining = request.board.length * columns - pieces;
+        long deadline = System.nanoTime() + timeLimitNanos;
+        int[] scores = new int[columns];
+        for (int depth = 1; depth <= Math.min(maxDepth, remaining); depth++) {
+            if (!current.scoreMoves(position, depth, deadline, scores) || request.generation != generation) {
+                return;
+            }
+            String[] labels = new String[columns];
+            int best = -1;
+            for (int col = 0; col < columns; col++) {
+                if (scores[col] != Integer.MIN_VALUE) {
+                    labels[col] = BatchAnalyzer.label(scores[col], pieces);
+                    if (best < 0 || scores[col] > scores[best]) {
+                        best = col;
+                    }
+                }
+            }
+            if (best < 0) {
+                return; // Game over
+            }
+            int bestColumn = best;
+            int completed = depth;
+            Platform.runLater(() -> {
+                if (request.generation == generation) {
+                    listener.onAnalysis(labels, bestColumn, completed);
+                }
+            });
+            if (Math.abs(scores[best]) > SearchEngine.WIN_SCORE - request.board.length * columns) {
+                return; // The best move is a proven win or every move loses
+            }
+        }
+    }
+
+    /**
+     * A position waiting to be analyzed.
+     */
+    private static final class Request {
+        final Connect4Variant variant;
+        final char[][] board;
+        final long generation;
+
+        Request(Connect4Variant variant, char[][] board, long generation) {
+            this.variant = variant;
+            this.board = board;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ui;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ServerMessagePipeline moves server messages from the network thread to the JavaFX thread.
+ * Messages are decoded on the network thread and queued; the JavaFX thread drains the whole queue
+ * once per frame from an AnimationTimer. Within a batch, only the latest board state is applied,
+ * since it already contains every earlier move.
+ *
+ * The timer only runs while there is something to drain, so an idle client schedules no frames.
+ */
+public class ServerMessagePipeline {
+    /**
+     * Receives decoded messages on the JavaFX thread.
+     */
+    public interface Listener {
+        /**
+         * Called with a new board state.
+         *
+         * @param boardState The board state (row 0 is the top row).
+         */
+        void onBoard(char[][] boardState);
+
+        /**
+         * Called with a text message from the server.
+         *
+         * @param message The message.
+         */
+        void onText(String message);
+    }
+
+    private final Listener listener;
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final List<Object> batch = new ArrayList<>();
+    private long collapsed;
+
+    private final AnimationTimer drainer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+
+    /**
+     * Creates a pipeline delivering to the given listener.
+     *
+     * @param listener The listener called on the JavaFX thread.
+     */
+    public ServerMessagePipeline(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Decodes a message read from the server and queues it for the JavaFX thread. Called from the
+     * network thread.
+     *
+     * @param response The object read from the server.
+     */
+    public void publish(Object response) {
+        if (response instanceof String) {
+            String message = (String) response;
+            if (message.startsWith("[[") && message.endsWith("]]")) {
+                queue.add(parseBoardState(message));
+            } else {
+                queue.add(message);
+            }
+        } else if (response instanceof char[][]) {
+            queue.add(response);
+        } else {
+            System.out.println("Unexpected message type received!");
+            queue.add("Unexpected message type received!");
+        }
+
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(drainer::start);
+        }
+    }
+
+    /**
+     * Returns the number of board updates skipped because a newer one arrived in the same frame.
+     *
+     * @return The collapsed update count.
+     */
+    public long getCollapsedCount() {
+        return collapsed;
+    }
+
+    /**
+     * Delivers everything queued since the last frame. Runs on the JavaFX thread.
+     */
+    private void drain() {
+        Object item;
+        while ((item = queue.poll()) != null) {
+            batch.add(item);
+        }
+
+        int lastBoard = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i) instanceof char[][]) {
+                if (lastBoard >= 0) {
+                    collapsed++;
+                }
+                lastBoard = i;
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Object message = batch.get(i);
+            if (message instanceof String) {
+                listener.onText((String) message);
+            } else if (i == lastBoard) {
+                listener.onBoard((char[][]) message);
+            }
+        }
+        batch.clear();
+
+        if (queue.isEmpty()) {
+            drainer.stop();
+            scheduled.set(false);
+            // A message may have arrived after the queue was checked
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                drainer.start();
+            }
+        }
+    }
+
+    /**
+     * Parses the string form of a board (as produced by Arrays.deepToString) without regular
+     * expressions. The board size is taken from the string, so boards of any variant can be read.
+     * Missing cells are left empty.
+     *
+     * @param boardStateString The string representation of the board state.
+     * @return A 2D char array of the board state.
+     */
+    static char[][] parseBoardState(String boardStateString) {
+        int rows = 0;
+        int columns = 1;
+        for (int i = 1; i < boardStateString.length(); i++) {
+            char c = boardStateString.charAt(i);
+            if (c == '[') {
+                rows++;
+            } else if (c == ',' && rows == 1 && boardStateString.charAt(i - 1) != ']') {
+                columns++; // Separators inside the first row
+            }
+        }
+        char[][] boardState = new char[rows][columns];
+        for (char[] row : boardState) {
+            java.util.Arrays.fill(row, ' ');
+        }
+
+        int length = boardStateString.length();
+        int pos = 1; // The '[' opening the first row
+        int row = 0;
+        while (pos < length && boardStateString.charAt(pos) == '[') {
+            pos++;
+            int col = 0;
+            while (pos < length) {
+                char cell = boardStateString.charAt(pos++);
+                if (row < rows && col < columns && (cell == 'X' || cell == 'O')) {
+                    boardState[row][col] = cell;
+                }
+                col++;
+                if (pos >= length || boardStateString.charAt(pos) == ']') {
+                    pos++;
+                    break;
+                }
+                pos += 2; // Skip ", "
+            }
+            row++;
+            if (pos < length && boardStateString.charAt(pos) == ',') {
+                pos += 2; // Skip ", " between rows
+            } else {
+                break;
+            }
+        }
+        return boardState;
+    }
+}